@@ -51,13 +51,12 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import javax.swing.AbstractAction;
@@ -99,6 +98,7 @@ public class CollectServer implements SerialConnectionListener {
 
   public static final String CONFIG_FILE = "collect.conf";
   public static final String SENSORDATA_FILE = "sensordata.log";
+  public static final String SENSORDATA_INDEX_FILE = "sensordata.bin";
   public static final String CONFIG_DATA_FILE = "collect-data.conf";
   public static final String INIT_SCRIPT = "collect-init.script";
   public static final String FIRMWARE_FILE = "collect-view-shell.ihex";
@@ -115,8 +115,9 @@ public class CollectServer implements SerialConnectionListener {
   private Properties configTable = new Properties();
 
   private ArrayList<SensorData> sensorDataList = new ArrayList<SensorData>();
-  private PrintWriter sensorDataOutput;
+  private SensorDataLog sensorDataLog;
   private boolean isSensorLogUsed;
+  private boolean isSensorIndexUsed;
 
   private Hashtable<String,Node> nodeTable = new Hashtable<String,Node>();
   private Node[] nodeCache;
@@ -837,10 +838,7 @@ public class CollectServer implements SerialConnectionListener {
     if (serialConnection != null) {
       serialConnection.close();
     }
-    PrintWriter output = this.sensorDataOutput;
-    if (output != null) {
-      output.close();
-    }
+    getSensorDataLog().close();
     window.setVisible(false);
   }
 
@@ -848,6 +846,10 @@ public class CollectServer implements SerialConnectionListener {
     this.isSensorLogUsed = useSensorLog;
   }
 
+  public void setUseSensorDataIndex(boolean useSensorIndex) {
+    this.isSensorIndexUsed = useSensorIndex;
+  }
+
   public void setExitOnRequest(boolean doExit) {
     this.doExitOnRequest = doExit;
     if (exitItem != null) {
@@ -1198,59 +1200,54 @@ public class CollectServer implements SerialConnectionListener {
     }
   }
 
+  private synchronized SensorDataLog getSensorDataLog() {
+    if (sensorDataLog == null) {
+      sensorDataLog = new SensorDataLog(new File(SENSORDATA_FILE),
+          isSensorIndexUsed ? new File(SENSORDATA_INDEX_FILE) : null);
+    }
+    return sensorDataLog;
+  }
+
   private void initSensorData() {
-    loadSensorData(SENSORDATA_FILE, true);
+    SensorDataLog log = getSensorDataLog();
+    try {
+      addLoadedSensorData(log.load(this, true));
+    } catch (IOException e) {
+      System.err.println("Failed to read sensor data log from " + log.getLogFile().getAbsolutePath());
+      e.printStackTrace();
+    }
   }
 
   private boolean loadSensorData(String filename, boolean isStrict) {
     File fp = new File(filename);
     if (fp.exists() && fp.canRead()) {
-      BufferedReader in = null;
+      ArrayList<SensorData> list = new ArrayList<SensorData>();
       try {
-        in = new BufferedReader(new FileReader(fp));
-        String line;
-        int no = 0;
-        while ((line = in.readLine()) != null) {
-          no++;
-          if (line.length() == 0 || line.charAt(0) == '#') {
-            // Ignore empty lines and comments
-          } else {
-            SensorData data = SensorData.parseSensorData(this, line);
-            if (data != null) {
-              if (data.getNode().addSensorData(data)) {
-                updateNodeTime(data);
-                sensorDataList.add(data);
-                handleLinks(data);
-              }
-            } else if (isStrict) {
-              // TODO exit here?
-              System.err.println("Failed to parse sensor data from log line " + no + ": " + line);
-            }
-          }
-        }
-        in.close();
+        SensorDataLog.readLog(this, fp, 0, isStrict, list, null);
       } catch (IOException e) {
         System.err.println("Failed to read sensor data log from " + fp.getAbsolutePath());
         e.printStackTrace();
         return false;
+      } finally {
+        addLoadedSensorData(list);
       }
     }
     return true;
   }
 
-  private void saveSensorData(SensorData data) {
-    PrintWriter output = this.sensorDataOutput;
-    if (output == null && isSensorLogUsed) {
-      try {
-        output = sensorDataOutput = new PrintWriter(new FileWriter(SENSORDATA_FILE, true));
-      } catch (IOException e) {
-        System.err.println("Failed to add sensor data to log '" + SENSORDATA_FILE + '\'');
-        e.printStackTrace();
+  private void addLoadedSensorData(List<SensorData> list) {
+    for (SensorData data : list) {
+      if (data.getNode().addSensorData(data)) {
+        updateNodeTime(data);
+        sensorDataList.add(data);
+        handleLinks(data);
       }
     }
-    if (output != null) {
-      output.println(data.toString());
-      output.flush();
+  }
+
+  private void saveSensorData(SensorData data) {
+    if (isSensorLogUsed) {
+      getSensorDataLog().add(data);
     }
   }
 
@@ -1287,13 +1284,8 @@ public class CollectServer implements SerialConnectionListener {
   }
 
   private void clearSensorDataLog() {
-    PrintWriter output = this.sensorDataOutput;
-    if (output != null) {
-      output.close();
-    }
     // Remove the sensor data log
-    new File(SENSORDATA_FILE).delete();
-    this.sensorDataOutput = null;
+    getSensorDataLog().delete();
   }
 
   protected class ConnectSerialAction extends AbstractAction implements Runnable {
@@ -1473,6 +1465,7 @@ public class CollectServer implements SerialConnectionListener {
   public static void main(String[] args) {
     boolean resetSensorLog = false;
     boolean useSensorLog = true;
+    boolean useSensorIndex = false;
     boolean useSerialOutput = true;
     String host = null;
     String command = null;
@@ -1515,6 +1508,9 @@ public class CollectServer implements SerialConnectionListener {
         case 'n':
           useSensorLog = false;
           break;
+        case 'b':
+          useSensorIndex = true;
+          break;
         case 'i':
           useSerialOutput = false;
           break;
@@ -1565,6 +1561,7 @@ public class CollectServer implements SerialConnectionListener {
     }
 
     server.isSensorLogUsed = useSensorLog;
+    server.isSensorIndexUsed = useSensorIndex;
     if (useSensorLog && resetSensorLog) {
       server.clearSensorDataLog();
     }
@@ -1578,8 +1575,9 @@ public class CollectServer implements SerialConnectionListener {
     if (arg != null) {
       System.err.println("Unknown argument '" + arg + '\'');
     }
-    System.err.println("Usage: java CollectServer [-n] [-i] [-r] [-f [file]] [-a host:port] [-p port] [-c command] [COMPORT]");
+    System.err.println("Usage: java CollectServer [-n] [-b] [-i] [-r] [-f [file]] [-a host:port] [-p port] [-c command] [COMPORT]");
     System.err.println("       -n : Do not read or save sensor data log");
+    System.err.println("       -b : Keep a binary index of the sensor data log for fast startup");
     System.err.println("       -r : Clear any existing sensor data log at startup");
     System.err.println("       -i : Do not allow serial output");
     System.err.println("       -f : Read serial data from standard in");
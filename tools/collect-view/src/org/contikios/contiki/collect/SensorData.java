@@ -117,7 +117,10 @@ public class SensorData implements SensorInfo {
   }
 
   public static SensorData parseSensorData(CollectServer server, String line, long systemTime) {
-    String[] components = line.trim().split("[ \t]+");
+    String[] components = splitFields(line);
+    if (components.length == 0) {
+      return null;
+    }
     // Check if COOJA log
     if (components.length == VALUES_COUNT + 2 && components[1].startsWith("ID:")) {
       if (!components[2].equals("" + VALUES_COUNT)) {
@@ -154,6 +157,37 @@ public class SensorData implements SensorInfo {
     return new SensorData(node, data, systemTime);
   }
 
+  /**
+   * Splits a line into whitespace separated fields. Same result as
+   * line.trim().split("[ \t]+") for sensor data lines, but without the
+   * regular expression.
+   */
+  private static String[] splitFields(String line) {
+    int len = line.length();
+    int count = 0;
+    for (int i = 0; i < len; i++) {
+      if (!isSeparator(line.charAt(i)) && (i == 0 || isSeparator(line.charAt(i - 1)))) {
+        count++;
+      }
+    }
+    String[] fields = new String[count];
+    int n = 0;
+    for (int i = 0; i < len; i++) {
+      if (!isSeparator(line.charAt(i))) {
+        int start = i;
+        while (i < len && !isSeparator(line.charAt(i))) {
+          i++;
+        }
+        fields[n++] = line.substring(start, i);
+      }
+    }
+    return fields;
+  }
+
+  private static boolean isSeparator(char c) {
+    return c <= ' ';
+  }
+
   public static String mapNodeID(int nodeID) {
     return "" + (nodeID & 0xff) + '.' + ((nodeID >> 8) & 0xff);
   }
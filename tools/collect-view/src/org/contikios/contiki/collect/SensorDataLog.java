@@ -0,0 +1,498 @@
+/*
+ * Copyright (c) 2013, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+
+package org.contikios.contiki.collect;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Sensor data log with group commit and an optional binary index file.
+ *
+ * Sensor data lines are appended to the text log through a buffer that is
+ * flushed when FLUSH_LINES lines are pending, or at least every
+ * FLUSH_INTERVAL ms.
+ *
+ * When an index file is used, each flushed group is also appended to the
+ * index as one block. A block stores the group column by column (system
+ * time, then each sensor value as 16 or 32 bit integers), together with the
+ * node ID and time range of the block and the size of the text log after
+ * the group. At startup the index is memory mapped and decoded without
+ * parsing any text. Only text log lines after the last indexed group are
+ * parsed, and then added to the index. An index that does not match the
+ * text log is rebuilt from the text log.
+ */
+public class SensorDataLog {
+
+  public static final int FLUSH_LINES = 256;
+  public static final long FLUSH_INTERVAL = 2000;
+
+  private static final int INDEX_MAGIC = 0x43565344; /* "CVSD" */
+  private static final int INDEX_VERSION = 1;
+  private static final int INDEX_HEADER_SIZE = 12;
+  private static final int BLOCK_MAGIC = 0x424c4b31; /* "BLK1" */
+  /* magic, count, data size, log end, min/max time, min/max node ID */
+  private static final int BLOCK_HEADER_SIZE = 4 + 4 + 4 + 8 + 8 + 8 + 4 + 4;
+  private static final int MAX_BLOCK_RECORDS = 4096;
+  private static final int MAP_SIZE = 64 * 1024 * 1024;
+
+  private static final byte[] LINE_SEPARATOR = System.getProperty("line.separator", "\n").getBytes();
+
+  private final File logFile;
+  private final File indexFile;
+
+  private OutputStream logOutput;
+  private long logSize;
+  private RandomAccessFile indexOutput;
+  private long indexSize;
+  private boolean isIndexChecked;
+
+  private final ArrayList<SensorData> pending = new ArrayList<SensorData>();
+  private Timer flushTimer;
+
+  /**
+   * @param logFile   the sensor data text log
+   * @param indexFile the binary index file, or <code>null</code> to only use
+   *                  the text log
+   */
+  public SensorDataLog(File logFile, File indexFile) {
+    this.logFile = logFile;
+    this.indexFile = indexFile;
+  }
+
+  public File getLogFile() {
+    return logFile;
+  }
+
+  public File getIndexFile() {
+    return indexFile;
+  }
+
+  // -------------------------------------------------------------------
+  // Loading
+  // -------------------------------------------------------------------
+
+  /**
+   * Loads all sensor data in the log. Should be called before any new
+   * sensor data is added. Brings the index up to date with the text log.
+   */
+  public synchronized List<SensorData> load(CollectServer server, boolean isStrict)
+    throws IOException {
+    ArrayList<SensorData> list = new ArrayList<SensorData>();
+    if (!logFile.exists()) {
+      return list;
+    }
+    long logLength = logFile.length();
+    long indexedLogSize = 0;
+    if (indexFile != null && indexFile.exists()) {
+      try {
+        indexedLogSize = readIndex(server, logLength, list);
+      } catch (IOException e) {
+        System.err.println("Failed to read sensor data index '" + indexFile + "': " + e.getMessage());
+        indexedLogSize = -1;
+      }
+      if (indexedLogSize < 0) {
+        System.err.println("Sensor data index '" + indexFile + "' does not match log, rebuilding index");
+        list.clear();
+        indexedLogSize = 0;
+        indexSize = 0;
+      }
+      isIndexChecked = true;
+    }
+
+    ArrayList<Long> lineEnds = indexFile != null ? new ArrayList<Long>() : null;
+    int indexed = list.size();
+    readLog(server, logFile, indexedLogSize, isStrict, list, lineEnds);
+
+    if (indexFile != null) {
+      openIndex();
+      /* Index any sensor data not already in the index */
+      for (int i = indexed, n = list.size(); i < n; i += MAX_BLOCK_RECORDS) {
+        int end = Math.min(n, i + MAX_BLOCK_RECORDS);
+        writeBlock(list.subList(i, end), lineEnds.get(end - indexed - 1));
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Parses sensor data from a text log.
+   *
+   * @param offset   the file position to start parsing at
+   * @param list     list to add the sensor data to
+   * @param lineEnds list to add the file position after each sensor data
+   *                 line to, or <code>null</code>
+   */
+  public static void readLog(CollectServer server, File file, long offset, boolean isStrict,
+      List<SensorData> list, List<Long> lineEnds) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+    try {
+      long pos = offset;
+      if (in.skip(offset) != offset) {
+        return;
+      }
+      byte[] buffer = new byte[256];
+      int no = 0;
+      int c = 0;
+      while (c >= 0) {
+        int len = 0;
+        while ((c = in.read()) >= 0 && c != '\n') {
+          if (len == buffer.length) {
+            byte[] tmp = new byte[len * 2];
+            System.arraycopy(buffer, 0, tmp, 0, len);
+            buffer = tmp;
+          }
+          buffer[len++] = (byte) c;
+          pos++;
+        }
+        if (c < 0 && len == 0) {
+          break;
+        }
+        if (c >= 0) {
+          pos++;
+        }
+        no++;
+        if (len > 0 && buffer[len - 1] == '\r') {
+          len--;
+        }
+        if (len == 0 || buffer[0] == '#') {
+          // Ignore empty lines and comments
+          continue;
+        }
+        String line = new String(buffer, 0, len, "ISO-8859-1");
+        SensorData data = SensorData.parseSensorData(server, line);
+        if (data != null) {
+          list.add(data);
+          if (lineEnds != null) {
+            lineEnds.add(pos);
+          }
+        } else if (isStrict) {
+          System.err.println("Failed to parse sensor data from log line " + no + ": " + line);
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Reads all complete index blocks that are covered by the text log.
+   *
+   * @return the text log size covered by the index, or -1 if the index does
+   *         not match the text log
+   */
+  private long readIndex(CollectServer server, long logLength, List<SensorData> list)
+    throws IOException {
+    RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      long fileSize = channel.size();
+      if (fileSize < INDEX_HEADER_SIZE) {
+        return -1;
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          Math.min(fileSize, MAP_SIZE));
+      if (buffer.getInt(0) != INDEX_MAGIC || buffer.getInt(4) != INDEX_VERSION
+          || buffer.getInt(8) != SensorData.VALUES_COUNT) {
+        return -1;
+      }
+
+      long bufferStart = 0;
+      long pos = INDEX_HEADER_SIZE;
+      long logEnd = 0;
+      while (pos + BLOCK_HEADER_SIZE <= fileSize) {
+        if (pos + BLOCK_HEADER_SIZE > bufferStart + buffer.capacity()) {
+          bufferStart = pos;
+          buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+              Math.min(fileSize - pos, MAP_SIZE));
+        }
+        int offset = (int) (pos - bufferStart);
+        int count = buffer.getInt(offset + 4);
+        int dataSize = buffer.getInt(offset + 8);
+        long blockLogEnd = buffer.getLong(offset + 12);
+        if (buffer.getInt(offset) != BLOCK_MAGIC || count <= 0 || dataSize <= 0
+            || pos + BLOCK_HEADER_SIZE + dataSize > fileSize) {
+          // Incomplete block
+          break;
+        }
+        if (blockLogEnd > logLength) {
+          // The text log has been truncated or replaced
+          return -1;
+        }
+        if (pos + BLOCK_HEADER_SIZE + dataSize > bufferStart + buffer.capacity()) {
+          bufferStart = pos;
+          buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+              Math.min(fileSize - pos, Math.max(MAP_SIZE, BLOCK_HEADER_SIZE + dataSize)));
+          offset = 0;
+        }
+        decodeBlock(server, buffer, offset + BLOCK_HEADER_SIZE, count, list);
+        pos += BLOCK_HEADER_SIZE + dataSize;
+        logEnd = blockLogEnd;
+      }
+      indexSize = pos;
+
+      if (!list.isEmpty() && !isLastLine(list.get(list.size() - 1), logEnd)) {
+        return -1;
+      }
+      return logEnd;
+    } finally {
+      file.close();
+    }
+  }
+
+  private void decodeBlock(CollectServer server, ByteBuffer buffer, int offset, int count,
+      List<SensorData> list) {
+    long[] times = new long[count];
+    for (int i = 0; i < count; i++, offset += 8) {
+      times[i] = buffer.getLong(offset);
+    }
+    int[][] values = new int[count][SensorData.VALUES_COUNT];
+    for (int v = 0; v < SensorData.VALUES_COUNT; v++) {
+      int width = buffer.get(offset++);
+      if (width == 2) {
+        for (int i = 0; i < count; i++, offset += 2) {
+          values[i][v] = buffer.getShort(offset);
+        }
+      } else {
+        for (int i = 0; i < count; i++, offset += 4) {
+          values[i][v] = buffer.getInt(offset);
+        }
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      Node node = server.addNode(SensorData.mapNodeID(values[i][SensorData.NODE_ID]));
+      list.add(new SensorData(node, values[i], times[i]));
+    }
+  }
+
+  /**
+   * Checks that the text log line ending at the specified position is the
+   * specified sensor data.
+   */
+  private boolean isLastLine(SensorData data, long lineEnd) throws IOException {
+    byte[] expected = data.toString().getBytes("ISO-8859-1");
+    long start = lineEnd - LINE_SEPARATOR.length - expected.length;
+    if (start < 0) {
+      return false;
+    }
+    byte[] line = new byte[expected.length];
+    RandomAccessFile file = new RandomAccessFile(logFile, "r");
+    try {
+      file.seek(start);
+      file.readFully(line);
+    } finally {
+      file.close();
+    }
+    return Arrays.equals(expected, line);
+  }
+
+  // -------------------------------------------------------------------
+  // Saving
+  // -------------------------------------------------------------------
+
+  /**
+   * Adds sensor data to the log. The data is written when the current group
+   * is committed.
+   */
+  public synchronized void add(SensorData data) {
+    try {
+      if (logOutput == null) {
+        open();
+      }
+      byte[] line = data.toString().getBytes("ISO-8859-1");
+      logOutput.write(line);
+      logOutput.write(LINE_SEPARATOR);
+      logSize += line.length + LINE_SEPARATOR.length;
+      pending.add(data);
+      if (pending.size() >= FLUSH_LINES) {
+        flush();
+      }
+    } catch (IOException e) {
+      System.err.println("Failed to add sensor data to log '" + logFile + '\'');
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Commits the current group to the text log and the index.
+   */
+  public synchronized void flush() {
+    if (logOutput == null) {
+      return;
+    }
+    try {
+      logOutput.flush();
+      if (indexOutput != null && !pending.isEmpty()) {
+        writeBlock(pending, logSize);
+      }
+    } catch (IOException e) {
+      System.err.println("Failed to write sensor data log '" + logFile + '\'');
+      e.printStackTrace();
+    }
+    pending.clear();
+  }
+
+  public synchronized void close() {
+    flush();
+    if (flushTimer != null) {
+      flushTimer.cancel();
+      flushTimer = null;
+    }
+    try {
+      if (logOutput != null) {
+        logOutput.close();
+      }
+      if (indexOutput != null) {
+        indexOutput.close();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    logOutput = null;
+    indexOutput = null;
+  }
+
+  /**
+   * Closes and removes the text log and the index.
+   */
+  public synchronized void delete() {
+    close();
+    logFile.delete();
+    if (indexFile != null) {
+      indexFile.delete();
+    }
+    pending.clear();
+    logSize = 0;
+    indexSize = 0;
+    isIndexChecked = false;
+  }
+
+  private void open() throws IOException {
+    logOutput = new BufferedOutputStream(new FileOutputStream(logFile, true), 64 * 1024);
+    logSize = logFile.length();
+    if (indexFile != null) {
+      if (!isIndexChecked) {
+        /* The log has not been loaded: only keep an index of an empty log */
+        if (logSize > 0) {
+          System.err.println("Sensor data log not loaded, not using index '" + indexFile + '\'');
+        } else {
+          indexFile.delete();
+          openIndex();
+        }
+      } else {
+        openIndex();
+      }
+    }
+    flushTimer = new Timer("sensor data log", true);
+    flushTimer.schedule(new TimerTask() {
+      public void run() {
+        flush();
+      }
+    }, FLUSH_INTERVAL, FLUSH_INTERVAL);
+  }
+
+  private void openIndex() throws IOException {
+    if (indexOutput != null) {
+      return;
+    }
+    indexOutput = new RandomAccessFile(indexFile, "rw");
+    if (indexSize < INDEX_HEADER_SIZE) {
+      ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+      header.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putInt(SensorData.VALUES_COUNT);
+      indexOutput.setLength(0);
+      indexOutput.write(header.array());
+      indexSize = INDEX_HEADER_SIZE;
+    } else {
+      /* Remove any incomplete block */
+      indexOutput.setLength(indexSize);
+    }
+    isIndexChecked = true;
+  }
+
+  private void writeBlock(List<SensorData> records, long logEnd) throws IOException {
+    int count = records.size();
+    boolean[] isShort = new boolean[SensorData.VALUES_COUNT];
+    int dataSize = count * 8 + SensorData.VALUES_COUNT;
+    for (int v = 0; v < SensorData.VALUES_COUNT; v++) {
+      isShort[v] = true;
+      for (int i = 0; i < count && isShort[v]; i++) {
+        int value = records.get(i).getValue(v);
+        isShort[v] = value >= Short.MIN_VALUE && value <= Short.MAX_VALUE;
+      }
+      dataSize += count * (isShort[v] ? 2 : 4);
+    }
+
+    ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_SIZE + dataSize);
+    long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+    int minNode = Integer.MAX_VALUE, maxNode = Integer.MIN_VALUE;
+    block.position(BLOCK_HEADER_SIZE);
+    for (int i = 0; i < count; i++) {
+      SensorData data = records.get(i);
+      long time = data.getSystemTime();
+      int node = data.getValue(SensorData.NODE_ID);
+      block.putLong(time);
+      minTime = Math.min(minTime, time);
+      maxTime = Math.max(maxTime, time);
+      minNode = Math.min(minNode, node);
+      maxNode = Math.max(maxNode, node);
+    }
+    for (int v = 0; v < SensorData.VALUES_COUNT; v++) {
+      block.put((byte) (isShort[v] ? 2 : 4));
+      for (int i = 0; i < count; i++) {
+        if (isShort[v]) {
+          block.putShort((short) records.get(i).getValue(v));
+        } else {
+          block.putInt(records.get(i).getValue(v));
+        }
+      }
+    }
+    block.position(0);
+    block.putInt(BLOCK_MAGIC).putInt(count).putInt(dataSize).putLong(logEnd);
+    block.putLong(minTime).putLong(maxTime).putInt(minNode).putInt(maxNode);
+
+    indexOutput.seek(indexSize);
+    indexOutput.write(block.array());
+    indexSize += block.capacity();
+  }
+
+}
@@ -75,6 +75,14 @@ public abstract class AggregatedTimeChartPanel<T> extends JPanel implements Visu
   private Node[] selectedNodes;
   private HashMap<Node,T> selectedMap = new HashMap<Node,T>();
 
+  /* Aggregation state, to continue with new sensor data */
+  private int processedCount;
+  private int duplicates;
+  private int total;
+  private long minute;
+  private long lastMinute;
+  private int count;
+
   public AggregatedTimeChartPanel(CollectServer server, String category, String title,
       String timeAxisLabel, String valueAxisLabel) {
     super(new BorderLayout());
@@ -136,7 +144,11 @@ public abstract class AggregatedTimeChartPanel<T> extends JPanel implements Visu
   @Override
   public void nodeDataReceived(SensorData data) {
     if (isVisible() && selectedMap.get(data.getNode()) != null) {
-      updateCharts();
+      if (server.getSensorDataCount() < processedCount) {
+        updateCharts();
+      } else {
+        addSensorData();
+      }
     }
   }
 
@@ -148,15 +160,26 @@ public abstract class AggregatedTimeChartPanel<T> extends JPanel implements Visu
   }
 
   private void updateCharts() {
-    int duplicates = 0;
-    int total = 0;
+    duplicates = 0;
+    total = 0;
+    processedCount = 0;
     series.clear();
-    if (this.selectedNodes != null && server.getSensorDataCount() > 0) {
-      long minute = server.getSensorData(0).getNodeTime() / 60000;
-      long lastMinute = minute;
-      int count = 0;
-      clearState(selectedMap);
-      for(int i = 0; i < server.getSensorDataCount(); i++) {
+    addSensorData();
+  }
+
+  /**
+   * Aggregates the sensor data received since the last update.
+   */
+  private void addSensorData() {
+    int sensorDataCount = server.getSensorDataCount();
+    if (this.selectedNodes != null && sensorDataCount > processedCount) {
+      if (processedCount == 0) {
+        minute = server.getSensorData(0).getNodeTime() / 60000;
+        lastMinute = minute;
+        count = 0;
+        clearState(selectedMap);
+      }
+      for(int i = processedCount; i < sensorDataCount; i++) {
         SensorData sd = server.getSensorData(i);
         T nodeState = selectedMap.get(sd.getNode());
         if (nodeState != null) {
@@ -181,6 +204,7 @@ public abstract class AggregatedTimeChartPanel<T> extends JPanel implements Visu
           total++;
         }
       }
+      processedCount = sensorDataCount;
     }
     chart.setTitle(getTitle(selectedMap.size(), total, duplicates));
   }
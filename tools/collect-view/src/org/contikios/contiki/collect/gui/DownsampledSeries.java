@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2013, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+
+package org.contikios.contiki.collect.gui;
+import java.util.Arrays;
+
+import org.contikios.contiki.collect.Node;
+import org.contikios.contiki.collect.SensorData;
+
+/**
+ * Downsampled time series of one sensor value for one node.
+ *
+ * Level 0 is the sensor data of the node itself. Level k, k > 0, holds
+ * buckets of FACTOR^k consecutive samples with the time of the first sample
+ * and the sum, minimum and maximum value. New sensor data is added
+ * incrementally by {@link #update()}, updating one bucket per level, and
+ * coarser levels are added as the number of samples grows.
+ */
+public abstract class DownsampledSeries {
+
+  public static final int FACTOR = 8;
+
+  private static class Level {
+    final int bucketSize;
+    long[] time = new long[16];
+    double[] sum = new double[16];
+    double[] min = new double[16];
+    double[] max = new double[16];
+    int size;
+
+    Level(int bucketSize) {
+      this.bucketSize = bucketSize;
+    }
+
+    void add(long t, double s, double lo, double hi) {
+      if (size == time.length) {
+        int n = size * 2;
+        time = Arrays.copyOf(time, n);
+        sum = Arrays.copyOf(sum, n);
+        min = Arrays.copyOf(min, n);
+        max = Arrays.copyOf(max, n);
+      }
+      time[size] = t;
+      sum[size] = s;
+      min[size] = lo;
+      max[size] = hi;
+      size++;
+    }
+
+    void merge(int i, double s, double lo, double hi) {
+      sum[i] += s;
+      if (lo < min[i]) min[i] = lo;
+      if (hi > max[i]) max[i] = hi;
+    }
+  }
+
+  private final Node node;
+  private Level[] levels;
+  private int sampleCount;
+
+  public DownsampledSeries(Node node) {
+    this.node = node;
+    clear();
+  }
+
+  public Node getNode() {
+    return node;
+  }
+
+  private void clear() {
+    levels = new Level[1]; /* Level 0 is the node sensor data */
+    sampleCount = 0;
+  }
+
+  /**
+   * Adds any sensor data received by the node since the last update.
+   *
+   * @return <code>true</code> if all levels were rebuilt because sensor data
+   *         has been removed from the node
+   */
+  public boolean update() {
+    boolean isReset = false;
+    int count = node.getSensorDataCount();
+    if (count < sampleCount) {
+      clear();
+      isReset = true;
+    }
+    for (int i = sampleCount; i < count; i++) {
+      SensorData data = node.getSensorData(i);
+      add(data.getNodeTime(), getSensorDataValue(data));
+    }
+    return isReset;
+  }
+
+  private void add(long time, double value) {
+    for (int i = 1; i < levels.length; i++) {
+      Level level = levels[i];
+      int bucket = sampleCount / level.bucketSize;
+      if (bucket == level.size) {
+        level.add(time, value, value, value);
+      } else {
+        level.merge(bucket, value, value, value);
+      }
+    }
+    sampleCount++;
+
+    if (getSize(levels.length - 1) > FACTOR) {
+      /* Add a coarser level built from the current top level */
+      int top = levels.length - 1;
+      Level level = new Level(top == 0 ? FACTOR : levels[top].bucketSize * FACTOR);
+      for (int i = 0, n = getSize(top); i < n; i++) {
+        double sum = top == 0 ? getAverage(0, i) : levels[top].sum[i];
+        if (i % FACTOR == 0) {
+          level.add(getTime(top, i), sum, getMinimum(top, i), getMaximum(top, i));
+        } else {
+          level.merge(level.size - 1, sum, getMinimum(top, i), getMaximum(top, i));
+        }
+      }
+      levels = Arrays.copyOf(levels, levels.length + 1);
+      levels[levels.length - 1] = level;
+    }
+  }
+
+  public int getLevelCount() {
+    return levels.length;
+  }
+
+  /**
+   * Returns the finest level with at most maxItemCount buckets in the
+   * specified time range.
+   *
+   * @param maxItemCount the maximal number of buckets or <code>0</code> for
+   *        no limit
+   */
+  public int getLevel(long from, long to, int maxItemCount) {
+    if (maxItemCount <= 0) {
+      return 0;
+    }
+    for (int i = 0; i < levels.length; i++) {
+      if (getEndIndex(i, to) - getStartIndex(i, from) <= maxItemCount) {
+        return i;
+      }
+    }
+    return levels.length - 1;
+  }
+
+  public int getSize(int level) {
+    return level == 0 ? sampleCount : levels[level].size;
+  }
+
+  /**
+   * Returns the index of the first bucket to show for a time range starting
+   * at the specified time (including the bucket before the time, if any).
+   */
+  public int getStartIndex(int level, long time) {
+    int index = search(level, time);
+    return index > 0 ? index - 1 : 0;
+  }
+
+  /**
+   * Returns the index after the last bucket to show for a time range ending
+   * at the specified time (including the bucket after the time, if any).
+   */
+  public int getEndIndex(int level, long time) {
+    int size = getSize(level);
+    int index = search(level, time);
+    while (index < size && getTime(level, index) <= time) {
+      index++;
+    }
+    return index < size ? index + 1 : size;
+  }
+
+  /* Returns the index of the first bucket starting at or after the time */
+  private int search(int level, long time) {
+    int low = 0;
+    int high = getSize(level);
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (getTime(level, mid) < time) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  public long getTime(int level, int index) {
+    if (level == 0) {
+      return node.getSensorData(index).getNodeTime();
+    }
+    return levels[level].time[index];
+  }
+
+  public double getAverage(int level, int index) {
+    if (level == 0) {
+      return getSensorDataValue(node.getSensorData(index));
+    }
+    Level l = levels[level];
+    int count = Math.min(l.bucketSize, sampleCount - index * l.bucketSize);
+    return l.sum[index] / count;
+  }
+
+  public double getMinimum(int level, int index) {
+    if (level == 0) {
+      return getSensorDataValue(node.getSensorData(index));
+    }
+    return levels[level].min[index];
+  }
+
+  public double getMaximum(int level, int index) {
+    if (level == 0) {
+      return getSensorDataValue(node.getSensorData(index));
+    }
+    return levels[level].max[index];
+  }
+
+  protected abstract double getSensorDataValue(SensorData data);
+
+}
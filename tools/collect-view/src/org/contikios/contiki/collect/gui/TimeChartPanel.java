@@ -42,10 +42,14 @@ import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.util.Date;
+import java.util.HashMap;
 import javax.swing.JPanel;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.chart.event.AxisChangeEvent;
+import org.jfree.chart.event.AxisChangeListener;
 import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.data.time.Second;
 import org.jfree.data.time.TimeSeries;
@@ -70,6 +74,10 @@ public abstract class TimeChartPanel extends JPanel implements Visualizer {
   protected final ChartPanel chartPanel;
 
   private Node[] selectedNodes;
+  private int[] selectedLevels;
+  private final HashMap<Node,DownsampledSeries> seriesTable = new HashMap<Node,DownsampledSeries>();
+  private boolean isUpdating;
+  private boolean isZoomed;
 
   private double minValue;
   private double maxValue;
@@ -93,6 +101,21 @@ public abstract class TimeChartPanel extends JPanel implements Visualizer {
     setBaseShapeVisible(true);
     setMaxItemCount(server.getDefaultMaxItemCount());
     add(chartPanel, BorderLayout.CENTER);
+
+    // Show more details when zooming in on a time range
+    chart.getXYPlot().getDomainAxis().addChangeListener(new AxisChangeListener() {
+      public void axisChanged(AxisChangeEvent event) {
+        if (!isUpdating) {
+          boolean zoomed = !((ValueAxis) event.getAxis()).isAutoRange();
+          if (zoomed || isZoomed) {
+            isZoomed = zoomed;
+            if (isVisible()) {
+              updateCharts();
+            }
+          }
+        }
+      }
+    });
   }
 
   @Override
@@ -151,12 +174,22 @@ public abstract class TimeChartPanel extends JPanel implements Visualizer {
       for (int i = 0, n = selectedNodes.length; i < n; i++) {
         if (node == selectedNodes[i]) {
           TimeSeries series = timeSeries.getSeries(i);
-          int groupSize = getGroupSize(node);
-          if (groupSize > 1) {
-            series.clear();
-            updateSeries(series, node, groupSize);
+          DownsampledSeries downsampled = getDownsampledSeries(node);
+          int level = selectedLevels[i];
+          int lastSize = downsampled.getSize(level);
+          boolean isReset = downsampled.update();
+          if (!isZoomed) {
+            level = downsampled.getLevel(Long.MIN_VALUE, Long.MAX_VALUE, maxItemCount);
+          }
+          if (isReset || level != selectedLevels[i]) {
+            // Switch to another resolution
+            selectedLevels[i] = updateSeries(series, downsampled);
           } else {
-            series.addOrUpdate(new Second(new Date(data.getNodeTime())), getSensorDataValue(data));
+            // Add new and update last item
+            for (int j = Math.max(0, lastSize - 1), m = downsampled.getSize(level); j < m; j++) {
+              series.addOrUpdate(new Second(new Date(downsampled.getTime(level, j))),
+                  downsampled.getAverage(level, j));
+            }
           }
           chartPanel.repaint();
           break;
@@ -167,6 +200,7 @@ public abstract class TimeChartPanel extends JPanel implements Visualizer {
 
   @Override
   public void clearNodeData() {
+    seriesTable.clear();
     if (isVisible()) {
       updateCharts();
     }
@@ -175,48 +209,59 @@ public abstract class TimeChartPanel extends JPanel implements Visualizer {
   private void updateCharts() {
     timeSeries.removeAllSeries();
     if (this.selectedNodes != null) {
-      for(Node node: this.selectedNodes) {
+      selectedLevels = new int[selectedNodes.length];
+      for (int i = 0, n = selectedNodes.length; i < n; i++) {
+        Node node = selectedNodes[i];
         TimeSeries series = new TimeSeries(node.getName(), Second.class);
-        // Reduce the number of items by grouping them and use the average for each group
-        int groupSize = getGroupSize(node);
-        if (groupSize > 1) {
-          updateSeries(series, node, groupSize);
-        } else {
-          for (int i = 0, n = node.getSensorDataCount(); i < n; i++) {
-            SensorData data = node.getSensorData(i);
-            series.addOrUpdate(new Second(new Date(data.getNodeTime())), getSensorDataValue(data));
-          }
-        }
+        DownsampledSeries downsampled = getDownsampledSeries(node);
+        downsampled.update();
+        selectedLevels[i] = updateSeries(series, downsampled);
         timeSeries.addSeries(series);
       }
     }
   }
 
-  protected int getGroupSize(Node node) {
-    if (maxItemCount > 0) {
-      int sensorDataCount = node.getSensorDataCount();
-      if (sensorDataCount > maxItemCount) {
-        int groupSize = sensorDataCount / maxItemCount;
-        if (sensorDataCount / groupSize >= maxItemCount) {
-          groupSize++;
+  private DownsampledSeries getDownsampledSeries(Node node) {
+    DownsampledSeries downsampled = seriesTable.get(node);
+    if (downsampled == null) {
+      downsampled = new DownsampledSeries(node) {
+        protected double getSensorDataValue(SensorData data) {
+          return TimeChartPanel.this.getSensorDataValue(data);
         }
-        return groupSize;
-      }
+      };
+      seriesTable.put(node, downsampled);
     }
-    return 1;
+    return downsampled;
   }
 
-  protected void updateSeries(TimeSeries series, Node node, int groupSize) {
-    for (int i = 0, n = node.getSensorDataCount(); i < n; i += groupSize) {
-      double value = 0.0;
-      long time = 0L;
-      for (int j = 0; j < groupSize; j++) {
-        SensorData data = node.getSensorData(i);
-        value += getSensorDataValue(data);
-        time += data.getNodeTime() / 1000L;
+  /**
+   * Fills the series with the visible time range of the downsampled series,
+   * using the finest resolution with at most maxItemCount items.
+   *
+   * @return the resolution level used
+   */
+  private int updateSeries(TimeSeries series, DownsampledSeries downsampled) {
+    long from = Long.MIN_VALUE;
+    long to = Long.MAX_VALUE;
+    if (isZoomed) {
+      ValueAxis axis = chart.getXYPlot().getDomainAxis();
+      from = (long) axis.getLowerBound();
+      to = (long) axis.getUpperBound();
+    }
+    int level = downsampled.getLevel(from, to, maxItemCount);
+    isUpdating = true;
+    try {
+      series.setNotify(false);
+      series.clear();
+      for (int i = downsampled.getStartIndex(level, from), n = downsampled.getEndIndex(level, to); i < n; i++) {
+        series.addOrUpdate(new Second(new Date(downsampled.getTime(level, i))),
+            downsampled.getAverage(level, i));
       }
-      series.addOrUpdate(new Second(new Date((time / groupSize) * 1000L)), value / groupSize);
+      series.setNotify(true);
+    } finally {
+      isUpdating = false;
     }
+    return level;
   }
 
   public boolean getBaseShapeVisible() {
@@ -302,6 +347,8 @@ public abstract class TimeChartPanel extends JPanel implements Visualizer {
   /**
    * Sets the maximal number of chart items to display for each node. Items will be
    * grouped and replaced by the average value when needed.
+   * The grouped items are kept in a downsampled series per node at several
+   * resolutions, and the chart shows the finest resolution that fits.
    *
    * @param maxItemCount - the maximal number of chart items to display for each node or
    * <code>0</code> for unlimited number (default)
@@ -162,6 +162,86 @@ public class LegacyInterpreter extends AtmelInterpreter implements LegacyInstrVi
         return stepInstruction();
     }
 
+    /**
+     * The <code>stepCycles()</code> method executes instructions until the given cycle budget
+     * has been consumed, using the same dispatch as the internal fast loop. Unlike <code>step()</code>,
+     * the delay, interrupt and probe bookkeeping is not repeated for every instruction.
+     *
+     * <p>
+     * Execution stops early when an interrupt is posted, when the microcontroller enters a sleep
+     * mode, or when a probe (watchpoint) has fired. Nothing is executed if the microcontroller is
+     * delayed, sleeping, has an interrupt pending, or has global probes installed; in these cases
+     * the caller should use <code>step()</code> instead.
+     *
+     * @param budget the number of cycles to execute
+     * @return the number of cycles consumed, which may exceed the budget by the length of the last
+     * instruction
+     */
+    public long stepCycles(long budget) {
+        if (delayCycles > 0 || sleeping || justReturnedFromInterrupt || !globalProbe.isEmpty()) {
+            return 0;
+        }
+        if (I && (interrupts.getPendingInterrupts1() != 0 || interrupts.getPendingInterrupts2() != 0)) {
+            return 0;
+        }
+
+        long start = clock.getCount();
+        long end = start + budget;
+        nextPC = pc;
+        innerLoop = true;
+        while (innerLoop && clock.getCount() < end) {
+            LegacyInstr i = shared_instr[nextPC];
+
+            // visit the actual instruction (or probe)
+            i.accept(this);
+            if (cyclesConsumed == 0) {
+                // probed instructions commit themselves
+                break;
+            }
+            commit();
+        }
+        return clock.getCount() - start;
+    }
+
+    /**
+     * The <code>isSleeping()</code> method returns whether the microcontroller is currently
+     * in a sleep mode, waiting for an interrupt.
+     *
+     * @return true if the microcontroller is sleeping
+     */
+    public boolean isSleeping() {
+        return sleeping;
+    }
+
+    /**
+     * The <code>sleepCycles()</code> method advances the clock of a sleeping microcontroller
+     * directly to its next clock event, instead of one cycle at a time as <code>step()</code>
+     * does. At most the given number of cycles are skipped. Nothing is skipped if the
+     * microcontroller is not idle, i.e. if it is awake, delayed, or has an interrupt pending.
+     *
+     * @param maxCycles the maximum number of cycles to skip
+     * @return the number of cycles skipped
+     */
+    public long sleepCycles(long maxCycles) {
+        if (!sleeping || delayCycles > 0 || justReturnedFromInterrupt || maxCycles <= 0) {
+            return 0;
+        }
+        if (I && (interrupts.getPendingInterrupts1() != 0 || interrupts.getPendingInterrupts2() != 0)) {
+            return 0;
+        }
+
+        long cycles = maxCycles;
+        long delta = clock.getFirstEventDelta();
+        if (delta == 0) {
+            return 0;
+        }
+        if (delta > 0 && delta < cycles) {
+            cycles = delta;
+        }
+        advanceClock(cycles);
+        return cycles;
+    }
+
     private int stepInstruction() {
         int cycles;
         // global probes?
@@ -50,6 +50,7 @@ import se.sics.cooja.dialogs.MessageList.MessageContainer;
 import se.sics.cooja.motes.AbstractEmulatedMote;
 import se.sics.cooja.plugins.Debugger.SourceLocation;
 import avrora.arch.avr.AVRProperties;
+import avrora.arch.legacy.LegacyInterpreter;
 import avrora.core.SourceMapping;
 import avrora.core.Program;
 import avrora.core.ProgramReader;
@@ -189,12 +190,94 @@ public abstract class AvroraMote extends AbstractEmulatedMote implements Watchpo
 */
   private long cyclesExecuted = 0;
   private long cyclesUntil = 0;
+  private long startTime = -1; /* Simulation time of first executed cycle */
+
+  /**
+   * @param time Simulation time
+   * @return Number of CPU cycles from first execution until given time
+   */
+  private long getCyclesAt(long time) {
+    long dt = time - startTime;
+    long freq = getCPUFrequency();
+    return (dt / Simulation.MILLISECOND) * (freq / 1000)
+        + (dt % Simulation.MILLISECOND) * freq / 1000000;
+  }
+
+  /**
+   * @param cycles Number of CPU cycles from first execution
+   * @return Earliest simulation time at which given cycles have elapsed
+   */
+  private long getTimeAt(long cycles) {
+    long freq = getCPUFrequency();
+    return startTime
+        + (cycles / freq) * 1000000
+        + ((cycles % freq) * 1000000 + freq - 1) / freq;
+  }
+
+  /**
+   * Skips sleeping CPU cycles directly to next Avrora clock event,
+   * but no further than the given number of cycles.
+   *
+   * @param cycles Cycles
+   * @return Skipped cycles, or 0 if the CPU is not sleeping
+   */
+  private long sleepCycles(long cycles) {
+    if (!(interpreter instanceof LegacyInterpreter)) {
+      return 0;
+    }
+    return ((LegacyInterpreter)interpreter).sleepCycles(cycles);
+  }
+
+  /**
+   * Executes instructions until given number of cycles have been consumed.
+   *
+   * @param cycles Cycles
+   * @return Executed cycles, or 0 if the CPU must be stepped instead
+   */
+  private long stepCycles(long cycles) {
+    if (!(interpreter instanceof LegacyInterpreter)) {
+      return 0;
+    }
+    return ((LegacyInterpreter)interpreter).stepCycles(cycles);
+  }
+
+  private boolean isSleeping() {
+    return interpreter instanceof LegacyInterpreter && ((LegacyInterpreter)interpreter).isSleeping();
+  }
+
+  /**
+   * Prepares the mote for external input, such as received radio data.
+   *
+   * A sleeping CPU may not have executed since long before the current
+   * simulation time. Its clock is first advanced to the current time, so that the
+   * input is handled at the right time, and the mote is then scheduled to execute
+   * immediately. An awake CPU already executes every millisecond.
+   */
+  public void prepareForInput() {
+    if (startTime >= 0) {
+      long cycles = getCyclesAt(getSimulation().getSimulationTime());
+      while (cyclesExecuted < cycles) {
+        long skipped = sleepCycles(cycles - cyclesExecuted);
+        if (skipped <= 0) {
+          break;
+        }
+        cyclesExecuted += skipped;
+      }
+    }
+    if (isSleeping()) {
+      requestImmediateWakeup();
+    }
+  }
+
   public void execute(long t) {
     /* Wait until mote boots */
     if (moteInterfaceHandler.getClock().getTime() < 0) {
       scheduleNextWakeup(t - moteInterfaceHandler.getClock().getTime());
       return;
     }
+    if (startTime < 0) {
+      startTime = t;
+    }
 
     if (stopNextInstruction) {
       stopNextInstruction = false;
@@ -203,9 +286,26 @@ public abstract class AvroraMote extends AbstractEmulatedMote implements Watchpo
     }
 
     /* Execute one millisecond */
-  //  cyclesUntil += this.getCPUFrequency()/1000;
-  cyclesUntil += this.getCPUFrequency()/1000; //better resolution of cca checks and acks
+    cyclesUntil = Math.max(cyclesUntil, getCyclesAt(t + Simulation.MILLISECOND)); //better resolution of cca checks and acks
     while (cyclesExecuted < cyclesUntil) {
+      /* Skip sleeping cycles until next clock event */
+      long skipped = sleepCycles(cyclesUntil - cyclesExecuted);
+      if (skipped > 0) {
+        cyclesExecuted += skipped;
+        continue;
+      }
+
+      /* Execute instructions in one batch until slice ends or an interrupt is posted */
+      long executed = stepCycles(cyclesUntil - cyclesExecuted);
+      if (executed > 0) {
+        cyclesExecuted += executed;
+        if (stopNextInstruction) {
+          /* Breakpoint triggered */
+          break;
+        }
+        continue;
+      }
+
       int nsteps = interpreter.step();
       if (nsteps > 0) {
         cyclesExecuted += nsteps;
@@ -216,10 +316,21 @@ public abstract class AvroraMote extends AbstractEmulatedMote implements Watchpo
       }
     }
 
+    /* Sleeping CPU: wake up when the next Avrora clock event is due.
+     * External input wakes up the mote earlier, see prepareForInput() */
+    if (cyclesExecuted >= cyclesUntil && isSleeping()) {
+      long delta = interpreter.getMainClock().getFirstEventDelta();
+      if (delta < 0) {
+        /* No pending events: wait for external input */
+        return;
+      }
+      long wakeup = getTimeAt(cyclesExecuted + delta) - Simulation.MILLISECOND;
+      scheduleNextWakeup(Math.max(wakeup, t + Simulation.MILLISECOND));
+      return;
+    }
+
     /* Schedule wakeup every millisecond */
-    /* TODO Optimize next wakeup time */
-   scheduleNextWakeup(t + Simulation.MILLISECOND);
-   //     scheduleNextWakeup(t + Simulation.MILLISECOND/10);
+    scheduleNextWakeup(t + Simulation.MILLISECOND);
   }
 
   @SuppressWarnings("unchecked")
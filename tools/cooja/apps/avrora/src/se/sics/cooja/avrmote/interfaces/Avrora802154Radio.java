@@ -34,6 +34,7 @@ import org.apache.log4j.Logger;
 
 import se.sics.cooja.ClassDescription;
 import se.sics.cooja.Mote;
+import se.sics.cooja.avrmote.AvroraMote;
 import se.sics.cooja.avrmote.MicaZMoteType;
 import se.sics.cooja.emulatedmote.Radio802154;
 import avrora.sim.FiniteStateMachine;
@@ -61,11 +62,11 @@ public abstract class Avrora802154Radio extends Radio802154 {
   private Receiver receiver;
   private Transmitter transmitter;
   private FiniteStateMachine fsm;
-  private Mote myMote;
+  private AvroraMote myMote;
 
   public Avrora802154Radio(Mote mote, Radio radio, FiniteStateMachine fsm) {
     super(mote);
-    myMote = mote;
+    myMote = (AvroraMote) mote;
 
     this.receiver = radio.getReceiver();
     this.transmitter = radio.getTransmitter();
@@ -107,15 +108,18 @@ public abstract class Avrora802154Radio extends Radio802154 {
   }
 
   public void handleReceive(byte b) {
+    myMote.prepareForInput();
     receiver.nextByte(true, b);
   }
 
   protected void handleStartOfReception() {
+    myMote.prepareForInput();
  // System.out.println("handlestartofreception");
   }
 
   protected void handleEndOfReception() {
     /* tell the receiver that the packet is ended */
+    myMote.prepareForInput();
     receiver.nextByte(false, (byte)0);
   }
 
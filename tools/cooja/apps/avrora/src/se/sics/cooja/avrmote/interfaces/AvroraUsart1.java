@@ -58,6 +58,7 @@ public class AvroraUsart1 extends SerialUI {
           myMote.getSimulation().scheduleEvent(this, t+Simulation.MILLISECOND);
           return;
         }
+        myMote.prepareForInput();
         usart.startReceive();
       }
     };
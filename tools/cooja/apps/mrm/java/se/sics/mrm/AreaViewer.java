@@ -66,9 +66,13 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.swing.AbstractAction;
 import javax.swing.AbstractButton;
@@ -93,6 +97,7 @@ import javax.swing.JToolTip;
 import javax.swing.Popup;
 import javax.swing.PopupFactory;
 import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileFilter;
 
 import org.apache.log4j.Logger;
@@ -199,6 +204,20 @@ public class AreaViewer extends VisPlugin {
 
   private Thread attenuatorThread = null;
 
+  // Channel calculation: tiles are calculated in parallel and reused until settings change
+  private static final int CHANNEL_TILE_SIZE = 32;
+  private static final int MAX_CACHED_CHANNEL_TILES = 1024;
+  private ForkJoinPool channelRenderPool = null;
+  private ChannelRendering currentChannelRendering = null;
+  private ChannelTileContext channelTileContext = null;
+  private LinkedHashMap<Point, double[]> channelTileCache =
+    new LinkedHashMap<Point, double[]>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+      protected boolean removeEldestEntry(Map.Entry<Point, double[]> eldest) {
+        return size() > MAX_CACHED_CHANNEL_TILES;
+      }
+    };
+
   private JCheckBox showSettingsBox;
   private JCheckBox backgroundCheckBox;
   private JCheckBox obstaclesCheckBox;
@@ -700,6 +719,7 @@ public class AreaViewer extends VisPlugin {
         if (hitRadios == null || hitRadios.size() == 0) {
           if (e.getButton() != MouseEvent.BUTTON1) {
             selectedRadio = null;
+            cancelChannelRendering();
             channelImage = null;
             trackModeButton.setEnabled(false);
             paintEnvironmentAction.setEnabled(false);
@@ -725,6 +745,7 @@ public class AreaViewer extends VisPlugin {
           paintEnvironmentAction.setEnabled(true);
         }
 
+        cancelChannelRendering();
         channelImage = null;
         canvas.repaint();
         return;
@@ -1673,6 +1694,7 @@ public class AreaViewer extends VisPlugin {
     public void update(Observable obs, Object obj) {
       // Clear selected radio (if any selected) and radio medium coverage
       selectedRadio = null;
+      cancelChannelRendering();
       channelImage = null;
       trackModeButton.setEnabled(false);
       paintEnvironmentAction.setEnabled(false);
@@ -1696,6 +1718,8 @@ public class AreaViewer extends VisPlugin {
   private Observer channelModelSettingsObserver = new Observer() {
     public void update(Observable obs, Object obj) {
       needToRepaintObstacleImage = true;
+      cancelChannelRendering();
+      clearChannelTileCache();
       canvas.repaint();
     }
   };
@@ -1742,255 +1766,442 @@ public class AreaViewer extends VisPlugin {
     return (alpha << 24) | (red << 16) | (green << 8) | blue;
   }
 
+  /**
+   * Returns the fixed coloring interval of the given data type.
+   *
+   * @param dataType Visualized data type
+   * @return Lowest and highest value of coloring interval
+   */
+  private static double[] getFixedColoringInterval(ChannelModel.TransmissionData dataType) {
+    if (dataType == ChannelModel.TransmissionData.SIGNAL_STRENGTH) {
+      return new double[] { -100, 0 };
+    } else if (dataType == ChannelModel.TransmissionData.SIGNAL_STRENGTH_VAR) {
+      return new double[] { 0, 20 };
+    } else if (dataType == ChannelModel.TransmissionData.SNR) {
+      return new double[] { -10, 30 };
+    } else if (dataType == ChannelModel.TransmissionData.SNR_VAR) {
+      return new double[] { 0, 20 };
+    } else if (dataType == ChannelModel.TransmissionData.PROB_OF_RECEPTION) {
+      return new double[] { 0, 1 };
+    } else if (dataType == ChannelModel.TransmissionData.DELAY_SPREAD_RMS) {
+      return new double[] { 0, 5 };
+    }
+    return new double[] { 0, 0 };
+  }
+
+  /**
+   * Calculates the value of a single channel map point.
+   *
+   * @param txPair Transmitter and point
+   * @param dataType Visualized data type
+   * @return Value
+   */
+  private double getChannelValue(TxPair txPair, ChannelModel.TransmissionData dataType) {
+    if (dataType == ChannelModel.TransmissionData.SIGNAL_STRENGTH) {
+      return currentChannelModel.getReceivedSignalStrength(txPair)[0];
+    } else if (dataType == ChannelModel.TransmissionData.SIGNAL_STRENGTH_VAR) {
+      return currentChannelModel.getReceivedSignalStrength(txPair)[1];
+    } else if (dataType == ChannelModel.TransmissionData.SNR) {
+      return currentChannelModel.getSINR(txPair, -Double.MAX_VALUE)[0];
+    } else if (dataType == ChannelModel.TransmissionData.SNR_VAR) {
+      return currentChannelModel.getSINR(txPair, -Double.MAX_VALUE)[1];
+    } else if (dataType == ChannelModel.TransmissionData.PROB_OF_RECEPTION) {
+      // Get probability of receiving a packet TODO What size? Does it matter?
+      return currentChannelModel.getProbability(txPair, -Double.MAX_VALUE)[0];
+    } else if (dataType == ChannelModel.TransmissionData.DELAY_SPREAD_RMS) {
+      return currentChannelModel.getRMSDelaySpread(txPair);
+    }
+    return 0;
+  }
+
+  /**
+   * Cancels the ongoing channel calculation, if any.
+   */
+  private void cancelChannelRendering() {
+    if (currentChannelRendering != null) {
+      currentChannelRendering.cancel();
+      currentChannelRendering = null;
+    }
+  }
+
+  /**
+   * Removes all calculated channel tiles.
+   */
+  private void clearChannelTileCache() {
+    synchronized (channelTileCache) {
+      channelTileCache.clear();
+    }
+  }
+
   private void repaintRadioEnvironment() {
-        // Get resolution of new image
-        final Dimension resolution = new Dimension(
-            resolutionSlider.getValue(),
-            resolutionSlider.getValue()
-        );
+    cancelChannelRendering();
 
-        // Abort if no radio selected
-        if (selectedRadio == null) {
-          channelImage = null;
-          canvas.repaint();
-          return;
-        }
+    // Abort if no radio selected
+    if (selectedRadio == null) {
+      channelImage = null;
+      canvas.repaint();
+      return;
+    }
 
-        // Get new location/size of area to attenuate
-        final double startX = -currentPanX;
-        final double startY = -currentPanY;
-        final double width = canvas.getWidth() / currentZoomX;
-        final double height = canvas.getHeight() / currentZoomY;
-
-        // Get sending radio position
-        Position radioPosition = selectedRadio.getPosition();
-        final double radioX = radioPosition.getXCoordinate();
-        final double radioY = radioPosition.getYCoordinate();
-
-        // Create temporary image
-        final BufferedImage tempChannelImage = new BufferedImage(resolution.width, resolution.height, BufferedImage.TYPE_INT_ARGB);
-
-        // Save time for later analysis
-        final long timeBeforeCalculating = System.currentTimeMillis();
-
-        // Create progress monitor
-        final ProgressMonitor pm = new ProgressMonitor(
-            GUI.getTopParentContainer(),
-            "Calculating channel attenuation",
-            null,
-            0,
-            resolution.width - 1
-        );
+    // Get resolution of new image
+    int resolution = resolutionSlider.getValue();
 
-        // Thread that will perform the work
-        final Runnable runnable = new Runnable() {
-          public void run() {
-            try {
-
-              // Available signal strength intervals
-              double lowestImageValue = Double.MAX_VALUE;
-              double highestImageValue = -Double.MAX_VALUE;
-
-              // Create image values (calculate each pixel)
-              double[][] imageValues = new double[resolution.width][resolution.height];
-              for (int x=0; x < resolution.width; x++) {
-                for (int y=0; y < resolution.height; y++) {
-                  final double xx = x;
-                  final double yy = y;
-                  TxPair txPair = new TxPair() {
-                    public double getDistance() {
-                      double w = getFromX() - getToX();
-                      double h = getFromY() - getToY();
-                      return Math.sqrt(w*w+h*h);
-                    }
-                    public double getFromX() { return radioX; }
-                    public double getFromY() { return radioY; }
-                    public double getToX() { return startX + width * xx/resolution.width; }
-                    public double getToY() { return startY + height * yy/resolution.height; }
-                    public double getTxPower() { return selectedRadio.getCurrentOutputPower(); }
-                    public double getTxGain() {
-                      if (!(selectedRadio instanceof DirectionalAntennaRadio)) {
-                        return 0;
-                      }
-                      DirectionalAntennaRadio r = (DirectionalAntennaRadio)selectedRadio;
-                      double txGain = r.getRelativeGain(r.getDirection() + getAngle(), getDistance());
-                      //logger.debug("tx gain: " + txGain + " (angle " + String.format("%1.1f", Math.toDegrees(r.getDirection() + getAngle())) + ")");
-                      return txGain;
-                    }
-                    public double getRxGain() {
-                      return 0;
-                    }
-                  };
-
-                  if (dataTypeToVisualize == ChannelModel.TransmissionData.SIGNAL_STRENGTH) {
-                    // Attenuate
-                    double[] signalStrength = currentChannelModel.getReceivedSignalStrength(txPair);
-
-                    // Collecting signal strengths
-                    if (signalStrength[0] < lowestImageValue) {
-                      lowestImageValue = signalStrength[0];
-                    }
-                    if (signalStrength[0] > highestImageValue) {
-                      highestImageValue = signalStrength[0];
-                    }
-
-                    imageValues[x][y] = signalStrength[0];
-
-                  } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SIGNAL_STRENGTH_VAR) {
-                    // Attenuate
-                    double[] signalStrength = currentChannelModel.getReceivedSignalStrength(txPair);
-
-                    // Collecting variances
-                    if (signalStrength[1] < lowestImageValue) {
-                      lowestImageValue = signalStrength[1];
-                    }
-                    if (signalStrength[1] > highestImageValue) {
-                      highestImageValue = signalStrength[1];
-                    }
-
-                    imageValues[x][y] = signalStrength[1];
-
-                  } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SNR) {
-                    // Get signal to noise ratio
-                    double[] snr = currentChannelModel.getSINR(
-                        txPair,
-                        -Double.MAX_VALUE
-                    );
-
-                    // Collecting signal to noise ratio
-                    if (snr[0] < lowestImageValue) {
-                      lowestImageValue = snr[0];
-                    }
-                    if (snr[0] > highestImageValue) {
-                      highestImageValue = snr[0];
-                    }
-
-                    imageValues[x][y] = snr[0];
-
-                  } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SNR_VAR) {
-                    // Get signal to noise ratio
-                    double[] snr = currentChannelModel.getSINR(
-                        txPair,
-                        -Double.MAX_VALUE
-                    );
-
-                    // Collecting variances
-                    if (snr[1] < lowestImageValue) {
-                      lowestImageValue = snr[1];
-                    }
-                    if (snr[1] > highestImageValue) {
-                      highestImageValue = snr[1];
-                    }
-
-                    imageValues[x][y] = snr[1];
-                  } else if (dataTypeToVisualize == ChannelModel.TransmissionData.PROB_OF_RECEPTION) {
-                    // Get probability of receiving a packet TODO What size? Does it matter?
-                    double probability = currentChannelModel.getProbability(
-                        txPair, -Double.MAX_VALUE
-                    )[0];
-
-                    // Collecting variances
-                    if (probability < lowestImageValue) {
-                      lowestImageValue = probability;
-                    }
-                    if (probability > highestImageValue) {
-                      highestImageValue = probability;
-                    }
-
-                    imageValues[x][y] = probability;
-                  } else if (dataTypeToVisualize == ChannelModel.TransmissionData.DELAY_SPREAD_RMS) {
-                    // Get RMS delay spread of receiving a packet
-                    double rmsDelaySpread = currentChannelModel.getRMSDelaySpread(
-                        txPair
-                    );
-
-                    // Collecting variances
-                    if (rmsDelaySpread < lowestImageValue) {
-                      lowestImageValue = rmsDelaySpread;
-                    }
-                    if (rmsDelaySpread > highestImageValue) {
-                      highestImageValue = rmsDelaySpread;
-                    }
-
-                    imageValues[x][y] = rmsDelaySpread;
-                  }
+    // Channel is sampled at world-aligned points, allowing tiles to be reused when panning
+    double width = canvas.getWidth() / currentZoomX;
+    double height = canvas.getHeight() / currentZoomY;
+    double pitchX = width / resolution;
+    double pitchY = height / resolution;
 
-                  // Check if the dialog has been canceled
-                  if (pm.isCanceled()) {
-                    return;
-                  }
+    ChannelTileContext context = new ChannelTileContext(selectedRadio, dataTypeToVisualize, pitchX, pitchY);
+    if (!context.equals(channelTileContext)) {
+      clearChannelTileCache();
+      channelTileContext = context;
+    }
 
-                  // Update progress
-                  pm.setProgress(x);
+    ProgressMonitor pm = new ProgressMonitor(
+        GUI.getTopParentContainer(),
+        "Calculating channel attenuation",
+        null,
+        0,
+        1
+    );
+    if (channelRenderPool == null) {
+      channelRenderPool = new ForkJoinPool();
+    }
+    currentChannelRendering = new ChannelRendering(
+        context,
+        (int) Math.floor(-currentPanX / pitchX),
+        (int) Math.floor(-currentPanY / pitchY),
+        resolution + 1,
+        resolution + 1,
+        coloringIsFixed,
+        pm
+    );
+
+    // Thread that will perform the work
+    attenuatorThread = new Thread(currentChannelRendering, "AreaViewer channel");
+    attenuatorThread.start();
+  }
 
-                }
-              }
+  /**
+   * Transmitter and visualization settings of calculated channel tiles.
+   * Cached tiles are only reused as long as these are unchanged.
+   */
+  private static class ChannelTileContext {
+    final Radio radio;
+    final ChannelModel.TransmissionData dataType;
+    final double pitchX, pitchY;
+    final double radioX, radioY;
+    final double txPower;
+    final double direction;
+
+    ChannelTileContext(Radio radio, ChannelModel.TransmissionData dataType, double pitchX, double pitchY) {
+      this.radio = radio;
+      this.dataType = dataType;
+      this.pitchX = pitchX;
+      this.pitchY = pitchY;
+      Position radioPosition = radio.getPosition();
+      this.radioX = radioPosition.getXCoordinate();
+      this.radioY = radioPosition.getYCoordinate();
+      this.txPower = radio.getCurrentOutputPower();
+      if (radio instanceof DirectionalAntennaRadio) {
+        this.direction = ((DirectionalAntennaRadio) radio).getDirection();
+      } else {
+        this.direction = 0;
+      }
+    }
 
-              // Adjust coloring signal strength limit
-              if (coloringIsFixed) {
-                if (dataTypeToVisualize == ChannelModel.TransmissionData.SIGNAL_STRENGTH) {
-                  lowestImageValue = -100;
-                  highestImageValue = 0;
-                } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SIGNAL_STRENGTH_VAR) {
-                  lowestImageValue = 0;
-                  highestImageValue = 20;
-                } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SNR) {
-                  lowestImageValue = -10;
-                  highestImageValue = 30;
-                } else if (dataTypeToVisualize == ChannelModel.TransmissionData.SNR_VAR) {
-                  lowestImageValue = 0;
-                  highestImageValue = 20;
-                } else if (dataTypeToVisualize == ChannelModel.TransmissionData.PROB_OF_RECEPTION) {
-                  lowestImageValue = 0;
-                  highestImageValue = 1;
-                } else if (dataTypeToVisualize == ChannelModel.TransmissionData.DELAY_SPREAD_RMS) {
-                  lowestImageValue = 0;
-                  highestImageValue = 5;
-                }
-              }
+    public boolean equals(Object obj) {
+      if (!(obj instanceof ChannelTileContext)) {
+        return false;
+      }
+      ChannelTileContext c = (ChannelTileContext) obj;
+      return radio == c.radio && dataType == c.dataType &&
+          pitchX == c.pitchX && pitchY == c.pitchY &&
+          radioX == c.radioX && radioY == c.radioY &&
+          txPower == c.txPower && direction == c.direction;
+    }
 
-              // Save coloring high-low interval
-              coloringHighest = highestImageValue;
-              coloringLowest = lowestImageValue;
+    public int hashCode() {
+      return radio.hashCode() ^ dataType.hashCode();
+    }
+  }
 
-              // Create image
-              for (int x=0; x < resolution.width; x++) {
-                for (int y=0; y < resolution.height; y++) {
+  /**
+   * Calculates a channel image. The image is split into tiles that are
+   * calculated in parallel and drawn as soon as they are finished.
+   */
+  private class ChannelRendering implements Runnable {
+    private final ChannelTileContext context;
+    private final int firstColumn, firstRow;
+    private final int columns, rows;
+    private final boolean fixedColoring;
+    private final ProgressMonitor pm;
+    private final ForkJoinPool pool;
+
+    private final double[][] imageValues;
+    private final BufferedImage image;
+    private double lowestImageValue = Double.MAX_VALUE;
+    private double highestImageValue = -Double.MAX_VALUE;
+    private int tilesDone = 0;
+    private volatile int tileCount = 0;
+    private volatile boolean cancelled = false;
+
+    ChannelRendering(ChannelTileContext context, int firstColumn, int firstRow,
+        int columns, int rows, boolean fixedColoring, ProgressMonitor pm) {
+      this.context = context;
+      this.firstColumn = firstColumn;
+      this.firstRow = firstRow;
+      this.columns = columns;
+      this.rows = rows;
+      this.fixedColoring = fixedColoring;
+      this.pm = pm;
+      this.pool = channelRenderPool;
+      imageValues = new double[columns][rows];
+      image = new BufferedImage(columns, rows, BufferedImage.TYPE_INT_ARGB);
+      if (fixedColoring) {
+        double[] interval = getFixedColoringInterval(context.dataType);
+        lowestImageValue = interval[0];
+        highestImageValue = interval[1];
+      }
+    }
 
-                  tempChannelImage.setRGB(
-                      x,
-                      y,
-                      getColorOfSignalStrength(imageValues[x][y], lowestImageValue, highestImageValue)
-                  );
-                }
-              }
-              logger.info("Attenuating area done, time=" + (System.currentTimeMillis() - timeBeforeCalculating));
+    void cancel() {
+      cancelled = true;
+      closeProgressMonitor();
+    }
 
-              // Repaint to show the new channel propagation
-              channelStartX = startX;
-              channelStartY = startY;
-              channelWidth = width;
-              channelHeight = height;
-              channelImage = tempChannelImage;
+    boolean isCancelled() {
+      return cancelled;
+    }
 
-              AreaViewer.this.repaint();
-              coloringIntervalPanel.repaint();
+    /* The progress monitor is only accessed from the event dispatch thread */
+    private void updateProgressMonitor(final int progress, final int maximum) {
+      SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          if (pm.isCanceled()) {
+            cancelled = true;
+            return;
+          }
+          pm.setMaximum(maximum);
+          pm.setProgress(progress);
+        }
+      });
+    }
 
-            } catch (Exception ex) {
-              if (pm.isCanceled()) {
-                return;
+    private void closeProgressMonitor() {
+      SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          pm.close();
+        }
+      });
+    }
+
+    public void run() {
+      try {
+        long timeBeforeCalculating = System.currentTimeMillis();
+
+        ArrayList<Point> tiles = new ArrayList<Point>();
+        int firstTileX = (int) Math.floor((double) firstColumn / CHANNEL_TILE_SIZE);
+        int firstTileY = (int) Math.floor((double) firstRow / CHANNEL_TILE_SIZE);
+        int lastTileX = (int) Math.floor((double) (firstColumn + columns - 1) / CHANNEL_TILE_SIZE);
+        int lastTileY = (int) Math.floor((double) (firstRow + rows - 1) / CHANNEL_TILE_SIZE);
+        for (int ty=firstTileY; ty <= lastTileY; ty++) {
+          for (int tx=firstTileX; tx <= lastTileX; tx++) {
+            tiles.add(new Point(tx, ty));
+          }
+        }
+        tileCount = tiles.size();
+        updateProgressMonitor(0, tileCount);
+
+        // Show tiles as they are finished
+        if (isCancelled()) {
+          return;
+        }
+        channelStartX = firstColumn * context.pitchX;
+        channelStartY = firstRow * context.pitchY;
+        channelWidth = columns * context.pitchX;
+        channelHeight = rows * context.pitchY;
+        channelImage = image;
+        if (fixedColoring) {
+          coloringLowest = lowestImageValue;
+          coloringHighest = highestImageValue;
+        }
+
+        pool.invoke(new ChannelTileTask(this, tiles, 0, tiles.size()));
+        if (isCancelled()) {
+          return;
+        }
+
+        // Adjust coloring to all calculated values
+        if (!fixedColoring) {
+          for (int x=0; x < columns; x++) {
+            for (int y=0; y < rows; y++) {
+              image.setRGB(x, y, getColorOfSignalStrength(imageValues[x][y], lowestImageValue, highestImageValue));
+            }
+          }
+        }
+        coloringLowest = lowestImageValue;
+        coloringHighest = highestImageValue;
+        logger.info("Attenuating area done, time=" + (System.currentTimeMillis() - timeBeforeCalculating));
+
+        // Repaint to show the new channel propagation
+        AreaViewer.this.repaint();
+        coloringIntervalPanel.repaint();
+
+      } catch (Exception ex) {
+        if (isCancelled()) {
+          return;
+        }
+        logger.fatal("Attenuation aborted: " + ex);
+        ex.printStackTrace();
+      } finally {
+        closeProgressMonitor();
+      }
+    }
+
+    /**
+     * Calculates all points of a tile, or returns null if cancelled.
+     */
+    private double[] calculateTile(Point tile) {
+      final Radio radio = context.radio;
+      double[] values = new double[CHANNEL_TILE_SIZE * CHANNEL_TILE_SIZE];
+      for (int y=0; y < CHANNEL_TILE_SIZE; y++) {
+        if (isCancelled()) {
+          return null;
+        }
+        for (int x=0; x < CHANNEL_TILE_SIZE; x++) {
+          final double toX = (tile.x * CHANNEL_TILE_SIZE + x) * context.pitchX;
+          final double toY = (tile.y * CHANNEL_TILE_SIZE + y) * context.pitchY;
+          TxPair txPair = new TxPair() {
+            public double getDistance() {
+              double w = getFromX() - getToX();
+              double h = getFromY() - getToY();
+              return Math.sqrt(w*w+h*h);
+            }
+            public double getFromX() { return context.radioX; }
+            public double getFromY() { return context.radioY; }
+            public double getToX() { return toX; }
+            public double getToY() { return toY; }
+            public double getTxPower() { return context.txPower; }
+            public double getTxGain() {
+              if (!(radio instanceof DirectionalAntennaRadio)) {
+                return 0;
               }
-              logger.fatal("Attenuation aborted: " + ex);
-              ex.printStackTrace();
-              pm.close();
+              DirectionalAntennaRadio r = (DirectionalAntennaRadio)radio;
+              return r.getRelativeGain(context.direction + getAngle(), getDistance());
             }
-            pm.close();
+            public double getRxGain() {
+              return 0;
+            }
+          };
+          values[y * CHANNEL_TILE_SIZE + x] = getChannelValue(txPair, context.dataType);
+        }
+      }
+      return values;
+    }
+
+    /**
+     * Calculates (or fetches from cache) and draws a single tile.
+     */
+    void renderTile(Point tile) {
+      double[] values;
+      synchronized (channelTileCache) {
+        values = channelTileCache.get(tile);
+      }
+      if (values == null) {
+        values = calculateTile(tile);
+        if (values == null) {
+          return;
+        }
+        synchronized (channelTileCache) {
+          if (!cancelled) {
+            channelTileCache.put(tile, values);
           }
-        };
+        }
+      }
+
+      // Image part covered by this tile
+      int x0 = Math.max(tile.x * CHANNEL_TILE_SIZE, firstColumn);
+      int x1 = Math.min((tile.x + 1) * CHANNEL_TILE_SIZE, firstColumn + columns);
+      int y0 = Math.max(tile.y * CHANNEL_TILE_SIZE, firstRow);
+      int y1 = Math.min((tile.y + 1) * CHANNEL_TILE_SIZE, firstRow + rows);
+
+      double tileLowest = Double.MAX_VALUE;
+      double tileHighest = -Double.MAX_VALUE;
+      for (int x=x0; x < x1; x++) {
+        for (int y=y0; y < y1; y++) {
+          double value = values[(y - tile.y * CHANNEL_TILE_SIZE) * CHANNEL_TILE_SIZE + (x - tile.x * CHANNEL_TILE_SIZE)];
+          imageValues[x - firstColumn][y - firstRow] = value;
+          if (value < tileLowest) {
+            tileLowest = value;
+          }
+          if (value > tileHighest) {
+            tileHighest = value;
+          }
+        }
+      }
+
+      double lowest, highest;
+      synchronized (this) {
+        if (!fixedColoring) {
+          lowestImageValue = Math.min(lowestImageValue, tileLowest);
+          highestImageValue = Math.max(highestImageValue, tileHighest);
+        }
+        lowest = lowestImageValue;
+        highest = highestImageValue;
+      }
+
+      for (int x=x0; x < x1; x++) {
+        for (int y=y0; y < y1; y++) {
+          image.setRGB(
+              x - firstColumn,
+              y - firstRow,
+              getColorOfSignalStrength(imageValues[x - firstColumn][y - firstRow], lowest, highest)
+          );
+        }
+      }
 
-        // Start thread
-        attenuatorThread = new Thread(runnable);
-        attenuatorThread.start();
+      int progress;
+      synchronized (this) {
+        progress = ++tilesDone;
+      }
+      updateProgressMonitor(progress, tileCount);
+      canvas.repaint();
+    }
+  }
+
+  /**
+   * Recursively splits a list of channel tiles until each task calculates a single tile.
+   */
+  private static class ChannelTileTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final ChannelRendering rendering;
+    private final ArrayList<Point> tiles;
+    private final int from, to;
+
+    ChannelTileTask(ChannelRendering rendering, ArrayList<Point> tiles, int from, int to) {
+      this.rendering = rendering;
+      this.tiles = tiles;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      if (rendering.isCancelled() || from >= to) {
+        return;
+      }
+      if (to - from == 1) {
+        rendering.renderTile(tiles.get(from));
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(
+          new ChannelTileTask(rendering, tiles, from, middle),
+          new ChannelTileTask(rendering, tiles, middle, to)
+      );
+    }
   }
 
   /**
@@ -2330,6 +2541,12 @@ public class AreaViewer extends VisPlugin {
   }
 
   public void closePlugin() {
+    cancelChannelRendering();
+    if (channelRenderPool != null) {
+      channelRenderPool.shutdownNow();
+      channelRenderPool = null;
+    }
+
     // Remove all our observers
 
     if (currentChannelModel != null && channelModelSettingsObserver != null) {
@@ -39,6 +39,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Properties;
@@ -86,13 +88,19 @@ public class ChannelModel {
 
   private ObstacleWorld myObstacleWorld = new ObstacleWorld();
 
-  /* Log mode: visualize signal components */
-  private boolean logMode = false;
-  private StringBuilder logInfo = null;
-  private ArrayList<Line2D> loggedRays = null;
+  /* Log mode: visualize signal components. Passed to each calculation, since
+   * the channel model may be queried from several threads. */
+  private static class SignalLog {
+    final StringBuilder info = new StringBuilder();
+    final ArrayList<Line2D> rays = new ArrayList<Line2D>();
+  }
 
   private Simulation simulation;
 
+  /* Random generator of calculations outside the simulation thread, such as
+   * AreaViewer renderings, which must not change the simulation's random sequence */
+  private final Random nonSimulationRandom = new Random();
+
   
   // Ray tracing components temporary vector
   private Vector<Vector<Line2D>> calculatedVisibleSides = new Vector<Vector<Line2D>>();
@@ -101,11 +109,27 @@ public class ChannelModel {
   private Vector<AngleInterval> calculatedVisibleSidesAngleIntervals = new Vector<AngleInterval>();
   private static int maxSavedVisibleSides = 30; // Max size of lists above
 
+  // Ray tracing results between radio positions: [path gain, delay spread, RMS delay spread]
+  private static int maxSavedPathGains = 10000;
+  private LinkedHashMap<PathKey, double[]> savedPathGains =
+    new LinkedHashMap<PathKey, double[]>(256, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<PathKey, double[]> eldest) {
+        return size() > maxSavedPathGains;
+      }
+    };
+
+  private void clearSavedPathGains() {
+    synchronized (savedPathGains) {
+      savedPathGains.clear();
+    }
+  }
+
   /**
    * Notifies observers when this channel model has changed settings.
    */
   private class SettingsObservable extends Observable {
     private void notifySettingsChanged() {
+      clearSavedPathGains();
       setChanged();
       notifyObservers();
     }
@@ -305,6 +329,18 @@ public class ChannelModel {
     //parameterDescriptions.put(Parameters.rt_scatt_coefficient, "!! Scattering coefficient (dB)");
   }
 
+  /**
+   * @return Simulation random generator if called from the simulation thread,
+   * so that simulations are reproducible and checkpointable, otherwise a
+   * separate random generator
+   */
+  private Random getRandom() {
+    if (simulation.isSimulationThread()) {
+      return simulation.getRandomGenerator();
+    }
+    return nonSimulationRandom;
+  }
+
   /**
    * Adds a settings observer to this channel model.
    * Every time the settings are changed all observers
@@ -359,6 +395,7 @@ public class ChannelModel {
    */
   public void addRectObstacle(double startX, double startY, double width, double height, boolean notify) {
     myObstacleWorld.addObstacle(startX, startY, width, height);
+    clearSavedPathGains();
 
     if (notify) {
       settingsObservable.notifySettingsChanged();
@@ -1018,32 +1055,34 @@ public class ChannelModel {
     Point2D source = new Point2D.Double(sourceX, sourceY);
 
     // Check if results were already calculated earlier
-    for (int i=0; i < calculatedVisibleSidesSources.size(); i++) {
-      if (
-          // Compare sources
-          source.equals(calculatedVisibleSidesSources.get(i)) &&
-
-          // Compare angle intervals
-          (angleInterval == calculatedVisibleSidesAngleIntervals.get(i) ||
-              angleInterval != null && angleInterval.equals(calculatedVisibleSidesAngleIntervals.get(i)) ) &&
-
-              // Compare lines
-              (lookThrough == calculatedVisibleSidesLines.get(i) ||
-                  lookThrough != null && lookThrough.equals(calculatedVisibleSidesLines.get(i)) )
-      ) {
-        // Move to top of list
-        Point2D oldSource = calculatedVisibleSidesSources.remove(i);
-        Line2D oldLine = calculatedVisibleSidesLines.remove(i);
-        AngleInterval oldAngleInterval = calculatedVisibleSidesAngleIntervals.remove(i);
-        Vector<Line2D> oldVisibleLines = calculatedVisibleSides.remove(i);
-
-        calculatedVisibleSidesSources.add(0, oldSource);
-        calculatedVisibleSidesLines.add(0, oldLine);
-        calculatedVisibleSidesAngleIntervals.add(0, oldAngleInterval);
-        calculatedVisibleSides.add(0, oldVisibleLines);
-
-        // Return old results
-        return oldVisibleLines;
+    synchronized (calculatedVisibleSides) {
+      for (int i=0; i < calculatedVisibleSidesSources.size(); i++) {
+        if (
+            // Compare sources
+            source.equals(calculatedVisibleSidesSources.get(i)) &&
+
+            // Compare angle intervals
+            (angleInterval == calculatedVisibleSidesAngleIntervals.get(i) ||
+                angleInterval != null && angleInterval.equals(calculatedVisibleSidesAngleIntervals.get(i)) ) &&
+
+                // Compare lines
+                (lookThrough == calculatedVisibleSidesLines.get(i) ||
+                    lookThrough != null && lookThrough.equals(calculatedVisibleSidesLines.get(i)) )
+        ) {
+          // Move to top of list
+          Point2D oldSource = calculatedVisibleSidesSources.remove(i);
+          Line2D oldLine = calculatedVisibleSidesLines.remove(i);
+          AngleInterval oldAngleInterval = calculatedVisibleSidesAngleIntervals.remove(i);
+          Vector<Line2D> oldVisibleLines = calculatedVisibleSides.remove(i);
+
+          calculatedVisibleSidesSources.add(0, oldSource);
+          calculatedVisibleSidesLines.add(0, oldLine);
+          calculatedVisibleSidesAngleIntervals.add(0, oldAngleInterval);
+          calculatedVisibleSides.add(0, oldVisibleLines);
+
+          // Return old results
+          return oldVisibleLines;
+        }
       }
     }
 
@@ -1385,19 +1424,21 @@ public class ChannelModel {
     } // End of outer loop
 
     // Save results in order to speed up later calculations
-    int size = calculatedVisibleSides.size();
-    // Crop saved sides vectors
-    if (size >= maxSavedVisibleSides) {
-      calculatedVisibleSides.remove(size-1);
-      calculatedVisibleSidesSources.remove(size-1);
-      calculatedVisibleSidesAngleIntervals.remove(size-1);
-      calculatedVisibleSidesLines.remove(size-1);
-    }
+    synchronized (calculatedVisibleSides) {
+      int size = calculatedVisibleSides.size();
+      // Crop saved sides vectors
+      if (size >= maxSavedVisibleSides) {
+        calculatedVisibleSides.remove(size-1);
+        calculatedVisibleSidesSources.remove(size-1);
+        calculatedVisibleSidesAngleIntervals.remove(size-1);
+        calculatedVisibleSidesLines.remove(size-1);
+      }
 
-    calculatedVisibleSides.add(0, visibleLines);
-    calculatedVisibleSidesSources.add(0, source);
-    calculatedVisibleSidesAngleIntervals.add(0, angleInterval);
-    calculatedVisibleSidesLines.add(0, lookThrough);
+      calculatedVisibleSides.add(0, visibleLines);
+      calculatedVisibleSidesSources.add(0, source);
+      calculatedVisibleSidesAngleIntervals.add(0, angleInterval);
+      calculatedVisibleSidesLines.add(0, lookThrough);
+    }
 
     return visibleLines;
   }
@@ -1420,15 +1461,75 @@ public class ChannelModel {
    *         the random variable mean, and the second is the variance.
    */
   public double[] getReceivedSignalStrength(TxPair txPair) {
-    return getTransmissionData(txPair, TransmissionData.SIGNAL_STRENGTH);
+    return getTransmissionData(txPair, TransmissionData.SIGNAL_STRENGTH, null);
   }
   
 
   // TODO Fix better data type support
-  private double[] getTransmissionData(TxPair txPair, TransmissionData dataType) {
+  private double[] getTransmissionData(TxPair txPair, TransmissionData dataType, SignalLog log) {
+    double accumulatedVariance = 0;
+
+    /* The ray traced path gain only depends on positions and settings:
+     * reuse earlier results between radios */
+    double[] pathGainData;
+    if (txPair instanceof RadioPair && log == null) {
+      PathKey key = new PathKey(txPair.getFromX(), txPair.getFromY(), txPair.getToX(), txPair.getToY());
+      synchronized (savedPathGains) {
+        pathGainData = savedPathGains.get(key);
+      }
+      if (pathGainData == null) {
+        pathGainData = getPathGain(txPair, null);
+        synchronized (savedPathGains) {
+          savedPathGains.put(key, pathGainData);
+        }
+      }
+    } else {
+      pathGainData = getPathGain(txPair, log);
+    }
+    double totalPathGain = pathGainData[0];
+    double delaySpread = pathGainData[1];
+    double delaySpreadRMS = pathGainData[2];
+
+    // - Calculate received power -
+    // Using formula (dB)
+    //  Received power = Output power + System gain + Transmitter gain + Path Loss + Receiver gain
+    // TODO Update formulas
+    double outputPower = txPair.getTxPower();
+    double systemGain = getParameterDoubleValue(Parameter.system_gain_mean);
+    if (getParameterBooleanValue(Parameter.apply_random)) {
+      Random random = getRandom();
+      systemGain += Math.sqrt(getParameterDoubleValue(Parameter.system_gain_var)) * random.nextGaussian();
+    } else {
+      accumulatedVariance += getParameterDoubleValue(Parameter.system_gain_var);
+    }
+
+    double transmitterGain = 0;
+    if (getParameterBooleanValue(Parameter.tx_with_gain)) {
+      transmitterGain = txPair.getTxGain();
+    }
+
+    double receivedPower = outputPower + systemGain + transmitterGain + totalPathGain;
+    if (log != null) {
+        log.info.append("\nReceived signal strength: " + String.format("%2.3f", receivedPower) + " dB (variance " + accumulatedVariance + ")\n");
+    }
+
+    if (dataType == TransmissionData.DELAY_SPREAD || dataType == TransmissionData.DELAY_SPREAD_RMS) {
+      return new double[] {delaySpread, delaySpreadRMS};
+    }
+
+    return new double[] {receivedPower, accumulatedVariance};
+  }
+
+  /**
+   * Ray traces all paths between the transmitter and receiver positions.
+   *
+   * @param txPair Transmitter and receiver
+   * @param log Signal log, or null
+   * @return Total path gain (dB), delay spread and RMS delay spread
+   */
+  private double[] getPathGain(TxPair txPair, SignalLog log) {
     Point2D source = txPair.getFrom();
     Point2D dest = txPair.getTo();
-    double accumulatedVariance = 0;
 
     // - Get all ray paths from source to destination -
     RayData originRayData = new RayData(
@@ -1447,14 +1548,14 @@ public class ChannelModel {
     // Calculate all paths from source to destination, using above calculated tree
     Vector<RayPath> allPaths = getConnectingPaths(source, dest, visibleLinesTree);
 
-    if (logMode) {
-      logInfo.append("Signal components:\n");
+    if (log != null) {
+      log.info.append("Signal components:\n");
       Enumeration<RayPath> pathsEnum = allPaths.elements();
       while (pathsEnum.hasMoreElements()) {
         RayPath currentPath = pathsEnum.nextElement();
-        logInfo.append("* " + currentPath + "\n");
+        log.info.append("* " + currentPath + "\n");
         for (int i=0; i < currentPath.getSubPathCount(); i++) {
-          loggedRays.add(currentPath.getSubPath(i));
+          log.rays.add(currentPath.getSubPath(i));
         }
       }
     }
@@ -1575,13 +1676,13 @@ public class ChannelModel {
 
         // Using Rician fading approach, TODO Only one best signal considered - combine these? (need two limits)
         totalPathGain += Math.pow(10, pathGain[i]/10.0)*Math.cos(2*Math.PI * pathModdedLengths[i]/wavelength);
-        if (logMode) {
-          logInfo.append("Signal component: " + String.format("%2.3f", pathGain[i]) + " dB, phase " + String.format("%2.3f", (2*/*Math.PI* */ pathModdedLengths[i]/wavelength)) + " pi\n");
+        if (log != null) {
+          log.info.append("Signal component: " + String.format("%2.3f", pathGain[i]) + " dB, phase " + String.format("%2.3f", (2*/*Math.PI* */ pathModdedLengths[i]/wavelength)) + " pi\n");
         }
-      } else if (logMode) {
+      } else if (log != null) {
         /* TODO Log mode affects result? */
         pathModdedLengths[i] = (pathLengths[i] - pathLengths[bestSignalNr]) % wavelength;
-        logInfo.append("(IGNORED) Signal component: " + String.format("%2.3f", pathGain[i]) + " dB, phase " + String.format("%2.3f", (2*/*Math.PI* */ pathModdedLengths[i]/wavelength)) + " pi\n");
+        log.info.append("(IGNORED) Signal component: " + String.format("%2.3f", pathGain[i]) + " dB, phase " + String.format("%2.3f", (2*/*Math.PI* */ pathModdedLengths[i]/wavelength)) + " pi\n");
       }
 
     }
@@ -1594,40 +1695,13 @@ public class ChannelModel {
     // Convert back to dB
     totalPathGain = 10*Math.log10(Math.abs(totalPathGain));
 
-    if (logMode) {
-        logInfo.append("\nTotal path gain: " + String.format("%2.3f", totalPathGain) + " dB\n");
-        logInfo.append("Delay spread: " + String.format("%2.3f", delaySpread) + "\n");
-        logInfo.append("RMS delay spread: " + String.format("%2.3f", delaySpreadRMS) + "\n");
+    if (log != null) {
+        log.info.append("\nTotal path gain: " + String.format("%2.3f", totalPathGain) + " dB\n");
+        log.info.append("Delay spread: " + String.format("%2.3f", delaySpread) + "\n");
+        log.info.append("RMS delay spread: " + String.format("%2.3f", delaySpreadRMS) + "\n");
     }
 
-    // - Calculate received power -
-    // Using formula (dB)
-    //  Received power = Output power + System gain + Transmitter gain + Path Loss + Receiver gain
-    // TODO Update formulas
-    double outputPower = txPair.getTxPower();
-    double systemGain = getParameterDoubleValue(Parameter.system_gain_mean);
-    if (getParameterBooleanValue(Parameter.apply_random)) {
-      Random random = new Random(); /* TODO Use main random generator? */
-      systemGain += Math.sqrt(getParameterDoubleValue(Parameter.system_gain_var)) * random.nextGaussian();
-    } else {
-      accumulatedVariance += getParameterDoubleValue(Parameter.system_gain_var);
-    }
-
-    double transmitterGain = 0;
-    if (getParameterBooleanValue(Parameter.tx_with_gain)) {
-      transmitterGain = txPair.getTxGain();
-    }
-
-    double receivedPower = outputPower + systemGain + transmitterGain + totalPathGain;
-    if (logMode) {
-        logInfo.append("\nReceived signal strength: " + String.format("%2.3f", receivedPower) + " dB (variance " + accumulatedVariance + ")\n");
-    }
-
-    if (dataType == TransmissionData.DELAY_SPREAD || dataType == TransmissionData.DELAY_SPREAD_RMS) {
-      return new double[] {delaySpread, delaySpreadRMS};
-    }
-
-    return new double[] {receivedPower, accumulatedVariance};
+    return new double[] {totalPathGain, delaySpread, delaySpreadRMS};
   }
 
   public class TrackedSignalComponents {
@@ -1648,21 +1722,13 @@ public class ChannelModel {
    */
   public TrackedSignalComponents getRaysOfTransmission(TxPair txPair) {
     TrackedSignalComponents tsc = new TrackedSignalComponents();
-
-    logInfo = new StringBuilder();
-    loggedRays = new ArrayList<Line2D>();
+    SignalLog log = new SignalLog();
 
     /* TODO Include background noise? */
-    logMode = true;
-    getProbability(txPair, -Double.MAX_VALUE);
-    logMode = false;
+    getProbability(txPair, -Double.MAX_VALUE, log);
 
-    tsc.log = logInfo.toString();
-    tsc.components = loggedRays;
-    
-    logInfo = null;
-    loggedRays = null;
-    
+    tsc.log = log.info.toString();
+    tsc.components = log.rays;
     return tsc;
   }
 
@@ -1682,10 +1748,14 @@ public class ChannelModel {
    * The third value is the received signal strength which may be used in comparison with interference etc.
    */
   public double[] getSINR(TxPair txPair, double interference) {
+    return getSINR(txPair, interference, null);
+  }
+
+  private double[] getSINR(TxPair txPair, double interference, SignalLog log) {
     /* TODO Cache values: called repeatedly with noise sources. */
 
     // Calculate received signal strength
-    double[] signalStrength = getReceivedSignalStrength(txPair);
+    double[] signalStrength = getTransmissionData(txPair, TransmissionData.SIGNAL_STRENGTH, log);
     double[] snrData = new double[] { signalStrength[0], signalStrength[1], signalStrength[0] };
 
     // Add antenna gain
@@ -1701,7 +1771,7 @@ public class ChannelModel {
     }
 
     if (getParameterBooleanValue(Parameter.apply_random)) {
-      Random random = new Random(); /* TODO Use main random generator? */
+      Random random = getRandom();
       noiseMean += Math.sqrt(noiseVariance) * random.nextGaussian();
       noiseVariance = 0;
     }
@@ -1710,8 +1780,8 @@ public class ChannelModel {
     snrData[0] -= noiseMean;
     snrData[1] += noiseVariance;
 
-    if (logMode) {
-        logInfo.append("\nReceived SNR: " + String.format("%2.3f", snrData[0]) + " dB (variance " + snrData[1] + ")\n");
+    if (log != null) {
+        log.info.append("\nReceived SNR: " + String.format("%2.3f", snrData[0]) + " dB (variance " + snrData[1] + ")\n");
     }
     return snrData;
   }
@@ -1734,7 +1804,11 @@ public class ChannelModel {
    * @return [Probability of reception, signal strength at destination]
    */
   public double[] getProbability(TxPair txPair, double interference) {
-    double[] snrData = getSINR(txPair, interference);
+    return getProbability(txPair, interference, null);
+  }
+
+  private double[] getProbability(TxPair txPair, double interference, SignalLog log) {
+    double[] snrData = getSINR(txPair, interference, log);
     double snrMean = snrData[0];
     double snrVariance = snrData[1];
     double signalStrength = snrData[2];
@@ -1744,8 +1818,8 @@ public class ChannelModel {
     // Check signal strength against receiver sensitivity and interference
     if (rxSensitivity > signalStrength - snrMean && 
                 threshold < rxSensitivity + snrMean - signalStrength) {
-      if (logMode) {
-        logInfo.append("Weak signal: increasing threshold\n");
+      if (log != null) {
+        log.info.append("Weak signal: increasing threshold\n");
       }
 
       // Keeping snr variance but increasing theshold to sensitivity
@@ -1768,8 +1842,8 @@ public class ChannelModel {
     // (Using error algorithm method, much faster than taylor approximation!)
     double probReception = 1 - GaussianWrapper.cdfErrorAlgo(threshold, snrMean, snrStdDev);
 
-    if (logMode) {
-      logInfo.append("Reception probability: " + String.format("%1.1f%%", 100*probReception) + "\n");
+    if (log != null) {
+      log.info.append("Reception probability: " + String.format("%1.1f%%", 100*probReception) + "\n");
     }
 
     // Returns probabilities
@@ -1792,7 +1866,7 @@ public class ChannelModel {
    * @return RMS delay spread
    */
   public double getRMSDelaySpread(TxPair tx) {
-    return getTransmissionData(tx, TransmissionData.DELAY_SPREAD)[1];
+    return getTransmissionData(tx, TransmissionData.DELAY_SPREAD, null)[1];
   }
 
   /**
@@ -1889,6 +1963,36 @@ public class ChannelModel {
     return true;
   }
 
+  /**
+   * Transmitter and receiver positions, used as key for saved path gains.
+   */
+  private static class PathKey {
+    private final double fromX, fromY, toX, toY;
+
+    public PathKey(double fromX, double fromY, double toX, double toY) {
+      this.fromX = fromX;
+      this.fromY = fromY;
+      this.toX = toX;
+      this.toY = toY;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof PathKey)) {
+        return false;
+      }
+      PathKey k = (PathKey) o;
+      return fromX == k.fromX && fromY == k.fromY && toX == k.toX && toY == k.toY;
+    }
+
+    public int hashCode() {
+      long h = Double.doubleToLongBits(fromX);
+      h = 31*h + Double.doubleToLongBits(fromY);
+      h = 31*h + Double.doubleToLongBits(toX);
+      h = 31*h + Double.doubleToLongBits(toY);
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+
   public static abstract class TxPair {
     public abstract double getFromX();
     public abstract double getFromY();
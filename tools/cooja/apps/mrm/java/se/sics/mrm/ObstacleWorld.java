@@ -54,7 +54,7 @@ class ObstacleWorld {
   // All registered obstacles, with spatial information
   private int spatialResolution = 10;
   private Vector<Rectangle2D>[][] allObstaclesSpatial = new Vector[spatialResolution][spatialResolution];
-  private boolean obstaclesOrganized = false;
+  private volatile boolean obstaclesOrganized = false;
   
   // Outer bounds of all obstacles
   private Rectangle2D outerBounds = null;
@@ -118,6 +118,8 @@ class ObstacleWorld {
    * @return All obstacles containing or near center
    */
   public Vector<Rectangle2D> getAllObstaclesNear(Point2D center) {
+    ensureOrganized();
+
     double boxWidth = outerBounds.getWidth() / (double) spatialResolution;
     double boxHeight = outerBounds.getHeight() / (double) spatialResolution;
     double areaStartX = outerBounds.getMinX();
@@ -181,9 +183,7 @@ class ObstacleWorld {
    */
   public Vector<Rectangle2D> getAllObstaclesInAngleInterval(Point2D center, AngleInterval angleInterval) {
     Vector<Rectangle2D> obstaclesToReturn = new Vector<Rectangle2D>();
-    if (!obstaclesOrganized) {
-      reorganizeSpatialObstacles();
-    }
+    ensureOrganized();
     
     double boxWidth = outerBounds.getWidth() / (double) spatialResolution;
     double boxHeight = outerBounds.getHeight() / (double) spatialResolution;
@@ -540,6 +540,19 @@ class ObstacleWorld {
     obstaclesOrganized = false;
   }
   
+  /**
+   * Reorganizes obstacles unless already done. May be called concurrently.
+   */
+  private void ensureOrganized() {
+    if (!obstaclesOrganized) {
+      synchronized (this) {
+        if (!obstaclesOrganized) {
+          reorganizeSpatialObstacles();
+        }
+      }
+    }
+  }
+
   /**
    * Reorganizes all registered obstacles in order to speed up
    * searches for obstacles in spatial areas.
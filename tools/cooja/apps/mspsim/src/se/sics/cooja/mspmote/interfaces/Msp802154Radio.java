@@ -72,6 +72,11 @@ public class Msp802154Radio extends Radio802154 {
   private double[] rssiLast = new double[8];
   private int rssiLastCounter = 0;
 
+  /* Reused for every received byte and signal strength change */
+  private byte receivedByte;
+  private final MspMoteTimeEvent receiveByteEvent;
+  private final MspMoteTimeEvent rssiUpdateEvent;
+
   public Msp802154Radio(Mote m) {
     super(m);
 
@@ -81,6 +86,38 @@ public class Msp802154Radio extends Radio802154 {
       throw new IllegalStateException("Mote is not equipped with an IEEE 802.15.4 radio");
     }
 
+    receiveByteEvent = new MspMoteTimeEvent(mote, 0) {
+      public void execute(long t) {
+        super.execute(t);
+        if (!radio.isReadyToReceive()) {
+          /*logger.warn(String.format("Radio receiver not ready, dropping byte: %02x", receivedByte));*/
+        }
+        radio.receivedByte(receivedByte);
+        mote.requestImmediateWakeup();
+      }
+    };
+    rssiUpdateEvent = new MspMoteTimeEvent(mote, 0) {
+      public void execute(long t) {
+        super.execute(t);
+
+        /* Update average */
+        System.arraycopy(rssiLast, 1, rssiLast, 0, 7);
+        rssiLast[7] = currentSignalStrength;
+        double avg = 0;
+        for (double v: rssiLast) {
+          avg += v;
+        }
+        avg /= rssiLast.length;
+
+        radio.setRSSI((int) avg);
+
+        rssiLastCounter--;
+        if (rssiLastCounter > 0) {
+          mote.getSimulation().scheduleEvent(this, t+DELAY_BETWEEN_BYTES/2);
+        }
+      }
+    };
+
     radio.addRFListener(rfListener = new RFListener() {
       public void receivedByte(byte data) {
         handleTransmit(data);
@@ -115,25 +152,15 @@ public class Msp802154Radio extends Radio802154 {
   }
 
   public void handleReceive(byte b) {
-    final byte inputByte;
     if (isInterfered()) {
-      inputByte = (byte)0xFF;
+      receivedByte = (byte)0xFF;
     } else {
-      inputByte = b;
+      receivedByte = b;
     }
 
     /* XXX We need a separate time event to synchronize Mspsim's internal
      * clocks here */
-    new MspMoteTimeEvent(mote, 0) {
-      public void execute(long t) {
-        super.execute(t);
-        if (!radio.isReadyToReceive()) {
-          /*logger.warn(String.format("Radio receiver not ready, dropping byte: %02x", inputByte));*/
-        }
-        radio.receivedByte(inputByte);
-        mote.requestImmediateWakeup();
-      }
-    }.execute(mote.getSimulation().getSimulationTime());
+    receiveByteEvent.execute(mote.getSimulation().getSimulationTime());
   }
 
   public void handleStartOfReception() {
@@ -154,28 +181,8 @@ public class Msp802154Radio extends Radio802154 {
       return; /* ignored */
     }
     currentSignalStrength = signalStrength;
-    if (rssiLastCounter == 0) {
-      getMote().getSimulation().scheduleEvent(new MspMoteTimeEvent(mote, 0) {
-        public void execute(long t) {
-          super.execute(t);
-
-          /* Update average */
-          System.arraycopy(rssiLast, 1, rssiLast, 0, 7);
-          rssiLast[7] = currentSignalStrength;
-          double avg = 0;
-          for (double v: rssiLast) {
-            avg += v;
-          }
-          avg /= rssiLast.length;
-
-          radio.setRSSI((int) avg);
-
-          rssiLastCounter--;
-          if (rssiLastCounter > 0) {
-            mote.getSimulation().scheduleEvent(this, t+DELAY_BETWEEN_BYTES/2);
-          }
-        }
-      }, mote.getSimulation().getSimulationTime());
+    if (rssiLastCounter == 0 && !rssiUpdateEvent.isScheduled()) {
+      getMote().getSimulation().scheduleEvent(rssiUpdateEvent, mote.getSimulation().getSimulationTime());
     }
     rssiLastCounter = 8;
   }
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2013, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+
+package se.sics.cooja;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Statistical summary of batch runs.
+ *
+ * Runs are grouped by simulation configuration. For each configuration, every
+ * metric reported by the test scripts is summarized over all runs: mean,
+ * standard deviation, percentiles and a 95% confidence interval of the mean.
+ * If a metric is reported several times during a run, the run contributes
+ * the mean of its values. The pseudo-metric "passed" is 1 for runs whose test
+ * succeeded and 0 otherwise.
+ *
+ * @see BatchRunner
+ */
+public class BatchReport {
+  private static Logger logger = Logger.getLogger(BatchReport.class);
+
+  public static final String METRIC_PASSED = "passed";
+
+  /* Two-sided 95% t-distribution critical values, 1-30 degrees of freedom */
+  private static final double[] T_95 = {
+    12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+    2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+    2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+  };
+
+  /**
+   * Summary of a single metric.
+   */
+  public static class Summary {
+    public final String config;
+    public final String metric;
+    public final int count;
+    public final double mean, stddev;
+    public final double min, p5, p25, median, p75, p95, max;
+    public final double ciLow, ciHigh;
+
+    public Summary(String config, String metric, double[] values) {
+      this.config = config;
+      this.metric = metric;
+      double[] sorted = values.clone();
+      Arrays.sort(sorted);
+      count = sorted.length;
+
+      double sum = 0;
+      for (double v: sorted) {
+        sum += v;
+      }
+      mean = sum/count;
+      double squares = 0;
+      for (double v: sorted) {
+        squares += (v - mean)*(v - mean);
+      }
+      stddev = count > 1?Math.sqrt(squares/(count - 1)):0;
+
+      min = sorted[0];
+      p5 = percentile(sorted, 5);
+      p25 = percentile(sorted, 25);
+      median = percentile(sorted, 50);
+      p75 = percentile(sorted, 75);
+      p95 = percentile(sorted, 95);
+      max = sorted[count - 1];
+
+      double halfWidth = count > 1?tCritical(count - 1)*stddev/Math.sqrt(count):0;
+      ciLow = mean - halfWidth;
+      ciHigh = mean + halfWidth;
+    }
+  }
+
+  private ArrayList<Summary> summaries = new ArrayList<Summary>();
+
+  public BatchReport(ArrayList<BatchRunner.Run> runs) {
+    /* Collect per-run values: configuration -> metric -> values */
+    LinkedHashMap<String, LinkedHashMap<String, ArrayList<Double>>> configs =
+      new LinkedHashMap<String, LinkedHashMap<String, ArrayList<Double>>>();
+    for (BatchRunner.Run run: runs) {
+      String config = run.getConfig().getPath();
+      LinkedHashMap<String, ArrayList<Double>> metrics = configs.get(config);
+      if (metrics == null) {
+        metrics = new LinkedHashMap<String, ArrayList<Double>>();
+        configs.put(config, metrics);
+      }
+
+      add(metrics, METRIC_PASSED, BatchRunner.Run.RESULT_OK.equals(run.getResult())?1:0);
+      for (Map.Entry<String, ArrayList<Double>> e: run.getMetrics().entrySet()) {
+        double sum = 0;
+        for (double v: e.getValue()) {
+          sum += v;
+        }
+        add(metrics, e.getKey(), sum/e.getValue().size());
+      }
+    }
+
+    for (Map.Entry<String, LinkedHashMap<String, ArrayList<Double>>> c: configs.entrySet()) {
+      for (Map.Entry<String, ArrayList<Double>> m: c.getValue().entrySet()) {
+        double[] values = new double[m.getValue().size()];
+        for (int i=0; i < values.length; i++) {
+          values[i] = m.getValue().get(i);
+        }
+        summaries.add(new Summary(c.getKey(), m.getKey(), values));
+      }
+    }
+  }
+
+  private static void add(Map<String, ArrayList<Double>> metrics, String name, double value) {
+    ArrayList<Double> values = metrics.get(name);
+    if (values == null) {
+      values = new ArrayList<Double>();
+      metrics.put(name, values);
+    }
+    values.add(value);
+  }
+
+  /**
+   * @return Metric summaries
+   */
+  public ArrayList<Summary> getSummaries() {
+    return summaries;
+  }
+
+  /**
+   * @param sorted Sorted values
+   * @param p Percentile (0-100)
+   * @return Percentile, linearly interpolated between closest ranks
+   */
+  public static double percentile(double[] sorted, double p) {
+    if (sorted.length == 1) {
+      return sorted[0];
+    }
+    double rank = p/100.0*(sorted.length - 1);
+    int lower = (int) Math.floor(rank);
+    int upper = (int) Math.ceil(rank);
+    return sorted[lower] + (rank - lower)*(sorted[upper] - sorted[lower]);
+  }
+
+  private static double tCritical(int degreesOfFreedom) {
+    if (degreesOfFreedom <= T_95.length) {
+      return T_95[degreesOfFreedom - 1];
+    } else if (degreesOfFreedom <= 40) {
+      return 2.021;
+    } else if (degreesOfFreedom <= 60) {
+      return 2.000;
+    } else if (degreesOfFreedom <= 120) {
+      return 1.980;
+    }
+    return 1.960;
+  }
+
+  private static String format(double v) {
+    return String.format(Locale.US, "%.6g", v);
+  }
+
+  /* JSON has no NaN or infinity */
+  private static String formatJSON(double v) {
+    if (Double.isNaN(v) || Double.isInfinite(v)) {
+      return "null";
+    }
+    return format(v);
+  }
+
+  public void writeCSV(File file) {
+    try {
+      PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+      out.println("config,metric,runs,mean,stddev,min,p5,p25,median,p75,p95,max,ci95_low,ci95_high");
+      for (Summary s: summaries) {
+        out.println(
+            BatchRunner.csvField(s.config) + "," + BatchRunner.csvField(s.metric) + "," + s.count + "," +
+            format(s.mean) + "," + format(s.stddev) + "," +
+            format(s.min) + "," + format(s.p5) + "," + format(s.p25) + "," +
+            format(s.median) + "," + format(s.p75) + "," + format(s.p95) + "," +
+            format(s.max) + "," + format(s.ciLow) + "," + format(s.ciHigh));
+      }
+      out.close();
+      logger.info("Wrote batch report: " + file);
+    } catch (IOException e) {
+      logger.fatal("Could not write batch report to " + file + ": " + e.getMessage());
+    }
+  }
+
+  public void writeJSON(File file) {
+    try {
+      PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+      out.println("[");
+      for (int i=0; i < summaries.size(); i++) {
+        Summary s = summaries.get(i);
+        out.println("  {");
+        out.println("    \"config\": " + quote(s.config) + ",");
+        out.println("    \"metric\": " + quote(s.metric) + ",");
+        out.println("    \"runs\": " + s.count + ",");
+        out.println("    \"mean\": " + formatJSON(s.mean) + ",");
+        out.println("    \"stddev\": " + formatJSON(s.stddev) + ",");
+        out.println("    \"min\": " + formatJSON(s.min) + ",");
+        out.println("    \"percentiles\": { " +
+            "\"5\": " + formatJSON(s.p5) + ", " +
+            "\"25\": " + formatJSON(s.p25) + ", " +
+            "\"50\": " + formatJSON(s.median) + ", " +
+            "\"75\": " + formatJSON(s.p75) + ", " +
+            "\"95\": " + formatJSON(s.p95) + " },");
+        out.println("    \"max\": " + formatJSON(s.max) + ",");
+        out.println("    \"ci95\": [ " + formatJSON(s.ciLow) + ", " + formatJSON(s.ciHigh) + " ]");
+        out.println("  }" + (i < summaries.size() - 1?",":""));
+      }
+      out.println("]");
+      out.close();
+      logger.info("Wrote batch report: " + file);
+    } catch (IOException e) {
+      logger.fatal("Could not write batch report to " + file + ": " + e.getMessage());
+    }
+  }
+
+  private static String quote(String str) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (char c: str.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) 2013, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+
+package se.sics.cooja;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import se.sics.cooja.plugins.ScriptRunner;
+
+/**
+ * Executes several simulations in parallel, without visualization, in a
+ * single JVM.
+ *
+ * Each run has its own GUI and simulation. Test script results are reported
+ * to the batch runner instead of terminating Cooja, and test output is
+ * written to a separate log file per run. Simulations are loaded one at a
+ * time, so that Contiki mote types are compiled sequentially, each run
+ * getting its own mote type libraries. Loaded simulations execute in parallel.
+ *
+ * Usage:
+ * <pre>
+ * -batch [-threads=N] [-seeds=S1,S2,S3-S4 | -sweep=N] [-results=file] [-report=prefix]
+ *        [-checkpoint=file] config1.csc [config2.csc ...]
+ * </pre>
+ *
+ * -sweep=N runs each configuration with seeds 1 to N. With -report, metrics
+ * reported by test scripts via metric(name, value) are aggregated over all
+ * runs of each configuration, and written to prefix.csv and prefix.json.
+ *
+ * -checkpoint=file restores each loaded simulation from a checkpoint saved
+ * by a simulation with the same configuration, see
+ * {@link Simulation#saveCheckpoint(File)}. Runs with seeds continue from the
+ * checkpoint with the given random seed, so that many experiments can be
+ * started from for example an already converged network.
+ *
+ * @see GUI#getBatchRun()
+ * @see BatchReport
+ */
+public class BatchRunner {
+  private static Logger logger = Logger.getLogger(BatchRunner.class);
+
+  private static final String DEFAULT_RESULTS_FILE = "COOJA.batch.csv";
+
+  /* Mote type compilation and library loading are not thread-safe */
+  private static final Object loadLock = new Object();
+
+  /**
+   * A single simulation run.
+   */
+  public static class Run {
+    public static final String RESULT_OK = "OK";
+    public static final String RESULT_FAILED = "FAILED";
+    public static final String RESULT_ERROR = "ERROR";
+
+    private final int number;
+    private final File config;
+    private final Long seed;
+    private final File checkpoint;
+    private final File logFile;
+    private PrintWriter logWriter = null;
+
+    private String result = null;
+    private String message = null;
+    private long loadTime = -1;
+    private long wallTime = -1;
+    private long simulationTime = -1;
+    private LinkedHashMap<String, ArrayList<Double>> metrics = new LinkedHashMap<String, ArrayList<Double>>();
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    public Run(int number, File config, Long seed) {
+      this(number, config, seed, null);
+    }
+
+    public Run(int number, File config, Long seed, File checkpoint) {
+      this.number = number;
+      this.config = config;
+      this.seed = seed;
+      this.checkpoint = checkpoint;
+      this.logFile = new File("COOJA.batch." + number + ".testlog");
+    }
+
+    public int getNumber() {
+      return number;
+    }
+    public File getConfig() {
+      return config;
+    }
+    public Long getSeed() {
+      return seed;
+    }
+    /**
+     * @return Checkpoint restored before the run starts, or null
+     */
+    public File getCheckpoint() {
+      return checkpoint;
+    }
+    public synchronized String getResult() {
+      return result;
+    }
+    public synchronized String getMessage() {
+      return message;
+    }
+    public long getLoadTime() {
+      return loadTime;
+    }
+    public long getWallTime() {
+      return wallTime;
+    }
+    public long getSimulationTime() {
+      return simulationTime;
+    }
+
+    /**
+     * @param msg Test output
+     */
+    public synchronized void log(String msg) {
+      try {
+        if (logWriter == null) {
+          logWriter = new PrintWriter(new BufferedWriter(new FileWriter(logFile)));
+        }
+        logWriter.write(msg);
+      } catch (IOException e) {
+        logger.fatal("Error when writing to test log file " + logFile + ": " + msg, e);
+      }
+    }
+
+    /**
+     * Called when the test script reports a metric.
+     *
+     * @param name Metric name
+     * @param value Value
+     */
+    public synchronized void metric(String name, double value) {
+      ArrayList<Double> values = metrics.get(name);
+      if (values == null) {
+        values = new ArrayList<Double>();
+        metrics.put(name, values);
+      }
+      values.add(value);
+    }
+
+    /**
+     * @return All reported metrics, in reported order
+     */
+    public synchronized Map<String, ArrayList<Double>> getMetrics() {
+      return new LinkedHashMap<String, ArrayList<Double>>(metrics);
+    }
+
+    /**
+     * Called when the test script has finished.
+     *
+     * @param ok True if the test succeeded
+     */
+    public void testFinished(boolean ok) {
+      finish(ok?RESULT_OK:RESULT_FAILED, null);
+    }
+
+    /**
+     * Called at simulation or test script errors.
+     *
+     * @param msg Error message
+     */
+    public void error(String msg) {
+      finish(RESULT_ERROR, msg);
+    }
+
+    private synchronized void finish(String result, String msg) {
+      if (this.result != null) {
+        return;
+      }
+      this.result = result;
+      this.message = msg;
+      finished.countDown();
+    }
+
+    private synchronized void closeLog() {
+      if (logWriter != null) {
+        logWriter.close();
+        logWriter = null;
+      }
+    }
+
+    private void execute() {
+      long startTime = System.currentTimeMillis();
+      Simulation sim = null;
+      GUI gui = null;
+      try {
+        synchronized (loadLock) {
+          logger.info("Loading run " + number + ": " + config + (seed!=null?" (seed " + seed + ")":""));
+          gui = new GUI(GUI.createDesktopPane());
+          gui.setBatchRun(this);
+          sim = gui.loadSimulationConfig(config, true, seed);
+          if (sim == null) {
+            error("Simulation could not be loaded");
+            return;
+          }
+          gui.setSimulation(sim, false);
+        }
+        long runStartTime = System.currentTimeMillis();
+        loadTime = runStartTime - startTime;
+
+        boolean hasTest = false;
+        for (Plugin p: gui.getStartedPlugins()) {
+          if (p instanceof ScriptRunner) {
+            hasTest = true;
+          }
+        }
+        if (!hasTest) {
+          error("No test editor controlling simulation");
+          return;
+        }
+        log("Random seed: " + sim.getRandomSeed() + "\n");
+
+        /* Finish when simulation stops */
+        final Simulation simulation = sim;
+        sim.addObserver(new Observer() {
+          public void update(Observable obs, Object obj) {
+            if (!simulation.isRunning()) {
+              error("Simulation stopped before test finished");
+            }
+          }
+        });
+        if (!sim.isRunning()) {
+          error("Simulation stopped before test finished");
+        }
+
+        finished.await();
+        wallTime = System.currentTimeMillis() - runStartTime;
+        simulationTime = sim.getSimulationTimeMillis();
+        log("Test ended at simulation time: " + sim.getSimulationTime() + "\n");
+      } catch (Throwable e) {
+        logger.fatal("Run " + number + " failed: " + e.getMessage(), e);
+        error(e.getMessage());
+      } finally {
+        if (gui != null) {
+          gui.doRemoveSimulation(false);
+        }
+        closeLog();
+        logger.info("Run " + number + " finished: " + getResult());
+      }
+    }
+  }
+
+  /**
+   * Executes batch runs as given by command line arguments.
+   *
+   * @param args Command line arguments
+   * @return Exit code: 0 if all tests succeeded
+   */
+  public static int run(String[] args) {
+    int threads = Runtime.getRuntime().availableProcessors();
+    File resultsFile = new File(DEFAULT_RESULTS_FILE);
+    String reportPrefix = null;
+    File checkpoint = null;
+    ArrayList<Long> seeds = new ArrayList<Long>();
+    ArrayList<File> configs = new ArrayList<File>();
+
+    for (int i=1; i < args.length; i++) {
+      String arg = args[i];
+      try {
+        if (arg.startsWith("-threads=")) {
+          threads = Integer.parseInt(arg.substring("-threads=".length()));
+        } else if (arg.startsWith("-seeds=")) {
+          seeds.addAll(parseSeeds(arg.substring("-seeds=".length())));
+        } else if (arg.startsWith("-sweep=")) {
+          int count = Integer.parseInt(arg.substring("-sweep=".length()));
+          for (long seed = 1; seed <= count; seed++) {
+            seeds.add(seed);
+          }
+        } else if (arg.startsWith("-report=")) {
+          reportPrefix = arg.substring("-report=".length());
+        } else if (arg.startsWith("-checkpoint=")) {
+          checkpoint = new File(arg.substring("-checkpoint=".length()));
+        } else if (arg.startsWith("-results=")) {
+          resultsFile = new File(arg.substring("-results=".length()));
+        } else if (arg.startsWith("-")) {
+          /* General arguments, parsed by GUI */
+        } else {
+          configs.add(new File(arg));
+        }
+      } catch (NumberFormatException e) {
+        logger.fatal("Bad argument: " + arg);
+        return 1;
+      }
+    }
+    if (configs.isEmpty()) {
+      logger.fatal("No simulation configurations");
+      return 1;
+    }
+    if (seeds.isEmpty()) {
+      seeds.add(null);
+    }
+
+    ArrayList<Run> runs = new ArrayList<Run>();
+    for (File config: configs) {
+      for (Long seed: seeds) {
+        runs.add(new Run(runs.size()+1, config, seed, checkpoint));
+      }
+    }
+
+    if (!execute(runs, threads)) {
+      logger.fatal("Batch execution interrupted");
+      return 1;
+    }
+    writeResults(runs, resultsFile);
+    if (reportPrefix != null) {
+      BatchReport report = new BatchReport(runs);
+      report.writeCSV(new File(reportPrefix + ".csv"));
+      report.writeJSON(new File(reportPrefix + ".json"));
+    }
+
+    int failed = 0;
+    for (Run r: runs) {
+      if (!Run.RESULT_OK.equals(r.getResult())) {
+        failed++;
+      }
+    }
+    logger.info("Batch finished: " + (runs.size() - failed) + "/" + runs.size() + " runs OK, results in " + resultsFile);
+    return failed == 0?0:1;
+  }
+
+  /**
+   * Executes runs on a thread pool.
+   *
+   * @param runs Runs
+   * @param threads Max number of parallel runs
+   * @return True if all runs finished
+   */
+  public static boolean execute(ArrayList<Run> runs, int threads) {
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    for (final Run r: runs) {
+      pool.execute(new Runnable() {
+        public void run() {
+          r.execute();
+        }
+      });
+    }
+    pool.shutdown();
+    try {
+      while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+      }
+    } catch (InterruptedException e) {
+      pool.shutdownNow();
+      return false;
+    }
+    return true;
+  }
+
+  private static ArrayList<Long> parseSeeds(String str) {
+    ArrayList<Long> seeds = new ArrayList<Long>();
+    for (String s: str.split(",")) {
+      s = s.trim();
+      int range = s.indexOf('-', 1);
+      if (range > 0) {
+        long from = Long.parseLong(s.substring(0, range).trim());
+        long to = Long.parseLong(s.substring(range+1).trim());
+        for (long seed = from; seed <= to; seed++) {
+          seeds.add(seed);
+        }
+      } else if (s.length() > 0) {
+        seeds.add(Long.parseLong(s));
+      }
+    }
+    return seeds;
+  }
+
+  private static void writeResults(ArrayList<Run> runs, File file) {
+    try {
+      PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+      out.println("run,config,seed,result,load_ms,wall_ms,simulated_ms,ratio,message");
+      for (Run r: runs) {
+        double ratio = r.getWallTime() > 0?((double)r.getSimulationTime())/r.getWallTime():0;
+        out.println(
+            r.getNumber() + "," +
+            csvField(r.getConfig().getPath()) + "," +
+            (r.getSeed()!=null?r.getSeed():"") + "," +
+            r.getResult() + "," +
+            r.getLoadTime() + "," +
+            r.getWallTime() + "," +
+            r.getSimulationTime() + "," +
+            String.format(Locale.US, "%.3f", ratio) + "," +
+            (r.getMessage()!=null?csvField(r.getMessage()):""));
+      }
+      out.close();
+    } catch (IOException e) {
+      logger.fatal("Could not write batch results to " + file + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Formats a CSV field (RFC 4180).
+   * Fields containing commas, quotes or line breaks are quoted,
+   * and quotes are doubled.
+   *
+   * @param value Field value
+   * @return CSV field
+   */
+  static String csvField(String value) {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 &&
+        value.indexOf('\r') < 0 && value.indexOf('\n') < 0) {
+      return value;
+    }
+    return "\"" + value.replace("\"", "\"\"") + "\"";
+  }
+}
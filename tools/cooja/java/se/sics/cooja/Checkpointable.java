@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2013, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+
+package se.sics.cooja;
+
+import java.io.IOException;
+
+/**
+ * Simulation component whose runtime state can be saved to, and restored
+ * from, a simulation checkpoint.
+ *
+ * Only state that is not already part of the simulation config should be
+ * saved. Scheduled time events are saved with
+ * {@link SimulationCheckpoint#writeEvent(TimeEvent)}, and are rescheduled on
+ * restore with {@link SimulationCheckpoint#readEvent(TimeEvent)}.
+ *
+ * @see SimulationCheckpoint
+ */
+public interface Checkpointable {
+
+  /**
+   * Saves runtime state.
+   *
+   * @param checkpoint Checkpoint
+   * @throws IOException If state could not be saved, for example since an
+   * operation that cannot be checkpointed is in progress
+   */
+  public void saveCheckpoint(SimulationCheckpoint checkpoint) throws IOException;
+
+  /**
+   * Restores runtime state, in the same order as it was saved.
+   *
+   * @param checkpoint Checkpoint
+   * @throws IOException If state could not be restored
+   */
+  public void restoreCheckpoint(SimulationCheckpoint checkpoint) throws IOException;
+
+}
@@ -32,6 +32,7 @@ package se.sics.cooja;
 import java.io.*;
 import java.lang.reflect.*;
 import java.net.*;
+import java.util.HashSet;
 import java.util.Vector;
 
 import se.sics.cooja.MoteType.MoteTypeCreationException;
@@ -78,6 +79,9 @@ public abstract class CoreComm {
 
   private static int fileCounter = 1;
 
+  /* Class names of generated and compiled core communicator classes */
+  private final static HashSet<String> createdClassNames = new HashSet<String>();
+
   /**
    * Has any library been loaded? Since libraries can't be unloaded the entire
    * simulator may have to be restarted.
@@ -109,13 +113,14 @@ public abstract class CoreComm {
   }
 
   /**
-   * Get the class name of next free core communicator class. If null is
-   * returned, no classes are available.
+   * Returns the class name of next free core communicator class. A returned
+   * class name is never returned again. If null is returned, no classes are
+   * available.
    *
    * @return Class name
    */
-  public static String getAvailableClassName() {
-    return "Lib" + fileCounter;
+  public static synchronized String getAvailableClassName() {
+    return "Lib" + fileCounter++;
   }
 
   /**
@@ -277,22 +282,49 @@ public abstract class CoreComm {
     throw exception;
   }
 
+  /**
+   * Class loader loading core communicator classes itself, before delegating
+   * to its parent. Every loader hence defines its own core communicator
+   * class, bound to its own native library, even if the generated classes
+   * are also reachable from the parent class loader.
+   */
+  private static class CoreCommClassLoader extends URLClassLoader {
+    public CoreCommClassLoader(URL[] urls, ClassLoader parent) {
+      super(urls, parent);
+    }
+
+    protected synchronized Class<?> loadClass(String name, boolean resolve)
+        throws ClassNotFoundException {
+      if (!name.startsWith("se.sics.cooja.corecomm.")) {
+        return super.loadClass(name, resolve);
+      }
+      Class<?> c = findLoadedClass(name);
+      if (c == null) {
+        c = findClass(name);
+      }
+      if (resolve) {
+        resolveClass(c);
+      }
+      return c;
+    }
+  }
+
   /**
    * Loads given Java class file from disk.
    *
    * @param className Java class name
-   * @return Loaded class
+   * @return Loaded core communicator class
    * @throws MoteTypeCreationException If error occurs
    */
-  public static Class<?> loadClassFile(String className)
+  public static Class<? extends CoreComm> loadClassFile(String className)
       throws MoteTypeCreationException {
-    Class<?> loadedClass = null;
+    Class<? extends CoreComm> loadedClass = null;
     try {
-      ClassLoader urlClassLoader = new URLClassLoader(
+      ClassLoader urlClassLoader = new CoreCommClassLoader(
           new URL[] { new File(".").toURI().toURL() },
           CoreComm.class.getClassLoader());
       loadedClass = urlClassLoader.loadClass("se.sics.cooja.corecomm."
-          + className);
+          + className).asSubclass(CoreComm.class);
 
     } catch (MalformedURLException e) {
       throw (MoteTypeCreationException) new MoteTypeCreationException(
@@ -302,6 +334,10 @@ public abstract class CoreComm {
       throw (MoteTypeCreationException) new MoteTypeCreationException(
           "Could not load corecomm class file: " + className + ".class")
           .initCause(e);
+    } catch (ClassCastException e) {
+      throw (MoteTypeCreationException) new MoteTypeCreationException(
+          "Not a corecomm class: " + className)
+          .initCause(e);
     }
     if (loadedClass == null) {
       throw new MoteTypeCreationException(
@@ -315,6 +351,10 @@ public abstract class CoreComm {
    * Create and return an instance of the core communicator identified by
    * className. This core communicator will load the native library libFile.
    *
+   * The class name may already be in use, for example by a cached library
+   * compiled for the same class name. The core communicator class is loaded
+   * by its own class loader, and is bound only to the given library.
+   *
    * @param className
    *          Class name of core communicator
    * @param libFile
@@ -323,21 +363,85 @@ public abstract class CoreComm {
    */
   public static CoreComm createCoreComm(String className, File libFile)
       throws MoteTypeCreationException {
-    generateLibSourceFile(className);
-
-    compileSourceFile(className);
+    synchronized (CoreComm.class) {
+      if (!createdClassNames.contains(className)) {
+        generateLibSourceFile(className);
+        compileSourceFile(className);
+        createdClassNames.add(className);
+      }
+    }
 
-    Class newCoreCommClass = loadClassFile(className);
+    Class<? extends CoreComm> newCoreCommClass = loadClassFile(className);
 
     try {
-      Constructor constr = newCoreCommClass
-          .getConstructor(new Class[] { File.class });
-      CoreComm newCoreComm = (CoreComm) constr
+      Constructor<? extends CoreComm> constr = newCoreCommClass
+          .getConstructor(new Class<?>[] { File.class });
+      CoreComm newCoreComm = constr
           .newInstance(new Object[] { libFile });
 
       coreComms.add(newCoreComm);
       coreCommFiles.add(libFile);
-      fileCounter++;
+
+      return newCoreComm;
+    } catch (Exception e) {
+      throw (MoteTypeCreationException) new MoteTypeCreationException(
+          "Error when creating corecomm instance: " + className).initCause(e);
+    }
+  }
+
+  /**
+   * Create and return an additional instance of an already created core
+   * communicator. The native library is copied to a temporary file, and the
+   * core communicator class is loaded by a new class loader. This gives the
+   * instance a private copy of all native code and data, while the native
+   * function names compiled into the library still match the class name.
+   *
+   * @see #createCoreComm(String, File)
+   * @param className
+   *          Class name of already created core communicator
+   * @param libFile
+   *          Native library file
+   * @return Core Communicator
+   */
+  public static CoreComm createCoreCommInstance(String className, File libFile)
+      throws MoteTypeCreationException {
+    File libCopy;
+    try {
+      libCopy = File.createTempFile(className + "_", "_" + libFile.getName());
+      libCopy.deleteOnExit();
+
+      InputStream in = new FileInputStream(libFile);
+      OutputStream out = new FileOutputStream(libCopy);
+      byte[] buf = new byte[8192];
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        out.write(buf, 0, n);
+      }
+      in.close();
+      out.close();
+    } catch (IOException e) {
+      throw (MoteTypeCreationException) new MoteTypeCreationException(
+          "Could not copy library file: " + libFile).initCause(e);
+    }
+
+    Class<? extends CoreComm> newCoreCommClass = loadClassFile(className);
+
+    /* Each instance must use its own class, or it shares native code and data */
+    for (CoreComm coreComm : coreComms) {
+      if (coreComm.getClass() == newCoreCommClass) {
+        throw new MoteTypeCreationException(
+            "Core communicator class already loaded: " + className);
+      }
+    }
+
+    try {
+      Constructor<? extends CoreComm> constr = newCoreCommClass
+          .getConstructor(new Class<?>[] { File.class });
+      CoreComm newCoreComm = constr
+          .newInstance(new Object[] { libCopy });
+
+      coreComms.add(newCoreComm);
+      coreCommFiles.add(libCopy);
 
       return newCoreComm;
     } catch (Exception e) {
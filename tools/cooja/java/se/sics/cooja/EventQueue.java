@@ -31,14 +31,29 @@
 
 package se.sics.cooja;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 /**
+ * Simulation event queue.
+ *
+ * Events are kept in a 4-ary min-heap ordered by execution time. Events
+ * with the same execution time are executed in the order they were added.
+ * Each event stores its own heap index, so an already queued event can be
+ * removed or rescheduled in O(log n).
+ *
  * @author Joakim Eriksson (ported to COOJA by Fredrik Osterlind)
  */
 public class EventQueue {
 
-  private TimeEvent first;
+  private static final int ARITY = 4;
+
+  private TimeEvent[] heap = new TimeEvent[64];
   private int eventCount = 0;
 
+  /* Insertion counter, used to keep FIFO order for equal times */
+  private long sequence = 0;
+
   /**
    * Should only be called from simulation thread!
    *
@@ -46,11 +61,6 @@ public class EventQueue {
    * @param time Time
    */
   public void addEvent(TimeEvent event, long time) {
-    event.time = time;
-    addEvent(event);
-  }
-
-  private void addEvent(TimeEvent event) {
     if (event.queue != null) {
       if (event.isScheduled) {
         throw new IllegalStateException("Event is already scheduled: " + event);
@@ -58,29 +68,15 @@ public class EventQueue {
       removeFromQueue(event);
     }
 
-    if (first == null) {
-      first = event;
-    } else {
-      TimeEvent pos = first;
-      TimeEvent lastPos = first;
-      while (pos != null && pos.time <= event.time) {
-        lastPos = pos;
-        pos = pos.nextEvent;
-      }
-      // Here pos will be the first TE after event
-      // and lastPos the first before
-      if (pos == first) {
-        // Before all other
-        event.nextEvent = pos;
-        first = event;
-      } else {
-        event.nextEvent = pos;
-        lastPos.nextEvent = event;
-      }
+    event.time = time;
+    event.sequence = sequence++;
+    if (eventCount == heap.length) {
+      heap = Arrays.copyOf(heap, heap.length * 2);
     }
     event.queue = this;
     event.isScheduled = true;
     eventCount++;
+    siftUp(event, eventCount - 1);
   }
 
   /**
@@ -90,38 +86,58 @@ public class EventQueue {
    * @return True if event was removed
    */
   private boolean removeFromQueue(TimeEvent event) {
-    TimeEvent pos = first;
-    TimeEvent lastPos = first;
-
-    while (pos != null && pos != event) {
-      lastPos = pos;
-      pos = pos.nextEvent;
-    }
-    if (pos == null) {
+    int index = event.queueIndex;
+    if (event.queue != this || index < 0 || index >= eventCount || heap[index] != event) {
       return false;
     }
-    // pos == event!
-    if (pos == first) {
-      // remove it from first pos.
-      first = pos.nextEvent;
-    } else {
-      // else link prev to next...
-      lastPos.nextEvent = pos.nextEvent;
+
+    eventCount--;
+    TimeEvent last = heap[eventCount];
+    heap[eventCount] = null;
+    if (index < eventCount) {
+      /* Move last event into the hole, and restore heap order */
+      if (index > 0 && isBefore(last, heap[(index - 1) / ARITY])) {
+        siftUp(last, index);
+      } else {
+        siftDown(last, index);
+      }
     }
-    // unlink
-    pos.nextEvent = null;
 
+    event.queueIndex = -1;
     event.queue = null;
     event.isScheduled = false;
-    eventCount--;
     return true;
   }
 
+  /**
+   * Removes all events associated with given mote.
+   *
+   * Should only be called from simulation thread!
+   *
+   * @param mote Mote
+   */
+  public void removeAll(Mote mote) {
+    ArrayList<TimeEvent> moteEvents = new ArrayList<TimeEvent>();
+    for (int i = 0; i < eventCount; i++) {
+      TimeEvent ev = heap[i];
+      if (ev instanceof MoteTimeEvent && ((MoteTimeEvent)ev).getMote() == mote) {
+        moteEvents.add(ev);
+      }
+    }
+    for (TimeEvent ev: moteEvents) {
+      removeFromQueue(ev);
+    }
+  }
+
   public void removeAll() {
-    TimeEvent event = popFirst();
-    while (event != null) {
-      event = popFirst();
+    for (int i = 0; i < eventCount; i++) {
+      TimeEvent ev = heap[i];
+      heap[i] = null;
+      ev.queueIndex = -1;
+      ev.queue = null;
+      ev.isScheduled = false;
     }
+    eventCount = 0;
   }
 
   /**
@@ -130,29 +146,70 @@ public class EventQueue {
    * @return Event
    */
   public TimeEvent popFirst() {
-    TimeEvent tmp = first;
-    if (tmp == null) {
-      return null;
+    while (eventCount > 0) {
+      TimeEvent tmp = heap[0];
+      boolean isScheduled = tmp.isScheduled;
+      removeFromQueue(tmp);
+
+      if (isScheduled) {
+        return tmp;
+      }
+      /* pop and return another event instead */
     }
+    return null;
+  }
 
-    first = tmp.nextEvent;
-    // Unlink.
-    tmp.nextEvent = null;
+  public TimeEvent peekFirst() {
+    if (eventCount == 0) {
+      return null;
+    }
+    return heap[0];
+  }
 
-    // No longer scheduled!
-    tmp.queue = null;
-    eventCount--;
+  private static boolean isBefore(TimeEvent a, TimeEvent b) {
+    if (a.time != b.time) {
+      return a.time < b.time;
+    }
+    return a.sequence < b.sequence;
+  }
 
-    if (!tmp.isScheduled) {
-      /* pop and return another event instead */
-      return popFirst();
+  private void siftUp(TimeEvent event, int index) {
+    while (index > 0) {
+      int parentIndex = (index - 1) / ARITY;
+      TimeEvent parent = heap[parentIndex];
+      if (!isBefore(event, parent)) {
+        break;
+      }
+      heap[index] = parent;
+      parent.queueIndex = index;
+      index = parentIndex;
     }
-    tmp.isScheduled = false;
-    return tmp;
+    heap[index] = event;
+    event.queueIndex = index;
   }
 
-  public TimeEvent peekFirst() {
-    return first;
+  private void siftDown(TimeEvent event, int index) {
+    while (true) {
+      int firstChild = index * ARITY + 1;
+      if (firstChild >= eventCount) {
+        break;
+      }
+      int lastChild = Math.min(firstChild + ARITY, eventCount);
+      int minChild = firstChild;
+      for (int c = firstChild + 1; c < lastChild; c++) {
+        if (isBefore(heap[c], heap[minChild])) {
+          minChild = c;
+        }
+      }
+      if (!isBefore(heap[minChild], event)) {
+        break;
+      }
+      heap[index] = heap[minChild];
+      heap[index].queueIndex = index;
+      index = minChild;
+    }
+    heap[index] = event;
+    event.queueIndex = index;
   }
 
   public String toString() {
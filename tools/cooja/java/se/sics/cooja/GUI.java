@@ -267,6 +267,14 @@ public class GUI extends Observable {
 
     "PARSE_WITH_COMMAND",
 
+    "MEMORY_SWAP_MODE",
+    "CONTIKI_CORE_INSTANCES",
+    "SCRIPT_EXECUTION_MODE",
+    "RADIO_LOGGER_MAX_PACKETS",
+    "PCAP_ROTATE_SIZE",
+    "PCAP_ROTATE_TIME",
+    "FIRMWARE_CACHE_DIR",
+
     "MAPFILE_DATA_START", "MAPFILE_DATA_SIZE",
     "MAPFILE_BSS_START", "MAPFILE_BSS_SIZE",
     "MAPFILE_COMMON_START", "MAPFILE_COMMON_SIZE",
@@ -293,6 +301,8 @@ public class GUI extends Observable {
 
   private GUI myGUI;
 
+  private BatchRunner.Run batchRun = null;
+
   private Simulation mySimulation;
 
   protected GUIEventHandler guiEventHandler = new GUIEventHandler();
@@ -450,6 +460,18 @@ public class GUI extends Observable {
   }
 
 
+  /**
+   * @return Batch run, or null if not running in batch mode
+   * @see BatchRunner
+   */
+  public BatchRunner.Run getBatchRun() {
+    return batchRun;
+  }
+
+  void setBatchRun(BatchRunner.Run batchRun) {
+    this.batchRun = batchRun;
+  }
+
   /**
    * Add mote highlight observer.
    *
@@ -1272,7 +1294,7 @@ public class GUI extends Observable {
     desktop.revalidate();
   }
 
-  private static JDesktopPane createDesktopPane() {
+  static JDesktopPane createDesktopPane() {
     final JDesktopPane desktop = new JDesktopPane() {
 			private static final long serialVersionUID = -8272040875621119329L;
 			public void setBounds(int x, int y, int w, int h) {
@@ -3236,6 +3258,11 @@ public class GUI extends Observable {
         }
       }
 
+    } else if (args.length > 0 && args[0].equals("-batch")) {
+
+      /* Run several simulations in parallel */
+      System.exit(BatchRunner.run(args));
+
     } else if (args.length > 0 && args[0].startsWith("-applet")) {
 
       String tmpWebPath=null, tmpBuildPath=null, tmpEsbFirmware=null, tmpSkyFirmware=null;
@@ -3300,6 +3327,21 @@ public class GUI extends Observable {
    *           If associated libraries could not be loaded
    */
   public Simulation loadSimulationConfig(File file, boolean quick)
+  throws UnsatisfiedLinkError, SimulationCreationException {
+    return loadSimulationConfig(file, quick, null);
+  }
+
+  /**
+   * Loads a simulation configuration from given file.
+   *
+   * @see #loadSimulationConfig(File, boolean)
+   * @param file File to read
+   * @param quick Do not ask user for mote type settings
+   * @param manualRandomSeed Random seed, or null to use configured seed
+   * @return New simulation or null if recompiling failed or aborted
+   * @throws UnsatisfiedLinkError If associated libraries could not be loaded
+   */
+  public Simulation loadSimulationConfig(File file, boolean quick, Long manualRandomSeed)
   throws UnsatisfiedLinkError, SimulationCreationException {
     this.currentConfigFile = file; /* Used to generate config relative paths */
     try {
@@ -3317,7 +3359,7 @@ public class GUI extends Observable {
       Element root = doc.getRootElement();
       in.close();
 
-      return loadSimulationConfig(root, quick, null);
+      return loadSimulationConfig(root, quick, manualRandomSeed);
     } catch (JDOMException e) {
       throw (SimulationCreationException) new SimulationCreationException("Config not wellformed").initCause(e);
     } catch (IOException e) {
@@ -3392,6 +3434,20 @@ public class GUI extends Observable {
             logger.info("Simulation not loaded");
             return null;
           }
+
+          /* Restore batch run checkpoint before plugins are started */
+          if (batchRun != null && batchRun.getCheckpoint() != null) {
+            try {
+              newSim.restoreCheckpoint(batchRun.getCheckpoint());
+            } catch (IOException e) {
+              throw (SimulationCreationException) new SimulationCreationException(
+                  "Checkpoint could not be restored: " + e.getMessage()).initCause(e);
+            }
+            if (manualRandomSeed != null) {
+              /* Continue from checkpoint with given random seed */
+              newSim.setRandomSeed(manualRandomSeed);
+            }
+          }
         }
       }
 
@@ -27,6 +27,11 @@
 
 package se.sics.cooja;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -40,12 +45,20 @@ import org.apache.log4j.Logger;
  * When an non-existing memory segment is written, a new section is automatically
  * created for this segment.
  * <p>
+ * Cloned memories share the pages of their sections until written
+ * (copy-on-write), which keeps the memory of many motes created from the
+ * same initial memory small.
  *
  * @author Fredrik Osterlind
  */
-public class SectionMoteMemory implements MoteMemory, AddressMemory {
+public class SectionMoteMemory implements MoteMemory, AddressMemory, Checkpointable {
   private static Logger logger = Logger.getLogger(SectionMoteMemory.class);
 
+  /**
+   * Page size used when tracking which parts of a section have been written.
+   */
+  public static final int PAGE_SIZE = 256;
+
   private ArrayList<MoteMemorySection> sections = new ArrayList<MoteMemorySection>();
  
   /* readonly memory is never written to Contiki core, and is used to provide 
@@ -54,6 +67,9 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
 
   private final HashMap<String, Integer> addresses;
 
+  /* Incremented when sections are added or removed, invalidates resolved variable handles */
+  private int sectionsVersion = 0;
+
   /* used to map Cooja's address space to native (Contiki's) addresses */
   private final int offset;
   
@@ -85,6 +101,7 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
 
   public void clearMemory() {
     sections.clear();
+    sectionsVersion++;
   }
 
   public byte[] getMemorySegment(int address, int size) {
@@ -125,7 +142,10 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
         return;
       }
     }
-    sections.add(new MoteMemorySection(address, data));
+    MoteMemorySection section = new MoteMemorySection(address, data);
+    section.setAllDirty();
+    sections.add(section);
+    sectionsVersion++;
   }
 
   public void setReadonlyMemorySegment(int address, byte[] data) {
@@ -180,7 +200,7 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
   }
 
   /**
-   * Get data of section at given position.
+   * Get a copy of the data of section at given position.
    *
    * @param sectionNr Section position
    * @return Data at section
@@ -193,6 +213,71 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
     return sections.get(sectionNr).getData();
   }
 
+  /**
+   * Copies part of the data of section at given position.
+   *
+   * @param sectionNr Section position
+   * @param from Offset in section
+   * @param dst Destination, starting at index 0
+   * @param length Number of bytes
+   */
+  public void copyDataOfSection(int sectionNr, int from, byte[] dst, int length) {
+    sections.get(sectionNr).getData(from, dst, length);
+  }
+
+  /**
+   * Sets the entire data of section at given position, for example when
+   * reading memory back from a Contiki core. Pages are not marked dirty, and
+   * pages shared with other memories are only copied if their data changed.
+   *
+   * @param sectionNr Section position
+   * @param data Section data, at least the size of the section
+   */
+  public void setDataOfSection(int sectionNr, byte[] data) {
+    sections.get(sectionNr).setData(data);
+  }
+
+  /**
+   * Returns true if any part of given section has been written since the
+   * dirty pages were last cleared.
+   *
+   * @see #clearDirtyPages()
+   * @param sectionNr Section position
+   * @return True if section has dirty pages
+   */
+  public boolean isSectionDirty(int sectionNr) {
+    if (sectionNr >= sections.size()) {
+      return false;
+    }
+    return sections.get(sectionNr).isDirty();
+  }
+
+  /**
+   * Returns true if given page of given section has been written since the
+   * dirty pages were last cleared. Pages are {@link #PAGE_SIZE} bytes,
+   * counted from the start of the section.
+   *
+   * @see #clearDirtyPages()
+   * @param sectionNr Section position
+   * @param pageNr Page position in section
+   * @return True if page is dirty
+   */
+  public boolean isPageDirty(int sectionNr, int pageNr) {
+    if (sectionNr >= sections.size()) {
+      return false;
+    }
+    return sections.get(sectionNr).isPageDirty(pageNr);
+  }
+
+  /**
+   * Clears the dirty flags of all pages in all sections.
+   */
+  public void clearDirtyPages() {
+    for (MoteMemorySection section : sections) {
+      section.clearDirty();
+    }
+  }
+
   public boolean variableExists(String varName) {
     return addresses.containsKey(varName);
   }
@@ -245,6 +330,120 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
     setMemorySegment(varAddr, varData);
   }
 
+  /**
+   * Returns a handle to the byte variable with the given name.
+   *
+   * @see VariableHandle
+   * @param varName Name of byte variable
+   * @return Variable handle
+   */
+  public VariableHandle getByteVariable(String varName) {
+    return new VariableHandle(varName, 1);
+  }
+
+  /**
+   * Returns a handle to the integer variable with the given name.
+   *
+   * @see VariableHandle
+   * @param varName Name of integer variable
+   * @return Variable handle
+   */
+  public VariableHandle getIntVariable(String varName) {
+    return new VariableHandle(varName, getIntegerLength());
+  }
+
+  /**
+   * Handle to a variable in this memory. The variable is resolved to its
+   * memory section and offset on first access, after which it is read and
+   * written without any lookups or allocations. Interfaces accessing the
+   * same variables every tick should use handles instead of the variable
+   * name methods.
+   *
+   * A handle is resolved again if sections are added to or removed from the
+   * memory.
+   */
+  public class VariableHandle {
+    private final String varName;
+    private final int size;
+
+    private MoteMemorySection section = null;
+    private int sectionOffset = 0;
+    private int resolvedVersion = -1;
+
+    private VariableHandle(String varName, int size) {
+      this.varName = varName;
+      this.size = size;
+    }
+
+    /**
+     * @return Variable name
+     */
+    public String getName() {
+      return varName;
+    }
+
+    private void resolve() throws UnknownVariableException {
+      if (resolvedVersion == sectionsVersion) {
+        return;
+      }
+      int address = getVariableAddress(varName) - offset;
+      for (MoteMemorySection s : sections) {
+        if (s.includesAddr(address) && s.includesAddr(address + size - 1)) {
+          section = s;
+          sectionOffset = address - s.getStartAddr();
+          resolvedVersion = sectionsVersion;
+          return;
+        }
+      }
+      throw new UnknownVariableException(varName);
+    }
+
+    /**
+     * @return Value of byte variable
+     * @throws UnknownVariableException Variable does not exist
+     */
+    public byte getByte() throws UnknownVariableException {
+      resolve();
+      return section.getByte(sectionOffset);
+    }
+
+    /**
+     * @param newVal New value of byte variable
+     * @throws UnknownVariableException Variable does not exist
+     */
+    public void setByte(byte newVal) throws UnknownVariableException {
+      resolve();
+      section.setByte(sectionOffset, newVal);
+    }
+
+    /**
+     * Reads the variable as a little-endian integer of the handle size,
+     * same byte order as getIntValueOf().
+     *
+     * @return Value of integer variable
+     * @throws UnknownVariableException Variable does not exist
+     */
+    public int getInt() throws UnknownVariableException {
+      resolve();
+      int value = 0;
+      for (int i=0; i < size; i++) {
+        value |= (section.getByte(sectionOffset + i) & 0xFF) << (8*i);
+      }
+      return value;
+    }
+
+    /**
+     * @param newVal New value of integer variable
+     * @throws UnknownVariableException Variable does not exist
+     */
+    public void setInt(int newVal) throws UnknownVariableException {
+      resolve();
+      for (int i=0; i < size; i++) {
+        section.setByte(sectionOffset + i, (byte) (newVal >> (8*i)));
+      }
+    }
+  }
+
   public byte[] getByteArray(String varName, int length) throws UnknownVariableException {
     int varAddr = getVariableAddress(varName);
     return getMemorySegment(varAddr, length);
@@ -255,14 +454,101 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
     setMemorySegment(varAddr, data);
   }
 
+  /**
+   * @return Length of native pointers, in bytes
+   */
+  public static int getPointerLength() {
+    return "64".equals(System.getProperty("sun.arch.data.model"))?8:4;
+  }
+
+  /**
+   * Returns the value of a native pointer variable.
+   *
+   * @param varName Variable name
+   * @return Pointer value
+   * @throws UnknownVariableException If variable does not exist
+   */
+  public long getPointerValueOf(String varName) throws UnknownVariableException {
+    byte[] data = getByteArray(varName, getPointerLength());
+    if (data == null) {
+      throw new UnknownVariableException(varName);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder());
+    return data.length == 8?buffer.getLong():(buffer.getInt() & 0xffffffffL);
+  }
+
+  /**
+   * Relocates native pointers into a library, after this memory was copied
+   * from a copy of the library loaded at another address.
+   *
+   * Every aligned pointer-sized word pointing into the old library, from its
+   * base address to the end of its last memory section, is moved by the
+   * difference between the new and old base addresses. Other values that
+   * happen to be within the old library's address range are moved as well.
+   *
+   * @param oldBase Base address of old library
+   * @param newBase Base address of new library
+   * @return Number of relocated pointers
+   */
+  public int relocatePointers(long oldBase, long newBase) {
+    int pointerLength = getPointerLength();
+    long end = 0;
+    for (MoteMemorySection section : sections) {
+      end = Math.max(end, (long)section.getStartAddr() + section.getSize());
+    }
+    for (MoteMemorySection section : readonlySections) {
+      end = Math.max(end, (long)section.getStartAddr() + section.getSize());
+    }
+
+    int relocated = 0;
+    for (MoteMemorySection section : sections) {
+      byte[] data = section.getData();
+      ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder());
+      boolean changed = false;
+      int first = (pointerLength - section.getStartAddr() % pointerLength) % pointerLength;
+      for (int i=first; i + pointerLength <= data.length; i += pointerLength) {
+        long value = pointerLength == 8?buffer.getLong(i):(buffer.getInt(i) & 0xffffffffL);
+        if (value < oldBase || value >= oldBase + end) {
+          continue;
+        }
+        value += newBase - oldBase;
+        if (pointerLength == 8) {
+          buffer.putLong(i, value);
+        } else {
+          buffer.putInt(i, (int) value);
+        }
+        changed = true;
+        relocated++;
+      }
+      if (changed) {
+        section.setData(data);
+        section.setAllDirty();
+      }
+    }
+    return relocated;
+  }
+
   /**
    * A memory section contains a byte array and a start address.
    *
+   * The section data is split into pages of {@link #PAGE_SIZE} bytes. Cloned
+   * sections share pages until they are written (copy-on-write), so motes
+   * created from the same initial memory only hold private copies of the
+   * pages they have changed.
+   *
    * @author Fredrik Osterlind
    */
   private static class MoteMemorySection {
-    private byte[] data = null;
     private final int startAddr;
+    private final int size;
+
+    private final byte[][] pages;
+    /* Pages shared with other sections, must be copied before written */
+    private final boolean[] sharedPages;
+
+    /* Pages written since dirty flags were last cleared */
+    private boolean dirty = false;
+    private boolean[] dirtyPages = null;
 
     /**
      * Create a new memory section.
@@ -274,7 +560,28 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
      */
     public MoteMemorySection(int startAddr, byte[] data) {
       this.startAddr = startAddr;
-      this.data = data;
+      this.size = data.length;
+      int nrPages = (size + PAGE_SIZE - 1) / PAGE_SIZE;
+      pages = new byte[nrPages][];
+      sharedPages = new boolean[nrPages];
+      for (int page = 0; page < nrPages; page++) {
+        int from = page*PAGE_SIZE;
+        pages[page] = Arrays.copyOfRange(data, from, Math.min(from + PAGE_SIZE, size));
+      }
+    }
+
+    /**
+     * Create a new memory section sharing all pages with given section.
+     *
+     * @param section Section
+     */
+    private MoteMemorySection(MoteMemorySection section) {
+      this.startAddr = section.startAddr;
+      this.size = section.size;
+      this.pages = section.pages.clone();
+      this.sharedPages = new boolean[pages.length];
+      Arrays.fill(sharedPages, true);
+      Arrays.fill(section.sharedPages, true);
     }
 
     /**
@@ -292,18 +599,83 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
      * @return Size
      */
     public int getSize() {
-      return data.length;
+      return size;
     }
 
     /**
-     * Returns the entire byte array which defines this section.
+     * Returns a copy of the entire byte array which defines this section.
      *
      * @return Byte array
      */
     public byte[] getData() {
+      byte[] data = new byte[size];
+      getData(0, data, size);
       return data;
     }
 
+    /**
+     * Copies data from this section.
+     *
+     * @param from Offset in section
+     * @param dst Destination
+     * @param length Number of bytes
+     */
+    public void getData(int from, byte[] dst, int length) {
+      int pos = 0;
+      while (pos < length) {
+        int page = (from + pos) / PAGE_SIZE;
+        int pageOffset = (from + pos) % PAGE_SIZE;
+        int n = Math.min(length - pos, PAGE_SIZE - pageOffset);
+        System.arraycopy(pages[page], pageOffset, dst, pos, n);
+        pos += n;
+      }
+    }
+
+    /**
+     * Sets the entire section data, without marking any page dirty.
+     * Shared pages are only copied if their data changed.
+     *
+     * @param data Data
+     */
+    public void setData(byte[] data) {
+      for (int page = 0; page < pages.length; page++) {
+        byte[] pageData = pages[page];
+        int from = page*PAGE_SIZE;
+        if (sharedPages[page]) {
+          if (equals(pageData, data, from)) {
+            continue;
+          }
+          pageData = new byte[pageData.length];
+          pages[page] = pageData;
+          sharedPages[page] = false;
+        }
+        System.arraycopy(data, from, pageData, 0, pageData.length);
+      }
+    }
+
+    private static boolean equals(byte[] pageData, byte[] data, int from) {
+      for (int i = 0; i < pageData.length; i++) {
+        if (pageData[i] != data[from + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Returns a private, writable copy of given page.
+     *
+     * @param page Page position in section
+     * @return Page data
+     */
+    private byte[] getWritablePage(int page) {
+      if (sharedPages[page]) {
+        pages[page] = pages[page].clone();
+        sharedPages[page] = false;
+      }
+      return pages[page];
+    }
+
     /**
      * True if given address is part of this memory section.
      *
@@ -313,11 +685,7 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
      *         otherwise
      */
     public boolean includesAddr(int addr) {
-      if (data == null) {
-        return false;
-      }
-
-      return (addr >= startAddr && addr < (startAddr + data.length));
+      return (addr >= startAddr && addr < (startAddr + size));
     }
 
     /**
@@ -331,10 +699,34 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
      */
     public byte[] getMemorySegment(int addr, int size) {
       byte[] ret = new byte[size];
-      System.arraycopy(data, addr - startAddr, ret, 0, size);
+      getData(addr - startAddr, ret, size);
       return ret;
     }
 
+    /**
+     * @param offset Offset in section
+     * @return Byte at offset
+     */
+    public byte getByte(int offset) {
+      return pages[offset / PAGE_SIZE][offset % PAGE_SIZE];
+    }
+
+    /**
+     * Sets a single byte, and marks its page dirty.
+     *
+     * @param offset Offset in section
+     * @param b Byte
+     */
+    public void setByte(int offset, byte b) {
+      if (dirtyPages == null) {
+        dirtyPages = new boolean[pages.length];
+      }
+      int page = offset / PAGE_SIZE;
+      getWritablePage(page)[offset % PAGE_SIZE] = b;
+      dirtyPages[page] = true;
+      dirty = true;
+    }
+
     /**
      * Sets a memory segment.
      *
@@ -344,18 +736,102 @@ public class SectionMoteMemory implements MoteMemory, AddressMemory {
      *          Data of memory segment
      */
     public void setMemorySegment(int addr, byte[] data) {
-      System.arraycopy(data, 0, this.data, addr - startAddr, data.length);
+      if (data.length == 0) {
+        return;
+      }
+      if (dirtyPages == null) {
+        dirtyPages = new boolean[pages.length];
+      }
+      int pos = 0;
+      while (pos < data.length) {
+        int page = (addr - startAddr + pos) / PAGE_SIZE;
+        int pageOffset = (addr - startAddr + pos) % PAGE_SIZE;
+        int n = Math.min(data.length - pos, PAGE_SIZE - pageOffset);
+        System.arraycopy(data, pos, getWritablePage(page), pageOffset, n);
+        dirtyPages[page] = true;
+        pos += n;
+      }
+      dirty = true;
+    }
+
+    /**
+     * Marks all pages of this section as dirty.
+     */
+    public void setAllDirty() {
+      dirtyPages = new boolean[pages.length];
+      Arrays.fill(dirtyPages, true);
+      dirty = true;
+    }
+
+    /**
+     * @return True if any page of this section is dirty
+     */
+    public boolean isDirty() {
+      return dirty;
+    }
+
+    /**
+     * @param pageNr Page position in section
+     * @return True if page is dirty
+     */
+    public boolean isPageDirty(int pageNr) {
+      if (!dirty || pageNr >= dirtyPages.length) {
+        return false;
+      }
+      return dirtyPages[pageNr];
+    }
+
+    /**
+     * Clears the dirty flags of all pages in this section.
+     */
+    public void clearDirty() {
+      if (dirty) {
+        Arrays.fill(dirtyPages, false);
+        dirty = false;
+      }
     }
 
     public MoteMemorySection clone() {
-      byte[] dataClone = new byte[data.length];
-      System.arraycopy(data, 0, dataClone, 0, data.length);
+      return new MoteMemorySection(this);
+    }
+  }
 
-      MoteMemorySection clone = new MoteMemorySection(startAddr, dataClone);
-      return clone;
+  public void saveCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    DataOutputStream out = checkpoint.getOutput();
+    out.writeInt(sections.size());
+    for (MoteMemorySection section : sections) {
+      out.writeInt(section.getStartAddr());
+      out.writeInt(section.getSize());
+      out.write(section.getData());
     }
   }
 
+  public void restoreCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    DataInputStream in = checkpoint.getInput();
+    int nrSections = in.readInt();
+    if (nrSections != sections.size()) {
+      throw new IOException("Checkpoint has " + nrSections + " memory sections, memory has " + sections.size());
+    }
+    for (MoteMemorySection section : sections) {
+      int startAddr = in.readInt();
+      int size = in.readInt();
+      if (startAddr != section.getStartAddr() || size != section.getSize()) {
+        throw new IOException("Checkpoint memory section does not match: 0x" +
+            Integer.toHexString(startAddr) + " (" + size + " bytes)");
+      }
+      byte[] data = new byte[size];
+      in.readFully(data);
+      section.setData(data);
+      section.setAllDirty();
+    }
+  }
+
+  /**
+   * Returns a copy of this memory. The copy shares all section pages with
+   * this memory until either memory writes them.
+   *
+   * @return Memory copy
+   */
   public SectionMoteMemory clone() {
     ArrayList<MoteMemorySection> sectionsClone = new ArrayList<MoteMemorySection>();
     for (MoteMemorySection section : sections) {
@@ -30,7 +30,6 @@
 package se.sics.cooja;
 
 import java.io.File;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Observable;
@@ -43,12 +42,16 @@ import org.jdom.Element;
 import se.sics.cooja.MoteType.MoteTypeCreationException;
 import se.sics.cooja.interfaces.Log;
 import se.sics.cooja.util.ArrayUtils;
+import se.sics.cooja.util.LogStore;
 
 /**
  * Simulation event central. Simplifies implementations of plugins that observe
  * motes and mote interfaces by keeping track of added and removed motes. For a
  * selected set of interfaces, the event central also maintains an event
  * history.
+ *
+ * Log output history is kept in a shared {@link LogStore}, outside of the
+ * Java heap.
  * 
  * @see LogOutputEvent
  * @author Fredrik Osterlind
@@ -72,7 +75,7 @@ public class SimEventCentral {
 
     /* Log output: notifications and history */
     logOutputListeners = new LogOutputListener[0];
-    logOutputEvents = new ArrayDeque<LogOutputEvent>();
+    logOutputStore = new LogStore(logOutputBufferSize);
   }
   
 
@@ -189,16 +192,28 @@ public class SimEventCentral {
   /* LOG OUTPUT */
   public static class LogOutputEvent extends MoteEvent {
     public final String msg;
+    private final long index;
     public LogOutputEvent(Mote mote, long time, String msg) {
+      this(mote, time, msg, -1);
+    }
+    private LogOutputEvent(Mote mote, long time, String msg, long index) {
       super(mote, time);
       this.msg = msg;
+      this.index = index;
     }
     public String getMessage() {
       return msg;
     }
+    /**
+     * @return Index in log output store, or -1 if not stored
+     * @see SimEventCentral#getLogOutputStore()
+     */
+    public long getLogOutputIndex() {
+      return index;
+    }
   }
   private int logOutputBufferSize;
-  private ArrayDeque<LogOutputEvent> logOutputEvents;
+  private LogStore logOutputStore;
   public interface LogOutputListener extends MoteCountListener {
     public void removedLogOutput(LogOutputEvent ev);
     public void newLogOutput(LogOutputEvent ev);
@@ -216,24 +231,12 @@ public class SimEventCentral {
       }
 
       /* We may have to remove some events now */
-      while (logOutputEvents.size() > logOutputBufferSize-1) {
-        LogOutputEvent removed;
-        synchronized (logOutputEvents) {
-          removed = logOutputEvents.pollFirst();
-        }
-        if (removed == null) {
-          break;
-        }
-        for (LogOutputListener l: logOutputListeners) {
-          l.removedLogOutput(removed);
-        }
-      }
+      removeLogOutput(logOutputBufferSize-1);
 
       /* Store log output, and notify listeners */
-      LogOutputEvent ev = new LogOutputEvent(mote, simulation.getSimulationTime(), msg);
-      synchronized (logOutputEvents) {
-        logOutputEvents.add(ev);
-      }
+      long time = simulation.getSimulationTime();
+      long index = logOutputStore.append(mote, mote.getID(), time, msg);
+      LogOutputEvent ev = new LogOutputEvent(mote, time, msg, index);
       for (LogOutputListener l: logOutputListeners) {
         l.newLogOutput(ev);
       }
@@ -270,13 +273,55 @@ public class SimEventCentral {
       }
 
       /* Clear logs (TODO config) */
-      logOutputEvents.clear();
+      logOutputStore.clear();
     }
   }
 
+  /**
+   * Returns the log output history as events.
+   * Note that plugins handling large log histories should instead read
+   * directly from the log output store.
+   *
+   * @return Log output history
+   * @see #getLogOutputStore()
+   */
   public LogOutputEvent[] getLogOutputHistory() {
-    synchronized (logOutputEvents) {
-      return logOutputEvents.toArray(new LogOutputEvent[0]);
+    ArrayList<LogOutputEvent> history = new ArrayList<LogOutputEvent>();
+    synchronized (logOutputStore) {
+      long end = logOutputStore.getEndIndex();
+      for (long i=logOutputStore.getFirstIndex(); i < end; i++) {
+        history.add(getLogOutputEvent(i));
+      }
+    }
+    return history.toArray(new LogOutputEvent[0]);
+  }
+
+  /**
+   * @return Log output store, shared by all plugins
+   */
+  public LogStore getLogOutputStore() {
+    return logOutputStore;
+  }
+
+  private LogOutputEvent getLogOutputEvent(long index) {
+    Mote mote = (Mote) logOutputStore.getOwner(index);
+    return new LogOutputEvent(
+        mote,
+        logOutputStore.getTime(index),
+        logOutputStore.getMessage(index),
+        index);
+  }
+
+  private void removeLogOutput(int maxSize) {
+    while (logOutputStore.size() > maxSize) {
+      LogOutputEvent removed = null;
+      if (logOutputListeners.length > 0) {
+        removed = getLogOutputEvent(logOutputStore.getFirstIndex());
+      }
+      logOutputStore.removeFirst();
+      for (LogOutputListener l: logOutputListeners) {
+        l.removedLogOutput(removed);
+      }
     }
   }
   public int getLogOutputBufferSize() {
@@ -286,15 +331,8 @@ public class SimEventCentral {
     logOutputBufferSize = size;
     
     /* We may have to remove some events now */
-    while (logOutputEvents.size() > logOutputBufferSize) {
-      LogOutputEvent removed = logOutputEvents.pollFirst();
-      if (removed == null) {
-        break;
-      }
-      for (LogOutputListener l: logOutputListeners) {
-        l.removedLogOutput(removed);
-      }
-    }
+    removeLogOutput(logOutputBufferSize);
+    logOutputStore.setMaxEntries(logOutputBufferSize);
   }
   public int getLogOutputObservationsCount() {
     int count=0;
@@ -340,7 +378,7 @@ public class SimEventCentral {
     "\nMote count listeners: " + moteCountListeners.length +
     "\n" +
     "\nLog output listeners: " + logOutputListeners.length +
-    "\nLog output history: " + logOutputEvents.size()
+    "\nLog output history: " + logOutputStore.size()
     ;
   }
   
@@ -364,6 +402,7 @@ public class SimEventCentral {
       String name = element.getName();
       if (name.equals("logoutput")) {
         logOutputBufferSize = Integer.parseInt(element.getText());
+        logOutputStore.setMaxEntries(logOutputBufferSize);
       }
     }
     return true;
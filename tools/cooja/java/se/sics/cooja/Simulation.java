@@ -29,6 +29,8 @@
 
 package se.sics.cooja;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -43,7 +45,9 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.WatchpointMote.BreakpointTriggered;
+import se.sics.cooja.contikimote.ContikiMoteType;
 import se.sics.cooja.dialogs.CreateSimDialog;
+import se.sics.cooja.util.SimulationRandom;
 
 /**
  * A simulation consists of a number of motes and mote types.
@@ -94,7 +98,7 @@ public class Simulation extends Observable implements Runnable {
 
   private long maxMoteStartupDelay = 1000*MILLISECOND;
 
-  private Random randomGenerator = new Random();
+  private Random randomGenerator = new SimulationRandom();
 
   private boolean hasMillisecondObservers = false;
   private MillisecondObservable millisecondObservable = new MillisecondObservable();
@@ -248,6 +252,48 @@ public class Simulation extends Observable implements Runnable {
     pollRequests.clear();
   }
 
+  /**
+   * Saves the runtime state of this simulation to a checkpoint file.
+   *
+   * Must be called from the simulation thread, or when the simulation is
+   * stopped. Test scripts execute synchronized with the simulation thread,
+   * and may save checkpoints.
+   *
+   * @see #restoreCheckpoint(File)
+   * @see SimulationCheckpoint
+   * @param file Checkpoint file
+   * @throws IOException If the simulation state could not be saved
+   */
+  public void saveCheckpoint(File file) throws IOException {
+    SimulationCheckpoint.save(this, file);
+  }
+
+  /**
+   * Restores the runtime state of this simulation from a checkpoint file.
+   * This simulation must have been loaded from the same config as the
+   * saved simulation, and must be stopped.
+   *
+   * @see #saveCheckpoint(File)
+   * @see SimulationCheckpoint
+   * @param file Checkpoint file
+   * @throws IOException If the simulation state could not be restored
+   */
+  public void restoreCheckpoint(File file) throws IOException {
+    SimulationCheckpoint.restore(this, file);
+
+    /* Reschedule simulation events */
+    if (hasMillisecondObservers) {
+      scheduleEvent(
+          millisecondEvent,
+          currentSimulationTime - (currentSimulationTime % MILLISECOND) + MILLISECOND);
+    }
+    if (!speedLimitNone) {
+      speedLimitLastRealtime = System.currentTimeMillis();
+      speedLimitLastSimtime = getSimulationTime();
+      scheduleEvent(delayEvent, currentSimulationTime);
+    }
+  }
+
   public void run() {
     long lastStartTime = System.currentTimeMillis();
     logger.info("Simulation main loop started, system time: " + lastStartTime);
@@ -290,7 +336,10 @@ public class Simulation extends Observable implements Runnable {
     	} else {
 
     		logger.fatal("Simulation stopped due to error: " + e.getMessage(), e);
-    		if (!GUI.isVisualized()) {
+    		if (!GUI.isVisualized() && myGUI.getBatchRun() != null) {
+    		  /* Report error, and only stop this simulation */
+    		  myGUI.getBatchRun().error("Simulation error: " + e.getMessage());
+    		} else if (!GUI.isVisualized()) {
     			/* Quit simulator if in test mode */
     			System.exit(1);
     		} else {
@@ -557,6 +606,11 @@ public class Simulation extends Observable implements Runnable {
   public boolean setConfigXML(Collection<Element> configXML,
       boolean visAvailable, Long manualRandomSeed) throws Exception {
 
+    /* Compile Contiki mote types in parallel */
+    if (!visAvailable) {
+      ContikiMoteType.prepareFirmwareBuilds(this, configXML);
+    }
+
     // Parse elements
     for (Element element : configXML) {
 
@@ -757,17 +811,8 @@ public class Simulation extends Observable implements Runnable {
         setChanged();
         notifyObservers(mote);
 
-        /* Loop through all scheduled events.
-         * Delete all events associated with deleted mote. */
-        TimeEvent ev = eventQueue.peekFirst();
-        while (ev != null) {
-          if (ev instanceof MoteTimeEvent) {
-            if (((MoteTimeEvent)ev).getMote() == mote) {
-              ev.remove();
-            }
-          }
-          ev = ev.nextEvent;
-        }
+        /* Delete all events associated with deleted mote */
+        eventQueue.removeAll(mote);
       }
     };
 
@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2013, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+
+package se.sics.cooja;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import org.apache.log4j.Logger;
+
+import se.sics.cooja.util.SimulationRandom;
+
+/**
+ * Binary simulation checkpoint.
+ *
+ * A checkpoint contains the runtime state of a simulation: the simulation
+ * time, the random generator, and the state of each mote and of the radio
+ * medium. It does not contain the simulation config; a checkpoint is
+ * restored into a simulation loaded from the same config as the simulation
+ * it was saved from. The restored simulation continues exactly as the saved
+ * simulation would have, which allows for example a network to converge once,
+ * and many experiments to be started from the converged network.
+ *
+ * All motes and the radio medium must implement {@link Checkpointable}.
+ * Mote and radio medium state is stored in separate length-prefixed blocks.
+ *
+ * Time events that are not saved by any {@link Checkpointable}, such as
+ * events scheduled by plugins, are removed when a checkpoint is restored.
+ * A checkpoint is read and checked completely before the simulation is
+ * changed.
+ *
+ * @see Simulation#saveCheckpoint(File)
+ * @see Simulation#restoreCheckpoint(File)
+ */
+public class SimulationCheckpoint {
+  private static Logger logger = Logger.getLogger(SimulationCheckpoint.class);
+
+  private static final int MAGIC = 0x434a4350; /* CJCP */
+  private static final int VERSION = 1;
+
+  private final Simulation simulation;
+
+  private DataOutputStream out = null;
+  private DataInputStream in = null;
+
+  /* Restored events, scheduled in saved order when restore completes */
+  private static class RestoredEvent {
+    final TimeEvent event;
+    final long time;
+    final long sequence;
+    RestoredEvent(TimeEvent event, long time, long sequence) {
+      this.event = event;
+      this.time = time;
+      this.sequence = sequence;
+    }
+  }
+  private ArrayList<RestoredEvent> restoredEvents = new ArrayList<RestoredEvent>();
+
+  private SimulationCheckpoint(Simulation simulation) {
+    this.simulation = simulation;
+  }
+
+  /**
+   * @return Simulation being saved or restored
+   */
+  public Simulation getSimulation() {
+    return simulation;
+  }
+
+  /**
+   * @return Output stream of current state block, only available when saving
+   */
+  public DataOutputStream getOutput() {
+    return out;
+  }
+
+  /**
+   * @return Input stream of current state block, only available when restoring
+   */
+  public DataInputStream getInput() {
+    return in;
+  }
+
+  /**
+   * Saves whether given event is scheduled, and if so when.
+   *
+   * @param event Event
+   * @throws IOException On write error
+   */
+  public void writeEvent(TimeEvent event) throws IOException {
+    if (!event.isScheduled()) {
+      out.writeBoolean(false);
+      return;
+    }
+    out.writeBoolean(true);
+    out.writeLong(event.time);
+    out.writeLong(event.sequence);
+  }
+
+  /**
+   * Restores an event saved by {@link #writeEvent(TimeEvent)}. The event is
+   * rescheduled when all state has been restored, in the same order relative
+   * to other events as when saved.
+   *
+   * @param event Event
+   * @return True if event was scheduled when saved
+   * @throws IOException On read error
+   */
+  public boolean readEvent(TimeEvent event) throws IOException {
+    if (!in.readBoolean()) {
+      return false;
+    }
+    long time = in.readLong();
+    long sequence = in.readLong();
+    restoredEvents.add(new RestoredEvent(event, time, sequence));
+    return true;
+  }
+
+  /**
+   * Saves a byte array, or null.
+   *
+   * @param data Data or null
+   * @throws IOException On write error
+   */
+  public void writeBytes(byte[] data) throws IOException {
+    if (data == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(data.length);
+    out.write(data);
+  }
+
+  /**
+   * Restores a byte array saved by {@link #writeBytes(byte[])}.
+   *
+   * @return Data or null
+   * @throws IOException On read error
+   */
+  public byte[] readBytes() throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] data = new byte[length];
+    in.readFully(data);
+    return data;
+  }
+
+  /**
+   * Saves the runtime state of given simulation.
+   *
+   * Must be called from the simulation thread, or when the simulation is
+   * stopped.
+   *
+   * @param sim Simulation
+   * @param file Checkpoint file
+   * @throws IOException If the simulation state could not be saved
+   */
+  public static void save(Simulation sim, File file) throws IOException {
+    /* Save to memory first: no file is written if some state cannot be saved */
+    byte[] data = saveState(sim);
+
+    BufferedOutputStream fileOut = new BufferedOutputStream(new FileOutputStream(file));
+    try {
+      fileOut.write(data);
+    } finally {
+      fileOut.close();
+    }
+    logger.info("Saved checkpoint at " + sim.getSimulationTimeMillis() + " ms to " + file + " (" + data.length + " bytes)");
+  }
+
+  /**
+   * Restores the runtime state of given simulation. The simulation must have
+   * been loaded from the same config as the saved simulation, and must be
+   * stopped.
+   *
+   * The whole checkpoint is read and checked against the simulation before
+   * any state is changed. If a mote or the radio medium then fails to
+   * restore its state, the state of the simulation before the restore is
+   * restored again.
+   *
+   * @param sim Simulation
+   * @param file Checkpoint file
+   * @throws IOException If the simulation state could not be restored
+   */
+  public static void restore(Simulation sim, File file) throws IOException {
+    if (sim.isRunning()) {
+      throw new IOException("Simulation must be stopped when restoring checkpoint");
+    }
+
+    byte[] data = new byte[(int) file.length()];
+    DataInputStream fileIn = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      fileIn.readFully(data);
+      if (fileIn.read() >= 0) {
+        throw new IOException("Checkpoint file changed while reading: " + file);
+      }
+    } finally {
+      fileIn.close();
+    }
+    SavedState state = parseState(sim, data, file.toString());
+
+    /* Keep current state, in case restoring the checkpoint fails half-way */
+    SavedState previous = null;
+    try {
+      previous = parseState(sim, saveState(sim), "current state");
+    } catch (IOException e) {
+      logger.warn("Current simulation state cannot be saved, and is lost if restore fails: " + e.getMessage());
+    }
+
+    SimulationCheckpoint cp = new SimulationCheckpoint(sim);
+    try {
+      cp.applyState(state);
+    } catch (IOException e) {
+      if (previous != null) {
+        logger.warn("Restoring checkpoint failed, reverting to current state: " + e.getMessage());
+        new SimulationCheckpoint(sim).applyState(previous);
+      }
+      throw e;
+    }
+    logger.info("Restored checkpoint at " + sim.getSimulationTimeMillis() + " ms from " + file +
+        " (" + cp.restoredEvents.size() + " events)");
+  }
+
+  /* Parsed checkpoint, checked against a simulation but not yet applied */
+  private static class SavedState {
+    long time;
+    long randomSeed;
+    long[] randomState = new long[3];
+    Mote[] motes;
+    String[] moteNames;
+    byte[][] moteBlocks;
+    byte[] radioMediumBlock;
+  }
+
+  private static byte[] saveState(Simulation sim) throws IOException {
+    SimulationCheckpoint cp = new SimulationCheckpoint(sim);
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    DataOutputStream dataOut = new DataOutputStream(data);
+    dataOut.writeInt(MAGIC);
+    dataOut.writeInt(VERSION);
+    dataOut.writeLong(sim.getSimulationTime());
+    dataOut.writeLong(sim.getRandomSeed());
+    for (long s: ((SimulationRandom)sim.getRandomGenerator()).getState()) {
+      dataOut.writeLong(s);
+    }
+
+    Mote[] motes = sim.getMotes();
+    dataOut.writeInt(motes.length);
+    for (Mote mote: motes) {
+      if (!(mote instanceof Checkpointable)) {
+        throw new IOException("Mote does not support checkpoints: " + mote);
+      }
+      dataOut.writeInt(mote.getID());
+      dataOut.writeUTF(mote.getType().getIdentifier());
+      cp.writeBlock(dataOut, (Checkpointable) mote);
+    }
+
+    RadioMedium radioMedium = sim.getRadioMedium();
+    if (!(radioMedium instanceof Checkpointable)) {
+      throw new IOException("Radio medium does not support checkpoints: " + radioMedium);
+    }
+    dataOut.writeUTF(radioMedium.getClass().getName());
+    cp.writeBlock(dataOut, (Checkpointable) radioMedium);
+    dataOut.flush();
+    return data.toByteArray();
+  }
+
+  /**
+   * Reads a saved checkpoint, and checks that it matches the motes and radio
+   * medium of given simulation. The simulation is not changed.
+   */
+  private static SavedState parseState(Simulation sim, byte[] data, String name) throws IOException {
+    DataInputStream dataIn = new DataInputStream(new ByteArrayInputStream(data));
+    SavedState state = new SavedState();
+    try {
+      if (dataIn.readInt() != MAGIC) {
+        throw new IOException("Not a simulation checkpoint: " + name);
+      }
+      int version = dataIn.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported checkpoint version: " + version);
+      }
+      state.time = dataIn.readLong();
+      state.randomSeed = dataIn.readLong();
+      for (int i=0; i < state.randomState.length; i++) {
+        state.randomState[i] = dataIn.readLong();
+      }
+
+      Mote[] motes = sim.getMotes();
+      int moteCount = dataIn.readInt();
+      if (moteCount != motes.length) {
+        throw new IOException("Checkpoint has " + moteCount + " motes, simulation has " + motes.length);
+      }
+      state.motes = motes;
+      state.moteNames = new String[motes.length];
+      state.moteBlocks = new byte[motes.length][];
+      for (int i=0; i < motes.length; i++) {
+        Mote mote = motes[i];
+        int id = dataIn.readInt();
+        String moteTypeIdentifier = dataIn.readUTF();
+        if (id != mote.getID()) {
+          throw new IOException("Checkpoint mote " + id + " does not match " + mote);
+        }
+        if (!(mote instanceof Checkpointable)) {
+          throw new IOException("Mote does not support checkpoints: " + mote);
+        }
+        state.moteNames[i] = "mote " + id + " (" + moteTypeIdentifier + ")";
+        state.moteBlocks[i] = readBlockData(dataIn);
+      }
+
+      String radioMediumClass = dataIn.readUTF();
+      RadioMedium radioMedium = sim.getRadioMedium();
+      if (!radioMedium.getClass().getName().equals(radioMediumClass) ||
+          !(radioMedium instanceof Checkpointable)) {
+        throw new IOException("Checkpoint radio medium " + radioMediumClass + " does not match " + radioMedium);
+      }
+      state.radioMediumBlock = readBlockData(dataIn);
+
+      if (dataIn.available() != 0) {
+        throw new IOException("Checkpoint has " + dataIn.available() + " trailing bytes: " + name);
+      }
+    } catch (EOFException e) {
+      throw (IOException) new IOException("Truncated checkpoint: " + name).initCause(e);
+    }
+    return state;
+  }
+
+  private void applyState(SavedState state) throws IOException {
+    /* Remove all events: all runtime state is replaced */
+    simulation.clearEvents();
+    simulation.setSimulationTime(state.time);
+    simulation.setRandomSeed(state.randomSeed);
+    ((SimulationRandom)simulation.getRandomGenerator()).setState(state.randomState);
+
+    for (int i=0; i < state.motes.length; i++) {
+      readBlock(state.moteBlocks[i], (Checkpointable) state.motes[i], state.moteNames[i]);
+    }
+    readBlock(state.radioMediumBlock, (Checkpointable) simulation.getRadioMedium(), "radio medium");
+
+    /* Reschedule events in saved order */
+    Collections.sort(restoredEvents, new Comparator<RestoredEvent>() {
+      public int compare(RestoredEvent a, RestoredEvent b) {
+        return a.sequence < b.sequence ? -1 : (a.sequence > b.sequence ? 1 : 0);
+      }
+    });
+    for (RestoredEvent e: restoredEvents) {
+      simulation.scheduleEvent(e.event, e.time);
+    }
+  }
+
+  private void writeBlock(DataOutputStream dataOut, Checkpointable c) throws IOException {
+    ByteArrayOutputStream block = new ByteArrayOutputStream();
+    out = new DataOutputStream(block);
+    c.saveCheckpoint(this);
+    out.flush();
+    out = null;
+    dataOut.writeInt(block.size());
+    block.writeTo(dataOut);
+  }
+
+  private static byte[] readBlockData(DataInputStream dataIn) throws IOException {
+    int length = dataIn.readInt();
+    if (length < 0 || length > dataIn.available()) {
+      throw new EOFException("Invalid state block length: " + length);
+    }
+    byte[] block = new byte[length];
+    dataIn.readFully(block);
+    return block;
+  }
+
+  private void readBlock(byte[] block, Checkpointable c, String name) throws IOException {
+    in = new DataInputStream(new ByteArrayInputStream(block));
+    try {
+      c.restoreCheckpoint(this);
+      if (in.available() != 0) {
+        throw new IOException("Checkpoint state of " + name + " has " + in.available() + " unread bytes");
+      }
+    } catch (EOFException e) {
+      throw (IOException) new IOException("Checkpoint state of " + name + " is truncated").initCause(e);
+    } finally {
+      in = null;
+    }
+  }
+}
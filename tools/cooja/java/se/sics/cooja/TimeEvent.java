@@ -35,8 +35,9 @@ package se.sics.cooja;
  * @author Joakim Eriksson (ported to COOJA by Fredrik Osterlind)
  */
 public abstract class TimeEvent {
-  TimeEvent nextEvent;
-  TimeEvent prevEvent;
+  /* Event queue bookkeeping: heap index and insertion order */
+  int queueIndex = -1;
+  long sequence;
 
   EventQueue queue = null;
   String name;
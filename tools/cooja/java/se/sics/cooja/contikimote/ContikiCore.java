@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2013, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+
+package se.sics.cooja.contikimote;
+
+import java.util.Arrays;
+
+import se.sics.cooja.CoreComm;
+import se.sics.cooja.SectionMoteMemory;
+
+/**
+ * A loaded Contiki library, and the initial memory read from it.
+ *
+ * All motes of a Contiki mote type time-share a core by swapping their
+ * memory in and out of it. A mote type may load several cores, each being a
+ * private copy of the library, so that motes can be spread over the cores.
+ * Memory contains absolute pointers into its core, so a mote must always be
+ * executed by the core its memory originates from.
+ *
+ * @see ContikiMoteType#allocateCore()
+ */
+public class ContikiCore {
+
+  /**
+   * Memory swap modes.
+   *
+   * FULL copies all sections to and from the core on every tick.
+   * DELTA skips copying memory to the core if the core still holds the
+   * mote's memory, and then only copies pages written from Java.
+   * VERIFY works as DELTA, but compares the entire core memory after
+   * each swap-in and stops the simulation on mismatches.
+   */
+  public enum MemorySwapMode {
+    FULL, DELTA, VERIFY
+  }
+
+  private final CoreComm coreComm;
+  private final SectionMoteMemory initialMemory;
+  private final MemorySwapMode swapMode;
+
+  // Memory currently held by the core, or null if unknown
+  private SectionMoteMemory memoryOwner = null;
+  private byte[] swapBuffer = new byte[0];
+
+  /**
+   * @param coreComm Core communicator of loaded library
+   * @param initialMemory Memory read from library just after it was initialized
+   * @param swapMode Memory swap mode
+   */
+  public ContikiCore(CoreComm coreComm, SectionMoteMemory initialMemory, MemorySwapMode swapMode) {
+    this.coreComm = coreComm;
+    this.initialMemory = initialMemory;
+    this.swapMode = swapMode;
+  }
+
+  /**
+   * @return Core communicator
+   */
+  public CoreComm getCoreComm() {
+    return coreComm;
+  }
+
+  /**
+   * Ticks the core once.
+   */
+  public void tick() {
+    coreComm.tick();
+  }
+
+  /**
+   * The returned memory shares its pages with the initial memory until
+   * written, so creating memories for new motes is cheap.
+   *
+   * @return Copy of the initial memory of this core
+   */
+  public SectionMoteMemory createInitialMemory() {
+    return initialMemory.clone();
+  }
+
+  private byte[] getSwapBuffer(int size) {
+    if (swapBuffer.length < size) {
+      swapBuffer = new byte[size];
+    }
+    return swapBuffer;
+  }
+
+  /**
+   * Copy given memory to the core.
+   *
+   * @param mem New memory
+   */
+  public void setCoreMemory(SectionMoteMemory mem) {
+    if (swapMode == MemorySwapMode.FULL || memoryOwner != mem) {
+      for (int i = 0; i < mem.getNumberOfSections(); i++) {
+        int size = mem.getSizeOfSection(i);
+        mem.copyDataOfSection(i, 0, getSwapBuffer(size), size);
+        coreComm.setMemory(
+            mem.getSectionNativeAddress(i) /* native address space */,
+            size, swapBuffer);
+      }
+      mem.clearDirtyPages();
+      memoryOwner = mem;
+      return;
+    }
+
+    /* The core still holds this memory: only copy pages written from Java */
+    for (int i = 0; i < mem.getNumberOfSections(); i++) {
+      if (!mem.isSectionDirty(i)) {
+        continue;
+      }
+      int startAddr = mem.getSectionNativeAddress(i); /* native address space */
+      int size = mem.getSizeOfSection(i);
+      int nrPages = (size + SectionMoteMemory.PAGE_SIZE - 1) / SectionMoteMemory.PAGE_SIZE;
+
+      int page = 0;
+      while (page < nrPages) {
+        if (!mem.isPageDirty(i, page)) {
+          page++;
+          continue;
+        }
+
+        /* Copy consecutive dirty pages at once */
+        int firstPage = page;
+        while (page < nrPages && mem.isPageDirty(i, page)) {
+          page++;
+        }
+        int from = firstPage*SectionMoteMemory.PAGE_SIZE;
+        int length = Math.min(page*SectionMoteMemory.PAGE_SIZE, size) - from;
+        mem.copyDataOfSection(i, from, getSwapBuffer(length), length);
+        coreComm.setMemory(startAddr + from, length, swapBuffer);
+      }
+    }
+    mem.clearDirtyPages();
+
+    if (swapMode == MemorySwapMode.VERIFY) {
+      verifyCoreMemory(mem);
+    }
+  }
+
+  /**
+   * Copy core memory to given memory.
+   *
+   * @param mem Memory to set
+   */
+  public void getCoreMemory(SectionMoteMemory mem) {
+    for (int i = 0; i < mem.getNumberOfSections(); i++) {
+      int startAddr = mem.getSectionNativeAddress(i); /* native address space */
+      int size = mem.getSizeOfSection(i);
+      coreComm.getMemory(startAddr, size, getSwapBuffer(size));
+      mem.setDataOfSection(i, swapBuffer);
+    }
+    mem.clearDirtyPages();
+    memoryOwner = mem;
+  }
+
+  /**
+   * Compares given memory with the memory of the core.
+   *
+   * @param mem Memory expected in core
+   */
+  private void verifyCoreMemory(SectionMoteMemory mem) {
+    for (int i = 0; i < mem.getNumberOfSections(); i++) {
+      int startAddr = mem.getSectionNativeAddress(i); /* native address space */
+      int size = mem.getSizeOfSection(i);
+      byte[] data = mem.getDataOfSection(i);
+      byte[] coreData = new byte[size];
+      coreComm.getMemory(startAddr, size, coreData);
+      if (!Arrays.equals(data, coreData)) {
+        throw new RuntimeException(
+            "Core memory mismatch after delta swap in section at 0x" +
+            Integer.toHexString(startAddr));
+      }
+    }
+  }
+}
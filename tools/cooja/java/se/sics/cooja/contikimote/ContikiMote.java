@@ -31,12 +31,15 @@
 
 package se.sics.cooja.contikimote;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 
 import org.apache.log4j.Logger;
 import org.jdom.Element;
 
+import se.sics.cooja.AddressMemory.UnknownVariableException;
+import se.sics.cooja.Checkpointable;
 import se.sics.cooja.Mote;
 import se.sics.cooja.MoteInterface;
 import se.sics.cooja.MoteInterfaceHandler;
@@ -44,6 +47,7 @@ import se.sics.cooja.MoteMemory;
 import se.sics.cooja.MoteType;
 import se.sics.cooja.SectionMoteMemory;
 import se.sics.cooja.Simulation;
+import se.sics.cooja.SimulationCheckpoint;
 import se.sics.cooja.motes.AbstractWakeupMote;
 
 /**
@@ -59,12 +63,21 @@ import se.sics.cooja.motes.AbstractWakeupMote;
  * memory to the core, lets the Contiki system handle one event,
  * fetches the updated memory and finally polls all interfaces again.
  *
+ * The entire Contiki system state is kept in the mote memory, which makes
+ * Contiki motes checkpointable: a checkpoint contains the memory, the next
+ * wakeup time and the state of all checkpointable mote interfaces. Pointers
+ * in the memory are relocated when a checkpoint is restored into a library
+ * loaded at another address. State kept by the C library, such as the
+ * rand() state behind random_rand() on the cooja platform, is not part of
+ * the mote memory and is not saved.
+ *
  * @author      Fredrik Osterlind
  */
-public class ContikiMote extends AbstractWakeupMote implements Mote {
+public class ContikiMote extends AbstractWakeupMote implements Mote, Checkpointable {
   private static Logger logger = Logger.getLogger(ContikiMote.class);
 
   private ContikiMoteType myType = null;
+  private ContikiCore myCore = null;
   private SectionMoteMemory myMemory = null;
   private MoteInterfaceHandler myInterfaceHandler = null;
 
@@ -79,7 +92,8 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
   public ContikiMote(ContikiMoteType moteType, Simulation sim) {
     setSimulation(sim);
     this.myType = moteType;
-    this.myMemory = moteType.createInitialMemory();
+    this.myCore = moteType.allocateCore();
+    this.myMemory = myCore.createInitialMemory();
     this.myInterfaceHandler = new MoteInterfaceHandler(this, moteType.getMoteInterfaceClasses());
 
     requestImmediateWakeup();
@@ -111,6 +125,10 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
 
   public void setType(MoteType type) {
     myType = (ContikiMoteType) type;
+    myCore = myType.allocateCore();
+
+    /* The memory holds absolute addresses of the previous core's library */
+    myMemory = myCore.createInitialMemory();
   }
 
   /**
@@ -136,13 +154,13 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
     }
 
     /* Copy mote memory to Contiki */
-    myType.setCoreMemory(myMemory);
+    myCore.setCoreMemory(myMemory);
 
     /* Handle a single Contiki events */
-    myType.tick();
+    myCore.tick();
 
     /* Copy mote memory from Contiki */
-    myType.getCoreMemory(myMemory);
+    myCore.getCoreMemory(myMemory);
 
     /* Poll mote interfaces */
     myMemory.pollForMemoryChanges();
@@ -177,7 +195,10 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
 
   public boolean setConfigXML(Simulation simulation, Collection<Element> configXML, boolean visAvailable) {
     setSimulation(simulation);
-    myMemory = myType.createInitialMemory();
+    if (myCore == null) {
+      myCore = myType.allocateCore();
+    }
+    myMemory = myCore.createInitialMemory();
     myInterfaceHandler = new MoteInterfaceHandler(this, myType.getMoteInterfaceClasses());
 
     for (Element element: configXML) {
@@ -207,6 +228,55 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
     return true;
   }
 
+  public void saveCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    myMemory.saveCheckpoint(checkpoint);
+    saveWakeupCheckpoint(checkpoint);
+
+    /* Mote interfaces */
+    for (MoteInterface moteInterface: myInterfaceHandler.getInterfaces()) {
+      if (moteInterface instanceof Checkpointable) {
+        checkpoint.getOutput().writeUTF(moteInterface.getClass().getName());
+        ((Checkpointable)moteInterface).saveCheckpoint(checkpoint);
+      }
+    }
+    checkpoint.getOutput().writeUTF("");
+  }
+
+  public void restoreCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    /* The saved memory holds absolute pointers into the library copy it was
+     * saved from, such as referenceVar, thread stacks and process lists */
+    long base, savedBase;
+    try {
+      base = myMemory.getPointerValueOf("referenceVar");
+      myMemory.restoreCheckpoint(checkpoint);
+      savedBase = myMemory.getPointerValueOf("referenceVar");
+    } catch (UnknownVariableException e) {
+      throw (IOException) new IOException("Contiki library reference not found").initCause(e);
+    }
+    if (savedBase != base) {
+      int relocated = myMemory.relocatePointers(savedBase, base);
+      logger.debug(this + ": relocated " + relocated + " pointers from library at 0x" +
+          Long.toHexString(savedBase) + " to 0x" + Long.toHexString(base));
+    }
+    restoreWakeupCheckpoint(checkpoint);
+
+    /* Mote interfaces */
+    String interfaceClass;
+    while (!(interfaceClass = checkpoint.getInput().readUTF()).isEmpty()) {
+      Checkpointable moteInterface = null;
+      for (MoteInterface mi: myInterfaceHandler.getInterfaces()) {
+        if (mi.getClass().getName().equals(interfaceClass) && mi instanceof Checkpointable) {
+          moteInterface = (Checkpointable) mi;
+          break;
+        }
+      }
+      if (moteInterface == null) {
+        throw new IOException("Checkpoint mote interface not found: " + interfaceClass);
+      }
+      moteInterface.restoreCheckpoint(checkpoint);
+    }
+  }
+
   public String toString() {
     return "Contiki " + getID();
   }
@@ -44,8 +44,12 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -84,9 +88,12 @@ import se.sics.cooja.util.StringUtils;
  * loads the variable and segments addresses.
  * <p>
  * When a new mote type is created an initialization function is run on the
- * Contiki system in order to create the initial memory. When a new mote is
- * created the createInitialMemory() method should be called to get this initial
- * memory for the mote.
+ * Contiki system in order to create the initial memory. A mote type may load
+ * several private copies of the library, each a {@link ContikiCore}. A new mote
+ * is assigned a core by {@link #allocateCore()}, gets its initial memory from
+ * that core, and is ticked only by that core. The initial memories of
+ * different cores differ, since they hold absolute addresses of their own
+ * library copy.
  *
  * @author Fredrik Osterlind
  */
@@ -112,6 +119,11 @@ public class ContikiMoteType implements MoteType {
    */
   final static public String dependSuffix = ".a";
 
+  /**
+   * Stored symbols file suffix
+   */
+  final static public String symbolsSuffix = ".symbols";
+
   /**
    * Temporary output directory
    */
@@ -193,10 +205,17 @@ public class ContikiMoteType implements MoteType {
   // Type specific class configuration
   private ProjectConfig myConfig = null;
 
-  private CoreComm myCoreComm = null;
+  // Loaded Contiki cores: the first core is loaded when the mote type is initialized
+  private ArrayList<ContikiCore> cores = new ArrayList<ContikiCore>();
+  private int nextCore = 0;
+  private ContikiCore.MemorySwapMode swapMode = ContikiCore.MemorySwapMode.DELTA;
 
-  // Initial memory for all motes of this type
-  private SectionMoteMemory initialMemory = null;
+  // Library layout, used when initializing cores
+  private HashMap<String, Integer> coreAddresses = null;
+  private int dataSectionAddr = -1, dataSectionSize = -1;
+  private int bssSectionAddr = -1, bssSectionSize = -1;
+  private int commonSectionAddr = -1, commonSectionSize = -1;
+  private int readonlySectionAddr = -1, readonlySectionSize = -1;
 
   /**
    * Creates a new uninitialized Cooja mote type. This mote type needs to load
@@ -227,127 +246,164 @@ public class ContikiMoteType implements MoteType {
       }
 
     } else {
-      if (getIdentifier() == null) {
-        throw new MoteTypeCreationException("No identifier specified");
-      }
-      if (getContikiSourceFile() == null) {
-        throw new MoteTypeCreationException("No Contiki application specified");
-      }
+      buildFirmware();
+    }
 
-      /* Create variables used for compiling Contiki */
-      contikiApp = getContikiSourceFile();
-      libSource = new File(
-          contikiApp.getParentFile(),
-          "obj_cooja/" + getIdentifier() + ".c");
-      libFile = new File(
-          contikiApp.getParentFile(),
-          "obj_cooja/" + getIdentifier() + librarySuffix);
-      archiveFile = new File(
-          contikiApp.getParentFile(),
-          "obj_cooja/" + getIdentifier() + dependSuffix);
-      mapFile = new File(
-          contikiApp.getParentFile(),
-          "obj_cooja/" + getIdentifier() + mapSuffix);
-      javaClassName = CoreComm.getAvailableClassName();
-
-      if (javaClassName == null) {
-        throw new MoteTypeCreationException("Could not allocate a core communicator.");
-      }
+    /* Load compiled library */
+    doInit();
+    return true;
+  }
 
-      /* Delete output files */
-      libSource.delete();
-      libFile.delete();
-      archiveFile.delete();
-      mapFile.delete();
-
-      /* Generate Contiki main source */
-      /*try {
-        CompileContiki.generateSourceFile(
-            libSource,
-            javaClassName,
-            getSensors(),
-            getCoreInterfaces()
-        );
-      } catch (Exception e) {
-        throw (MoteTypeCreationException) new MoteTypeCreationException(
-        "Error when generating Contiki main source").initCause(e);
-      }*/
+  /**
+   * Compiles the Contiki firmware of this mote type, or copies it from the
+   * firmware build cache.
+   *
+   * @see FirmwareBuildCache
+   * @throws MoteTypeCreationException If compilation failed
+   */
+  private void buildFirmware() throws MoteTypeCreationException {
+    if (getIdentifier() == null) {
+      throw new MoteTypeCreationException("No identifier specified");
+    }
+    if (getContikiSourceFile() == null) {
+      throw new MoteTypeCreationException("No Contiki application specified");
+    }
+
+    /* Create variables used for compiling Contiki */
+    contikiApp = getContikiSourceFile();
+    libSource = new File(
+        contikiApp.getParentFile(),
+        "obj_cooja/" + getIdentifier() + ".c");
+    libFile = new File(
+        contikiApp.getParentFile(),
+        "obj_cooja/" + getIdentifier() + librarySuffix);
+    archiveFile = new File(
+        contikiApp.getParentFile(),
+        "obj_cooja/" + getIdentifier() + dependSuffix);
+    mapFile = new File(
+        contikiApp.getParentFile(),
+        "obj_cooja/" + getIdentifier() + mapSuffix);
+    javaClassName = CoreComm.getAvailableClassName();
+
+    if (javaClassName == null) {
+      throw new MoteTypeCreationException("Could not allocate a core communicator.");
+    }
+
+    /* Delete output files */
+    libSource.delete();
+    libFile.delete();
+    archiveFile.delete();
+    mapFile.delete();
+
+    /* Generate Contiki main source */
+    /*try {
+      CompileContiki.generateSourceFile(
+          libSource,
+          javaClassName,
+          getSensors(),
+          getCoreInterfaces()
+      );
+    } catch (Exception e) {
+      throw (MoteTypeCreationException) new MoteTypeCreationException(
+      "Error when generating Contiki main source").initCause(e);
+    }*/
 
-      /* Prepare compiler environment */
-      String[][] env;
+    /* Prepare compiler environment */
+    String[][] env;
+    try {
+      env = CompileContiki.createCompilationEnvironment(
+          getIdentifier(),
+          contikiApp,
+          mapFile,
+          libFile,
+          archiveFile,
+          javaClassName);
+      CompileContiki.redefineCOOJASources(
+      		this,
+      		env
+      );
+    } catch (Exception e) {
+      throw (MoteTypeCreationException) new MoteTypeCreationException(
+          "Error when creating environment: " + e.getMessage()).initCause(e);
+    }
+    String[] envOneDimension = new String[env.length];
+    for (int i=0; i < env.length; i++) {
+      envOneDimension[i] = env[i][0] + "=" + env[i][1];
+    }
+
+    /* Compile Contiki (may consist of several commands) */
+    if (getCompileCommands() == null) {
+      throw new MoteTypeCreationException("No compile commands specified");
+    }
+
+    /* Reuse cached firmware, if any */
+    FirmwareBuildCache cache = FirmwareBuildCache.getConfiguredCache();
+    String cacheKey = null;
+    if (cache != null) {
       try {
-        env = CompileContiki.createCompilationEnvironment(
-            getIdentifier(),
-            contikiApp,
-            mapFile,
-            libFile,
-            archiveFile,
-            javaClassName);
-        CompileContiki.redefineCOOJASources(
-        		this,
-        		env
-        );
-      } catch (Exception e) {
-        throw (MoteTypeCreationException) new MoteTypeCreationException(
-            "Error when creating environment: " + e.getMessage()).initCause(e);
+        cacheKey = cache.createKey(
+            getIdentifier(), javaClassName, contikiApp, getCompileCommands(), env);
+      } catch (IOException e) {
+        logger.warn("Firmware build cache disabled: " + e.getMessage());
+        cache = null;
       }
-      String[] envOneDimension = new String[env.length];
-      for (int i=0; i < env.length; i++) {
-        envOneDimension[i] = env[i][0] + "=" + env[i][1];
+    }
+    if (cache != null) {
+      String cachedClassName = cache.load(
+          cacheKey, contikiApp.getParentFile(), libFile, mapFile);
+      if (cachedClassName != null) {
+        javaClassName = cachedClassName;
+        return;
       }
+    }
 
-      /* Compile Contiki (may consist of several commands) */
-      if (getCompileCommands() == null) {
-        throw new MoteTypeCreationException("No compile commands specified");
+    final MessageList compilationOutput = new MessageList();
+    String[] arr = getCompileCommands().split("\n");
+    for (String cmd: arr) {
+      if (cmd.trim().isEmpty()) {
+        continue;
       }
-      final MessageList compilationOutput = new MessageList();
-      String[] arr = getCompileCommands().split("\n");
-      for (String cmd: arr) {
-        if (cmd.trim().isEmpty()) {
-          continue;
-        }
 
-        try {
-          CompileContiki.compile(
-              cmd,
-              envOneDimension,
-              null /* Do not observe output firmware file */,
-              getContikiSourceFile().getParentFile(),
-              null,
-              null,
-              compilationOutput,
-              true
-          );
-        } catch (Exception e) {
-          MoteTypeCreationException newException =
-            new MoteTypeCreationException("Mote type creation failed: " + e.getMessage());
-          newException = (MoteTypeCreationException) newException.initCause(e);
-          newException.setCompilationOutput(compilationOutput);
-
-          /* Print last 10 compilation errors to console */
-          MessageContainer[] messages = compilationOutput.getMessages();
-          for (int i=messages.length-10; i < messages.length; i++) {
-            if (i < 0) {
-              continue;
-            }
-            logger.fatal(">> " + messages[i]);
+      try {
+        CompileContiki.compile(
+            cmd,
+            envOneDimension,
+            null /* Do not observe output firmware file */,
+            getContikiSourceFile().getParentFile(),
+            null,
+            null,
+            compilationOutput,
+            true
+        );
+      } catch (Exception e) {
+        MoteTypeCreationException newException =
+          new MoteTypeCreationException("Mote type creation failed: " + e.getMessage());
+        newException = (MoteTypeCreationException) newException.initCause(e);
+        newException.setCompilationOutput(compilationOutput);
+
+        /* Print last 10 compilation errors to console */
+        MessageContainer[] messages = compilationOutput.getMessages();
+        for (int i=messages.length-10; i < messages.length; i++) {
+          if (i < 0) {
+            continue;
           }
-
-          logger.fatal("Compilation error: " + e.getMessage());
-          throw newException;
+          logger.fatal(">> " + messages[i]);
         }
-      }
 
-      /* Make sure compiled firmware exists */
-      if (getContikiFirmwareFile() == null ||
-          !getContikiFirmwareFile().exists()) {
-        throw new MoteTypeCreationException("Contiki firmware file does not exist: " + getContikiFirmwareFile());
+        logger.fatal("Compilation error: " + e.getMessage());
+        throw newException;
       }
     }
 
-    /* Load compiled library */
-    doInit();
-    return true;
+    /* Make sure compiled firmware exists */
+    if (getContikiFirmwareFile() == null ||
+        !getContikiFirmwareFile().exists()) {
+      throw new MoteTypeCreationException("Contiki firmware file does not exist: " + getContikiFirmwareFile());
+    }
+
+    if (cache != null) {
+      cache.store(cacheKey, javaClassName, contikiApp.getParentFile(), libFile, mapFile);
+    }
   }
 
   public static File getExpectedFirmwareFile(File source) {
@@ -367,9 +423,9 @@ public class ContikiMoteType implements MoteType {
    */
   private void doInit() throws MoteTypeCreationException {
 
-    if (myCoreComm != null) {
+    if (!cores.isEmpty()) {
       throw new MoteTypeCreationException(
-          "Core communicator already used: " + myCoreComm.getClass().getName());
+          "Core communicator already used: " + cores.get(0).getCoreComm().getClass().getName());
     }
 
     if (getContikiFirmwareFile() == null ||
@@ -383,72 +439,38 @@ public class ContikiMoteType implements MoteType {
 
     // Allocate core communicator class
     logger.info("Creating core communicator between Java class '" + javaClassName + "' and Contiki library '" + getContikiFirmwareFile().getName() + "'");
-    myCoreComm = CoreComm.createCoreComm(this.javaClassName, getContikiFirmwareFile());
-
-    /* Parse addresses using map file or command */
-    boolean useCommand = Boolean.parseBoolean(GUI.getExternalToolsSetting("PARSE_WITH_COMMAND", "false"));
-
-    int dataSectionAddr = -1, dataSectionSize = -1;
-    int bssSectionAddr = -1, bssSectionSize = -1;
-    int commonSectionAddr = -1, commonSectionSize = -1;
-    int readonlySectionAddr = -1, readonlySectionSize = -1;
-
-    HashMap<String, Integer> addresses = new HashMap<String, Integer>();
-    if (useCommand) {
-      /* Parse command output */
-      String[] output = loadCommandData(getContikiFirmwareFile());
-      if (output == null) {
-        throw new MoteTypeCreationException("No parse command output loaded");
-      }
-      boolean parseOK = parseCommandData(output, addresses);
-      if (!parseOK) {
-        logger.fatal("Command output parsing failed");
-        throw new MoteTypeCreationException("Command output parsing failed");
-      }
-
-      dataSectionAddr = parseCommandDataSectionAddr(output);
-      dataSectionSize = parseCommandDataSectionSize(output);
-      bssSectionAddr = parseCommandBssSectionAddr(output);
-      bssSectionSize = parseCommandBssSectionSize(output);
-      commonSectionAddr = parseCommandCommonSectionAddr(output);
-      commonSectionSize = parseCommandCommonSectionSize(output);
-
-      try {
-        readonlySectionAddr = parseCommandReadonlySectionAddr(output);
-        readonlySectionSize = parseCommandReadonlySectionSize(output);
-      } catch (Exception e) {
-        readonlySectionAddr = -1;
-        readonlySectionSize = -1;
-      }
+    CoreComm coreComm = CoreComm.createCoreComm(this.javaClassName, getContikiFirmwareFile());
 
+    String swapModeSetting = GUI.getExternalToolsSetting("MEMORY_SWAP_MODE", "DELTA");
+    try {
+      swapMode = ContikiCore.MemorySwapMode.valueOf(swapModeSetting.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      logger.warn("Unknown memory swap mode '" + swapModeSetting + "', using DELTA");
+      swapMode = ContikiCore.MemorySwapMode.DELTA;
+    }
+
+    /* Parse addresses using map file or command, unless already parsed */
+    File symbolsFile = new File(
+        getContikiFirmwareFile().getParentFile(),
+        getIdentifier() + symbolsSuffix);
+    FirmwareSymbols symbols = FirmwareSymbols.load(symbolsFile, getContikiFirmwareFile());
+    if (symbols == null) {
+      symbols = parseSymbols();
+      symbols.save(symbolsFile, getContikiFirmwareFile());
     } else {
-      /* Parse command output */
-      if (mapFile == null ||
-          !mapFile.exists()) {
-        throw new MoteTypeCreationException("Map file " + mapFile + " could not be found");
-      }
-      String[] mapData = loadMapFile(mapFile);
-      if (mapData == null) {
-        logger.fatal("No map data could be loaded");
-        throw new MoteTypeCreationException("No map data could be loaded: " + mapFile);
-      }
-      boolean parseOK = parseMapFileData(mapData, addresses);
-      if (!parseOK) {
-        logger.fatal("Map data parsing failed");
-        throw new MoteTypeCreationException("Map data parsing failed: " + mapFile);
-      }
-
-      dataSectionAddr = parseMapDataSectionAddr(mapData);
-      dataSectionSize = parseMapDataSectionSize(mapData);
-      bssSectionAddr = parseMapBssSectionAddr(mapData);
-      bssSectionSize = parseMapBssSectionSize(mapData);
-      commonSectionAddr = parseMapCommonSectionAddr(mapData);
-      commonSectionSize = parseMapCommonSectionSize(mapData);
-      readonlySectionAddr = -1;
-      readonlySectionSize = -1;
-
+      logger.info(getContikiFirmwareFile().getName() + ": using stored symbols " + symbolsFile.getName());
     }
 
+    HashMap<String, Integer> addresses = symbols.getAddresses();
+    dataSectionAddr = symbols.getDataSectionAddr();
+    dataSectionSize = symbols.getDataSectionSize();
+    bssSectionAddr = symbols.getBssSectionAddr();
+    bssSectionSize = symbols.getBssSectionSize();
+    commonSectionAddr = symbols.getCommonSectionAddr();
+    commonSectionSize = symbols.getCommonSectionSize();
+    readonlySectionAddr = symbols.getReadonlySectionAddr();
+    readonlySectionSize = symbols.getReadonlySectionSize();
+
     if (dataSectionAddr >= 0) {
       logger.info(getContikiFirmwareFile().getName() +
           ": data section at 0x" + Integer.toHexString(dataSectionAddr) +
@@ -485,10 +507,35 @@ public class ContikiMoteType implements MoteType {
       throw new MoteTypeCreationException("Library section addresses parsing failed");
     }
 
+    coreAddresses = addresses;
+    cores.add(createCore(coreComm));
+
+    /* Additional private copies of the library */
+    int nrCores = 1;
+    try {
+      nrCores = Integer.parseInt(GUI.getExternalToolsSetting("CONTIKI_CORE_INSTANCES", "1").trim());
+    } catch (NumberFormatException e) {
+      logger.warn("Bad number of Contiki core instances: " + e.getMessage());
+    }
+    for (int i=1; i < nrCores; i++) {
+      logger.info("Loading Contiki core instance " + (i+1) + "/" + nrCores);
+      coreComm = CoreComm.createCoreCommInstance(this.javaClassName, getContikiFirmwareFile());
+      cores.add(createCore(coreComm));
+    }
+  }
+
+  /**
+   * Initializes a loaded library, and reads its initial memory.
+   *
+   * @param coreComm Core communicator of loaded library
+   * @return Contiki core
+   * @throws MoteTypeCreationException
+   */
+  private ContikiCore createCore(CoreComm coreComm) throws MoteTypeCreationException {
     try {
       /* Relative <-> absolute addresses offset */
-      int referenceVar = addresses.get("referenceVar");
-      myCoreComm.setReferenceAddress(referenceVar);
+      int referenceVar = coreAddresses.get("referenceVar");
+      coreComm.setReferenceAddress(referenceVar);
     } catch (Exception e) {
       throw (MoteTypeCreationException) new MoteTypeCreationException(
           "JNI call error: " + e.getMessage()).initCause(e);
@@ -502,12 +549,12 @@ public class ContikiMoteType implements MoteType {
      * Contiki's and Cooja's address spaces */
     int offset;
     {
-      SectionMoteMemory tmp = new SectionMoteMemory(addresses, 0);
+      SectionMoteMemory tmp = new SectionMoteMemory(coreAddresses, 0);
       byte[] data = new byte[dataSectionSize];
-      getCoreMemory(dataSectionAddr, dataSectionSize, data);
+      coreComm.getMemory(dataSectionAddr, dataSectionSize, data);
       tmp.setMemorySegment(dataSectionAddr, data);
       byte[] bss = new byte[bssSectionSize];
-      getCoreMemory(bssSectionAddr, bssSectionSize, bss);
+      coreComm.getMemory(bssSectionAddr, bssSectionSize, bss);
       tmp.setMemorySegment(bssSectionAddr, bss);
 
       offset = tmp.getIntValueOf("referenceVar");
@@ -516,62 +563,105 @@ public class ContikiMoteType implements MoteType {
     }
 
     /* Create initial memory: data+bss+optional common */
-    initialMemory = new SectionMoteMemory(addresses, offset);
+    SectionMoteMemory initialMemory = new SectionMoteMemory(coreAddresses, offset);
 
     byte[] initialDataSection = new byte[dataSectionSize];
-    getCoreMemory(dataSectionAddr, dataSectionSize, initialDataSection);
+    coreComm.getMemory(dataSectionAddr, dataSectionSize, initialDataSection);
     initialMemory.setMemorySegmentNative(dataSectionAddr, initialDataSection);
 
     byte[] initialBssSection = new byte[bssSectionSize];
-    getCoreMemory(bssSectionAddr, bssSectionSize, initialBssSection);
+    coreComm.getMemory(bssSectionAddr, bssSectionSize, initialBssSection);
     initialMemory.setMemorySegmentNative(bssSectionAddr, initialBssSection);
 
     if (commonSectionAddr >= 0 && commonSectionSize > 0) {
       byte[] initialCommonSection = new byte[commonSectionSize];
-      getCoreMemory(commonSectionAddr, commonSectionSize, initialCommonSection);
+      coreComm.getMemory(commonSectionAddr, commonSectionSize, initialCommonSection);
       initialMemory.setMemorySegmentNative(commonSectionAddr, initialCommonSection);
     }
 
     /* Read "read-only" memory */
     if (readonlySectionAddr >= 0 && readonlySectionSize > 0) {
       byte[] readonlySection = new byte[readonlySectionSize];
-      getCoreMemory(readonlySectionAddr, readonlySectionSize, readonlySection);
+      coreComm.getMemory(readonlySectionAddr, readonlySectionSize, readonlySection);
       initialMemory.setReadonlyMemorySegment(readonlySectionAddr+offset, readonlySection);
     }
+
+    return new ContikiCore(coreComm, initialMemory, swapMode);
   }
 
   /**
-   * Ticks the currently loaded mote. This should not be used directly, but
-   * rather via {@link ContikiMote#execute(long)}.
+   * Returns the next Contiki core for a new mote. Motes are spread
+   * round-robin over the cores loaded by this mote type.
+   *
+   * @return Contiki core
    */
-  public void tick() {
-    myCoreComm.tick();
+  public ContikiCore allocateCore() {
+    ContikiCore core = cores.get(nextCore);
+    nextCore = (nextCore + 1) % cores.size();
+    return core;
   }
 
   /**
-   * Creates and returns a copy of this mote type's initial memory (just after
-   * the init function has been run). When a new mote is created it should get
-   * it's memory from here.
-   *
-   * @return Initial memory of a mote type
+   * @return Number of Contiki cores loaded by this mote type
    */
-  public SectionMoteMemory createInitialMemory() {
-    return initialMemory.clone();
+  public int getNumberOfCores() {
+    return cores.size();
   }
 
   /**
-   * Copy given memory to the Contiki system. This should not be used directly,
-   * but instead via ContikiMote.setMemory().
+   * Parses firmware symbols from map file or parse command output.
    *
-   * @param mem
-   *          New memory
+   * @return Parsed symbols
+   * @throws MoteTypeCreationException If parsing failed
    */
-  public void setCoreMemory(SectionMoteMemory mem) {
-    for (int i = 0; i < mem.getNumberOfSections(); i++) {
-      setCoreMemory(
-          mem.getSectionNativeAddress(i) /* native address space */,
-          mem.getSizeOfSection(i), mem.getDataOfSection(i));
+  private FirmwareSymbols parseSymbols() throws MoteTypeCreationException {
+    boolean useCommand = Boolean.parseBoolean(GUI.getExternalToolsSetting("PARSE_WITH_COMMAND", "false"));
+
+    if (useCommand) {
+      /* Parse command output */
+      String[] output = loadCommandData(getContikiFirmwareFile());
+      if (output == null) {
+        throw new MoteTypeCreationException("No parse command output loaded");
+      }
+      HashMap<String, Integer> addresses = new HashMap<String, Integer>();
+      boolean parseOK = parseCommandData(output, addresses);
+      if (!parseOK) {
+        logger.fatal("Command output parsing failed");
+        throw new MoteTypeCreationException("Command output parsing failed");
+      }
+
+      int readonlyAddr, readonlySize;
+      try {
+        readonlyAddr = parseCommandReadonlySectionAddr(output);
+        readonlySize = parseCommandReadonlySectionSize(output);
+      } catch (Exception e) {
+        readonlyAddr = -1;
+        readonlySize = -1;
+      }
+
+      return new FirmwareSymbols(addresses,
+          parseCommandDataSectionAddr(output), parseCommandDataSectionSize(output),
+          parseCommandBssSectionAddr(output), parseCommandBssSectionSize(output),
+          parseCommandCommonSectionAddr(output), parseCommandCommonSectionSize(output),
+          readonlyAddr, readonlySize);
+    }
+
+    /* Parse map file */
+    if (mapFile == null ||
+        !mapFile.exists()) {
+      throw new MoteTypeCreationException("Map file " + mapFile + " could not be found");
+    }
+    String[] mapData = loadMapFile(mapFile);
+    if (mapData == null) {
+      logger.fatal("No map data could be loaded");
+      throw new MoteTypeCreationException("No map data could be loaded: " + mapFile);
+    }
+    FirmwareSymbols symbols = FirmwareSymbols.parseMapFile(mapData);
+    if (symbols.getAddresses().isEmpty()) {
+      logger.fatal("Map data parsing failed");
+      throw new MoteTypeCreationException("Map data parsing failed: " + mapFile);
     }
+    return symbols;
   }
 
   /**
@@ -584,18 +674,14 @@ public class ContikiMoteType implements MoteType {
    *          Properties that should contain the name to addresses mappings.
    */
   public static boolean parseMapFileData(String[] mapFileData, HashMap<String, Integer> varAddresses) {
-    String[] varNames = getMapFileVarNames(mapFileData);
-    if (varNames == null || varNames.length == 0) {
+    HashMap<String, Integer> parsed = FirmwareSymbols.parseMapFile(mapFileData).getAddresses();
+    if (parsed.isEmpty()) {
       return false;
     }
 
-    for (String varName : varNames) {
-      int varAddress = getMapFileVarAddress(mapFileData, varName, varAddresses);
-      if (varAddress > 0) {
-        varAddresses.put(varName, new Integer(varAddress));
-      } else {
-        logger.warn("Parsed Contiki variable '" + varName
-            + "' but could not find address");
+    for (String varName : parsed.keySet()) {
+      if (!varAddresses.containsKey(varName)) {
+        varAddresses.put(varName, parsed.get(varName));
       }
     }
 
@@ -650,22 +736,6 @@ public class ContikiMoteType implements MoteType {
     return (nrNew + nrOld) > 0;
   }
 
-  /**
-   * Copy core memory to given memory. This should not be used directly, but
-   * instead via ContikiMote.getMemory().
-   *
-   * @param mem
-   *          Memory to set
-   */
-  public void getCoreMemory(SectionMoteMemory mem) {
-    for (int i = 0; i < mem.getNumberOfSections(); i++) {
-      int startAddr = mem.getSectionNativeAddress(i); /* native address space */
-      int size = mem.getSizeOfSection(i);
-      byte[] data = mem.getDataOfSection(i);
-      getCoreMemory(startAddr, size, data);
-    }
-  }
-
   public String getIdentifier() {
     return identifier;
   }
@@ -726,41 +796,6 @@ public class ContikiMoteType implements MoteType {
     return netStack;
   }
 
-  /**
-   * Get relative address of variable with given name.
-   *
-   * @param varName Name of variable
-   * @return Relative memory address of variable or -1 if not found
-   */
-  private static int getMapFileVarAddress(String[] mapFileData, String varName, HashMap<String, Integer> varAddresses) {
-    Integer varAddrInteger;
-    if ((varAddrInteger = varAddresses.get(varName)) != null) {
-      return varAddrInteger.intValue();
-    }
-
-    String regExp =
-      GUI.getExternalToolsSetting("MAPFILE_VAR_ADDRESS_1") +
-      varName +
-      GUI.getExternalToolsSetting("MAPFILE_VAR_ADDRESS_2");
-    String retString = getFirstMatchGroup(mapFileData, regExp, 1);
-
-    if (retString != null) {
-      varAddrInteger = Integer.parseInt(retString.trim(), 16);
-      varAddresses.put(varName, varAddrInteger);
-      return varAddrInteger.intValue();
-    } else {
-      return -1;
-    }
-  }
-
-  private void getCoreMemory(int relAddr, int length, byte[] data) {
-    myCoreComm.getMemory(relAddr, length, data);
-  }
-
-  private void setCoreMemory(int relAddr, int length, byte[] mem) {
-    myCoreComm.setMemory(relAddr, length, mem);
-  }
-
   private static String getFirstMatchGroup(String[] lines, String regexp, int groupNr) {
     Pattern pattern = Pattern.compile(regexp);
     for (String line : lines) {
@@ -1284,6 +1319,13 @@ public class ContikiMoteType implements MoteType {
   public boolean setConfigXML(Simulation simulation,
       Collection<Element> configXML, boolean visAvailable)
   throws MoteTypeCreationException {
+    parseConfigXML(simulation, configXML);
+
+    boolean createdOK = configureAndInit(GUI.getTopParentContainer(), simulation, visAvailable);
+    return createdOK;
+  }
+
+  private void parseConfigXML(Simulation simulation, Collection<Element> configXML) {
     boolean warnedOldVersion = false;
     File oldVersionSource = null;
 
@@ -1386,9 +1428,81 @@ public class ContikiMoteType implements MoteType {
       logger.info("Guessing compile commands: " + compileCommands);
       setCompileCommands(compileCommands);
     }
+  }
 
-    boolean createdOK = configureAndInit(GUI.getTopParentContainer(), simulation, visAvailable);
-    return createdOK;
+  /**
+   * Compiles the firmwares of all Contiki mote types in a simulation config
+   * in parallel, and stores them in the firmware build cache. The mote types
+   * are then loaded one by one as usual, using the cached firmwares.
+   *
+   * Mote types sharing a Contiki application directory also share its
+   * obj_cooja directory, and are compiled one after another.
+   *
+   * Does nothing unless the firmware build cache is enabled.
+   *
+   * @param simulation Simulation
+   * @param configXML Simulation config
+   */
+  public static void prepareFirmwareBuilds(Simulation simulation, Collection<Element> configXML) {
+    if (FirmwareBuildCache.getConfiguredCache() == null) {
+      return;
+    }
+
+    /* Group mote types by Contiki application directory */
+    final LinkedHashMap<File, ArrayList<ContikiMoteType>> groups =
+      new LinkedHashMap<File, ArrayList<ContikiMoteType>>();
+    int count = 0;
+    for (Element element : configXML) {
+      if (!element.getName().equals("motetype") ||
+          !element.getText().trim().equals(ContikiMoteType.class.getName())) {
+        continue;
+      }
+      ContikiMoteType moteType = new ContikiMoteType();
+      moteType.parseConfigXML(simulation, element.getChildren());
+      if (moteType.getIdentifier() == null ||
+          moteType.getContikiSourceFile() == null ||
+          moteType.getCompileCommands() == null) {
+        continue;
+      }
+      moteType.myConfig = simulation.getGUI().getProjectConfig().clone();
+
+      File dir = moteType.getContikiSourceFile().getAbsoluteFile().getParentFile();
+      ArrayList<ContikiMoteType> group = groups.get(dir);
+      if (group == null) {
+        group = new ArrayList<ContikiMoteType>();
+        groups.put(dir, group);
+      }
+      group.add(moteType);
+      count++;
+    }
+    if (count < 2) {
+      return;
+    }
+
+    logger.info("Compiling " + count + " mote types in " + groups.size() + " directories");
+    int threads = Math.min(groups.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    for (final ArrayList<ContikiMoteType> group: groups.values()) {
+      pool.execute(new Runnable() {
+        public void run() {
+          for (ContikiMoteType moteType: group) {
+            try {
+              moteType.buildFirmware();
+            } catch (MoteTypeCreationException e) {
+              /* Reported again when the mote type is loaded */
+              logger.warn("Could not compile mote type " + moteType.getIdentifier() + ": " + e.getMessage());
+            }
+          }
+        }
+      });
+    }
+    pool.shutdown();
+    try {
+      while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+      }
+    } catch (InterruptedException e) {
+      pool.shutdownNow();
+    }
   }
 
   public static String[] getRequiredCoreInterfaces(
@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2013, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+
+package se.sics.cooja.contikimote;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+import org.apache.log4j.Logger;
+
+import se.sics.cooja.CoreComm;
+import se.sics.cooja.GUI;
+
+/**
+ * Content-addressed cache of compiled Contiki firmwares, stored on local disk.
+ *
+ * Firmwares are cached by a key hashing everything the build depends on: the
+ * compile commands, the compilation environment, the Contiki application
+ * source and makefile, the C compiler version and the platform. The mote type
+ * identifier and the core communicator class name differ between loads, and
+ * are not part of the key. A cached firmware is instead reused together with
+ * the class name it was compiled for, even if that class name is already used
+ * by another core communicator in this JVM: each core communicator class is
+ * loaded by its own class loader, see {@link CoreComm}.
+ *
+ * Each entry also lists all source files and headers used by the build, as
+ * reported by the dependency files in obj_cooja. An entry is only used if
+ * none of them have changed.
+ *
+ * The cache is enabled by setting FIRMWARE_CACHE_DIR.
+ *
+ * @see ContikiMoteType
+ */
+public class FirmwareBuildCache {
+  private static Logger logger = Logger.getLogger(FirmwareBuildCache.class);
+
+  private static final int VERSION = 1;
+
+  private static final String FIRMWARE_FILE = "firmware";
+  private static final String MAP_FILE = "map";
+  private static final String CLASSNAME_FILE = "classname";
+  private static final String DEPENDENCIES_FILE = "dependencies";
+
+  /* C compiler versions, by compiler command */
+  private static HashMap<String, String> compilerVersions = new HashMap<String, String>();
+
+  private final File directory;
+
+  /**
+   * @param directory Cache directory
+   */
+  public FirmwareBuildCache(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * @return Cache in directory FIRMWARE_CACHE_DIR, or null if not configured
+   */
+  public static FirmwareBuildCache getConfiguredCache() {
+    String dir = GUI.getExternalToolsSetting("FIRMWARE_CACHE_DIR", "").trim();
+    if (dir.isEmpty()) {
+      return null;
+    }
+    return new FirmwareBuildCache(new File(dir));
+  }
+
+  /**
+   * Creates the cache key of a firmware build.
+   *
+   * @param identifier Mote type identifier
+   * @param javaClassName Core communicator class name
+   * @param source Contiki application source
+   * @param commands Compile commands
+   * @param env Compilation environment
+   * @return Cache key
+   * @throws IOException If source files could not be read
+   */
+  public String createKey(String identifier, String javaClassName, File source,
+      String commands, String[][] env) throws IOException {
+    MessageDigest md = createDigest();
+    update(md, "version " + VERSION);
+    update(md, "platform " + System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+    update(md, "cc " + getCompilerVersion(GUI.getExternalToolsSetting("PATH_C_COMPILER")));
+    update(md, "commands " + normalize(commands, identifier, javaClassName));
+    for (String[] e: env) {
+      update(md, "env " + e[0] + "=" + normalize(e[1], identifier, javaClassName));
+    }
+    update(md, "source " + source.getName());
+    update(md, source);
+    File makefile = new File(source.getParentFile(), "Makefile");
+    if (makefile.exists()) {
+      update(md, "makefile");
+      update(md, makefile);
+    }
+    return toHex(md.digest());
+  }
+
+  /**
+   * Copies a cached firmware and its map file.
+   *
+   * @param key Cache key
+   * @param sourceDir Contiki application directory
+   * @param firmwareFile Firmware destination
+   * @param mapFile Map file destination
+   * @return Core communicator class name of cached firmware, or null if not cached
+   */
+  public String load(String key, File sourceDir, File firmwareFile, File mapFile) {
+    File entry = new File(directory, key);
+    if (!entry.isDirectory()) {
+      return null;
+    }
+    try {
+      if (!isUpToDate(entry, sourceDir)) {
+        logger.info("Cached firmware is outdated: " + key);
+        return null;
+      }
+      String className = readLine(new File(entry, CLASSNAME_FILE));
+      copy(new File(entry, FIRMWARE_FILE), firmwareFile);
+      File cachedMap = new File(entry, MAP_FILE);
+      if (cachedMap.exists()) {
+        copy(cachedMap, mapFile);
+      }
+      logger.info("Using cached firmware " + key + " for " + firmwareFile.getName());
+      return className;
+    } catch (IOException e) {
+      logger.warn("Error when reading cached firmware " + key + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Stores a compiled firmware and its map file.
+   *
+   * @param key Cache key
+   * @param javaClassName Core communicator class name firmware was compiled for
+   * @param sourceDir Contiki application directory
+   * @param firmwareFile Compiled firmware
+   * @param mapFile Map file
+   */
+  public void store(String key, String javaClassName, File sourceDir, File firmwareFile, File mapFile) {
+    /* Write new entry to temporary directory, and then move it in place */
+    File tmp = new File(directory, key + ".tmp" + System.nanoTime());
+    try {
+      if (!tmp.mkdirs()) {
+        throw new IOException("Could not create directory " + tmp);
+      }
+      copy(firmwareFile, new File(tmp, FIRMWARE_FILE));
+      if (mapFile != null && mapFile.exists()) {
+        copy(mapFile, new File(tmp, MAP_FILE));
+      }
+      PrintWriter out = new PrintWriter(new FileWriter(new File(tmp, CLASSNAME_FILE)));
+      out.println(javaClassName);
+      out.close();
+      writeDependencies(sourceDir, new File(tmp, DEPENDENCIES_FILE));
+
+      File entry = new File(directory, key);
+      if (entry.exists()) {
+        /* Outdated entry */
+        delete(entry);
+      }
+      if (!tmp.renameTo(entry)) {
+        throw new IOException("Could not rename " + tmp + " to " + entry);
+      }
+      logger.info("Cached firmware " + key);
+    } catch (IOException e) {
+      logger.warn("Error when caching firmware " + key + ": " + e.getMessage());
+    } finally {
+      if (tmp.exists()) {
+        delete(tmp);
+      }
+    }
+  }
+
+  private boolean isUpToDate(File entry, File sourceDir) throws IOException {
+    BufferedReader in = new BufferedReader(new FileReader(new File(entry, DEPENDENCIES_FILE)));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        int split = line.indexOf(' ');
+        if (split < 0) {
+          continue;
+        }
+        File file = resolve(sourceDir, line.substring(split+1));
+        if (!file.exists()) {
+          return false;
+        }
+        MessageDigest md = createDigest();
+        update(md, file);
+        if (!toHex(md.digest()).equals(line.substring(0, split))) {
+          return false;
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return true;
+  }
+
+  /**
+   * Lists all existing build dependencies found in the dependency files of
+   * the obj_cooja directory, with their hashes.
+   */
+  private static void writeDependencies(File sourceDir, File file) throws IOException {
+    LinkedHashSet<String> dependencies = new LinkedHashSet<String>();
+    File[] depFiles = new File(sourceDir, "obj_cooja").listFiles(new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        return name.endsWith(".d");
+      }
+    });
+    if (depFiles != null) {
+      for (File depFile: depFiles) {
+        BufferedReader in = new BufferedReader(new FileReader(depFile));
+        try {
+          String line;
+          while ((line = in.readLine()) != null) {
+            for (String token: line.trim().split("[ \t]+")) {
+              /* Skip targets and line continuations */
+              if (token.isEmpty() || token.endsWith(":") || token.equals("\\")) {
+                continue;
+              }
+              dependencies.add(token);
+            }
+          }
+        } finally {
+          in.close();
+        }
+      }
+    }
+
+    PrintWriter out = new PrintWriter(new FileWriter(file));
+    try {
+      for (String dependency: dependencies) {
+        File f = resolve(sourceDir, dependency);
+        if (!f.isFile()) {
+          continue;
+        }
+        MessageDigest md = createDigest();
+        update(md, f);
+        out.println(toHex(md.digest()) + " " + dependency);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static File resolve(File dir, String path) {
+    File file = new File(path);
+    if (file.isAbsolute()) {
+      return file;
+    }
+    return new File(dir, path);
+  }
+
+  private static String normalize(String str, String identifier, String javaClassName) {
+    if (str == null) {
+      return "";
+    }
+    if (identifier != null) {
+      str = str.replace(identifier, "$(LIBNAME)");
+    }
+    if (javaClassName != null) {
+      str = str.replace(javaClassName, "$(CLASSNAME)");
+    }
+    return str;
+  }
+
+  /**
+   * @param compiler C compiler command
+   * @return Output of "compiler --version", or "unknown"
+   */
+  private static String getCompilerVersion(String compiler) {
+    if (compiler == null) {
+      return "unknown";
+    }
+    synchronized (compilerVersions) {
+      String version = compilerVersions.get(compiler);
+      if (version != null) {
+        return version;
+      }
+      version = "unknown";
+      try {
+        Process p = Runtime.getRuntime().exec(new String[] { compiler.trim(), "--version" });
+        BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
+        StringBuilder sb = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null) {
+          sb.append(line).append('\n');
+        }
+        in.close();
+        if (p.waitFor() == 0) {
+          version = sb.toString();
+        }
+      } catch (Exception e) {
+        logger.warn("Could not get C compiler version: " + e.getMessage());
+      }
+      compilerVersions.put(compiler, version);
+      return version;
+    }
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void update(MessageDigest md, String str) {
+    try {
+      md.update(str.getBytes("UTF-8"));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    md.update((byte) 0);
+  }
+
+  private static void update(MessageDigest md, File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] buf = new byte[8192];
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        md.update(buf, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static String toHex(byte[] data) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b: data) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+      sb.append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  private static String readLine(File file) throws IOException {
+    BufferedReader in = new BufferedReader(new FileReader(file));
+    try {
+      String line = in.readLine();
+      if (line == null) {
+        throw new IOException("Empty file: " + file);
+      }
+      return line.trim();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void copy(File from, File to) throws IOException {
+    InputStream in = new FileInputStream(from);
+    try {
+      OutputStream out = new FileOutputStream(to);
+      try {
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+          out.write(buf, 0, n);
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File f: files) {
+        delete(f);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2013, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+
+package se.sics.cooja.contikimote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import se.sics.cooja.GUI;
+
+/**
+ * Symbol index of a Contiki firmware: section addresses and sizes, and the
+ * addresses of all variables in the data and BSS sections.
+ *
+ * The index is parsed once from the firmware's map file or parse command
+ * output, and is then stored in a compact binary file next to the firmware.
+ * The stored index is used as long as the firmware and the parse settings
+ * are unchanged.
+ *
+ * @see ContikiMoteType
+ */
+public class FirmwareSymbols {
+  private static Logger logger = Logger.getLogger(FirmwareSymbols.class);
+
+  private static final int MAGIC = 0x43535953; /* "CSYS" */
+  private static final int VERSION = 1;
+
+  /**
+   * External tools settings affecting the parsed symbols
+   */
+  private static final String[] PARSE_SETTINGS = {
+    "PARSE_WITH_COMMAND", "PARSE_COMMAND",
+    "MAPFILE_DATA_START", "MAPFILE_DATA_SIZE",
+    "MAPFILE_BSS_START", "MAPFILE_BSS_SIZE",
+    "MAPFILE_COMMON_START", "MAPFILE_COMMON_SIZE",
+    "MAPFILE_VAR_NAME",
+    "MAPFILE_VAR_ADDRESS_1", "MAPFILE_VAR_ADDRESS_2",
+    "COMMAND_VAR_NAME_ADDRESS",
+    "COMMAND_DATA_START", "COMMAND_DATA_END",
+    "COMMAND_BSS_START", "COMMAND_BSS_END",
+    "COMMAND_COMMON_START", "COMMAND_COMMON_END"
+  };
+
+  private final HashMap<String, Integer> addresses;
+  private final int dataSectionAddr, dataSectionSize;
+  private final int bssSectionAddr, bssSectionSize;
+  private final int commonSectionAddr, commonSectionSize;
+  private final int readonlySectionAddr, readonlySectionSize;
+
+  public FirmwareSymbols(HashMap<String, Integer> addresses,
+      int dataSectionAddr, int dataSectionSize,
+      int bssSectionAddr, int bssSectionSize,
+      int commonSectionAddr, int commonSectionSize,
+      int readonlySectionAddr, int readonlySectionSize) {
+    this.addresses = addresses;
+    this.dataSectionAddr = dataSectionAddr;
+    this.dataSectionSize = dataSectionSize;
+    this.bssSectionAddr = bssSectionAddr;
+    this.bssSectionSize = bssSectionSize;
+    this.commonSectionAddr = commonSectionAddr;
+    this.commonSectionSize = commonSectionSize;
+    this.readonlySectionAddr = readonlySectionAddr;
+    this.readonlySectionSize = readonlySectionSize;
+  }
+
+  /**
+   * @return Variable addresses
+   */
+  public HashMap<String, Integer> getAddresses() {
+    return addresses;
+  }
+
+  public int getDataSectionAddr() {
+    return dataSectionAddr;
+  }
+  public int getDataSectionSize() {
+    return dataSectionSize;
+  }
+  public int getBssSectionAddr() {
+    return bssSectionAddr;
+  }
+  public int getBssSectionSize() {
+    return bssSectionSize;
+  }
+  public int getCommonSectionAddr() {
+    return commonSectionAddr;
+  }
+  public int getCommonSectionSize() {
+    return commonSectionSize;
+  }
+  public int getReadonlySectionAddr() {
+    return readonlySectionAddr;
+  }
+  public int getReadonlySectionSize() {
+    return readonlySectionSize;
+  }
+
+  /**
+   * Parses map file in a single pass.
+   *
+   * Variables are matched by MAPFILE_VAR_NAME, and are included if they are
+   * located in the data or BSS section. The address of a variable is group 1
+   * of the first line matching MAPFILE_VAR_ADDRESS_1, the variable name, and
+   * MAPFILE_VAR_ADDRESS_2. All variable addresses are matched in the same
+   * pass, using a variable name of non-whitespace characters.
+   *
+   * @param mapFileData Map file lines
+   * @return Parsed symbols
+   */
+  public static FirmwareSymbols parseMapFile(String[] mapFileData) {
+    Pattern dataStart = getPattern("MAPFILE_DATA_START");
+    Pattern dataSize = getPattern("MAPFILE_DATA_SIZE");
+    Pattern bssStart = getPattern("MAPFILE_BSS_START");
+    Pattern bssSize = getPattern("MAPFILE_BSS_SIZE");
+    Pattern commonStart = getPattern("MAPFILE_COMMON_START");
+    Pattern commonSize = getPattern("MAPFILE_COMMON_SIZE");
+    Pattern varName = getPattern("MAPFILE_VAR_NAME");
+    Pattern varAddress = null;
+    int varAddressNameGroup = -1;
+    String varAddress1 = GUI.getExternalToolsSetting("MAPFILE_VAR_ADDRESS_1", "");
+    String varAddress2 = GUI.getExternalToolsSetting("MAPFILE_VAR_ADDRESS_2", "");
+    if (!varAddress1.equals("")) {
+      varAddress = Pattern.compile(varAddress1 + "([^ \t]+)" + varAddress2);
+      varAddressNameGroup = Pattern.compile(varAddress1).matcher("").groupCount() + 1;
+    }
+
+    int[] sections = { -1, -1, -1, -1, -1, -1 };
+    Pattern[] sectionPatterns = { dataStart, dataSize, bssStart, bssSize, commonStart, commonSize };
+
+    ArrayList<String> names = new ArrayList<String>();
+    ArrayList<Integer> nameAddresses = new ArrayList<Integer>();
+    HashMap<String, Integer> firstAddresses = new HashMap<String, Integer>();
+    for (String line : mapFileData) {
+      for (int i=0; i < sections.length; i++) {
+        if (sections[i] >= 0 || sectionPatterns[i] == null) {
+          continue;
+        }
+        Matcher matcher = sectionPatterns[i].matcher(line);
+        if (matcher.find()) {
+          sections[i] = Integer.parseInt(matcher.group(1).trim(), 16);
+        }
+      }
+
+      if (varAddress != null) {
+        Matcher matcher = varAddress.matcher(line);
+        if (matcher.find()) {
+          String name = matcher.group(varAddressNameGroup);
+          if (!firstAddresses.containsKey(name)) {
+            try {
+              firstAddresses.put(name, Integer.parseInt(matcher.group(1).trim(), 16));
+            } catch (NumberFormatException e) {
+              /* Not a variable address */
+            }
+          }
+        }
+      }
+
+      if (varName == null) {
+        continue;
+      }
+      Matcher matcher = varName.matcher(line);
+      if (matcher.find()) {
+        try {
+          nameAddresses.add(Integer.decode(matcher.group(1)));
+          names.add(matcher.group(2));
+        } catch (NumberFormatException e) {
+          /* Not a variable */
+        }
+      }
+    }
+
+    /* Variables in data and BSS sections */
+    HashMap<String, Integer> addresses = new HashMap<String, Integer>();
+    for (int i=0; i < names.size(); i++) {
+      String name = names.get(i);
+      int address = nameAddresses.get(i);
+      Integer first = firstAddresses.get(name);
+      if (first == null && varAddress == null) {
+        /* No address pattern configured: use first listed address */
+        first = address;
+        firstAddresses.put(name, first);
+      }
+      if ((address >= sections[0] && address <= sections[0] + sections[1]) ||
+          (address >= sections[2] && address <= sections[2] + sections[3])) {
+        if (first != null && first > 0) {
+          addresses.put(name, first);
+        } else if (!addresses.containsKey(name)) {
+          logger.warn("Parsed Contiki variable '" + name + "' but could not find address");
+        }
+      }
+    }
+
+    return new FirmwareSymbols(addresses,
+        sections[0], sections[1], sections[2], sections[3], sections[4], sections[5],
+        -1, -1);
+  }
+
+  private static Pattern getPattern(String setting) {
+    String regexp = GUI.getExternalToolsSetting(setting, "");
+    if (regexp.equals("")) {
+      return null;
+    }
+    return Pattern.compile(regexp);
+  }
+
+  /**
+   * Loads stored symbols of given firmware.
+   *
+   * @param symbolsFile Stored symbols
+   * @param firmwareFile Firmware
+   * @return Symbols, or null if not stored or outdated
+   */
+  public static FirmwareSymbols load(File symbolsFile, File firmwareFile) {
+    if (!symbolsFile.exists()) {
+      return null;
+    }
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(symbolsFile)));
+      try {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+          return null;
+        }
+        if (!in.readUTF().equals(createKey(firmwareFile))) {
+          return null;
+        }
+        int dataSectionAddr = in.readInt();
+        int dataSectionSize = in.readInt();
+        int bssSectionAddr = in.readInt();
+        int bssSectionSize = in.readInt();
+        int commonSectionAddr = in.readInt();
+        int commonSectionSize = in.readInt();
+        int readonlySectionAddr = in.readInt();
+        int readonlySectionSize = in.readInt();
+        int nr = in.readInt();
+        HashMap<String, Integer> addresses = new HashMap<String, Integer>();
+        for (int i=0; i < nr; i++) {
+          String name = in.readUTF();
+          addresses.put(name, in.readInt());
+        }
+        return new FirmwareSymbols(addresses,
+            dataSectionAddr, dataSectionSize, bssSectionAddr, bssSectionSize,
+            commonSectionAddr, commonSectionSize, readonlySectionAddr, readonlySectionSize);
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      logger.warn("Error when reading symbols " + symbolsFile + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Stores symbols of given firmware.
+   *
+   * @param symbolsFile Stored symbols
+   * @param firmwareFile Firmware
+   */
+  public void save(File symbolsFile, File firmwareFile) {
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(symbolsFile)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(createKey(firmwareFile));
+        out.writeInt(dataSectionAddr);
+        out.writeInt(dataSectionSize);
+        out.writeInt(bssSectionAddr);
+        out.writeInt(bssSectionSize);
+        out.writeInt(commonSectionAddr);
+        out.writeInt(commonSectionSize);
+        out.writeInt(readonlySectionAddr);
+        out.writeInt(readonlySectionSize);
+        out.writeInt(addresses.size());
+        for (Map.Entry<String, Integer> entry: addresses.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeInt(entry.getValue());
+        }
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      logger.warn("Error when writing symbols " + symbolsFile + ": " + e.getMessage());
+      symbolsFile.delete();
+    }
+  }
+
+  /**
+   * @return Hash of firmware contents and parse settings
+   */
+  private static String createKey(File firmwareFile) throws IOException {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    for (String setting: PARSE_SETTINGS) {
+      md.update((setting + "=" + GUI.getExternalToolsSetting(setting, "") + "\n").getBytes("UTF-8"));
+    }
+    InputStream in = new FileInputStream(firmwareFile);
+    try {
+      byte[] buf = new byte[8192];
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        md.update(buf, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+    StringBuilder sb = new StringBuilder();
+    for (byte b: md.digest()) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+      sb.append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+}
@@ -46,6 +46,7 @@ import org.jdom.Element;
 
 import se.sics.cooja.Mote;
 import se.sics.cooja.SectionMoteMemory;
+import se.sics.cooja.SectionMoteMemory.VariableHandle;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.Beeper;
 import se.sics.cooja.interfaces.PolledAfterActiveTicks;
@@ -72,6 +73,7 @@ import se.sics.cooja.interfaces.PolledAfterActiveTicks;
 public class ContikiBeeper extends Beeper implements ContikiMoteInterface, PolledAfterActiveTicks {
   private Mote mote = null;
   private SectionMoteMemory moteMem = null;
+  private VariableHandle simBeeped;
   private static Logger logger = Logger.getLogger(ContikiBeeper.class);
 
   /**
@@ -85,10 +87,11 @@ public class ContikiBeeper extends Beeper implements ContikiMoteInterface, Polle
   public ContikiBeeper(Mote mote) {
     this.mote = mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simBeeped = moteMem.getByteVariable("simBeeped");
   }
 
   public boolean isBeeping() {
-    return moteMem.getByteValueOf("simBeeped") == 1;
+    return simBeeped.getByte() == 1;
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -96,11 +99,11 @@ public class ContikiBeeper extends Beeper implements ContikiMoteInterface, Polle
   }
 
   public void doActionsAfterTick() {
-    if (moteMem.getByteValueOf("simBeeped") == 1) {
+    if (simBeeped.getByte() == 1) {
       this.setChanged();
       this.notifyObservers(mote);
 
-      moteMem.setByteValueOf("simBeeped", (byte) 0);
+      simBeeped.setByte((byte) 0);
     }
   }
 
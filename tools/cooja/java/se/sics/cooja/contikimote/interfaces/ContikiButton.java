@@ -32,12 +32,14 @@
 package se.sics.cooja.contikimote.interfaces;
 
 import java.awt.event.*;
+import java.io.IOException;
 import java.util.Collection;
 import javax.swing.*;
 import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.SectionMoteMemory.VariableHandle;
 import se.sics.cooja.contikimote.ContikiMote;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.Button;
@@ -62,8 +64,11 @@ import se.sics.cooja.interfaces.Button;
  *
  * @author Fredrik Osterlind
  */
-public class ContikiButton extends Button implements ContikiMoteInterface {
+public class ContikiButton extends Button implements ContikiMoteInterface, Checkpointable {
   private SectionMoteMemory moteMem;
+  private VariableHandle simButtonChanged;
+  private VariableHandle simButtonIsDown;
+  private VariableHandle simButtonIsActive;
   private ContikiMote mote;
 
   private static Logger logger = Logger.getLogger(ContikiButton.class);
@@ -78,6 +83,9 @@ public class ContikiButton extends Button implements ContikiMoteInterface {
   public ContikiButton(Mote mote) {
     this.mote = (ContikiMote) mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simButtonChanged = moteMem.getByteVariable("simButtonChanged");
+    simButtonIsDown = moteMem.getByteVariable("simButtonIsDown");
+    simButtonIsActive = moteMem.getByteVariable("simButtonIsActive");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -93,7 +101,7 @@ public class ContikiButton extends Button implements ContikiMoteInterface {
   private TimeEvent releaseButtonEvent = new MoteTimeEvent(mote, 0) {
     public void execute(long t) {
       /* Wait until button change is handled by Contiki */
-      if (moteMem.getByteValueOf("simButtonChanged") != 0) {
+      if (simButtonChanged.getByte() != 0) {
         /* Postpone button release */
         mote.getSimulation().scheduleEvent(releaseButtonEvent, t + Simulation.MILLISECOND);
         return;
@@ -133,10 +141,10 @@ public class ContikiButton extends Button implements ContikiMoteInterface {
   }
 
   private void doReleaseButton() {
-    moteMem.setByteValueOf("simButtonIsDown", (byte) 0);
+    simButtonIsDown.setByte((byte) 0);
 
-    if (moteMem.getByteValueOf("simButtonIsActive") == 1) {
-      moteMem.setByteValueOf("simButtonChanged", (byte) 1);
+    if (simButtonIsActive.getByte() == 1) {
+      simButtonChanged.setByte((byte) 1);
 
       /* If mote is inactive, wake it up */
       mote.requestImmediateWakeup();
@@ -147,10 +155,10 @@ public class ContikiButton extends Button implements ContikiMoteInterface {
   }
 
   private void doPressButton() {
-    moteMem.setByteValueOf("simButtonIsDown", (byte) 1);
+    simButtonIsDown.setByte((byte) 1);
 
-    if (moteMem.getByteValueOf("simButtonIsActive") == 1) {
-      moteMem.setByteValueOf("simButtonChanged", (byte) 1);
+    if (simButtonIsActive.getByte() == 1) {
+      simButtonChanged.setByte((byte) 1);
 
       /* If mote is inactive, wake it up */
       mote.requestImmediateWakeup();
@@ -161,7 +169,7 @@ public class ContikiButton extends Button implements ContikiMoteInterface {
   }
 
   public boolean isPressed() {
-    return moteMem.getByteValueOf("simButtonIsDown") == 1;
+    return simButtonIsDown.getByte() == 1;
   }
 
   public JPanel getInterfaceVisualizer() {
@@ -182,6 +190,16 @@ public class ContikiButton extends Button implements ContikiMoteInterface {
   public void releaseInterfaceVisualizer(JPanel panel) {
   }
 
+  public void saveCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    checkpoint.writeEvent(pressButtonEvent);
+    checkpoint.writeEvent(releaseButtonEvent);
+  }
+
+  public void restoreCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    checkpoint.readEvent(pressButtonEvent);
+    checkpoint.readEvent(releaseButtonEvent);
+  }
+
   public Collection<Element> getConfigXML() {
     return null;
   }
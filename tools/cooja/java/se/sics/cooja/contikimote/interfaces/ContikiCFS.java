@@ -42,6 +42,7 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.SectionMoteMemory.VariableHandle;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.PolledAfterActiveTicks;
 
@@ -67,12 +68,15 @@ import se.sics.cooja.interfaces.PolledAfterActiveTicks;
  * @author Fredrik Osterlind
  */
 @ClassDescription("Filesystem (CFS)")
-public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, PolledAfterActiveTicks {
+public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, PolledAfterActiveTicks, Checkpointable {
   private static Logger logger = Logger.getLogger(ContikiCFS.class);
 
   public int FILESYSTEM_SIZE = 4000; /* Configure CFS size here and in cfs-cooja.c */
   private Mote mote = null;
   private SectionMoteMemory moteMem = null;
+  private VariableHandle simCFSChanged;
+  private VariableHandle simCFSRead;
+  private VariableHandle simCFSWritten;
 
   private int lastRead = 0;
   private int lastWritten = 0;
@@ -87,6 +91,9 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
   public ContikiCFS(Mote mote) {
     this.mote = mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simCFSChanged = moteMem.getByteVariable("simCFSChanged");
+    simCFSRead = moteMem.getIntVariable("simCFSRead");
+    simCFSWritten = moteMem.getIntVariable("simCFSWritten");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -94,13 +101,13 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
   }
 
   public void doActionsAfterTick() {
-    if (moteMem.getByteValueOf("simCFSChanged") == 1) {
-      lastRead = moteMem.getIntValueOf("simCFSRead");
-      lastWritten = moteMem.getIntValueOf("simCFSWritten");
+    if (simCFSChanged.getByte() == 1) {
+      lastRead = simCFSRead.getInt();
+      lastWritten = simCFSWritten.getInt();
 
-      moteMem.setIntValueOf("simCFSRead", 0);
-      moteMem.setIntValueOf("simCFSWritten", 0);
-      moteMem.setByteValueOf("simCFSChanged", (byte) 0);
+      simCFSRead.setInt(0);
+      simCFSWritten.setInt(0);
+      simCFSChanged.setByte((byte) 0);
 
       this.setChanged();
       this.notifyObservers(mote);
@@ -201,6 +208,16 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
     this.deleteObserver(observer);
   }
 
+  public void saveCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    checkpoint.getOutput().writeInt(lastRead);
+    checkpoint.getOutput().writeInt(lastWritten);
+  }
+
+  public void restoreCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    lastRead = checkpoint.getInput().readInt();
+    lastWritten = checkpoint.getInput().readInt();
+  }
+
   public Collection<Element> getConfigXML() {
     return null;
   }
@@ -29,6 +29,9 @@
 
 package se.sics.cooja.contikimote.interfaces;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Collection;
 
 import javax.swing.JPanel;
@@ -36,9 +39,12 @@ import javax.swing.JPanel;
 import org.apache.log4j.Logger;
 import org.jdom.Element;
 
+import se.sics.cooja.Checkpointable;
 import se.sics.cooja.Mote;
 import se.sics.cooja.SectionMoteMemory;
+import se.sics.cooja.SectionMoteMemory.VariableHandle;
 import se.sics.cooja.Simulation;
+import se.sics.cooja.SimulationCheckpoint;
 import se.sics.cooja.contikimote.ContikiMote;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.Clock;
@@ -66,12 +72,16 @@ import se.sics.cooja.interfaces.PolledBeforeActiveTicks;
  *
  * @author Fredrik Osterlind
  */
-public class ContikiClock extends Clock implements ContikiMoteInterface, PolledBeforeActiveTicks, PolledAfterAllTicks {
+public class ContikiClock extends Clock implements ContikiMoteInterface, PolledBeforeActiveTicks, PolledAfterAllTicks, Checkpointable {
   private static Logger logger = Logger.getLogger(ContikiClock.class);
 
   private Simulation simulation;
   private ContikiMote mote;
   private SectionMoteMemory moteMem;
+  private VariableHandle simCurrentTime;
+  private VariableHandle simProcessRunValue;
+  private VariableHandle simEtimerPending;
+  private VariableHandle simNextExpirationTime;
 
   private long moteTime; /* Microseconds */
   private long timeDrift; /* Microseconds */
@@ -86,6 +96,10 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
     this.simulation = mote.getSimulation();
     this.mote = (ContikiMote) mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simCurrentTime = moteMem.getIntVariable("simCurrentTime");
+    simProcessRunValue = moteMem.getIntVariable("simProcessRunValue");
+    simEtimerPending = moteMem.getIntVariable("simEtimerPending");
+    simNextExpirationTime = moteMem.getIntVariable("simNextExpirationTime");
     timeDrift = 0;
     moteTime = 0;
   }
@@ -97,7 +111,7 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
   public void setTime(long newTime) {
     moteTime = newTime;
     if (moteTime > 0) {
-      moteMem.setIntValueOf("simCurrentTime", (int)(newTime/1000));
+      simCurrentTime.setInt((int)(newTime/1000));
     }
   }
 
@@ -122,21 +136,21 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
   public void doActionsAfterTick() {
 
     /* Request next tick for remaining events / timers */
-    int processRunValue = moteMem.getIntValueOf("simProcessRunValue");
+    int processRunValue = simProcessRunValue.getInt();
     if (processRunValue != 0) {
       /* Handle next Contiki event in one millisecond */
       mote.scheduleNextWakeup(simulation.getSimulationTime() + Simulation.MILLISECOND);
       return;
     }
 
-    int etimersPending = moteMem.getIntValueOf("simEtimerPending");
+    int etimersPending = simEtimerPending.getInt();
     if (etimersPending == 0) {
       /* No timers */
       return;
     }
 
     /* Request tick next wakeup time */
-    int nextExpirationTime = moteMem.getIntValueOf("simNextExpirationTime");
+    int nextExpirationTime = simNextExpirationTime.getInt();
     if (nextExpirationTime <= 0) {
       /*logger.warn("Event timer already expired, but has been delayed: " + nextExpirationTime);*/
       mote.scheduleNextWakeup(simulation.getSimulationTime() + Simulation.MILLISECOND);
@@ -154,6 +168,18 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
   public void releaseInterfaceVisualizer(JPanel panel) {
   }
 
+  public void saveCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    DataOutputStream out = checkpoint.getOutput();
+    out.writeLong(moteTime);
+    out.writeLong(timeDrift);
+  }
+
+  public void restoreCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    DataInputStream in = checkpoint.getInput();
+    moteTime = in.readLong();
+    timeDrift = in.readLong();
+  }
+
   public Collection<Element> getConfigXML() {
     return null;
   }
@@ -32,12 +32,14 @@
 package se.sics.cooja.contikimote.interfaces;
 
 import java.awt.*;
+import java.io.IOException;
 import java.util.*;
 import javax.swing.JPanel;
 import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.SectionMoteMemory.VariableHandle;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.LED;
 import se.sics.cooja.interfaces.PolledAfterActiveTicks;
@@ -61,11 +63,12 @@ import se.sics.cooja.interfaces.PolledAfterActiveTicks;
  *
  * @author Fredrik Osterlind
  */
-public class ContikiLED extends LED implements ContikiMoteInterface, PolledAfterActiveTicks {
+public class ContikiLED extends LED implements ContikiMoteInterface, PolledAfterActiveTicks, Checkpointable {
   private static Logger logger = Logger.getLogger(ContikiLED.class);
 
   private Mote mote = null;
   private SectionMoteMemory moteMem = null;
+  private VariableHandle simLedsValue;
   private byte currentLedValue = 0;
 
   private static final byte LEDS_GREEN = 1;
@@ -93,6 +96,7 @@ public class ContikiLED extends LED implements ContikiMoteInterface, PolledAfter
   public ContikiLED(Mote mote) {
     this.mote = mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simLedsValue = moteMem.getByteVariable("simLedsValue");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -118,7 +122,7 @@ public class ContikiLED extends LED implements ContikiMoteInterface, PolledAfter
   public void doActionsAfterTick() {
     boolean ledChanged;
 
-    byte newLedsValue = moteMem.getByteValueOf("simLedsValue");
+    byte newLedsValue = simLedsValue.getByte();
     if (newLedsValue != currentLedValue) {
       ledChanged = true;
     } else {
@@ -203,6 +207,14 @@ public class ContikiLED extends LED implements ContikiMoteInterface, PolledAfter
     this.deleteObserver(observer);
   }
 
+  public void saveCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    checkpoint.getOutput().writeByte(currentLedValue);
+  }
+
+  public void restoreCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    currentLedValue = checkpoint.getInput().readByte();
+  }
+
   public Collection<Element> getConfigXML() {
     return null;
   }
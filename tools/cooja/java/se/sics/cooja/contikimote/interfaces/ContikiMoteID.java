@@ -37,6 +37,7 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.*;
+import se.sics.cooja.SectionMoteMemory.VariableHandle;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.MoteID;
 
@@ -62,6 +63,9 @@ import se.sics.cooja.interfaces.MoteID;
  */
 public class ContikiMoteID extends MoteID implements ContikiMoteInterface {
   private SectionMoteMemory moteMem = null;
+  private VariableHandle simMoteIDChanged;
+  private VariableHandle simMoteID;
+  private VariableHandle simRandomSeed;
   private static Logger logger = Logger.getLogger(ContikiMoteID.class);
 
   private int moteID = 0;
@@ -79,6 +83,9 @@ public class ContikiMoteID extends MoteID implements ContikiMoteInterface {
   public ContikiMoteID(Mote mote) {
     this.mote = mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simMoteIDChanged = moteMem.getByteVariable("simMoteIDChanged");
+    simMoteID = moteMem.getIntVariable("simMoteID");
+    simRandomSeed = moteMem.getIntVariable("simRandomSeed");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -91,9 +98,9 @@ public class ContikiMoteID extends MoteID implements ContikiMoteInterface {
 
   public void setMoteID(int newID) {
     moteID = newID;
-    moteMem.setIntValueOf("simMoteID", moteID);
-    moteMem.setByteValueOf("simMoteIDChanged", (byte) 1);
-    moteMem.setIntValueOf("simRandomSeed", (int) (mote.getSimulation().getRandomSeed() + newID));
+    simMoteID.setInt(moteID);
+    simMoteIDChanged.setByte((byte) 1);
+    simRandomSeed.setInt((int) (mote.getSimulation().getRandomSeed() + newID));
     setChanged();
     notifyObservers();
   }
@@ -39,6 +39,7 @@ import javax.swing.JPanel;
 import org.jdom.Element;
 import se.sics.cooja.Mote;
 import se.sics.cooja.SectionMoteMemory;
+import se.sics.cooja.SectionMoteMemory.VariableHandle;
 import se.sics.cooja.contikimote.ContikiMote;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.PIR;
@@ -67,6 +68,8 @@ public class ContikiPIR extends PIR implements ContikiMoteInterface {
 
   private ContikiMote mote;
   private SectionMoteMemory moteMem;
+  private VariableHandle simPirIsActive;
+  private VariableHandle simPirChanged;
 
   /**
    * Creates an interface to the PIR at mote.
@@ -79,6 +82,8 @@ public class ContikiPIR extends PIR implements ContikiMoteInterface {
   public ContikiPIR(Mote mote) {
     this.mote = (ContikiMote) mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simPirIsActive = moteMem.getByteVariable("simPirIsActive");
+    simPirChanged = moteMem.getByteVariable("simPirChanged");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -97,8 +102,8 @@ public class ContikiPIR extends PIR implements ContikiMoteInterface {
   }
 
   public void doTriggerChange() { 
-    if (moteMem.getByteValueOf("simPirIsActive") == 1) {
-      moteMem.setByteValueOf("simPirChanged", (byte) 1);
+    if (simPirIsActive.getByte() == 1) {
+      simPirChanged.setByte((byte) 1);
 
       mote.requestImmediateWakeup();
     }
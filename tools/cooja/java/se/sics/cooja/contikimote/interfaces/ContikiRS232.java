@@ -31,10 +31,12 @@
 
 package se.sics.cooja.contikimote.interfaces;
 
+import java.io.IOException;
 import java.util.Vector;
 
 import org.apache.log4j.Logger;
 import se.sics.cooja.*;
+import se.sics.cooja.SectionMoteMemory.VariableHandle;
 import se.sics.cooja.contikimote.ContikiMote;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.dialogs.SerialUI;
@@ -65,11 +67,15 @@ import se.sics.cooja.interfaces.PolledAfterActiveTicks;
  * @author Fredrik Osterlind
  */
 @ClassDescription("Serial port")
-public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, PolledAfterActiveTicks {
+public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, PolledAfterActiveTicks, Checkpointable {
   private static Logger logger = Logger.getLogger(ContikiRS232.class);
 
   private ContikiMote mote = null;
   private SectionMoteMemory moteMem = null;
+  private VariableHandle simLoggedFlag;
+  private VariableHandle simSerialReceivingFlag;
+  private VariableHandle simLoggedLength;
+  private VariableHandle simSerialReceivingLength;
 
   /**
    * Creates an interface to the RS232 at mote.
@@ -82,6 +88,10 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
   public ContikiRS232(Mote mote) {
     this.mote = (ContikiMote) mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simLoggedFlag = moteMem.getByteVariable("simLoggedFlag");
+    simSerialReceivingFlag = moteMem.getByteVariable("simSerialReceivingFlag");
+    simLoggedLength = moteMem.getIntVariable("simLoggedLength");
+    simSerialReceivingLength = moteMem.getIntVariable("simSerialReceivingLength");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -89,12 +99,12 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
   }
 
   public void doActionsAfterTick() {
-    if (moteMem.getByteValueOf("simLoggedFlag") == 1) {
-      int len = moteMem.getIntValueOf("simLoggedLength");
+    if (simLoggedFlag.getByte() == 1) {
+      int len = simLoggedLength.getInt();
       byte[] bytes = moteMem.getByteArray("simLoggedData", len);
 
-      moteMem.setByteValueOf("simLoggedFlag", (byte) 0);
-      moteMem.setIntValueOf("simLoggedLength", 0);
+      simLoggedFlag.setByte((byte) 0);
+      simLoggedLength.setInt(0);
 
       for (byte b: bytes) {
         dataReceived(b);
@@ -108,9 +118,9 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
     mote.getSimulation().invokeSimulationThread(new Runnable() {
       public void run() {
         /* Append to existing buffer */
-        int oldSize = moteMem.getIntValueOf("simSerialReceivingLength");
+        int oldSize = simSerialReceivingLength.getInt();
         int newSize = oldSize + dataToAppend.length;
-        moteMem.setIntValueOf("simSerialReceivingLength", newSize);
+        simSerialReceivingLength.setInt(newSize);
 
         byte[] oldData = moteMem.getByteArray("simSerialReceivingData", oldSize);
         byte[] newData = new byte[newSize];
@@ -120,7 +130,7 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
 
         moteMem.setByteArray("simSerialReceivingData", newData);
 
-        moteMem.setByteValueOf("simSerialReceivingFlag", (byte) 1);
+        simSerialReceivingFlag.setByte((byte) 1);
         mote.requestImmediateWakeup();
       }
     });
@@ -130,6 +140,18 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
     return mote;
   }
 
+  public void saveCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    /* Serial data written to the mote is delivered within the same simulated time */
+    if (pendingBytesEvent != null || !pendingBytes.isEmpty()) {
+      throw new IOException("Serial data pending to " + mote);
+    }
+  }
+
+  public void restoreCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    pendingBytesEvent = null;
+    pendingBytes.clear();
+  }
+
   private TimeEvent pendingBytesEvent = null;
   private Vector<Byte> pendingBytes = new Vector<Byte>();
   public void writeArray(byte[] s) {
@@ -158,9 +180,9 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
         }
 
         /* Append to existing buffer */
-        int oldSize = moteMem.getIntValueOf("simSerialReceivingLength");
+        int oldSize = simSerialReceivingLength.getInt();
         int newSize = oldSize + dataToAppend.length;
-        moteMem.setIntValueOf("simSerialReceivingLength", newSize);
+        simSerialReceivingLength.setInt(newSize);
 
         byte[] oldData = moteMem.getByteArray("simSerialReceivingData", oldSize);
         byte[] newData = new byte[newSize];
@@ -170,7 +192,7 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
 
         moteMem.setByteArray("simSerialReceivingData", newData);
 
-        moteMem.setByteValueOf("simSerialReceivingFlag", (byte) 1);
+        simSerialReceivingFlag.setByte((byte) 1);
 
         /* Reschedule us if more bytes are available */
         mote.getSimulation().scheduleEvent(this, t);
@@ -211,9 +233,9 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
         }
 
         /* Append to existing buffer */
-        int oldSize = moteMem.getIntValueOf("simSerialReceivingLength");
+        int oldSize = simSerialReceivingLength.getInt();
         int newSize = oldSize + dataToAppend.length;
-        moteMem.setIntValueOf("simSerialReceivingLength", newSize);
+        simSerialReceivingLength.setInt(newSize);
 
         byte[] oldData = moteMem.getByteArray("simSerialReceivingData", oldSize);
         byte[] newData = new byte[newSize];
@@ -223,7 +245,7 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
 
         moteMem.setByteArray("simSerialReceivingData", newData);
 
-        moteMem.setByteValueOf("simSerialReceivingFlag", (byte) 1);
+        simSerialReceivingFlag.setByte((byte) 1);
 
         /* Reschedule us if more bytes are available */
         mote.getSimulation().scheduleEvent(this, t);
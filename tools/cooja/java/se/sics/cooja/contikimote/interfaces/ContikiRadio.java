@@ -35,6 +35,9 @@ import java.awt.BorderLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Observable;
 import java.util.Observer;
@@ -47,10 +50,13 @@ import org.apache.log4j.Logger;
 import org.jdom.Element;
 
 import se.sics.cooja.COOJARadioPacket;
+import se.sics.cooja.Checkpointable;
 import se.sics.cooja.Mote;
 import se.sics.cooja.RadioPacket;
 import se.sics.cooja.SectionMoteMemory;
+import se.sics.cooja.SectionMoteMemory.VariableHandle;
 import se.sics.cooja.Simulation;
+import se.sics.cooja.SimulationCheckpoint;
 import se.sics.cooja.contikimote.ContikiMote;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 import se.sics.cooja.interfaces.PolledAfterActiveTicks;
@@ -96,10 +102,17 @@ import se.sics.cooja.radiomediums.UDGM;
  *
  * @author Fredrik Osterlind
  */
-public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledAfterActiveTicks {
+public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledAfterActiveTicks, Checkpointable {
   private ContikiMote mote;
 
   private SectionMoteMemory myMoteMemory;
+  private VariableHandle simRadioHWOn;
+  private VariableHandle simReceiving;
+  private VariableHandle simPower;
+  private VariableHandle simRadioChannel;
+  private VariableHandle simInSize;
+  private VariableHandle simSignalStrength;
+  private VariableHandle simOutSize;
 
   private static Logger logger = Logger.getLogger(ContikiRadio.class);
 
@@ -146,8 +159,15 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
 
     this.mote = (ContikiMote) mote;
     this.myMoteMemory = (SectionMoteMemory) mote.getMemory();
-
-    radioOn = myMoteMemory.getByteValueOf("simRadioHWOn") == 1;
+    simRadioHWOn = myMoteMemory.getByteVariable("simRadioHWOn");
+    simReceiving = myMoteMemory.getByteVariable("simReceiving");
+    simPower = myMoteMemory.getByteVariable("simPower");
+    simRadioChannel = myMoteMemory.getIntVariable("simRadioChannel");
+    simInSize = myMoteMemory.getIntVariable("simInSize");
+    simSignalStrength = myMoteMemory.getIntVariable("simSignalStrength");
+    simOutSize = myMoteMemory.getIntVariable("simOutSize");
+
+    radioOn = simRadioHWOn.getByte() == 1;
   }
 
   /* Contiki mote interface support */
@@ -181,7 +201,7 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
   }
 
   public boolean isReceiving() {
-    return myMoteMemory.getByteValueOf("simReceiving") == 1;
+    return simReceiving.getByte() == 1;
   }
 
   public boolean isInterfered() {
@@ -189,7 +209,7 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
   }
 
   public int getChannel() {
-    return myMoteMemory.getIntValueOf("simRadioChannel");
+    return simRadioChannel.getInt();
   }
 
   public void signalReceptionStart() {
@@ -201,7 +221,7 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     if (isSendingAck) return;
     receptionStartTime =  mote.getSimulation().getSimulationTime();
     if (!radioOn) {System.out.println("sleeping");return;}
-    myMoteMemory.setByteValueOf("simReceiving", (byte) 1);
+    simReceiving.setByte((byte) 1);
     mote.requestImmediateWakeup();
 
     lastEventTime = mote.getSimulation().getSimulationTime();
@@ -216,16 +236,16 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     if (isInterfered || packetToMote == null) {
       isInterfered = false;
       packetToMote = null;
-      myMoteMemory.setIntValueOf("simInSize", 0);
+      simInSize.setInt(0);
     } else if (!radioOn) {
         System.out.println("radio off at receptionend " + now);
         return;
     } else {
-      myMoteMemory.setIntValueOf("simInSize", packetToMote.getPacketData().length);
+      simInSize.setInt(packetToMote.getPacketData().length);
       myMoteMemory.setByteArray("simInDataBuffer", packetToMote.getPacketData());
     }
 
-    myMoteMemory.setByteValueOf("simReceiving", (byte) 0);
+    simReceiving.setByte((byte) 0);
  //   mote.requestImmediateWakeup();
     lastEventTime = now;
     lastEvent = RadioEvent.RECEPTION_FINISHED;
@@ -299,15 +319,15 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
   }
 
   public int getCurrentOutputPowerIndicator() {
-    return myMoteMemory.getByteValueOf("simPower");
+    return simPower.getByte();
   }
 
   public double getCurrentSignalStrength() {
-    return myMoteMemory.getIntValueOf("simSignalStrength");
+    return simSignalStrength.getInt();
   }
 
   public void setCurrentSignalStrength(double signalStrength) {
-    myMoteMemory.setIntValueOf("simSignalStrength", (int) signalStrength);
+    simSignalStrength.setInt((int) signalStrength);
   }
 
   public Position getPosition() {
@@ -357,7 +377,7 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
 
     }
     /* Check if radio hardware status changed */
-    if (radioOn != (myMoteMemory.getByteValueOf("simRadioHWOn") == 1)) {
+    if (radioOn != (simRadioHWOn.getByte() == 1)) {
       if (isSendingAck) {
   //      System.out.println("radio turned off before sending ack");
       }
@@ -366,9 +386,9 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
       isTransmitting = false;
 
       if (!radioOn) {
-        myMoteMemory.setByteValueOf("simReceiving", (byte) 0);
-        myMoteMemory.setIntValueOf("simInSize", 0);
-        myMoteMemory.setIntValueOf("simOutSize", 0);
+        simReceiving.setByte((byte) 0);
+        simInSize.setInt(0);
+        simOutSize.setInt(0);
         lastEvent = RadioEvent.HW_OFF;
       } else {
         lastEvent = RadioEvent.HW_ON;
@@ -383,8 +403,8 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     }
 
     /* Check if radio output power changed */
-    if (myMoteMemory.getByteValueOf("simPower") != oldOutputPowerIndicator) {
-      oldOutputPowerIndicator = myMoteMemory.getByteValueOf("simPower");
+    if (simPower.getByte() != oldOutputPowerIndicator) {
+      oldOutputPowerIndicator = simPower.getByte();
       lastEvent = RadioEvent.UNKNOWN;
       this.setChanged();
       this.notifyObservers();
@@ -393,7 +413,7 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
 
     /* Ongoing transmission */
     if (isTransmitting && now >= transmissionEndTime) {
-      myMoteMemory.setIntValueOf("simOutSize", 0);
+      simOutSize.setInt(0);
       isTransmitting = false;
       mote.requestImmediateWakeup();
 
@@ -405,19 +425,19 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     }
 
     /* New transmission */
-    int size = myMoteMemory.getIntValueOf("simOutSize");
+    int size = simOutSize.getInt();
     if (!isTransmitting && size > 0) {
 
       packetFromMote = new COOJARadioPacket(myMoteMemory.getByteArray("simOutDataBuffer", size));
       if (packetFromMote.getPacketData() == null || packetFromMote.getPacketData().length == 0) {
         logger.warn("Skipping zero sized Contiki packet (no buffer)");
-        myMoteMemory.setIntValueOf("simOutSize", 0);
+        simOutSize.setInt(0);
         mote.requestImmediateWakeup();
         return;
       }
 
       isTransmitting = true;
-      myMoteMemory.setByteValueOf("simReceiving", (byte) 0);
+      simReceiving.setByte((byte) 0);
 
       /* Calculate transmission duration (us) */
       /* XXX Currently floored due to millisecond scheduling! */
@@ -444,6 +464,42 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     }
   }
 
+  public void saveCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    DataOutputStream out = checkpoint.getOutput();
+    out.writeBoolean(radioOn);
+    out.writeBoolean(isTransmitting);
+    out.writeBoolean(isSendingAck);
+    out.writeBoolean(isInterfered);
+    out.writeLong(ackStartTime);
+    out.writeLong(receptionStartTime);
+    out.writeLong(transmissionEndTime);
+    out.writeInt(lastEvent.ordinal());
+    out.writeLong(lastEventTime);
+    out.writeInt(oldOutputPowerIndicator);
+    checkpoint.writeBytes(ackPacket);
+    checkpoint.writeBytes(packetToMote != null ? packetToMote.getPacketData() : null);
+    checkpoint.writeBytes(packetFromMote != null ? packetFromMote.getPacketData() : null);
+  }
+
+  public void restoreCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    DataInputStream in = checkpoint.getInput();
+    radioOn = in.readBoolean();
+    isTransmitting = in.readBoolean();
+    isSendingAck = in.readBoolean();
+    isInterfered = in.readBoolean();
+    ackStartTime = in.readLong();
+    receptionStartTime = in.readLong();
+    transmissionEndTime = in.readLong();
+    lastEvent = RadioEvent.values()[in.readInt()];
+    lastEventTime = in.readLong();
+    oldOutputPowerIndicator = in.readInt();
+    ackPacket = checkpoint.readBytes();
+    byte[] data = checkpoint.readBytes();
+    packetToMote = data != null ? new COOJARadioPacket(data) : null;
+    data = checkpoint.readBytes();
+    packetFromMote = data != null ? new COOJARadioPacket(data) : null;
+  }
+
   public Collection<Element> getConfigXML() {
     return null;
   }
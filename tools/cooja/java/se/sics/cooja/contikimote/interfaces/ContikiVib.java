@@ -41,6 +41,7 @@ import se.sics.cooja.ClassDescription;
 import se.sics.cooja.Mote;
 import se.sics.cooja.MoteInterface;
 import se.sics.cooja.SectionMoteMemory;
+import se.sics.cooja.SectionMoteMemory.VariableHandle;
 import se.sics.cooja.contikimote.ContikiMote;
 import se.sics.cooja.contikimote.ContikiMoteInterface;
 
@@ -69,6 +70,8 @@ public class ContikiVib extends MoteInterface implements ContikiMoteInterface {
 
   private ContikiMote mote;
   private SectionMoteMemory moteMem;
+  private VariableHandle simVibIsActive;
+  private VariableHandle simVibChanged;
 
   /**
    * Creates an interface to the vibration sensor at mote.
@@ -81,6 +84,8 @@ public class ContikiVib extends MoteInterface implements ContikiMoteInterface {
   public ContikiVib(Mote mote) {
     this.mote = (ContikiMote) mote;
     this.moteMem = (SectionMoteMemory) mote.getMemory();
+    simVibIsActive = moteMem.getByteVariable("simVibIsActive");
+    simVibChanged = moteMem.getByteVariable("simVibChanged");
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -99,8 +104,8 @@ public class ContikiVib extends MoteInterface implements ContikiMoteInterface {
   }
   
   public void doTriggerChange() { 
-    if (moteMem.getByteValueOf("simVibIsActive") == 1) {
-      moteMem.setByteValueOf("simVibChanged", (byte) 1);
+    if (simVibIsActive.getByte() == 1) {
+      simVibChanged.setByte((byte) 1);
 
       mote.requestImmediateWakeup();
     }
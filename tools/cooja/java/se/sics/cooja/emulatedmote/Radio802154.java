@@ -30,6 +30,7 @@
 
 package se.sics.cooja.emulatedmote;
 
+import java.util.Arrays;
 import java.util.Collection;
 
 import org.apache.log4j.Logger;
@@ -73,8 +74,27 @@ public abstract class Radio802154 extends Radio implements CustomDataRadio {
 
   private Mote mote;
 
+  /* Received bytes waiting to be delivered, see setReceivedPacket() */
+  private byte[] pendingBytes = new byte[256];
+  private long[] pendingTimes = new long[256];
+  private int pendingFirst = 0, pendingLast = 0;
+  private final MoteTimeEvent deliverBytesEvent;
+
   public Radio802154(Mote mote) {
     this.mote = mote;
+
+    deliverBytesEvent = new MoteTimeEvent(mote, 0) {
+      public void execute(long t) {
+        /* Deliver all bytes due now */
+        while (pendingFirst < pendingLast && pendingTimes[pendingFirst] <= t) {
+          byte b = pendingBytes[pendingFirst++];
+          handleReceive(b);
+        }
+        if (pendingFirst < pendingLast) {
+          Radio802154.this.mote.getSimulation().scheduleEvent(this, pendingTimes[pendingFirst]);
+        }
+      }
+    };
   }
 
   private int txLen = 0;
@@ -150,14 +170,54 @@ public abstract class Radio802154 extends Radio implements CustomDataRadio {
         b = (byte) 0xFF;
       }
 
-      final byte byteToDeliver = b;
-      getMote().getSimulation().scheduleEvent(new MoteTimeEvent(mote, 0) {
-        public void execute(long t) {
-          handleReceive(byteToDeliver);
-        }
-      }, deliveryTime);
+      addPendingByte(b, deliveryTime);
       deliveryTime += DELAY_BETWEEN_BYTES;
     }
+
+    if (!deliverBytesEvent.isScheduled()) {
+      getMote().getSimulation().scheduleEvent(deliverBytesEvent, pendingTimes[pendingFirst]);
+    } else if (deliverBytesEvent.getTime() > pendingTimes[pendingFirst]) {
+      deliverBytesEvent.remove();
+      getMote().getSimulation().scheduleEvent(deliverBytesEvent, pendingTimes[pendingFirst]);
+    }
+  }
+
+  /**
+   * Queues a received byte for delivery, ordered by delivery time.
+   * Bytes with equal delivery times are delivered in the order they were queued.
+   *
+   * @param b Byte
+   * @param time Delivery time
+   */
+  private void addPendingByte(byte b, long time) {
+    if (pendingFirst == pendingLast) {
+      pendingFirst = 0;
+      pendingLast = 0;
+    }
+    if (pendingLast == pendingBytes.length) {
+      if (pendingFirst > 0) {
+        /* Compact */
+        System.arraycopy(pendingBytes, pendingFirst, pendingBytes, 0, pendingLast - pendingFirst);
+        System.arraycopy(pendingTimes, pendingFirst, pendingTimes, 0, pendingLast - pendingFirst);
+      } else {
+        /* Grow */
+        pendingBytes = Arrays.copyOf(pendingBytes, 2*pendingBytes.length);
+        pendingTimes = Arrays.copyOf(pendingTimes, 2*pendingTimes.length);
+      }
+      pendingLast -= pendingFirst;
+      pendingFirst = 0;
+    }
+
+    /* Overlapping packets: insert before any later bytes */
+    int pos = pendingLast;
+    while (pos > pendingFirst && pendingTimes[pos-1] > time) {
+      pendingBytes[pos] = pendingBytes[pos-1];
+      pendingTimes[pos] = pendingTimes[pos-1];
+      pos--;
+    }
+    pendingBytes[pos] = b;
+    pendingTimes[pos] = time;
+    pendingLast++;
   }
 
   /* Custom data radio support */
@@ -29,6 +29,7 @@
 
 package se.sics.cooja.motes;
 
+import java.io.IOException;
 import java.util.HashMap;
 
 import org.apache.log4j.Logger;
@@ -36,6 +37,7 @@ import org.apache.log4j.Logger;
 import se.sics.cooja.Mote;
 import se.sics.cooja.MoteTimeEvent;
 import se.sics.cooja.Simulation;
+import se.sics.cooja.SimulationCheckpoint;
 import se.sics.cooja.TimeEvent;
 
 public abstract class AbstractWakeupMote implements Mote {
@@ -141,6 +143,28 @@ public abstract class AbstractWakeupMote implements Mote {
     return true;
   }
 
+  /**
+   * Saves the scheduled wakeup to a simulation checkpoint.
+   * Used by subclasses supporting checkpoints.
+   *
+   * @param checkpoint Checkpoint
+   * @throws IOException On write error
+   */
+  protected void saveWakeupCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    checkpoint.writeEvent(executeMoteEvent);
+  }
+
+  /**
+   * Restores the scheduled wakeup from a simulation checkpoint.
+   *
+   * @see #saveWakeupCheckpoint(SimulationCheckpoint)
+   * @param checkpoint Checkpoint
+   * @throws IOException On read error
+   */
+  protected void restoreWakeupCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    checkpoint.readEvent(executeMoteEvent);
+  }
+
   public void removed() {
   }
   
@@ -46,14 +46,17 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import javax.swing.AbstractAction;
@@ -73,12 +76,9 @@ import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
-import javax.swing.RowFilter;
 import javax.swing.SwingUtilities;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.TableModel;
-import javax.swing.table.TableRowSorter;
 
 import org.apache.log4j.Logger;
 import org.jdom.Element;
@@ -95,7 +95,8 @@ import se.sics.cooja.Simulation;
 import se.sics.cooja.VisPlugin;
 import se.sics.cooja.dialogs.TableColumnAdjuster;
 import se.sics.cooja.dialogs.UpdateAggregator;
-import se.sics.cooja.util.ArrayQueue;
+import se.sics.cooja.util.LogIndex;
+import se.sics.cooja.util.LogStore;
 
 /**
  * A simple mote log listener.
@@ -128,8 +129,24 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
   private boolean hasHours = false;
 
   private final JTable logTable;
-  private TableRowSorter<TableModel> logFilter;
-  private ArrayQueue<LogData> logs = new ArrayQueue<LogData>();
+
+  /* Logs: entries logsFirst to logsEnd-1 in the log output store */
+  private final LogStore logStore;
+  private long logsFirst, logsEnd;
+  private static final int LOG_CACHE_SIZE = 1024;
+  private LogData[] logCache = new LogData[LOG_CACHE_SIZE];
+
+  /* Log index, updated by the simulation thread */
+  private final LogIndex logIndex;
+
+  /* Filter: store indices of shown logs, or null if all logs are shown.
+   * Logs before filteredEnd have been filtered. */
+  private static final int FILTER_SYNC_LIMIT = 20000; /* Max logs filtered in event thread */
+  private static final int FILTER_CHUNK_SIZE = 5000;
+  private IndexList filteredLogs = null;
+  private long filteredEnd;
+  private Pattern filterPattern = null;
+  private FilterScan filterScan = null;
 
   private Simulation simulation;
 
@@ -153,14 +170,14 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
   private JCheckBoxMenuItem appendCheckBox;
 
   private static final int UPDATE_INTERVAL = 250;
-  private UpdateAggregator<LogData> logUpdateAggregator = new UpdateAggregator<LogData>(UPDATE_INTERVAL) {
+  private UpdateAggregator<Long> logUpdateAggregator = new UpdateAggregator<Long>(UPDATE_INTERVAL) {
     private Runnable scroll = new Runnable() {
       public void run() {
         logTable.scrollRectToVisible(
             new Rectangle(0, logTable.getHeight() - 2, 1, logTable.getHeight()));
       }
     };
-    protected void handle(List<LogData> ls) {
+    protected void handle(List<Long> ls) {
       boolean isVisible = true;
       if (logTable.getRowCount() > 0) {
         Rectangle visible = logTable.getVisibleRect();
@@ -170,18 +187,24 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
       }
 
       /* Add */
-      int index = logs.size();
-      logs.addAll(ls);
-      model.fireTableRowsInserted(index, logs.size()-1);
-
-      /* Remove old */
-      int removed = 0;
-      while (logs.size() > simulation.getEventCentral().getLogOutputBufferSize()) {
-        logs.remove(0);
-        removed++;
+      int index = getLogCount();
+      long last = ls.get(ls.size()-1);
+      if (last >= logsEnd) {
+        logsEnd = last + 1;
+        if (filteredLogs == null) {
+          model.fireTableRowsInserted(index, getLogCount()-1);
+        } else if (filterScan == null) {
+          filterNewLogs();
+        }
       }
-      if (removed > 0) {
-        model.fireTableRowsDeleted(0, removed-1);
+
+      /* Remove old, and logs no longer in the store */
+      long first = Math.max(
+          logStore.getFirstIndex(),
+          logsEnd - simulation.getEventCentral().getLogOutputBufferSize());
+      first = Math.min(first, logsEnd);
+      if (first > logsFirst) {
+        removeLogsBefore(first);
       }
 
       if (isVisible) {
@@ -197,6 +220,8 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
   public LogListener(final Simulation simulation, final GUI gui) {
     super("Mote output", gui);
     this.simulation = simulation;
+    logStore = simulation.getEventCentral().getLogOutputStore();
+    logIndex = new LogIndex(logStore.getFirstIndex());
 
     /* Menus */
     JMenuBar menuBar = new JMenuBar();
@@ -262,21 +287,27 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
         return COLUMN_NAMES[col];
       }
       public int getRowCount() {
-        return logs.size();
+        if (filteredLogs != null) {
+          return filteredLogs.size();
+        }
+        return getLogCount();
       }
       public int getColumnCount() {
         return COLUMN_NAMES.length;
       }
       public Object getValueAt(int row, int col) {
-        LogData log = logs.get(row);
+        LogData log = getRowLog(row);
+        if (log == null) {
+          return null;
+        }
         if (col == COLUMN_TIME) {
           return log.getTime();
         } else if (col == COLUMN_FROM) {
           return log.getID();
         } else if (col == COLUMN_DATA) {
-          return log.ev.getMessage();
+          return log.msg;
         } else if (col == COLUMN_CONCAT) {
-          return log.getID() + ' ' + log.ev.getMessage();
+          return log.getID() + ' ' + log.msg;
         }
         return null;
       }
@@ -331,8 +362,8 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
       	}
 
       	if (backgroundColors) {
-          LogData d = logs.get(logTable.getRowSorter().convertRowIndexToModel(row));
-          char last = d.getID().charAt(d.getID().length()-1);
+          LogData d = getRowLog(logTable.convertRowIndexToModel(row));
+          char last = d == null?' ':d.getID().charAt(d.getID().length()-1);
           if (last >= '0' && last <= '9') {
             setBackground(BG_COLORS[last - '0']);
           } else {
@@ -360,11 +391,6 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
         }
       }
     });
-    logFilter = new TableRowSorter<TableModel>(model);
-    for (int i = 0, n = model.getColumnCount(); i < n; i++) {
-      logFilter.setSortable(i, false);
-    }
-    logTable.setRowSorter(logFilter);
 
     /* Toggle time format */
     logTable.getTableHeader().addMouseListener(new MouseAdapter() {
@@ -387,11 +413,15 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
         }
 
         int rowIndex = logTable.rowAtPoint(e.getPoint());
-        LogData d = logs.get(logTable.getRowSorter().convertRowIndexToModel(rowIndex));
+        LogData d = getRowLog(logTable.convertRowIndexToModel(rowIndex));
         if (d == null) {
         	return;
         }
-        simulation.getGUI().signalMoteHighlight(d.ev.getMote());
+        Mote mote = (Mote) logStore.getOwner(d.index);
+        if (mote == null) {
+          return;
+        }
+        simulation.getGUI().signalMoteHighlight(mote);
     	}
 		});
 
@@ -459,15 +489,23 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
     logTable.setComponentPopupMenu(popupMenu);
 */
     /* Fetch log output history */
-    LogOutputEvent[] history = simulation.getEventCentral().getLogOutputHistory();
-    if (history.length > 0) {
-      for (LogOutputEvent historyEv: history) {
-      	if (!hasHours && historyEv.getTime() > TIME_HOUR) {
-      		hasHours = true;
-      		repaintTimeColumn();
-      	}
-        LogData data = new LogData(historyEv);
-        logs.add(data);
+    synchronized (logStore) {
+      logsFirst = logStore.getFirstIndex();
+      logsEnd = logStore.getEndIndex();
+    }
+    filteredEnd = logsEnd;
+    synchronized (logIndex) {
+      for (int i=0; i < getLogCount(); i++) {
+        LogData data = getLog(i);
+        if (data != null) {
+          logIndex.add(data.index, data.moteID, data.msg);
+        }
+      }
+    }
+    if (logsEnd > logsFirst) {
+      if (logStore.getTime(logsEnd-1) > TIME_HOUR) {
+        hasHours = true;
+        repaintTimeColumn();
       }
       java.awt.EventQueue.invokeLater(new Runnable() {
         public void run() {
@@ -525,7 +563,7 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
               return;
             }
 
-            s = logTable.getRowSorter().convertRowIndexToView(s);
+            s = logTable.convertRowIndexToView(s);
             if (s < 0) {
               return;
             }
@@ -560,17 +598,75 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
             hasHours = true;
             repaintTimeColumn();
     }
-    LogData data = new LogData(ev);
-    logUpdateAggregator.add(data);
+    long index = ev.getLogOutputIndex();
+    if (index < 0) {
+      /* Not yet in log output store */
+      index = logStore.append(ev.getMote(), ev.getMote().getID(), ev.getTime(), ev.getMessage());
+    }
+    synchronized (logIndex) {
+      if (index >= logIndex.getEndIndex()) {
+        logIndex.add(index, ev.getMote().getID(), ev.getMessage());
+      }
+    }
+    logUpdateAggregator.add(index);
     if (appendToFile) {
+      LogData data = new LogData(index, ev.getMote().getID(), ev.getTime(), ev.getMessage());
       appendToFile(appendStreamFile,
           data.getTime() + "\t" +
           data.getID() + "\t" +
-          data.ev.getMessage() + "\n"
+          data.msg + "\n"
       );
     }
   }
 
+  /* Only called from the event thread */
+  private int getLogCount() {
+    return (int) (logsEnd - logsFirst);
+  }
+
+  /**
+   * @param i Log number, including filtered logs
+   * @return Log data, or null if no longer stored
+   */
+  private LogData getLog(int i) {
+    return getLogAt(logsFirst + i);
+  }
+
+  /**
+   * @param row Row (model index)
+   * @return Log data, or null if no longer stored
+   */
+  private LogData getRowLog(int row) {
+    if (filteredLogs != null) {
+      if (row < 0 || row >= filteredLogs.size()) {
+        return null;
+      }
+      return getLogAt(filteredLogs.get(row));
+    }
+    return getLog(row);
+  }
+
+  private LogData getLogAt(long index) {
+    int cacheIndex = (int) (index % LOG_CACHE_SIZE);
+    LogData data = logCache[cacheIndex];
+    if (data != null && data.index == index) {
+      return data;
+    }
+
+    synchronized (logStore) {
+      if (!logStore.contains(index)) {
+        return null;
+      }
+      data = new LogData(
+          index,
+          logStore.getMoteID(index),
+          logStore.getTime(index),
+          logStore.getMessage(index));
+    }
+    logCache[cacheIndex] = data;
+    return data;
+  }
+
   private void repaintTimeColumn() {
   	logTable.getColumnModel().getColumn(COLUMN_TIME).setHeaderValue(
   			logTable.getModel().getColumnName(COLUMN_TIME));
@@ -666,46 +762,314 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
   public void setFilter(String str) {
     filterTextField.setText(str);
 
+    /* Cancel ongoing filtering */
+    if (filterScan != null) {
+      filterScan.cancelled = true;
+      filterScan = null;
+    }
+
     try {
-    	final RowFilter<Object,Object> regexp;
       if (str != null && str.length() > 0) {
-      	regexp = RowFilter.regexFilter(str, COLUMN_FROM, COLUMN_DATA, COLUMN_CONCAT);
+        filterPattern = Pattern.compile(str);
       } else {
-      	regexp = null;
+        filterPattern = null;
       }
-    	RowFilter<Object, Object> wrapped = new RowFilter<Object, Object>() {
-    		public boolean include(RowFilter.Entry<? extends Object, ? extends Object> entry) {
-    			if (regexp != null) {
-    				boolean pass = regexp.include(entry);
-    				if (inverseFilter && pass) {
-    					return false;
-    				} else if (!inverseFilter && !pass) {
-    					return false;
-    				}
-    			}
-    			if (hideDebug) {
-    				if (entry.getStringValue(COLUMN_DATA).startsWith("DEBUG: ")) {
-    					return false;
-    				}
-    			}
-    			return true;
-    		}
-    	};
-      logFilter.setRowFilter(wrapped);
       filterTextField.setBackground(filterTextFieldBackground);
       filterTextField.setToolTipText(null);
     } catch (PatternSyntaxException e) {
-      logFilter.setRowFilter(null);
+      filterPattern = null;
       filterTextField.setBackground(Color.red);
       filterTextField.setToolTipText("Syntax error in regular expression: " + e.getMessage());
     }
+    filterLabel.setText(inverseFilter?"Exclude:":"Filter:");
+
+    if (filterPattern == null && !hideDebug) {
+      /* Show all logs */
+      filteredLogs = null;
+      model.fireTableDataChanged();
+      return;
+    }
+
+    filteredLogs = new IndexList();
+    long[] candidates = null;
+    if (filterPattern != null && !inverseFilter) {
+      candidates = findFilterCandidates(str);
+    }
+
+    int count = candidates != null?candidates.length:getLogCount();
+    if (count <= FILTER_SYNC_LIMIT) {
+      /* Filter directly */
+      if (candidates != null) {
+        for (long index: candidates) {
+          if (index < logsFirst || index >= logsEnd) {
+            continue;
+          }
+          LogData data = getLogAt(index);
+          if (data != null && data.matches(filterPattern, inverseFilter, hideDebug)) {
+            filteredLogs.add(index);
+          }
+        }
+        filteredEnd = logsEnd;
+      } else {
+        filteredEnd = logsFirst;
+        filterNewLogs();
+      }
+      model.fireTableDataChanged();
+      return;
+    }
+
+    /* Filter in background, showing results as they are found */
+    model.fireTableDataChanged();
+    filterLabel.setText(inverseFilter?"Exclude (searching):":"Filter (searching):");
+    filterScan = new FilterScan(candidates, logsFirst, logsEnd);
+    Thread t = new Thread(filterScan, "log filter");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /**
+   * Finds candidate logs matching filter using the log index.
+   * Only plain strings, optionally anchored, are supported.
+   *
+   * @param filter Filter
+   * @return Sorted store indices of candidates, or null if not supported
+   */
+  private long[] findFilterCandidates(String filter) {
+    String literal = filter;
+    if (literal.startsWith("^")) {
+      literal = literal.substring(1);
+    }
+    if (literal.endsWith("$") && !literal.endsWith("\\$")) {
+      literal = literal.substring(0, literal.length()-1);
+    }
+    for (char c: literal.toCharArray()) {
+      if ("\\.[]{}()*+?|^$".indexOf(c) >= 0) {
+        return null;
+      }
+    }
+
+    /* Any word in the filter must be part of a message word, or a mote ID.
+     * Use the word with fewest candidates. */
+    long[] best = null;
+    synchronized (logIndex) {
+      if (!logIndex.isUsable()) {
+        return null;
+      }
+      int i = 0;
+      while (i < literal.length()) {
+        if (!LogIndex.isWordChar(literal.charAt(i))) {
+          i++;
+          continue;
+        }
+        int start = i;
+        while (i < literal.length() && LogIndex.isWordChar(literal.charAt(i))) {
+          i++;
+        }
+        String word = literal.substring(start, i);
+        if ("ID".contains(word)) {
+          /* Matches all logs */
+          continue;
+        }
+
+        long[] candidates = logIndex.getTokenEntries(word);
+        if (candidates == null) {
+          /* Not selective */
+          continue;
+        }
+        for (Integer id: logIndex.getMoteIDs()) {
+          if (id.toString().contains(word)) {
+            candidates = LogIndex.union(candidates, logIndex.getMoteEntries(id));
+          }
+        }
+        if (best == null || candidates.length < best.length) {
+          best = candidates;
+        }
+      }
+    }
+    return best;
+  }
+
+  private static boolean matchesFilter(Pattern pattern, boolean inverse, boolean noDebug, int moteID, String msg) {
+    if (pattern != null) {
+      String id = "ID:" + moteID;
+      boolean pass =
+        pattern.matcher(id).find() ||
+        pattern.matcher(msg).find() ||
+        pattern.matcher(id + ' ' + msg).find();
+      if (pass == inverse) {
+        return false;
+      }
+    }
+    if (noDebug && msg.startsWith("DEBUG: ")) {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Filters logs added since last filtering.
+   */
+  private void filterNewLogs() {
+    int size = filteredLogs.size();
+    for (long index = Math.max(filteredEnd, logsFirst); index < logsEnd; index++) {
+      LogData data = getLogAt(index);
+      if (data != null && data.matches(filterPattern, inverseFilter, hideDebug)) {
+        filteredLogs.add(index);
+      }
+    }
+    filteredEnd = logsEnd;
+    if (filteredLogs.size() > size) {
+      model.fireTableRowsInserted(size, filteredLogs.size()-1);
+    }
+  }
+
+  private void removeLogsBefore(long first) {
+    int removed = (int) (first - logsFirst);
+    logsFirst = first;
+    synchronized (logIndex) {
+      logIndex.removeBefore(first);
+    }
+    if (filteredLogs != null) {
+      removed = filteredLogs.removeBefore(first);
+    }
+    if (removed > 0) {
+      model.fireTableRowsDeleted(0, removed-1);
+    }
+  }
+
+  /**
+   * Filters logs in a background thread.
+   * Results are added from the event thread.
+   */
+  private class FilterScan implements Runnable {
+    private final long[] candidates;
+    private final long first, end;
+    private final Pattern pattern = filterPattern;
+    private final boolean inverse = inverseFilter;
+    private final boolean noDebug = hideDebug;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param candidates Candidates, or null to filter all logs
+     * @param first First log
+     * @param end End log
+     */
+    public FilterScan(long[] candidates, long first, long end) {
+      this.candidates = candidates;
+      this.first = first;
+      this.end = end;
+    }
+
+    public void run() {
+      int pos = 0;
+      long index = first;
+      while (!cancelled) {
+        final IndexList found = new IndexList();
+        int n = 0;
+        while (n++ < FILTER_CHUNK_SIZE) {
+          if (candidates != null) {
+            if (pos >= candidates.length) {
+              break;
+            }
+            index = candidates[pos++];
+            if (index < first || index >= end) {
+              continue;
+            }
+          } else if (index >= end) {
+            break;
+          }
+
+          String msg;
+          int moteID;
+          synchronized (logStore) {
+            if (!logStore.contains(index)) {
+              index++;
+              continue;
+            }
+            msg = logStore.getMessage(index);
+            moteID = logStore.getMoteID(index);
+          }
+          if (matchesFilter(pattern, inverse, noDebug, moteID, msg)) {
+            found.add(index);
+          }
+          index++;
+        }
+
+        final boolean done = candidates != null?(pos >= candidates.length):(index >= end);
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            if (filterScan != FilterScan.this) {
+              return;
+            }
+            int size = filteredLogs.size();
+            for (int i=0; i < found.size(); i++) {
+              if (found.get(i) >= logsFirst) {
+                filteredLogs.add(found.get(i));
+              }
+            }
+            if (filteredLogs.size() > size) {
+              model.fireTableRowsInserted(size, filteredLogs.size()-1);
+            }
+            if (done) {
+              filterScan = null;
+              filterLabel.setText(inverseFilter?"Exclude:":"Filter:");
+              filteredEnd = end;
+              filterNewLogs();
+            }
+          }
+        });
+        if (done) {
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Growable list of store indices, optimized for removing first elements.
+   */
+  private static class IndexList {
+    private long[] indices = new long[256];
+    private int first = 0;
+    private int last = 0;
+
+    public void add(long index) {
+      if (last == indices.length) {
+        if (first < indices.length/2) {
+          indices = Arrays.copyOf(indices, 2*indices.length);
+        }
+        System.arraycopy(indices, first, indices, 0, last - first);
+        last -= first;
+        first = 0;
+      }
+      indices[last++] = index;
+    }
+    public long get(int i) {
+      return indices[first + i];
+    }
+    public int size() {
+      return last - first;
+    }
+    /**
+     * @param index Store index
+     * @return Number of removed indices
+     */
+    public int removeBefore(long index) {
+      int removed = 0;
+      while (first < last && indices[first] < index) {
+        first++;
+        removed++;
+      }
+      return removed;
+    }
   }
 
   public void trySelectTime(final long time) {
     java.awt.EventQueue.invokeLater(new Runnable() {
       public void run() {
-        for (int i=0; i < logs.size(); i++) {
-          if (logs.get(i).ev.getTime() < time) {
+        for (int i=0; i < model.getRowCount(); i++) {
+          LogData data = getRowLog(i);
+          if (data == null || data.time < time) {
             continue;
           }
 
@@ -722,18 +1086,28 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
   }
 
   private class LogData {
-    public final LogOutputEvent ev;
-    public LogData(LogOutputEvent ev) {
-      this.ev = ev;
+    public final long index;
+    public final int moteID;
+    public final long time;
+    public final String msg;
+    public LogData(long index, int moteID, long time, String msg) {
+      this.index = index;
+      this.moteID = moteID;
+      this.time = time;
+      this.msg = msg;
     }
 
     public String getID() {
-      return "ID:" + ev.getMote().getID();
+      return "ID:" + moteID;
+    }
+
+    public boolean matches(Pattern pattern, boolean inverse, boolean noDebug) {
+      return matchesFilter(pattern, inverse, noDebug, moteID, msg);
     }
 
     public String getTime() {
       if (formatTimeString) {
-        long t = ev.getTime();
+        long t = time;
         long h = (t / TIME_HOUR);
         t -= (t / TIME_HOUR)*TIME_HOUR;
         long m = (t / TIME_MINUTE);
@@ -747,7 +1121,7 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
           return String.format("%02d:%02d.%03d", m,s,ms);
         }
       } else {
-        return "" + ev.getTime() / Simulation.MILLISECOND;
+        return "" + time / Simulation.MILLISECOND;
       }
     }
   }
@@ -786,12 +1160,16 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
       }
 
       try {
-        PrintWriter outStream = new PrintWriter(new FileWriter(saveFile));
-        for(LogData data : logs) {
+        PrintWriter outStream = new PrintWriter(new BufferedWriter(new FileWriter(saveFile)));
+        for (int i=0; i < getLogCount(); i++) {
+          LogData data = getLog(i);
+          if (data == null) {
+            continue;
+          }
           outStream.println(
               data.getTime() + "\t" +
               data.getID() + "\t" +
-              data.ev.getMessage());
+              data.msg);
         }
         outStream.close();
       } catch (Exception ex) {
@@ -889,7 +1267,11 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
         return;
       }
       int model = logTable.convertRowIndexToModel(view);
-      long time = logs.get(model).ev.getTime();
+      LogData data = getRowLog(model);
+      if (data == null) {
+        return;
+      }
+      long time = data.time;
 
       Plugin[] plugins = simulation.getGUI().getStartedPlugins();
       for (Plugin p: plugins) {
@@ -912,7 +1294,11 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
         return;
       }
       int model = logTable.convertRowIndexToModel(view);
-      long time = logs.get(model).ev.getTime();
+      LogData data = getRowLog(model);
+      if (data == null) {
+        return;
+      }
+      long time = data.time;
 
       Plugin[] plugins = simulation.getGUI().getStartedPlugins();
       for (Plugin p: plugins) {
@@ -948,10 +1334,8 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
   };
 
   public void clear() {
-    int size = logs.size();
-    if (size > 0) {
-      logs.clear();
-      model.fireTableRowsDeleted(0, size - 1);
+    if (getLogCount() > 0) {
+      removeLogsBefore(logsEnd);
     }
   }
 
@@ -985,12 +1369,16 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
       Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
 
       StringBuilder sb = new StringBuilder();
-      for(LogData data : logs) {
+      for (int i=0; i < getLogCount(); i++) {
+        LogData data = getLog(i);
+        if (data == null) {
+          continue;
+        }
         sb.append(data.getTime());
         sb.append("\t");
         sb.append(data.getID());
         sb.append("\t");
-        sb.append(data.ev.getMessage());
+        sb.append(data.msg);
         sb.append("\n");
       }
 
@@ -1006,8 +1394,12 @@ public class LogListener extends VisPlugin implements HasQuickHelp {
       Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
 
       StringBuilder sb = new StringBuilder();
-      for(LogData data : logs) {
-        sb.append(data.ev.getMessage());
+      for (int i=0; i < getLogCount(); i++) {
+        LogData data = getLog(i);
+        if (data == null) {
+          continue;
+        }
+        sb.append(data.msg);
         sb.append("\n");
       }
 
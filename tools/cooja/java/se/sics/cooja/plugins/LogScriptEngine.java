@@ -35,9 +35,14 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Observer;
 import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
 
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.Invocable;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
@@ -45,6 +50,7 @@ import javax.script.ScriptException;
 
 import org.apache.log4j.Logger;
 
+import se.sics.cooja.BatchRunner;
 import se.sics.cooja.GUI;
 import se.sics.cooja.Mote;
 import se.sics.cooja.SimEventCentral.LogOutputEvent;
@@ -62,8 +68,18 @@ import se.sics.cooja.TimeEvent;
  */
 public class LogScriptEngine {
   private static Logger logger = Logger.getLogger(LogScriptEngine.class);
+  private static final String INLINE_SCRIPT_UPDATE =
+    "msg = new java.lang.String(msg); node.setMoteMsg(mote, msg);";
   private static final long DEFAULT_TIMEOUT = 20*60*1000*Simulation.MILLISECOND; /* 1200s = 20 minutes */
 
+  /**
+   * Test script execution modes.
+   * INLINE executes the script directly on the simulation thread, and
+   * THREADED executes the script in a separate thread synchronized with
+   * the simulation thread via semaphores.
+   */
+  public enum ExecutionMode { INLINE, THREADED }
+
   private ScriptEngine engine =
     new ScriptEngineManager().getEngineByName("JavaScript");
 
@@ -88,9 +104,22 @@ public class LogScriptEngine {
   private Semaphore semaphoreScript = null; /* Semaphores blocking script/simulation */
   private Semaphore semaphoreSim = null;
   private Thread scriptThread = null; /* Script thread */
+  private ScriptStateMachine inlineScript = null; /* Inline script, no thread */
+  private CompiledScript inlineScriptUpdate = null;
   private Observer scriptLogObserver = null;
   private ScriptMote scriptMote;
 
+  /* Message filter set by WAIT_UNTIL_MATCH(), recently used patterns are shared between engines */
+  private static final int MAX_MESSAGE_FILTER_PATTERNS = 64;
+  private static LinkedHashMap<String, Pattern> messageFilterPatterns =
+    new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+    protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+      return size() > MAX_MESSAGE_FILTER_PATTERNS;
+    }
+  };
+  private volatile Pattern messageFilter = null;
+
   private boolean stopSimulation = false, quitCooja = false;
 
   private Simulation simulation;
@@ -106,8 +135,20 @@ public class LogScriptEngine {
     this.simulation = simulation;
   }
 
+  private boolean isScriptRunning() {
+    if (inlineScript != null) {
+      return true;
+    }
+    return scriptThread != null && scriptThread.isAlive();
+  }
+
   /* Only called from the simulation loop */
   private void stepScript() {
+    if (inlineScript != null) {
+      stepInlineScript();
+      return;
+    }
+
     /* Release script - halt simulation */
     Semaphore semScript = semaphoreScript;
     Semaphore semSim = semaphoreSim;
@@ -137,16 +178,88 @@ public class LogScriptEngine {
     }
   }
 
+  /* Only called from the simulation loop */
+  private void stepInlineScript() {
+    ScriptStateMachine script = inlineScript;
+    try {
+      if (Boolean.TRUE.equals(engine.get("SHUTDOWN"))) {
+        return;
+      }
+      if (Boolean.TRUE.equals(engine.get("TIMEOUT"))) {
+        engine.eval("SCRIPT_TIMEOUT();");
+        return;
+      }
+      if (inlineScriptUpdate != null) {
+        inlineScriptUpdate.eval();
+      } else {
+        engine.eval(INLINE_SCRIPT_UPDATE);
+      }
+      script.resume(engine);
+    } catch (ScriptException e) {
+      handleInlineScriptException(e);
+    } catch (RuntimeException e) {
+      /* Thrown directly by script functions, for example "test script killed" */
+      handleInlineScriptException(e);
+    } finally {
+      /* Check if test script requested us to stop */
+      if (stopSimulation) {
+        stopSimulationRunnable.run();
+        stopSimulation = false;
+      }
+      if (quitCooja) {
+        quitRunnable.run();
+        quitCooja = false;
+      }
+    }
+  }
+
+  private void handleInlineScriptException(Exception e) {
+    Throwable throwable = e;
+    while (throwable.getCause() != null) {
+      throwable = throwable.getCause();
+    }
+
+    if ((throwable.getMessage() != null &&
+        throwable.getMessage().contains("test script killed")) ||
+        (e.getMessage() != null &&
+        e.getMessage().contains("test script killed"))) {
+      logger.info("Test script finished");
+    } else {
+      if (!GUI.isVisualized()) {
+        BatchRunner.Run batchRun = simulation.getGUI().getBatchRun();
+        if (batchRun == null) {
+          logger.fatal("Test script error, terminating Cooja.");
+          logger.fatal("Script error:", e);
+          System.exit(1);
+        }
+        batchRun.error("Script error: " + e.getMessage());
+      }
+
+      logger.fatal("Script error:", e);
+      deactivateScript();
+      simulation.stopSimulation();
+      if (GUI.isVisualized()) {
+        GUI.showErrorDialog(GUI.getTopParentContainer(),
+            "Script error", e, false);
+      }
+    }
+  }
+
   /* Only called from the simulation loop */
   private void handleNewMoteOutput(Mote mote, int id, long time, String msg) {
     try {
-      if (scriptThread == null ||
-          !scriptThread.isAlive()) {
+      if (!isScriptRunning()) {
         logger.warn("No script thread, deactivate script.");
         /*scriptThread.isInterrupted()*/
         return;
       }
 
+      /* Script is waiting for other messages */
+      Pattern filter = messageFilter;
+      if (filter != null && !filter.matcher(msg).find()) {
+        return;
+      }
+
       /* Update script variables */
       engine.put("mote", mote);
       engine.put("id", id);
@@ -204,6 +317,8 @@ public class LogScriptEngine {
     simulation.getEventCentral().removeLogOutputListener(logOutputListener);
 
     engine.put("SHUTDOWN", true);
+    inlineScript = null;
+    inlineScriptUpdate = null;
 
     try {
       if (semaphoreScript != null) {
@@ -251,10 +366,12 @@ public class LogScriptEngine {
       semaphoreSim = null;
     }
     scriptThread = null;
+    inlineScript = null;
+    inlineScriptUpdate = null;
+    messageFilter = null;
 
     /* Parse current script */
     ScriptParser parser = new ScriptParser(scriptCode);
-    String jsCode = parser.getJSCode();
 
     timeout = parser.getTimeoutTime();
     if (timeout < 0) {
@@ -264,6 +381,72 @@ public class LogScriptEngine {
       logger.info("Script timeout in " + (timeout/Simulation.MILLISECOND) + " ms");
     }
 
+    ScriptStateMachine stateMachine = null;
+    if (getExecutionMode() == ExecutionMode.INLINE) {
+      stateMachine = parser.getStateMachine();
+      if (stateMachine == null) {
+        logger.info("Executing test script in separate thread");
+      }
+    }
+
+    if (stateMachine != null) {
+      /* Setup inline script: executed directly by the simulation thread */
+      engine.eval(parser.getInlineJSCode());
+      engine.put("TIMEOUT", false);
+      engine.put("SHUTDOWN", false);
+      if (engine instanceof Compilable) {
+        inlineScriptUpdate = ((Compilable)engine).compile(INLINE_SCRIPT_UPDATE);
+      }
+      inlineScript = stateMachine;
+    } else {
+      activateScriptThread(parser.getJSCode());
+    }
+
+    /* Setup simulation observers */
+    simulation.getEventCentral().addLogOutputListener(logOutputListener);
+
+    /* Create script output logger */
+    engine.put("log", scriptLog);
+
+    Hashtable<Object, Object> hash = new Hashtable<Object, Object>();
+    engine.put("global", hash);
+    engine.put("sim", simulation);
+    engine.put("gui", simulation.getGUI());
+
+    scriptMote = new ScriptMote();
+    engine.put("node", scriptMote);
+
+    Runnable activate = new Runnable() {
+      public void run() {
+        startRealTime = System.currentTimeMillis();
+        startTime = simulation.getSimulationTime();
+        long endTime = startTime + timeout;
+        nextProgress = startTime + (endTime - startTime)/20;
+
+        timeoutProgressEvent.remove();
+        simulation.scheduleEvent(timeoutProgressEvent, nextProgress);
+        timeoutEvent.remove();
+        simulation.scheduleEvent(timeoutEvent, endTime);
+      }
+    };
+    if (simulation.isRunning()) {
+      simulation.invokeSimulationThread(activate);
+    } else {
+      activate.run();
+    }
+  }
+
+  private static ExecutionMode getExecutionMode() {
+    String modeSetting = GUI.getExternalToolsSetting("SCRIPT_EXECUTION_MODE", "INLINE");
+    try {
+      return ExecutionMode.valueOf(modeSetting.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      logger.warn("Unknown script execution mode '" + modeSetting + "', using INLINE");
+      return ExecutionMode.INLINE;
+    }
+  }
+
+  private void activateScriptThread(String jsCode) throws ScriptException {
     engine.eval(jsCode);
 
     /* Setup script control */
@@ -308,9 +491,13 @@ public class LogScriptEngine {
             logger.info("Test script finished");
           } else {
             if (!GUI.isVisualized()) {
-              logger.fatal("Test script error, terminating Cooja.");
-              logger.fatal("Script error:", e);
-              System.exit(1);
+              BatchRunner.Run batchRun = simulation.getGUI().getBatchRun();
+              if (batchRun == null) {
+                logger.fatal("Test script error, terminating Cooja.");
+                logger.fatal("Script error:", e);
+                System.exit(1);
+              }
+              batchRun.error("Script error: " + e.getMessage());
             }
 
             logger.fatal("Script error:", e);
@@ -329,39 +516,6 @@ public class LogScriptEngine {
     while (!semaphoreScript.hasQueuedThreads()) {
       Thread.yield();
     }
-
-    /* Setup simulation observers */
-    simulation.getEventCentral().addLogOutputListener(logOutputListener);
-
-    /* Create script output logger */
-    engine.put("log", scriptLog);
-
-    Hashtable<Object, Object> hash = new Hashtable<Object, Object>();
-    engine.put("global", hash);
-    engine.put("sim", simulation);
-    engine.put("gui", simulation.getGUI());
-
-    scriptMote = new ScriptMote();
-    engine.put("node", scriptMote);
-
-    Runnable activate = new Runnable() {
-      public void run() {
-        startRealTime = System.currentTimeMillis();
-        startTime = simulation.getSimulationTime();
-        long endTime = startTime + timeout;
-        nextProgress = startTime + (endTime - startTime)/20;
-
-        timeoutProgressEvent.remove();
-        simulation.scheduleEvent(timeoutProgressEvent, nextProgress);
-        timeoutEvent.remove();
-        simulation.scheduleEvent(timeoutEvent, endTime);
-      }
-    };
-    if (simulation.isRunning()) {
-      simulation.invokeSimulationThread(activate);
-    } else {
-      activate.run();
-    }
   }
 
   private TimeEvent timeoutEvent = new TimeEvent(0) {
@@ -440,16 +594,22 @@ public class LogScriptEngine {
 
     public void testOK() {
       log("TEST OK\n");
-      deactive();
+      deactive(true);
     }
     public void testFailed() {
       log("TEST FAILED\n");
-      deactive();
+      deactive(false);
     }
-    private void deactive() {
+    private void deactive(boolean ok) {
       deactivateScript();
 
-      if (GUI.isVisualized()) {
+      BatchRunner.Run batchRun = simulation.getGUI().getBatchRun();
+      if (batchRun != null) {
+        /* Batch mode: report result, and only stop this simulation */
+        batchRun.testFinished(ok);
+        stopSimulation = true;
+        simulation.invokeSimulationThread(stopSimulationRunnable);
+      } else if (GUI.isVisualized()) {
         log("[if test was run without visualization, Cooja would now have been terminated]\n");
         stopSimulation = true;
         simulation.invokeSimulationThread(stopSimulationRunnable);
@@ -461,12 +621,41 @@ public class LogScriptEngine {
       throw new RuntimeException("test script killed");
     }
 
+    public void metric(String name, double value) {
+      log("Metric " + name + ": " + value + "\n");
+      BatchRunner.Run batchRun = simulation.getGUI().getBatchRun();
+      if (batchRun != null) {
+        batchRun.metric(name, value);
+      }
+    }
+
+    public void setMessageFilter(String regex) {
+      if (regex == null) {
+        messageFilter = null;
+        return;
+      }
+      synchronized (messageFilterPatterns) {
+        Pattern pattern = messageFilterPatterns.get(regex);
+        if (pattern == null) {
+          pattern = Pattern.compile(regex);
+          messageFilterPatterns.put(regex, pattern);
+        }
+        messageFilter = pattern;
+      }
+    }
+    public boolean messageMatches(String msg) {
+      Pattern filter = messageFilter;
+      if (filter == null) {
+        return true;
+      }
+      return msg != null && filter.matcher(msg).find();
+    }
+
     public void generateMessage(final long delay, final String msg) {
       final Mote currentMote = (Mote) engine.get("mote");
       final TimeEvent generateEvent = new TimeEvent(0) {
         public void execute(long t) {
-          if (scriptThread == null ||
-              !scriptThread.isAlive()) {
+          if (!isScriptRunning()) {
             logger.info("script thread not alive. try deactivating script.");
             /*scriptThread.isInterrupted()*/
             return;
@@ -47,7 +47,11 @@ import java.io.FileWriter;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Properties;
@@ -87,19 +91,29 @@ import se.sics.cooja.RadioPacket;
 import se.sics.cooja.Simulation;
 import se.sics.cooja.VisPlugin;
 import se.sics.cooja.dialogs.TableColumnAdjuster;
+import se.sics.cooja.dialogs.UpdateAggregator;
 import se.sics.cooja.interfaces.Radio;
 import se.sics.cooja.plugins.analyzers.ICMPv6Analyzer;
 import se.sics.cooja.plugins.analyzers.IEEE802154Analyzer;
 import se.sics.cooja.plugins.analyzers.IPHCPacketAnalyzer;
 import se.sics.cooja.plugins.analyzers.IPv6PacketAnalyzer;
 import se.sics.cooja.plugins.analyzers.PacketAnalyzer;
+import se.sics.cooja.plugins.analyzers.PcapExporter;
 import se.sics.cooja.plugins.analyzers.RadioLoggerAnalyzerSuite;
+import se.sics.cooja.util.ArrayQueue;
 import se.sics.cooja.util.StringUtils;
 
 /**
  * Radio logger listens to the simulation radio medium and lists all transmitted
  * data in a table.
  *
+ * Only the latest packets are kept in the table (external tools setting
+ * RADIO_LOGGER_MAX_PACKETS). When the "6LoWPAN Analyzer with PCAP" is
+ * selected, all packets are also streamed to pcap files.
+ *
+ * Packets are dissected by the selected analyzers only when their row is
+ * rendered or searched. The results are kept in a bounded cache.
+ *
  * @author Fredrik Osterlind
  */
 @ClassDescription("Radio messages")
@@ -116,6 +130,12 @@ public class RadioLogger extends VisPlugin {
   private JSplitPane splitPane;
   private JTextPane verboseBox = null;
 
+  private final static int UPDATE_INTERVAL = 100; /* ms */
+
+  private final static String PCAP_ANALYZER = "6lowpan-pcap";
+
+  private final static int DISSECTION_CACHE_SIZE = 1000;
+
   private final static String[] COLUMN_NAMES = {
     "Time",
     "From",
@@ -125,14 +145,30 @@ public class RadioLogger extends VisPlugin {
 
   private final Simulation simulation;
   private final JTable dataTable;
-  private ArrayList<RadioConnectionLog> connections = new ArrayList<RadioConnectionLog>();
+  private ArrayQueue<RadioConnectionLog> connections = new ArrayQueue<RadioConnectionLog>();
+  /* Logged packets not yet added to connections, guarded by connections */
+  private final ArrayList<RadioConnectionLog> pendingConnections = new ArrayList<RadioConnectionLog>();
+  private int maxConnections;
+  private long nextPacketIndex = 0; /* Simulation thread only */
+  private volatile RadioConnectionLog lastConnection = null;
+
+  /* Dissected packets by packet index, least recently used first */
+  private final LinkedHashMap<Long,PacketDissection> dissections =
+    new LinkedHashMap<Long,PacketDissection>(DISSECTION_CACHE_SIZE, 0.75f, true) {
+    private static final long serialVersionUID = 3402593476447183262L;
+    protected boolean removeEldestEntry(Map.Entry<Long,PacketDissection> eldest) {
+      return size() > DISSECTION_CACHE_SIZE;
+    }
+  };
   private RadioMedium radioMedium;
   private Observer radioMediumObserver;
   private AbstractTableModel model;
 
   private HashMap<String,Action> analyzerMap = new HashMap<String,Action>();
   private String analyzerName = null;
-  private ArrayList<PacketAnalyzer> analyzers = null;
+  private volatile ArrayList<PacketAnalyzer> analyzers = null;
+
+  private volatile PcapExporter pcapExporter = null;
 
   private JTextField searchField = new JTextField(30);
 
@@ -143,6 +179,14 @@ public class RadioLogger extends VisPlugin {
     simulation = simulationToControl;
     radioMedium = simulation.getRadioMedium();
 
+    String maxPacketsSetting = GUI.getExternalToolsSetting("RADIO_LOGGER_MAX_PACKETS", "10000");
+    try {
+      maxConnections = Integer.parseInt(maxPacketsSetting);
+    } catch (NumberFormatException e) {
+      logger.warn("Bad RADIO_LOGGER_MAX_PACKETS setting: " + maxPacketsSetting);
+      maxConnections = 10000;
+    }
+
     /* Menus */
     JMenuBar menuBar = new JMenuBar();
     JMenu fileMenu = new JMenu("File");
@@ -158,13 +202,13 @@ public class RadioLogger extends VisPlugin {
     this.setJMenuBar(menuBar);
 
     ArrayList<PacketAnalyzer> lowpanAnalyzers = new ArrayList<PacketAnalyzer>();
-    lowpanAnalyzers.add(new IEEE802154Analyzer(false));
+    lowpanAnalyzers.add(new IEEE802154Analyzer());
     lowpanAnalyzers.add(new IPHCPacketAnalyzer());
     lowpanAnalyzers.add(new IPv6PacketAnalyzer());
     lowpanAnalyzers.add(new ICMPv6Analyzer());
 
     ArrayList<PacketAnalyzer> lowpanAnalyzersPcap = new ArrayList<PacketAnalyzer>();
-    lowpanAnalyzersPcap.add(new IEEE802154Analyzer(true));
+    lowpanAnalyzersPcap.add(new IEEE802154Analyzer());
     lowpanAnalyzersPcap.add(new IPHCPacketAnalyzer());
     lowpanAnalyzersPcap.add(new IPv6PacketAnalyzer());
     lowpanAnalyzersPcap.add(new ICMPv6Analyzer());
@@ -203,17 +247,15 @@ public class RadioLogger extends VisPlugin {
           }
           return "[" + dests.length + " d]";
         } else if (col == COLUMN_DATA) {
-          if (conn.data == null) {
-            prepareDataString(connections.get(row));
-          }
+          String data = getDissection(conn).data;
           if (aliases != null) {
             /* Check if alias exists */
-            String alias = (String) aliases.get(conn.data);
+            String alias = (String) aliases.get(data);
             if (alias != null) {
               return alias;
             }
           }
-          return conn.data;
+          return data;
         }
         return null;
       }
@@ -284,10 +326,7 @@ public class RadioLogger extends VisPlugin {
           tip.append("</html>");
           return tip.toString();
         } else if (realColumnIndex == COLUMN_DATA) {
-          if (conn.tooltip == null) {
-            prepareTooltipString(conn);
-          }
-          return conn.tooltip;
+          return getTooltipString(conn);
         }
         return super.getToolTipText(e);
       }
@@ -315,11 +354,7 @@ public class RadioLogger extends VisPlugin {
         public void valueChanged(ListSelectionEvent e) {
             int row = dataTable.getSelectedRow();
             if (row >= 0) {
-                RadioConnectionLog conn = connections.get(row);
-                if (conn.tooltip == null) {
-                    prepareTooltipString(conn);
-                }
-                verboseBox.setText(conn.tooltip);
+                verboseBox.setText(getTooltipString(connections.get(row)));
                 verboseBox.setCaretPosition(0);
             }
         }
@@ -362,7 +397,7 @@ public class RadioLogger extends VisPlugin {
     analyzerMenu.add(rbMenuItem);
 
     rbMenuItem = new JRadioButtonMenuItem(createAnalyzerAction(
-            "6LoWPAN Analyzer with PCAP", "6lowpan-pcap", lowpanAnalyzersPcap, false));
+            "6LoWPAN Analyzer with PCAP", PCAP_ANALYZER, lowpanAnalyzersPcap, false));
     group.add(rbMenuItem);
     analyzerMenu.add(rbMenuItem);
 
@@ -432,33 +467,28 @@ public class RadioLogger extends VisPlugin {
           return;
         }
         final RadioConnectionLog loggedConn = new RadioConnectionLog();
+        loggedConn.index = nextPacketIndex++;
         loggedConn.startTime = conn.getStartTime();
         loggedConn.endTime = simulation.getSimulationTime();
         loggedConn.connection = conn;
         loggedConn.packet = conn.getSource().getLastPacketTransmitted();
-        java.awt.EventQueue.invokeLater(new Runnable() {
-          public void run() {
-            int lastSize = connections.size();
-            // Check if the last row is visible
-            boolean isVisible = false;
-            int rowCount = dataTable.getRowCount();
-            if (rowCount > 0) {
-              Rectangle lastRow = dataTable.getCellRect(rowCount - 1, 0, true);
-              Rectangle visible = dataTable.getVisibleRect();
-              isVisible = visible.y <= lastRow.y && visible.y + visible.height >= lastRow.y + lastRow.height;
-            }
-            connections.add(loggedConn);
-            if (connections.size() > lastSize) {
-              model.fireTableRowsInserted(lastSize, connections.size() - 1);
-            }
-            if (isVisible) {
-              dataTable.scrollRectToVisible(dataTable.getCellRect(dataTable.getRowCount() - 1, 0, true));
-            }
-            setTitle("Radio messages: " + dataTable.getRowCount() + " messages seen");
+
+        PcapExporter exporter = pcapExporter;
+        if (exporter != null) {
+          byte[] data = getPacketData(loggedConn.packet);
+          if (data != null) {
+            exporter.exportPacketData(loggedConn.startTime, data);
           }
-        });
+        }
+
+        lastConnection = loggedConn;
+        synchronized (connections) {
+          pendingConnections.add(loggedConn);
+        }
+        connectionsAggregator.add(loggedConn);
         }
       });
+    connectionsAggregator.start();
 
     setSize(500, 300);
     try {
@@ -523,19 +553,91 @@ public class RadioLogger extends VisPlugin {
     });
   }
 
-  private void prepareDataString(RadioConnectionLog conn) {
-    byte[] data;
-    if (conn.packet == null) {
-      data = null;
-    } else if (conn.packet instanceof ConvertedRadioPacket) {
-      data = ((ConvertedRadioPacket)conn.packet).getOriginalPacketData();
+  private UpdateAggregator<RadioConnectionLog> connectionsAggregator =
+    new UpdateAggregator<RadioConnectionLog>(UPDATE_INTERVAL) {
+    protected void handle(List<RadioConnectionLog> newConnections) {
+      // Check if the last row is visible
+      boolean isVisible = false;
+      int rowCount = dataTable.getRowCount();
+      if (rowCount > 0) {
+        Rectangle lastRow = dataTable.getCellRect(rowCount - 1, 0, true);
+        Rectangle visible = dataTable.getVisibleRect();
+        isVisible = visible.y <= lastRow.y && visible.y + visible.height >= lastRow.y + lastRow.height;
+      }
+
+      /* Remove oldest packets */
+      int remove = Math.min(connections.size(),
+          connections.size() + newConnections.size() - maxConnections);
+      if (remove > 0) {
+        synchronized (connections) {
+          for (int i = 0; i < remove; i++) {
+            connections.remove(0);
+          }
+        }
+        model.fireTableRowsDeleted(0, remove - 1);
+      }
+
+      int lastSize = connections.size();
+      int skip = Math.max(0, newConnections.size() - maxConnections);
+      synchronized (connections) {
+        for (int i = skip; i < newConnections.size(); i++) {
+          connections.add(newConnections.get(i));
+        }
+        pendingConnections.subList(0, newConnections.size()).clear();
+      }
+      if (connections.size() > lastSize) {
+        model.fireTableRowsInserted(lastSize, connections.size() - 1);
+      }
+      if (isVisible) {
+        dataTable.scrollRectToVisible(dataTable.getCellRect(dataTable.getRowCount() - 1, 0, true));
+      }
+      setTitle("Radio messages: " + dataTable.getRowCount() + " messages seen");
+    }
+  };
+
+  private static byte[] getPacketData(RadioPacket packet) {
+    if (packet == null) {
+      return null;
+    } else if (packet instanceof ConvertedRadioPacket) {
+      return ((ConvertedRadioPacket)packet).getOriginalPacketData();
     } else {
-      data = conn.packet.getPacketData();
+      return packet.getPacketData();
+    }
+  }
+
+  private PacketDissection getDissection(RadioConnectionLog conn) {
+    synchronized (dissections) {
+      PacketDissection dissection = dissections.get(conn.index);
+      if (dissection == null) {
+        dissection = dissectPacket(conn);
+        dissections.put(conn.index, dissection);
+      }
+      return dissection;
     }
+  }
+
+  private String getTooltipString(RadioConnectionLog conn) {
+    PacketDissection dissection = getDissection(conn);
+    if (dissection.tooltip == null) {
+      dissection.tooltip = createTooltipString(conn.packet);
+    }
+    return dissection.tooltip;
+  }
+
+  private PacketDissection dissectPacket(RadioConnectionLog conn) {
+    PacketDissection dissection = new PacketDissection();
+    LinkedHashMap<String,Object> fields = new LinkedHashMap<String,Object>();
+    fields.put("index", conn.index);
+    fields.put("time", conn.startTime);
+    fields.put("source", conn.connection.getSource().getMote().getID());
+    dissection.fields = Collections.unmodifiableMap(fields);
+
+    byte[] data = getPacketData(conn.packet);
     if (data == null) {
-      conn.data = "[unknown data]";
-      return;
+      dissection.data = "[unknown data]";
+      return dissection;
     }
+    fields.put("length", data.length);
 
     StringBuffer brief = new StringBuffer();
     StringBuffer verbose = new StringBuffer();
@@ -544,8 +646,10 @@ public class RadioLogger extends VisPlugin {
     PacketAnalyzer.Packet packet = new PacketAnalyzer.Packet(data, PacketAnalyzer.MAC_LEVEL);
 
     if (analyzePacket(packet, brief, verbose)) {
+        fields.putAll(packet.getFields());
         if (packet.hasMoreData()) {
             byte[] payload = packet.getPayload();
+            fields.put("payload.length", payload.length);
             brief.append(StringUtils.toHex(payload, 4));
             if (verbose.length() > 0) {
                 verbose.append("<p>");
@@ -555,17 +659,19 @@ public class RadioLogger extends VisPlugin {
             .append(StringUtils.hexDump(payload))
             .append("</pre>");
         }
-        conn.data = (data.length < 100 ? (data.length < 10 ? "  " : " ") : "")
+        dissection.data = (data.length < 100 ? (data.length < 10 ? "  " : " ") : "")
         + data.length + ": " + brief;
         if (verbose.length() > 0) {
-            conn.tooltip = verbose.toString();
+            dissection.tooltip = verbose.toString();
         }
     } else {
-        conn.data = data.length + ": 0x" + StringUtils.toHex(data, 4);
+        dissection.data = data.length + ": 0x" + StringUtils.toHex(data, 4);
     }
+    return dissection;
   }
 
   private boolean analyzePacket(PacketAnalyzer.Packet packet, StringBuffer brief, StringBuffer verbose) {
+      ArrayList<PacketAnalyzer> analyzers = this.analyzers;
       if (analyzers == null) return false;
       try {
         boolean analyze = true;
@@ -596,17 +702,15 @@ public class RadioLogger extends VisPlugin {
       return brief.length() > 0;
   }
 
-  private void prepareTooltipString(RadioConnectionLog conn) {
-    RadioPacket packet = conn.packet;
+  private static String createTooltipString(RadioPacket packet) {
     if (packet == null) {
-      conn.tooltip = "";
-      return;
+      return "";
     }
 
     if (packet instanceof ConvertedRadioPacket && packet.getPacketData().length > 0) {
       byte[] original = ((ConvertedRadioPacket)packet).getOriginalPacketData();
       byte[] converted = ((ConvertedRadioPacket)packet).getPacketData();
-      conn.tooltip = "<html><font face=\"Monospaced\">" +
+      return "<html><font face=\"Monospaced\">" +
       "<b>Packet data (" + original.length + " bytes)</b><br>" +
       "<pre>" + StringUtils.hexDump(original) + "</pre>" +
       "</font><font face=\"Monospaced\">" +
@@ -615,7 +719,7 @@ public class RadioLogger extends VisPlugin {
       "</font></html>";
     } else if (packet instanceof ConvertedRadioPacket) {
       byte[] original = ((ConvertedRadioPacket)packet).getOriginalPacketData();
-      conn.tooltip = "<html><font face=\"Monospaced\">" +
+      return "<html><font face=\"Monospaced\">" +
       "<b>Packet data (" + original.length + " bytes)</b><br>" +
       "<pre>" + StringUtils.hexDump(original) + "</pre>" +
       "</font><font face=\"Monospaced\">" +
@@ -623,7 +727,7 @@ public class RadioLogger extends VisPlugin {
       "</font></html>";
     } else {
       byte[] data = packet.getPacketData();
-      conn.tooltip = "<html><font face=\"Monospaced\">" +
+      return "<html><font face=\"Monospaced\">" +
       "<b>Packet data (" + data.length + " bytes)</b><br>" +
       "<pre>" + StringUtils.hexDump(data) + "</pre>" +
       "</font></html>";
@@ -634,6 +738,101 @@ public class RadioLogger extends VisPlugin {
     if (radioMediumObserver != null) {
       radioMedium.deleteRadioMediumObserver(radioMediumObserver);
     }
+    connectionsAggregator.stop();
+    setPcapExport(false);
+  }
+
+  /**
+   * Decodes a logged radio packet into header fields, using the currently
+   * selected analyzers. Intended for test scripts.
+   *
+   * Fields always include the packet index, start time (us), source mote ID
+   * and packet length. Decoded fields are named by protocol, for example
+   * "mac.seqno", "ipv6.src" or "icmpv6.type".
+   *
+   * @param index Packet index, see field "index"
+   * @return Packet fields, or null if packet is no longer logged (or was
+   *         never logged)
+   */
+  public Map<String,Object> getPacketFields(long index) {
+    RadioConnectionLog last = lastConnection;
+    if (last != null && last.index == index) {
+      return getDissection(last).fields;
+    }
+
+    RadioConnectionLog conn = null;
+    synchronized (connections) {
+      int low = 0;
+      int high = connections.size() - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        long midIndex = connections.get(mid).index;
+        if (midIndex < index) {
+          low = mid + 1;
+        } else if (midIndex > index) {
+          high = mid - 1;
+        } else {
+          conn = connections.get(mid);
+          break;
+        }
+      }
+      if (conn == null) {
+        /* Logged, but not yet shown */
+        for (RadioConnectionLog pending : pendingConnections) {
+          if (pending.index == index) {
+            conn = pending;
+            break;
+          }
+        }
+      }
+    }
+    if (conn == null) {
+      return null;
+    }
+    return getDissection(conn).fields;
+  }
+
+  /**
+   * @return Fields of the last transmitted packet, or null
+   * @see #getPacketFields(long)
+   */
+  public Map<String,Object> getLastPacketFields() {
+    RadioConnectionLog last = lastConnection;
+    if (last == null) {
+      return null;
+    }
+    return getDissection(last).fields;
+  }
+
+  /**
+   * Starts or stops streaming all new radio packets to pcap files.
+   *
+   * Files are rotated according to the external tools settings
+   * PCAP_ROTATE_SIZE (bytes) and PCAP_ROTATE_TIME (simulated seconds).
+   * A value of 0 disables the corresponding limit.
+   *
+   * @param export True to start export
+   */
+  private void setPcapExport(boolean export) {
+    PcapExporter exporter = pcapExporter;
+    if (export == (exporter != null)) {
+      return;
+    }
+    if (!export) {
+      pcapExporter = null;
+      exporter.close();
+      return;
+    }
+
+    exporter = new PcapExporter();
+    try {
+      exporter.setRotation(
+          Long.parseLong(GUI.getExternalToolsSetting("PCAP_ROTATE_SIZE", "0")),
+          Long.parseLong(GUI.getExternalToolsSetting("PCAP_ROTATE_TIME", "0")) * Simulation.MILLISECOND * 1000);
+    } catch (NumberFormatException e) {
+      logger.warn("Bad pcap rotation setting: " + e.getMessage());
+    }
+    pcapExporter = exporter;
   }
 
   public Collection<Element> getConfigXML() {
@@ -690,26 +889,27 @@ public class RadioLogger extends VisPlugin {
   }
 
   private class RadioConnectionLog {
+    long index;
     long startTime;
     long endTime;
     RadioConnection connection;
     RadioPacket packet;
 
-    String data = null;
-    String tooltip = null;
-
     public String toString() {
-    	if (data == null) {
-    		RadioLogger.this.prepareDataString(this);
-    	}
     	return
     	Long.toString(startTime / Simulation.MILLISECOND) + "\t" +
     	connection.getSource().getMote().getID() + "\t" +
     	getDestString(this) + "\t" +
-    	data;
+    	getDissection(this).data;
     }
   }
 
+  private static class PacketDissection {
+    String data = null;
+    String tooltip = null;
+    Map<String,Object> fields = null;
+  }
+
   private static String getDestString(RadioConnectionLog c) {
     Radio[] dests = c.connection.getDestinations();
     if (dests.length == 0) {
@@ -735,13 +935,12 @@ public class RadioLogger extends VisPlugin {
             if (analyzers != analyzerList) {
                 analyzers = analyzerList;
                 analyzerName = actionName;
+                setPcapExport(PCAP_ANALYZER.equals(actionName));
+                // Remove the cached values
+                synchronized (dissections) {
+                    dissections.clear();
+                }
                 if (connections.size() > 0) {
-                    // Remove the cached values
-                    for(int i = 0; i < connections.size(); i++) {
-                        RadioConnectionLog conn = connections.get(i);
-                        conn.data = null;
-                        conn.tooltip = null;
-                    }
                     model.fireTableRowsUpdated(0, connections.size() - 1);
                 }
                 verboseBox.setText("");
@@ -759,7 +958,9 @@ public class RadioLogger extends VisPlugin {
     public void actionPerformed(ActionEvent e) {
       int size = connections.size();
       if (size > 0) {
-        connections.clear();
+        synchronized (connections) {
+          connections.clear();
+        }
         model.fireTableRowsDeleted(0, size - 1);
         setTitle("Radio Logger: " + dataTable.getRowCount() + " packets");
       }
@@ -911,17 +1112,18 @@ public class RadioLogger extends VisPlugin {
     public void actionPerformed(ActionEvent e) {
       int selectedRow = dataTable.getSelectedRow();
       if (selectedRow < 0) return;
+      String data = getDissection(connections.get(selectedRow)).data;
 
       String current = "";
-      if (aliases != null && aliases.get(connections.get(selectedRow).data) != null) {
-        current = (String) aliases.get(connections.get(selectedRow).data);
+      if (aliases != null && aliases.get(data) != null) {
+        current = (String) aliases.get(data);
       }
 
       String alias = (String) JOptionPane.showInputDialog(
           GUI.getTopParentContainer(),
           "Enter alias for all packets with identical payload.\n" +
           "An empty string removes the current alias.\n\n" +
-          connections.get(selectedRow).data + "\n",
+          data + "\n",
           "Create packet payload alias",
           JOptionPane.QUESTION_MESSAGE,
           null,
@@ -939,7 +1141,7 @@ public class RadioLogger extends VisPlugin {
 
       /* Remove current alias */
       if (alias.equals("")) {
-        aliases.remove(connections.get(selectedRow).data);
+        aliases.remove(data);
 
         /* Should be null if empty */
         if (aliases.isEmpty()) {
@@ -950,7 +1152,7 @@ public class RadioLogger extends VisPlugin {
       }
 
       /* (Re)define alias */
-      aliases.put(connections.get(selectedRow).data, alias);
+      aliases.put(data, alias);
       repaint();
     }
   };
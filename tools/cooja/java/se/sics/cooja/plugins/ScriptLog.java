@@ -38,6 +38,9 @@ public interface ScriptLog {
     public void testOK();
     public void testFailed();
     public void generateMessage(long delay, String msg);
+    public void metric(String name, double value);
     public void append(String filename, String msg);
     public void writeFile(String filename, String msg);
+    public void setMessageFilter(String regex);
+    public boolean messageMatches(String msg);
 }
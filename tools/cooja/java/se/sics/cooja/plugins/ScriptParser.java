@@ -65,6 +65,8 @@ public class ScriptParser {
 
     code = replaceYields(code);
 
+    code = replaceWaitUntilMatches(code);
+
     code = replaceWaitUntils(code);
 
     this.code = code;
@@ -198,6 +200,32 @@ public class ScriptParser {
     return code;
   }
 
+  /**
+   * WAIT_UNTIL_MATCH(regex) waits until a log message contains a match of the
+   * given regular expression. While waiting, the script engine only resumes
+   * the script for matching messages.
+   */
+  private String replaceWaitUntilMatches(String code) throws ScriptSyntaxErrorException {
+    Pattern pattern = Pattern.compile(
+        "WAIT_UNTIL_MATCH\\(" +
+        "(.*)" /* regex */ +
+        "\\)"
+    );
+    Matcher matcher = pattern.matcher(code);
+
+    while (matcher.find()) {
+      code = matcher.replaceFirst(Matcher.quoteReplacement(
+          "log.setMessageFilter(" + matcher.group(1) + "); " +
+          "while (!log.messageMatches(msg)) { " +
+          " SCRIPT_SWITCH(); " +
+          "} " +
+          "log.setMessageFilter(null)"));
+      matcher.reset(code);
+    }
+
+    return code;
+  }
+
   private String replaceWaitUntils(String code) throws ScriptSyntaxErrorException {
     Pattern pattern = Pattern.compile(
         "WAIT_UNTIL\\(" +
@@ -267,6 +295,60 @@ public class ScriptParser {
     " node.setMoteMsg(mote, msg); " +
     "};\n" +
     "\n" +
+    "function metric(name, value) { " +
+    " log.metric(name, value); " +
+    "};\n" +
+    "\n" +
+    "function write(mote,msg) { " +
+    " mote.getInterfaces().getLog().writeString(msg); " +
+    "};\n";
+  }
+
+  /**
+   * @return Script compiled into a state machine, or null if the script
+   * cannot be executed inline
+   * @see #getInlineJSCode()
+   */
+  public ScriptStateMachine getStateMachine() {
+    return ScriptStateMachine.compile(code);
+  }
+
+  /**
+   * Returns the support functions needed to execute the script state machine
+   * directly on the simulation thread. Contrary to {@link #getJSCode()},
+   * no script thread or semaphores are used.
+   *
+   * @return Javascript support functions
+   * @see #getStateMachine()
+   */
+  public String getInlineJSCode() {
+    return getInlineJSCode(timeoutCode);
+  }
+
+  public static String getInlineJSCode(String timeoutCode) {
+    return
+    "timeout_function = null; " +
+    "\n" +
+    "function GENERATE_MSG(time, msg) { " +
+    " log.generateMessage(time, msg); " +
+    "};\n" +
+    "\n" +
+    "function SCRIPT_KILL() { " +
+    " throw('test script killed'); " +
+    "};\n" +
+    "\n" +
+    "function SCRIPT_TIMEOUT() { " +
+    timeoutCode + "; " +
+    " if (timeout_function != null) { timeout_function(); } " +
+    " log.log('TEST TIMEOUT\\n'); " +
+    " log.testFailed(); " +
+    " SCRIPT_KILL(); " +
+    "};\n" +
+    "\n" +
+    "function metric(name, value) { " +
+    " log.metric(name, value); " +
+    "};\n" +
+    "\n" +
     "function write(mote,msg) { " +
     " mote.getInterfaces().getLog().writeString(msg); " +
     "};\n";
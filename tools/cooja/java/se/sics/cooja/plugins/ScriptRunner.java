@@ -79,6 +79,7 @@ import jsyntaxpane.actions.DefaultSyntaxAction;
 import org.apache.log4j.Logger;
 import org.jdom.Element;
 
+import se.sics.cooja.BatchRunner;
 import se.sics.cooja.ClassDescription;
 import se.sics.cooja.GUI;
 import se.sics.cooja.PluginType;
@@ -329,6 +330,14 @@ public class ScriptRunner extends VisPlugin {
             logTextArea.setCaretPosition(logTextArea.getText().length());
           }
         });
+      } else if (simulation.getGUI().getBatchRun() != null) {
+        /* Batch mode: write test output to run specific file */
+        final BatchRunner.Run batchRun = simulation.getGUI().getBatchRun();
+        engine.setScriptLogObserver(new Observer() {
+          public void update(Observable obs, Object obj) {
+            batchRun.log((String) obj);
+          }
+        });
       } else {
         try {
           /* Continously write test output to file */
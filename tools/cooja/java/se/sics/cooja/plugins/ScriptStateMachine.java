@@ -0,0 +1,576 @@
+/*
+ * Copyright (c) 2013, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+
+package se.sics.cooja.plugins;
+
+import java.util.ArrayList;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Test script compiled into a state machine.
+ *
+ * The parsed script code is split at its SCRIPT_SWITCH() calls (generated from
+ * YIELD() and WAIT_UNTIL()) into plain code segments, conditional jumps and
+ * switch points. The state machine can then be executed directly on the
+ * simulation thread: each call to {@link #resume(ScriptEngine)} executes the script
+ * until its next switch point.
+ *
+ * Switch points are supported at the top level of the script and inside
+ * (nested) while loops, if statements and blocks. Scripts with switch points
+ * elsewhere, for example inside functions or for loops, are not compiled.
+ *
+ * @see ScriptParser
+ * @see LogScriptEngine
+ */
+public class ScriptStateMachine {
+  private static Logger logger = Logger.getLogger(ScriptStateMachine.class);
+
+  private static final String SWITCH = "SCRIPT_SWITCH";
+
+  private enum Type { CODE, SWITCH, JUMP, JUMP_IF_NOT }
+
+  private static class Instruction {
+    final Type type;
+    final String code;
+    int target = -1;
+    CompiledScript compiled = null;
+
+    Instruction(Type type, String code) {
+      this.type = type;
+      this.code = code;
+    }
+  }
+
+  private static class UnsupportedStructureException extends Exception {
+    private static final long serialVersionUID = 1L;
+    UnsupportedStructureException(String msg) {
+      super(msg);
+    }
+  }
+
+  /* Jump targets of enclosing while loop */
+  private static class Loop {
+    final int start;
+    final ArrayList<Instruction> breaks = new ArrayList<Instruction>();
+    Loop(int start) {
+      this.start = start;
+    }
+  }
+
+  private final String code;
+  private ArrayList<Instruction> instructions = new ArrayList<Instruction>();
+  private StringBuilder declarations = new StringBuilder();
+  private int pc = 0;
+
+  private ScriptStateMachine(String code) {
+    this.code = code;
+  }
+
+  /**
+   * Compiles parsed script code.
+   *
+   * @param code Script code, as generated by {@link ScriptParser}
+   * @return State machine, or null if the script structure is not supported
+   */
+  public static ScriptStateMachine compile(String code) {
+    ScriptStateMachine sm = new ScriptStateMachine(code);
+    try {
+      sm.compileSequence(0, code.length(), null);
+    } catch (UnsupportedStructureException e) {
+      logger.info("Script cannot be executed inline: " + e.getMessage());
+      return null;
+    }
+
+    /* Function declarations are hoisted */
+    if (sm.declarations.length() > 0) {
+      for (Instruction i: sm.instructions) {
+        if (i.target >= 0) {
+          i.target++;
+        }
+      }
+      sm.instructions.add(0, new Instruction(Type.CODE, sm.declarations.toString()));
+    }
+    return sm;
+  }
+
+  /**
+   * Executes the script until its next switch point.
+   *
+   * @param engine Script engine
+   * @return True if the script is waiting at a switch point, false if it has ended
+   * @throws ScriptException At script errors
+   */
+  public boolean resume(ScriptEngine engine) throws ScriptException {
+    while (pc < instructions.size()) {
+      Instruction i = instructions.get(pc);
+      switch (i.type) {
+      case CODE:
+        pc++;
+        eval(engine, i);
+        break;
+      case SWITCH:
+        pc++;
+        return true;
+      case JUMP:
+        pc = i.target;
+        break;
+      case JUMP_IF_NOT:
+        if (Boolean.TRUE.equals(eval(engine, i))) {
+          pc++;
+        } else {
+          pc = i.target;
+        }
+        break;
+      }
+    }
+    return false;
+  }
+
+  private static Object eval(ScriptEngine engine, Instruction i) throws ScriptException {
+    if (i.compiled == null && engine instanceof Compilable) {
+      i.compiled = ((Compilable)engine).compile(i.code);
+    }
+    if (i.compiled != null) {
+      return i.compiled.eval();
+    }
+    return engine.eval(i.code);
+  }
+
+  private Instruction emit(Type type, String code) {
+    Instruction i = new Instruction(type, code);
+    instructions.add(i);
+    return i;
+  }
+
+  private void emitCode(int start, int end, Loop loop) throws UnsupportedStructureException {
+    String segment = code.substring(start, end);
+    if (segment.replace(';', ' ').trim().length() == 0) {
+      return;
+    }
+    if (containsToken(segment, SWITCH)) {
+      throw new UnsupportedStructureException("yield or wait in unsupported position");
+    }
+    emit(Type.CODE, segment);
+  }
+
+  /**
+   * Compiles all statements between start and end.
+   */
+  private void compileSequence(int start, int end, Loop loop) throws UnsupportedStructureException {
+    int plainStart = start;
+    int i = start;
+    while (i < end) {
+      char c = code.charAt(i);
+
+      if (c == '"' || c == '\'') {
+        i = skipString(i);
+        continue;
+      }
+      if (c == '/' && isRegexStart(start, i)) {
+        i = skipRegex(i);
+        continue;
+      }
+      if (c == '{' && isBlockStart(start, i)) {
+        int blockEnd = skipGroup(i);
+        if (mustDecompose(i + 1, blockEnd - 1, loop)) {
+          emitCode(plainStart, i, loop);
+          compileSequence(i + 1, blockEnd - 1, loop);
+          plainStart = blockEnd;
+        }
+        i = blockEnd;
+        continue;
+      }
+      if (c == '(' || c == '[' || c == '{') {
+        i = skipGroup(i);
+        continue;
+      }
+      if (!isIdentifierStart(c) || !isTokenStart(i)) {
+        i++;
+        continue;
+      }
+
+      int wordEnd = i;
+      while (wordEnd < end && isIdentifierPart(code.charAt(wordEnd))) {
+        wordEnd++;
+      }
+      String word = code.substring(i, wordEnd);
+
+      if (word.equals(SWITCH)) {
+        emitCode(plainStart, i, loop);
+        int p = skipWhitespace(wordEnd);
+        if (p >= end || code.charAt(p) != '(') {
+          throw new UnsupportedStructureException("yield or wait in unsupported position");
+        }
+        p = skipSemicolon(skipGroup(p));
+        emit(Type.SWITCH, null);
+        i = plainStart = p;
+      } else if (word.equals("while")) {
+        int condStart = skipWhitespace(wordEnd);
+        int condEnd = skipGroup(condStart);
+        int bodyStart = skipWhitespace(condEnd);
+        int bodyEnd = skipStatement(bodyStart, end);
+        if (containsToken(code.substring(bodyStart, bodyEnd), SWITCH)) {
+          emitCode(plainStart, i, loop);
+          Loop whileLoop = new Loop(instructions.size());
+          Instruction exit = emit(Type.JUMP_IF_NOT, "!!" + code.substring(condStart, condEnd));
+          compileBody(bodyStart, bodyEnd, whileLoop);
+          emit(Type.JUMP, null).target = whileLoop.start;
+          exit.target = instructions.size();
+          for (Instruction b: whileLoop.breaks) {
+            b.target = instructions.size();
+          }
+          plainStart = bodyEnd;
+        }
+        i = bodyEnd;
+      } else if (word.equals("if")) {
+        int condStart = skipWhitespace(wordEnd);
+        int condEnd = skipGroup(condStart);
+        int thenStart = skipWhitespace(condEnd);
+        int thenEnd = skipStatement(thenStart, end);
+        int elseStart = -1, elseEnd = thenEnd;
+        int p = skipWhitespace(thenEnd);
+        if (p < end && isToken(p, "else")) {
+          elseStart = skipWhitespace(p + 4);
+          elseEnd = skipStatement(elseStart, end);
+        }
+        if (mustDecompose(i, elseEnd, loop)) {
+          emitCode(plainStart, i, loop);
+          Instruction toElse = emit(Type.JUMP_IF_NOT, "!!" + code.substring(condStart, condEnd));
+          compileBody(thenStart, thenEnd, loop);
+          if (elseStart >= 0) {
+            Instruction toEnd = emit(Type.JUMP, null);
+            toElse.target = instructions.size();
+            compileBody(elseStart, elseEnd, loop);
+            toEnd.target = instructions.size();
+          } else {
+            toElse.target = instructions.size();
+          }
+          plainStart = elseEnd;
+        }
+        i = elseEnd;
+      } else if (word.equals("break") || word.equals("continue")) {
+        int p = skipWhitespace(wordEnd);
+        if (p < end && isIdentifierStart(code.charAt(p))) {
+          throw new UnsupportedStructureException("labeled " + word);
+        }
+        if (loop != null) {
+          emitCode(plainStart, i, loop);
+          Instruction jump = emit(Type.JUMP, null);
+          if (word.equals("break")) {
+            loop.breaks.add(jump);
+          } else {
+            jump.target = loop.start;
+          }
+          i = plainStart = skipSemicolon(p);
+        } else {
+          i = wordEnd;
+        }
+      } else if (word.equals("function")) {
+        int p = skipWhitespace(wordEnd);
+        boolean declaration = p < end && isIdentifierStart(code.charAt(p));
+        while (p < end && code.charAt(p) != '(') {
+          p++;
+        }
+        int bodyStart = skipWhitespace(skipGroup(p));
+        int bodyEnd = skipGroup(bodyStart);
+        if (containsToken(code.substring(i, bodyEnd), SWITCH)) {
+          throw new UnsupportedStructureException("yield or wait inside function");
+        }
+        if (declaration && isBlockStart(start, i)) {
+          /* Function declarations are moved to the beginning of the script */
+          emitCode(plainStart, i, loop);
+          declarations.append(code.substring(i, bodyEnd)).append("\n");
+          plainStart = bodyEnd;
+        }
+        i = bodyEnd;
+      } else if (word.equals("for") || word.equals("do") || word.equals("switch") || word.equals("try")) {
+        int stmtEnd = skipStatement(i, end);
+        String stmt = code.substring(i, stmtEnd);
+        if (containsToken(stmt, SWITCH)) {
+          throw new UnsupportedStructureException("yield or wait inside " + word);
+        }
+        if (word.equals("try") && loop != null &&
+            (containsToken(stmt, "break") || containsToken(stmt, "continue"))) {
+          throw new UnsupportedStructureException("break or continue inside try");
+        }
+        i = stmtEnd;
+      } else if (word.equals("return")) {
+        throw new UnsupportedStructureException("return outside function");
+      } else if (word.equals("else")) {
+        throw new UnsupportedStructureException("unexpected else");
+      } else {
+        i = wordEnd;
+      }
+    }
+    emitCode(plainStart, end, loop);
+  }
+
+  /**
+   * Compiles the body of a while loop or an if statement.
+   */
+  private void compileBody(int start, int end, Loop loop) throws UnsupportedStructureException {
+    if (start < end && code.charAt(start) == '{' && skipGroup(start) == end) {
+      compileSequence(start + 1, end - 1, loop);
+    } else {
+      compileSequence(start, end, loop);
+    }
+  }
+
+  /**
+   * @return True if given code must be split into several instructions
+   */
+  private boolean mustDecompose(int start, int end, Loop loop) {
+    String segment = code.substring(start, end);
+    if (containsToken(segment, SWITCH)) {
+      return true;
+    }
+    return loop != null && (containsToken(segment, "break") || containsToken(segment, "continue"));
+  }
+
+  /**
+   * @return End of statement starting at given position
+   */
+  private int skipStatement(int i, int end) throws UnsupportedStructureException {
+    i = skipWhitespace(i);
+    if (i >= end) {
+      throw new UnsupportedStructureException("missing statement");
+    }
+    if (code.charAt(i) == '{') {
+      return skipGroup(i);
+    }
+
+    for (String keyword: new String[] { "while", "for", "switch" }) {
+      if (isToken(i, keyword)) {
+        int p = skipGroup(skipWhitespace(i + keyword.length()));
+        return keyword.equals("switch")?skipGroup(skipWhitespace(p)):skipStatement(p, end);
+      }
+    }
+    if (isToken(i, "if")) {
+      int p = skipStatement(skipGroup(skipWhitespace(i + 2)), end);
+      int q = skipWhitespace(p);
+      if (q < end && isToken(q, "else")) {
+        return skipStatement(q + 4, end);
+      }
+      return p;
+    }
+    if (isToken(i, "do")) {
+      int p = skipWhitespace(skipStatement(i + 2, end));
+      if (!isToken(p, "while")) {
+        throw new UnsupportedStructureException("malformed do-while");
+      }
+      return skipSemicolon(skipGroup(skipWhitespace(p + 5)));
+    }
+    if (isToken(i, "try")) {
+      int p = skipGroup(skipWhitespace(i + 3));
+      while (true) {
+        int q = skipWhitespace(p);
+        if (isToken(q, "catch")) {
+          p = skipGroup(skipWhitespace(skipGroup(skipWhitespace(q + 5))));
+        } else if (isToken(q, "finally")) {
+          p = skipGroup(skipWhitespace(q + 7));
+        } else {
+          return p;
+        }
+      }
+    }
+
+    /* Simple statement: ends at semicolon */
+    while (i < end) {
+      char c = code.charAt(i);
+      if (c == ';') {
+        return i + 1;
+      } else if (c == '"' || c == '\'') {
+        i = skipString(i);
+      } else if (c == '(' || c == '[' || c == '{') {
+        i = skipGroup(i);
+      } else {
+        i++;
+      }
+    }
+    return end;
+  }
+
+  private int skipGroup(int i) throws UnsupportedStructureException {
+    if (i >= code.length()) {
+      throw new UnsupportedStructureException("unexpected end of script");
+    }
+    char open = code.charAt(i);
+    char close;
+    if (open == '(') {
+      close = ')';
+    } else if (open == '[') {
+      close = ']';
+    } else if (open == '{') {
+      close = '}';
+    } else {
+      throw new UnsupportedStructureException("expected bracket at: " + excerpt(i));
+    }
+
+    int start = i;
+    i++;
+    while (i < code.length()) {
+      char c = code.charAt(i);
+      if (c == close) {
+        return i + 1;
+      } else if (c == '"' || c == '\'') {
+        i = skipString(i);
+      } else if (c == '/' && isRegexStart(start + 1, i)) {
+        i = skipRegex(i);
+      } else if (c == '(' || c == '[' || c == '{') {
+        i = skipGroup(i);
+      } else if (c == ')' || c == ']' || c == '}') {
+        throw new UnsupportedStructureException("unbalanced brackets at: " + excerpt(i));
+      } else {
+        i++;
+      }
+    }
+    throw new UnsupportedStructureException("unbalanced brackets at: " + excerpt(start));
+  }
+
+  private int skipString(int i) throws UnsupportedStructureException {
+    char quote = code.charAt(i);
+    for (int p = i + 1; p < code.length(); p++) {
+      char c = code.charAt(p);
+      if (c == '\\') {
+        p++;
+      } else if (c == quote) {
+        return p + 1;
+      } else if (c == '\n') {
+        break;
+      }
+    }
+    throw new UnsupportedStructureException("unterminated string at: " + excerpt(i));
+  }
+
+  private int skipRegex(int i) throws UnsupportedStructureException {
+    boolean inClass = false;
+    for (int p = i + 1; p < code.length(); p++) {
+      char c = code.charAt(p);
+      if (c == '\\') {
+        p++;
+      } else if (c == '[') {
+        inClass = true;
+      } else if (c == ']') {
+        inClass = false;
+      } else if (c == '/' && !inClass) {
+        return p + 1;
+      } else if (c == '\n') {
+        break;
+      }
+    }
+    throw new UnsupportedStructureException("unterminated regular expression at: " + excerpt(i));
+  }
+
+  private int skipWhitespace(int i) {
+    while (i < code.length() && Character.isWhitespace(code.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private int skipSemicolon(int i) {
+    int p = skipWhitespace(i);
+    if (p < code.length() && code.charAt(p) == ';') {
+      return p + 1;
+    }
+    return i;
+  }
+
+  /**
+   * @return Last non-whitespace character before given position, or 0
+   */
+  private char previousChar(int start, int i) {
+    for (int p = i - 1; p >= start; p--) {
+      if (!Character.isWhitespace(code.charAt(p))) {
+        return code.charAt(p);
+      }
+    }
+    return 0;
+  }
+
+  private boolean isRegexStart(int start, int i) {
+    if (i + 1 < code.length() && (code.charAt(i+1) == '/' || code.charAt(i+1) == '*')) {
+      return false;
+    }
+    char prev = previousChar(start, i);
+    return prev == 0 || "(,=:[!&|?{};+-*%<>~^".indexOf(prev) >= 0;
+  }
+
+  private boolean isBlockStart(int start, int i) {
+    char prev = previousChar(start, i);
+    return prev == 0 || prev == ';' || prev == '{' || prev == '}';
+  }
+
+  private boolean isTokenStart(int i) {
+    if (i == 0) {
+      return true;
+    }
+    char prev = code.charAt(i - 1);
+    return !isIdentifierPart(prev) && prev != '.';
+  }
+
+  private boolean isToken(int i, String token) {
+    if (!code.startsWith(token, i) || !isTokenStart(i)) {
+      return false;
+    }
+    int end = i + token.length();
+    return end >= code.length() || !isIdentifierPart(code.charAt(end));
+  }
+
+  private static boolean containsToken(String segment, String token) {
+    int i = segment.indexOf(token);
+    while (i >= 0) {
+      int end = i + token.length();
+      if ((i == 0 || !isIdentifierPart(segment.charAt(i - 1))) &&
+          (end >= segment.length() || !isIdentifierPart(segment.charAt(end)))) {
+        return true;
+      }
+      i = segment.indexOf(token, i + 1);
+    }
+    return false;
+  }
+
+  private static boolean isIdentifierStart(char c) {
+    return Character.isJavaIdentifierStart(c);
+  }
+
+  private static boolean isIdentifierPart(char c) {
+    return Character.isJavaIdentifierPart(c);
+  }
+
+  private String excerpt(int i) {
+    return code.substring(i, Math.min(code.length(), i + 40)).replace('\n', ' ');
+  }
+}
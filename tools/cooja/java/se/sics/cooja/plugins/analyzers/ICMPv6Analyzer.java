@@ -45,6 +45,9 @@ public class ICMPv6Analyzer extends PacketAnalyzer {
         int code = packet.get(1) & 0xff;
 //        int checksum = ((packet.get(2) & 0xff) << 8) | packet.get(3) & 0xff;
 
+        packet.setField("icmpv6.type", type);
+        packet.setField("icmpv6.code", code);
+
         brief.append("ICMPv6 ");
         if (type >= 128 && (type - 128) < TYPE_NAME.length) {
             brief.append(TYPE_NAME[type - 128]).append(' ').append(code);
@@ -69,6 +72,12 @@ public class ICMPv6Analyzer extends PacketAnalyzer {
                 int mop = (packet.get(8) >> 3) & 0x07;
                 int dtsn = packet.get(9);
                 
+                packet.setField("rpl.instance", instanceID);
+                packet.setField("rpl.version", version);
+                packet.setField("rpl.rank", rank);
+                packet.setField("rpl.mop", mop);
+                packet.setField("rpl.dtsn", dtsn);
+
                 verbose.append(" InstanceID: " + instanceID + " Version: " + version +
                         " Rank:" + rank + " MOP: " + mop + " DTSN: " + dtsn);
                 packet.consumeBytesStart(8);
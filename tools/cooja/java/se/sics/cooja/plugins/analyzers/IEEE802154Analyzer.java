@@ -1,7 +1,5 @@
 package se.sics.cooja.plugins.analyzers;
 
-import java.io.IOException;
-
 import se.sics.cooja.util.StringUtils;
 
 public class IEEE802154Analyzer extends PacketAnalyzer {
@@ -21,21 +19,12 @@ public class IEEE802154Analyzer extends PacketAnalyzer {
 
     private static final String[] typeS = {"-", "D", "A"};
     private static final String[] typeVerbose = {"BEACON", "DATA", "ACK"};
-    private PcapExporter pcapExporter;
 
 //    private int defaultAddressMode = LONG_ADDRESS;
 //    private byte seqNo = 0;
 
 //    private int myPanID = 0xabcd;
 
-    public IEEE802154Analyzer(boolean pcap) {
-        if (pcap) try {
-            pcapExporter = new PcapExporter();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
     public boolean matchPacket(Packet packet) {
         return packet.level == MAC_LEVEL;
     }
@@ -48,16 +37,6 @@ public class IEEE802154Analyzer extends PacketAnalyzer {
      * next handler
      */
     public int analyzePacket(Packet packet, StringBuffer brief, StringBuffer verbose) {
-        
-        if (pcapExporter != null) {
-            try {
-                pcapExporter.exportPacketData(packet.getPayload());
-            } catch (IOException e) {
-                System.err.println("Could not export PCap data");
-                e.printStackTrace();
-            }
-        }
-
         int pos = packet.pos;
         int type = packet.data[pos + 0] & 7;
 //      boolean security    = (packet.data[pos + 0] & 0x04 ) != 0;
@@ -116,6 +95,11 @@ public class IEEE802154Analyzer extends PacketAnalyzer {
 
 //        int payloadLen = packet.data.length - pos;
 
+        packet.setField("mac.type", type < typeVerbose.length ? typeVerbose[type] : Integer.toString(type));
+        packet.setField("mac.seqno", seqNumber);
+        packet.setField("mac.ack_required", ackRequired);
+        packet.setField("mac.pending", pending);
+
         brief.append("15.4");
 
  //     brief.append(intraPan    ? "I":"-");
@@ -130,6 +114,15 @@ public class IEEE802154Analyzer extends PacketAnalyzer {
         .append(type < typeVerbose.length ? typeVerbose[type] : "?")
         .append(' ').append(seqNumber);
         if (type != ACKFRAME) {
+            packet.setField("mac.src_pan", srcPanID);
+            packet.setField("mac.dst_pan", destPanID);
+            StringBuffer address = new StringBuffer();
+            printAddress(address, srcAddrMode, sourceAddress);
+            packet.setField("mac.src", address.toString());
+            address.setLength(0);
+            printAddress(address, destAddrMode, destAddress);
+            packet.setField("mac.dst", address.toString());
+
             printAddress(brief, srcAddrMode, sourceAddress);
             brief.append(' ');
             printAddress(brief, destAddrMode, destAddress);
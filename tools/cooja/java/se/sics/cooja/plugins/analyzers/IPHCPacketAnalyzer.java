@@ -387,7 +387,23 @@ public class IPHCPacketAnalyzer extends PacketAnalyzer {
             error = " error during IPHC parsing: " + e.getMessage();
         }
         packet.pos += hc06_ptr;
-        
+
+        packet.setField("ipv6.proto", proto);
+        packet.setField("ipv6.ttl", ttl);
+        StringBuffer address = new StringBuffer();
+        printAddress(address, srcAddress);
+        packet.setField("ipv6.src", address.toString());
+        address.setLength(0);
+        printAddress(address, destAddress);
+        packet.setField("ipv6.dst", address.toString());
+        if (proto == PROTO_UDP) {
+            packet.setField("udp.src_port", srcPort);
+            packet.setField("udp.dst_port", destPort);
+        }
+        if (error != null) {
+            packet.setField("ipv6.error", error.trim());
+        }
+
         String protoStr = "" + proto;
         if (proto == PROTO_ICMP) {
             protoStr = "ICMPv6";
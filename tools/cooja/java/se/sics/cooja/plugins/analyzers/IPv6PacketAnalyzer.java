@@ -54,6 +54,15 @@ public class IPv6PacketAnalyzer extends PacketAnalyzer {
         
         /* consume dispatch + IP header */
         packet.pos += 41;
+
+        packet.setField("ipv6.proto", proto);
+        packet.setField("ipv6.ttl", ttl);
+        StringBuffer address = new StringBuffer();
+        printAddress(address, srcAddress);
+        packet.setField("ipv6.src", address.toString());
+        address.setLength(0);
+        printAddress(address, destAddress);
+        packet.setField("ipv6.dst", address.toString());
         
         verbose.append("<br><b>IPv6 ").append(protoStr).append("</b> TC = " + trafficClass +
                 " FL: " + flowLabel + "<br>");
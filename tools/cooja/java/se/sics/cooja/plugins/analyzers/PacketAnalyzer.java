@@ -1,5 +1,9 @@
 package se.sics.cooja.plugins.analyzers;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public abstract class PacketAnalyzer {
 
     public static final int ANALYSIS_FAILED = -1;
@@ -23,6 +27,9 @@ public abstract class PacketAnalyzer {
         byte[] llreceiver;
 
         byte lastDispatch = 0;
+
+        /* Decoded header fields, in protocol order */
+        LinkedHashMap<String,Object> fields = null;
         
         public Packet(byte[] data, int level) {
             this.level = level;
@@ -81,6 +88,27 @@ public abstract class PacketAnalyzer {
         public byte[] getLLReceiver() {
             return llreceiver;
         }
+
+        /**
+         * Records a decoded header field. Analyzers use names prefixed with
+         * the protocol, such as "mac.seqno" or "ipv6.src".
+         */
+        public void setField(String name, Object value) {
+            if (fields == null) {
+                fields = new LinkedHashMap<String,Object>();
+            }
+            fields.put(name, value);
+        }
+
+        /**
+         * @return Header fields decoded so far
+         */
+        public Map<String,Object> getFields() {
+            if (fields == null) {
+                return Collections.emptyMap();
+            }
+            return fields;
+        }
     };
     
     public abstract boolean matchPacket(Packet packet);
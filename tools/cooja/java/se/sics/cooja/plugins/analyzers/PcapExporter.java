@@ -1,24 +1,209 @@
 package se.sics.cooja.plugins.analyzers;
 
+import java.awt.EventQueue;
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
 
+import org.apache.log4j.Logger;
+
+import se.sics.cooja.util.SPSCQueue;
+
+/**
+ * Streaming pcap exporter.
+ *
+ * Packets are handed over to a background writer thread through a bounded
+ * lock-free queue, so the exporting thread (normally the simulation thread)
+ * never waits for disk I/O. If the writer cannot keep up and the queue is
+ * full, packets are dropped and reported in the log.
+ *
+ * The writer rotates to a new file when the current file exceeds a maximum
+ * size, or when it covers more than a maximum simulated time span.
+ */
 public class PcapExporter {
+    private static Logger logger = Logger.getLogger(PcapExporter.class);
 
     private static final byte[] ETH_DATA = {(byte)0xaf, (byte)0xab, (byte)0xac, (byte)0xad,
         (byte)0xae, (byte)0xaf, 0x42, (byte)0xfb, (byte)0x9f, (byte)0x81, 0x5a,
         (byte)0x81, (byte)0x80, (byte)0x9a};
 
-    DataOutputStream out;
-    
-    public PcapExporter() throws IOException {
+    private static final int FILE_HEADER_SIZE = 24;
+    private static final int PACKET_HEADER_SIZE = 16;
+
+    private static final int QUEUE_SIZE = 8192;
+    private static final int BUFFER_SIZE = 64*1024;
+    private static final long IDLE_WAIT = 100*1000*1000; /* ns */
+
+    private static class PcapPacket {
+        final long time;
+        final byte[] data;
+        PcapPacket(long time, byte[] data) {
+            this.time = time;
+            this.data = data;
+        }
+    }
+
+    private final SPSCQueue<PcapPacket> queue = new SPSCQueue<PcapPacket>(QUEUE_SIZE);
+    private final String baseName;
+    private long maxFileSize = 0;
+    private long maxFileTime = 0;
+
+    private final Thread writerThread;
+    private volatile boolean writerWaiting = false;
+    private volatile boolean closed = false;
+    private volatile boolean failed = false;
+    private volatile int dropped = 0; /* Only incremented by exporting thread */
+
+    /* Writer thread state */
+    private DataOutputStream out = null;
+    private File file = null;
+    private int fileNumber = 0;
+    private long fileSize = 0;
+    private long fileStartTime = 0;
+    private int reportedDropped = 0;
+
+    public PcapExporter() {
+        this("radiolog-" + System.currentTimeMillis());
+    }
+
+    /**
+     * @param baseName File name prefix. Files are named baseName.pcap,
+     *                 baseName-1.pcap, baseName-2.pcap, ...
+     */
+    public PcapExporter(String baseName) {
+        this.baseName = baseName;
+        writerThread = new Thread(new Runnable() {
+            public void run() {
+                writePackets();
+            }
+        }, "pcap writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Configures file rotation. Must be called before the first packet is
+     * exported.
+     *
+     * @param maxFileSize Max file size (bytes), or 0 for no limit
+     * @param maxFileTime Max simulated time per file (us), or 0 for no limit
+     */
+    public void setRotation(long maxFileSize, long maxFileTime) {
+        this.maxFileSize = maxFileSize;
+        this.maxFileTime = maxFileTime;
+    }
+
+    /**
+     * Queues packet for export. Never blocks.
+     *
+     * Must always be called from the same thread.
+     *
+     * @param time Simulated time (us)
+     * @param data Packet data
+     * @return True if packet was queued, false if it was dropped
+     */
+    public boolean exportPacketData(long time, byte[] data) {
+        if (closed || failed) {
+            return false;
+        }
+        if (!queue.offer(new PcapPacket(time, data))) {
+            dropped++;
+            return false;
+        }
+        if (closed) {
+            /* Closed concurrently: writer may have stopped before this packet */
+            return false;
+        }
+        if (writerWaiting) {
+            LockSupport.unpark(writerThread);
+        }
+        return true;
     }
-    
-    public void openPcap() throws IOException {
-        out = new DataOutputStream(new FileOutputStream("radiolog-" + System.currentTimeMillis() + ".pcap"));
+
+    /**
+     * Stops exporting. All queued packets are written before the current file
+     * is closed.
+     *
+     * Waits for the writer to finish, unless called from the event dispatch
+     * thread.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writerThread);
+        if (EventQueue.isDispatchThread()) {
+            return;
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+        }
+    }
+
+    private void writePackets() {
+        try {
+            while (true) {
+                PcapPacket packet = queue.poll();
+                if (packet != null) {
+                    writePacket(packet);
+                    continue;
+                }
+
+                /* Queue is empty: make written data visible and wait */
+                if (out != null) {
+                    out.flush();
+                }
+                if (dropped != reportedDropped) {
+                    logger.warn("pcap writer too slow, dropped " + (dropped - reportedDropped) + " packets");
+                    reportedDropped = dropped;
+                }
+                if (closed) {
+                    if (queue.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                writerWaiting = true;
+                if (queue.isEmpty() && !closed) {
+                    LockSupport.parkNanos(IDLE_WAIT);
+                }
+                writerWaiting = false;
+            }
+        } catch (IOException e) {
+            logger.error("Error when writing pcap file " + file + ": " + e.getMessage());
+            failed = true;
+        } finally {
+            closeFile();
+        }
+    }
+
+    private void writePacket(PcapPacket packet) throws IOException {
+        int length = packet.data.length + ETH_DATA.length;
+        if (out == null) {
+            openFile(packet.time);
+        } else if ((maxFileSize > 0 && fileSize + PACKET_HEADER_SIZE + length > maxFileSize) ||
+                (maxFileTime > 0 && packet.time - fileStartTime >= maxFileTime)) {
+            closeFile();
+            openFile(packet.time);
+        }
+
+        /* pcap packet header */
+        out.writeInt((int) (packet.time / 1000000));
+        out.writeInt((int) (packet.time % 1000000));
+        out.writeInt(length);
+        out.writeInt(length);
+        out.write(ETH_DATA);
+        /* and the data */
+        out.write(packet.data);
+        fileSize += PACKET_HEADER_SIZE + length;
+    }
+
+    private void openFile(long time) throws IOException {
+        file = new File(baseName + (fileNumber > 0 ? "-" + fileNumber : "") + ".pcap");
+        fileNumber++;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
         /* pcap header */
         out.writeInt(0xa1b2c3d4);
         out.writeShort(0x0002);
@@ -27,32 +212,20 @@ public class PcapExporter {
         out.writeInt(0);
         out.writeInt(4096);
         out.writeInt(1); /* 1 for ethernet ? */
-        out.flush();
-        System.out.println("Opened pcap file!");
-    }
-    public void closePcap() throws IOException {
-        out.close();
+        fileSize = FILE_HEADER_SIZE;
+        fileStartTime = time;
+        logger.info("Opened pcap file: " + file);
     }
 
-    public void exportPacketData(byte[] data) throws IOException {
+    private void closeFile() {
         if (out == null) {
-            openPcap();
+            return;
         }
         try {
-            /* pcap packet header */
-            out.writeInt((int) System.currentTimeMillis() / 1000);
-            out.writeInt((int) ((System.currentTimeMillis() % 1000) * 1000));
-            out.writeInt(data.length + 14);
-            out.writeInt(data.length + 14);
-            out.write(ETH_DATA);
-            /* and the data */
-            out.write(data);
-            out.flush();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-    
-    
-    
+            out.close();
+        } catch (IOException e) {
+            logger.error("Error when closing pcap file " + file + ": " + e.getMessage());
+        }
+        out = null;
+    }
 }
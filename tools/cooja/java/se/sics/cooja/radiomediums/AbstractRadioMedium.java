@@ -31,17 +31,22 @@
 
 package se.sics.cooja.radiomediums;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Observable;
 import java.util.Observer;
 
 import org.apache.log4j.Logger;
 
+import se.sics.cooja.Checkpointable;
 import se.sics.cooja.Mote;
 import se.sics.cooja.RadioConnection;
 import se.sics.cooja.RadioMedium;
 import se.sics.cooja.RadioPacket;
 import se.sics.cooja.Simulation;
+import se.sics.cooja.SimulationCheckpoint;
 import se.sics.cooja.TimeEvent;
 import se.sics.cooja.interfaces.CustomDataRadio;
 import se.sics.cooja.interfaces.Radio;
@@ -61,7 +66,7 @@ import se.sics.cooja.interfaces.Radio;
  *
  * @author Fredrik Osterlind
  */
-public abstract class AbstractRadioMedium extends RadioMedium {
+public abstract class AbstractRadioMedium extends RadioMedium implements Checkpointable {
   private final static boolean DEBUG = false;
   private static Logger logger = Logger.getLogger(AbstractRadioMedium.class);
 
@@ -283,14 +288,7 @@ public abstract class AbstractRadioMedium extends RadioMedium {
           } else {
             /* EXPERIMENTAL: Simulating propagation delay */
             if (DEBUG) logger.debug("delayedRadio.signalReceptionStart");
-            final Radio delayedRadio = r;
-            TimeEvent delayedEvent = new TimeEvent(0) {
-              public void execute(long t) {
-                delayedRadio.signalReceptionStart();
-              }
-            };
-            simulation.scheduleEvent(
-                delayedEvent,
+            scheduleDelayedDelivery(r, Radio.RadioEvent.RECEPTION_STARTED, null, (byte) 0,
                 simulation.getSimulationTime() + newConnection.getDestinationDelay(r));
 
           }
@@ -322,14 +320,7 @@ public abstract class AbstractRadioMedium extends RadioMedium {
           } else {
 
             /* EXPERIMENTAL: Simulating propagation delay */
-            final Radio delayedRadio = dstRadio;
-            TimeEvent delayedEvent = new TimeEvent(0) {
-              public void execute(long t) {
-                delayedRadio.signalReceptionEnd();
-              }
-            };
-            simulation.scheduleEvent(
-                delayedEvent,
+            scheduleDelayedDelivery(dstRadio, Radio.RadioEvent.RECEPTION_FINISHED, null, (byte) 0,
                 simulation.getSimulationTime() + connection.getDestinationDelay(dstRadio));
           }
         }
@@ -366,15 +357,7 @@ public abstract class AbstractRadioMedium extends RadioMedium {
             ((CustomDataRadio) dstRadio).receiveCustomData(data);
           } else {
             /* EXPERIMENTAL: Simulating propagation delay */
-            final CustomDataRadio delayedRadio = (CustomDataRadio) dstRadio;
-            final byte delayedData = data;
-            TimeEvent delayedEvent = new TimeEvent(0) {
-              public void execute(long t) {
-                delayedRadio.receiveCustomData(delayedData);
-              }
-            };
-            simulation.scheduleEvent(
-                delayedEvent,
+            scheduleDelayedDelivery(dstRadio, Radio.RadioEvent.CUSTOM_DATA_TRANSMITTED, null, data,
                 simulation.getSimulationTime() + connection.getDestinationDelay(dstRadio));
 
           }
@@ -410,15 +393,7 @@ public abstract class AbstractRadioMedium extends RadioMedium {
             } else {
 
               /* EXPERIMENTAL: Simulating propagation delay */
-              final Radio delayedRadio = dstRadio;
-              final RadioPacket delayedPacket = packet;
-              TimeEvent delayedEvent = new TimeEvent(0) {
-                public void execute(long t) {
-                  delayedRadio.setReceivedPacket(delayedPacket);
-                }
-              };
-              simulation.scheduleEvent(
-                delayedEvent,
+              scheduleDelayedDelivery(dstRadio, Radio.RadioEvent.PACKET_TRANSMITTED, packet, (byte) 0,
                 simulation.getSimulationTime() + connection.getDestinationDelay(dstRadio));
               }
 
@@ -430,6 +405,82 @@ public abstract class AbstractRadioMedium extends RadioMedium {
     }
   };
 
+  /**
+   * Delayed delivery to a destination radio, used when simulating propagation delays.
+   * Executed events are kept for reuse.
+   */
+  private class DelayedDelivery extends TimeEvent {
+    private Radio radio;
+    private Radio.RadioEvent type;
+    private RadioPacket packet;
+    private byte data;
+
+    public DelayedDelivery() {
+      super(0);
+    }
+
+    public void execute(long t) {
+      Radio radio = this.radio;
+      Radio.RadioEvent type = this.type;
+      RadioPacket packet = this.packet;
+      byte data = this.data;
+      this.radio = null;
+      this.packet = null;
+      freeDelayedDeliveries.add(this);
+      pendingDelayedDeliveries--;
+
+      if (type == Radio.RadioEvent.RECEPTION_STARTED) {
+        radio.signalReceptionStart();
+      } else if (type == Radio.RadioEvent.RECEPTION_FINISHED) {
+        radio.signalReceptionEnd();
+      } else if (type == Radio.RadioEvent.CUSTOM_DATA_TRANSMITTED) {
+        ((CustomDataRadio) radio).receiveCustomData(data);
+      } else if (type == Radio.RadioEvent.PACKET_TRANSMITTED) {
+        radio.setReceivedPacket(packet);
+      }
+    }
+  }
+  private ArrayList<DelayedDelivery> freeDelayedDeliveries = new ArrayList<DelayedDelivery>();
+  private int pendingDelayedDeliveries = 0;
+
+  private void scheduleDelayedDelivery(Radio radio, Radio.RadioEvent type, RadioPacket packet, byte data, long time) {
+    DelayedDelivery delivery;
+    if (freeDelayedDeliveries.isEmpty()) {
+      delivery = new DelayedDelivery();
+    } else {
+      delivery = freeDelayedDeliveries.remove(freeDelayedDeliveries.size()-1);
+    }
+    delivery.radio = radio;
+    delivery.type = type;
+    delivery.packet = packet;
+    delivery.data = data;
+    simulation.scheduleEvent(delivery, time);
+    pendingDelayedDeliveries++;
+  }
+
+  /**
+   * Saves the radio medium state. Checkpoints can only be saved when no
+   * transmissions are in progress.
+   */
+  public void saveCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    if (!activeConnections.isEmpty() || pendingDelayedDeliveries > 0) {
+      throw new IOException("Radio transmissions in progress");
+    }
+    DataOutputStream out = checkpoint.getOutput();
+    out.writeInt(COUNTER_TX);
+    out.writeInt(COUNTER_RX);
+    out.writeInt(COUNTER_INTERFERED);
+  }
+
+  public void restoreCheckpoint(SimulationCheckpoint checkpoint) throws IOException {
+    DataInputStream in = checkpoint.getInput();
+    activeConnections.clear();
+    pendingDelayedDeliveries = 0;
+    COUNTER_TX = in.readInt();
+    COUNTER_RX = in.readInt();
+    COUNTER_INTERFERED = in.readInt();
+  }
+
   public void registerMote(Mote mote, Simulation sim) {
     registerRadioInterface(mote.getInterfaces().getRadio(), sim);
   }
@@ -33,6 +33,9 @@ package se.sics.cooja.radiomediums;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Random;
@@ -88,61 +91,36 @@ public class UDGM extends AbstractRadioMedium {
   public double TRANSMITTING_RANGE = 50; /* Transmission range. */
   public double INTERFERENCE_RANGE = 100; /* Interference range. Ignored if below transmission range. */
 
-  private DirectedGraphMedium dgrm; /* Used only for efficient destination lookup */
+  /* Used for efficient destination lookup */
+  private DestinationIndex destinationIndex = new DestinationIndex();
 
   private Random random = null;
 
   public UDGM(Simulation simulation) {
     super(simulation);
     random = simulation.getRandomGenerator();
-    dgrm = new DirectedGraphMedium() {
-      protected void analyzeEdges() {
-        /* Create edges according to distances.
-         * XXX May be slow for mobile networks */
-        clearEdges();
-        for (Radio source: UDGM.this.getRegisteredRadios()) {
-          Position sourcePos = source.getPosition();
-          for (Radio dest: UDGM.this.getRegisteredRadios()) {
-            Position destPos = dest.getPosition();
-            /* Ignore ourselves */
-            if (source == dest) {
-              continue;
-            }
-            double distance = sourcePos.getDistanceTo(destPos);
-            if (distance < Math.max(TRANSMITTING_RANGE, INTERFERENCE_RANGE)) {
-              /* Add potential destination */
-              addEdge(
-                  new DirectedGraphMedium.Edge(source, 
-                      new DestinationRadio(dest)));
-            }
-          }
-        }
-        super.analyzeEdges();
-      }
-    };
 
     /* Register as position observer.
-     * If any positions change, re-analyze potential receivers. */
+     * If a position changes, re-analyze potential receivers near that mote. */
     final Observer positionObserver = new Observer() {
       public void update(Observable o, Object arg) {
-        dgrm.requestEdgeAnalysis();
+        Radio radio = ((Mote) arg).getInterfaces().getRadio();
+        if (radio != null) {
+          destinationIndex.moveRadio(radio);
+        }
       }
     };
-    /* Re-analyze potential receivers if radios are added/removed. */
     simulation.getEventCentral().addMoteCountListener(new MoteCountListener() {
       public void moteWasAdded(Mote mote) {
         mote.getInterfaces().getPosition().addObserver(positionObserver);
-        dgrm.requestEdgeAnalysis();
       }
       public void moteWasRemoved(Mote mote) {
         mote.getInterfaces().getPosition().deleteObserver(positionObserver);
-        dgrm.requestEdgeAnalysis();
       }
     });
     for (Mote mote: simulation.getMotes()) {
       mote.getInterfaces().getPosition().addObserver(positionObserver);
     }
-    dgrm.requestEdgeAnalysis();
 
     /* Register visualizer skin */
     Visualizer.registerVisualizerSkin(UDGMVisualizerSkin.class);
@@ -156,12 +134,34 @@ public class UDGM extends AbstractRadioMedium {
   
   public void setTxRange(double r) {
     TRANSMITTING_RANGE = r;
-    dgrm.requestEdgeAnalysis();
+    destinationIndex.requestRebuild();
   }
 
   public void setInterferenceRange(double r) {
     INTERFERENCE_RANGE = r;
-    dgrm.requestEdgeAnalysis();
+    destinationIndex.requestRebuild();
+  }
+
+  public void registerRadioInterface(Radio radio, Simulation sim) {
+    super.registerRadioInterface(radio, sim);
+    destinationIndex.addRadio(radio);
+  }
+
+  public void unregisterRadioInterface(Radio radio, Simulation sim) {
+    super.unregisterRadioInterface(radio, sim);
+    destinationIndex.removeRadio(radio);
+  }
+
+  /**
+   * Returns all potential destination radios, i.e. all radios within
+   * transmission or interference range of the source radio at maximum
+   * output power. Destinations are ordered by radio registration.
+   *
+   * @param source Source radio
+   * @return Potential destination radios
+   */
+  public DestinationRadio[] getPotentialDestinations(Radio source) {
+    return destinationIndex.getDestinations(source);
   }
 
   public RadioConnection createConnections(Radio sender) {
@@ -179,7 +179,7 @@ public class UDGM extends AbstractRadioMedium {
     * ((double) sender.getCurrentOutputPowerIndicator() / (double) sender.getOutputPowerIndicatorMax());
 
     /* Get all potential destination radios */
-    DestinationRadio[] potentialDestinations = dgrm.getPotentialDestinations(sender);
+    DestinationRadio[] potentialDestinations = getPotentialDestinations(sender);
     if (potentialDestinations == null) {
       return newConnection;
     }
@@ -341,6 +341,193 @@ public class UDGM extends AbstractRadioMedium {
     }
   }
 
+  /**
+   * Uniform grid of registered radios, used to find potential destinations
+   * without comparing all radio pairs.
+   *
+   * The grid cell size equals the maximum of the transmission and
+   * interference ranges, so all potential destinations of a radio are found
+   * in its own and the eight surrounding cells. Destinations are computed per
+   * source radio on demand, and cached until a radio within range of the
+   * source is added, removed or moved.
+   */
+  private class DestinationIndex {
+    private HashMap<Radio, Entry> entries = new HashMap<Radio, Entry>();
+    private HashMap<Long, ArrayList<Entry>> cells = new HashMap<Long, ArrayList<Entry>>();
+
+    private double cellSize = -1;
+    private long registrationCounter = 0;
+
+    private class Entry {
+      final Radio radio;
+      final long order; /* Registration order */
+      long cell;
+      DestinationRadio[] destinations = null; /* null if not yet computed */
+
+      Entry(Radio radio, long order) {
+        this.radio = radio;
+        this.order = order;
+      }
+    }
+
+    private final Comparator<Entry> registrationOrder = new Comparator<Entry>() {
+      public int compare(Entry e1, Entry e2) {
+        return e1.order < e2.order ? -1 : (e1.order == e2.order ? 0 : 1);
+      }
+    };
+
+    private double getRange() {
+      return Math.max(TRANSMITTING_RANGE, INTERFERENCE_RANGE);
+    }
+
+    private long getCell(Position pos) {
+      if (cellSize <= 0) {
+        return 0;
+      }
+      long cx = (long) Math.floor(pos.getXCoordinate() / cellSize);
+      long cy = (long) Math.floor(pos.getYCoordinate() / cellSize);
+      return (cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private long getCell(long cx, long cy) {
+      return (cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private void addToCell(Entry entry) {
+      ArrayList<Entry> list = cells.get(entry.cell);
+      if (list == null) {
+        list = new ArrayList<Entry>();
+        cells.put(entry.cell, list);
+      }
+      list.add(entry);
+    }
+
+    private void removeFromCell(Entry entry) {
+      ArrayList<Entry> list = cells.get(entry.cell);
+      if (list == null) {
+        return;
+      }
+      list.remove(entry);
+      if (list.isEmpty()) {
+        cells.remove(entry.cell);
+      }
+    }
+
+    /* Forget cached destinations of all radios in and around given cell */
+    private void invalidateAround(long cell) {
+      long cx = cell >> 32;
+      long cy = (int) cell;
+      for (long x = cx-1; x <= cx+1; x++) {
+        for (long y = cy-1; y <= cy+1; y++) {
+          ArrayList<Entry> list = cells.get(getCell(x, y));
+          if (list == null) {
+            continue;
+          }
+          for (Entry e: list) {
+            e.destinations = null;
+          }
+        }
+      }
+    }
+
+    public void requestRebuild() {
+      cellSize = -1;
+    }
+
+    private void rebuildIfNeeded() {
+      double range = getRange();
+      if (cellSize == range) {
+        return;
+      }
+      cellSize = range;
+      cells.clear();
+      for (Entry entry: entries.values()) {
+        entry.cell = getCell(entry.radio.getPosition());
+        entry.destinations = null;
+        addToCell(entry);
+      }
+    }
+
+    public void addRadio(Radio radio) {
+      if (radio == null || entries.containsKey(radio)) {
+        return;
+      }
+      Entry entry = new Entry(radio, registrationCounter++);
+      entries.put(radio, entry);
+      if (cellSize < 0) {
+        /* Added on rebuild */
+        return;
+      }
+      entry.cell = getCell(radio.getPosition());
+      addToCell(entry);
+      invalidateAround(entry.cell);
+    }
+
+    public void removeRadio(Radio radio) {
+      Entry entry = entries.remove(radio);
+      if (entry == null || cellSize < 0) {
+        return;
+      }
+      removeFromCell(entry);
+      invalidateAround(entry.cell);
+    }
+
+    public void moveRadio(Radio radio) {
+      Entry entry = entries.get(radio);
+      if (entry == null || cellSize < 0) {
+        return;
+      }
+      invalidateAround(entry.cell);
+      removeFromCell(entry);
+      entry.cell = getCell(radio.getPosition());
+      addToCell(entry);
+      invalidateAround(entry.cell);
+    }
+
+    public DestinationRadio[] getDestinations(Radio source) {
+      rebuildIfNeeded();
+      Entry entry = entries.get(source);
+      if (entry == null) {
+        return null;
+      }
+      if (entry.destinations != null) {
+        return entry.destinations;
+      }
+
+      Position sourcePos = source.getPosition();
+      double range = getRange();
+      ArrayList<Entry> found = new ArrayList<Entry>();
+      long cx = entry.cell >> 32;
+      long cy = (int) entry.cell;
+      for (long x = cx-1; x <= cx+1; x++) {
+        for (long y = cy-1; y <= cy+1; y++) {
+          ArrayList<Entry> list = cells.get(getCell(x, y));
+          if (list == null) {
+            continue;
+          }
+          for (Entry dest: list) {
+            /* Ignore ourselves */
+            if (dest == entry) {
+              continue;
+            }
+            if (sourcePos.getDistanceTo(dest.radio.getPosition()) < range) {
+              found.add(dest);
+            }
+          }
+        }
+      }
+
+      /* Keep registration order: random reception failures depend on it */
+      Collections.sort(found, registrationOrder);
+      DestinationRadio[] destinations = new DestinationRadio[found.size()];
+      for (int i=0; i < destinations.length; i++) {
+        destinations[i] = new DestinationRadio(found.get(i).radio);
+      }
+      entry.destinations = destinations;
+      return destinations;
+    }
+  }
+
   public Collection<Element> getConfigXML() {
     ArrayList<Element> config = new ArrayList<Element>();
     Element element;
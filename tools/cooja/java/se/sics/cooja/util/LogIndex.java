@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2013, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+
+package se.sics.cooja.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Incrementally maintained index of log entries, by mote and by message token.
+ *
+ * Tokens are maximal sequences of letters and underscores. Digits are not
+ * indexed, since numbers (counters, addresses, timestamps) would otherwise
+ * quickly fill the vocabulary. Entries containing tokens that cannot be
+ * indexed (too long, or too many different tokens) are kept in a separate
+ * overflow list, and are always included in token lookups. Lookups hence
+ * always return a superset of the entries containing a given word character
+ * sequence, and the caller is expected to verify the returned entries.
+ *
+ * Entries must be added in increasing index order. The index is not
+ * thread-safe.
+ *
+ * @see LogStore
+ */
+public class LogIndex {
+  private static final int MAX_TOKEN_LENGTH = 32;
+  private static final int MAX_TOKENS = 100000;
+
+  /**
+   * Sorted list of entry indices, stored relative to the index base.
+   */
+  private static class Postings {
+    int[] entries = new int[4];
+    int first = 0;
+    int last = 0;
+
+    void add(int entry) {
+      if (last > first && entries[last-1] == entry) {
+        return;
+      }
+      if (last == entries.length) {
+        if (first < entries.length/2) {
+          entries = Arrays.copyOf(entries, 2*entries.length);
+        }
+        System.arraycopy(entries, first, entries, 0, last - first);
+        last -= first;
+        first = 0;
+      }
+      entries[last++] = entry;
+    }
+
+    void removeBefore(int entry) {
+      while (first < last && entries[first] < entry) {
+        first++;
+      }
+    }
+
+    int size() {
+      return last - first;
+    }
+  }
+
+  private final long base;
+  private long firstIndex;
+  private long endIndex;
+  private boolean exhausted = false;
+  private long removedSinceCompact = 0;
+
+  private HashMap<Integer, Postings> motes = new HashMap<Integer, Postings>();
+  private HashMap<String, Postings> tokens = new HashMap<String, Postings>();
+  private Postings overflow = new Postings();
+
+  /**
+   * @param firstIndex Index of first entry
+   */
+  public LogIndex(long firstIndex) {
+    this.base = firstIndex;
+    this.firstIndex = firstIndex;
+    this.endIndex = firstIndex;
+  }
+
+  /**
+   * @return True if the index is usable. The index is disabled if the entry
+   * indices can no longer be represented.
+   */
+  public boolean isUsable() {
+    return !exhausted;
+  }
+
+  /**
+   * @return Index of next entry to add
+   */
+  public long getEndIndex() {
+    return endIndex;
+  }
+
+  /**
+   * Adds new entry to index.
+   *
+   * @param index Entry index, must be larger than all previously added indices
+   * @param moteID Mote ID
+   * @param msg Log message
+   */
+  public void add(long index, int moteID, String msg) {
+    endIndex = index + 1;
+    if (exhausted) {
+      return;
+    }
+    if (index - base > Integer.MAX_VALUE) {
+      exhausted = true;
+      motes.clear();
+      tokens.clear();
+      overflow = new Postings();
+      return;
+    }
+    int entry = (int) (index - base);
+
+    Postings p = motes.get(moteID);
+    if (p == null) {
+      p = new Postings();
+      motes.put(moteID, p);
+    }
+    p.add(entry);
+
+    int length = msg.length();
+    int i = 0;
+    while (i < length) {
+      if (!isTokenChar(msg.charAt(i))) {
+        i++;
+        continue;
+      }
+      int start = i;
+      while (i < length && isTokenChar(msg.charAt(i))) {
+        i++;
+      }
+      if (i - start > MAX_TOKEN_LENGTH) {
+        overflow.add(entry);
+        continue;
+      }
+      String token = msg.substring(start, i);
+      p = tokens.get(token);
+      if (p == null) {
+        if (tokens.size() >= MAX_TOKENS) {
+          overflow.add(entry);
+          continue;
+        }
+        p = new Postings();
+        tokens.put(token, p);
+      }
+      p.add(entry);
+    }
+  }
+
+  /**
+   * Removes all entries before given index.
+   *
+   * @param index Index of first remaining entry
+   */
+  public void removeBefore(long index) {
+    if (index <= firstIndex) {
+      return;
+    }
+    long removed = index - firstIndex;
+    firstIndex = index;
+    if (exhausted) {
+      return;
+    }
+
+    /* Compact when as many entries have been removed as remain */
+    removedSinceCompact += removed;
+    if (removedSinceCompact < endIndex - firstIndex) {
+      return;
+    }
+    removedSinceCompact = 0;
+    int entry = (int) (index - base);
+    compact(motes, entry);
+    compact(tokens, entry);
+    overflow.removeBefore(entry);
+  }
+
+  private static <K> void compact(HashMap<K, Postings> map, int entry) {
+    Iterator<Map.Entry<K, Postings>> it = map.entrySet().iterator();
+    while (it.hasNext()) {
+      Postings p = it.next().getValue();
+      p.removeBefore(entry);
+      if (p.size() == 0) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * @return IDs of motes with indexed entries
+   */
+  public Set<Integer> getMoteIDs() {
+    return motes.keySet();
+  }
+
+  /**
+   * @param moteID Mote ID
+   * @return Sorted indices of all entries from given mote
+   */
+  public long[] getMoteEntries(int moteID) {
+    return toIndices(motes.get(moteID));
+  }
+
+  /**
+   * Returns all entries with a word containing the given string.
+   * The string must only contain word characters.
+   *
+   * Each letter sequence in the string must be part of an indexed token, and
+   * the most selective sequence is used. Null is returned if the string has
+   * no letters, or if no sequence narrows down the entries.
+   *
+   * @param str String
+   * @return Sorted entry indices, a superset of all entries containing str,
+   * or null
+   */
+  public long[] getTokenEntries(String str) {
+    if (exhausted) {
+      return null;
+    }
+    long[] best = null;
+    int i = 0;
+    while (i < str.length()) {
+      if (!isTokenChar(str.charAt(i))) {
+        i++;
+        continue;
+      }
+      int start = i;
+      while (i < str.length() && isTokenChar(str.charAt(i))) {
+        i++;
+      }
+      long[] candidates = getTokenEntries(str.substring(start, i), best);
+      if (candidates != null) {
+        best = candidates;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * @param part Letter sequence
+   * @param best Current best candidates, or null
+   * @return Candidates if fewer than best and all entries, otherwise null
+   */
+  private long[] getTokenEntries(String part, long[] best) {
+    int entry = (int) (firstIndex - base);
+    long limit = endIndex - firstIndex;
+    if (best != null) {
+      limit = Math.min(limit, best.length);
+    }
+
+    /* Collect matching postings, give up as soon as they cannot be selective */
+    ArrayList<Postings> matching = new ArrayList<Postings>();
+    long total = 0;
+    overflow.removeBefore(entry);
+    if (overflow.size() > 0) {
+      matching.add(overflow);
+      total += overflow.size();
+    }
+    for (Map.Entry<String, Postings> e: tokens.entrySet()) {
+      if (total >= limit) {
+        return null;
+      }
+      if (e.getKey().contains(part)) {
+        Postings p = e.getValue();
+        p.removeBefore(entry);
+        if (p.size() > 0) {
+          matching.add(p);
+          total += p.size();
+        }
+      }
+    }
+    if (total >= limit) {
+      return null;
+    }
+    return merge(matching, (int) total);
+  }
+
+  /**
+   * Merges postings in a single pass.
+   *
+   * @param postings Postings
+   * @param total Total number of postings entries
+   * @return Sorted union, as entry indices
+   */
+  private long[] merge(final ArrayList<Postings> postings, int total) {
+    /* Heap of cursors, ordered by current entry: { postings, position } */
+    PriorityQueue<int[]> heap = new PriorityQueue<int[]>(
+        Math.max(1, postings.size()), new Comparator<int[]>() {
+      public int compare(int[] a, int[] b) {
+        int ea = postings.get(a[0]).entries[a[1]];
+        int eb = postings.get(b[0]).entries[b[1]];
+        return ea < eb ? -1 : (ea == eb ? 0 : 1);
+      }
+    });
+    for (int i=0; i < postings.size(); i++) {
+      heap.add(new int[] { i, postings.get(i).first });
+    }
+
+    long[] result = new long[total];
+    int n = 0;
+    int previous = -1;
+    while (!heap.isEmpty()) {
+      int[] cursor = heap.poll();
+      Postings p = postings.get(cursor[0]);
+      int e = p.entries[cursor[1]];
+      if (e != previous) {
+        result[n++] = base + e;
+        previous = e;
+      }
+      cursor[1]++;
+      if (cursor[1] < p.last) {
+        heap.add(cursor);
+      }
+    }
+    return n == result.length ? result : Arrays.copyOf(result, n);
+  }
+
+  private long[] toIndices(Postings p) {
+    if (p == null || exhausted) {
+      return new long[0];
+    }
+    int entry = (int) (firstIndex - base);
+    int start = p.first;
+    while (start < p.last && p.entries[start] < entry) {
+      start++;
+    }
+    long[] indices = new long[p.last - start];
+    for (int i=0; i < indices.length; i++) {
+      indices[i] = base + p.entries[start + i];
+    }
+    return indices;
+  }
+
+  /**
+   * @param a Sorted indices
+   * @param b Sorted indices
+   * @return Sorted union of a and b
+   */
+  public static long[] union(long[] a, long[] b) {
+    if (a.length == 0) {
+      return b;
+    }
+    if (b.length == 0) {
+      return a;
+    }
+    long[] result = new long[a.length + b.length];
+    int i = 0, j = 0, n = 0;
+    while (i < a.length || j < b.length) {
+      long v;
+      if (j >= b.length || (i < a.length && a[i] <= b[j])) {
+        v = a[i++];
+      } else {
+        v = b[j++];
+      }
+      if (n == 0 || result[n-1] != v) {
+        result[n++] = v;
+      }
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  /**
+   * @param c Character
+   * @return True if character is part of words
+   */
+  public static boolean isWordChar(char c) {
+    return isTokenChar(c) || (c >= '0' && c <= '9');
+  }
+
+  private static boolean isTokenChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+  }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2013, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+
+package se.sics.cooja.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Compact log output store.
+ *
+ * Log entries are stored as binary records (mote ID, time, UTF-8 message) in
+ * memory-mapped segment files, outside of the Java heap. Only a small offset
+ * index is kept on the heap. The store acts as a ring: when the maximum number
+ * of entries is exceeded, the oldest entries are removed, and segments that no
+ * longer contain any entries are released.
+ *
+ * Entries are addressed by a global index that increases with every added
+ * entry, and is never reused. Removed entries can no longer be read.
+ *
+ * Each entry may also have an owner object, such as the mote that produced
+ * it. Owners are kept on the heap until the entry's segment is released.
+ *
+ * The store is thread-safe: entries are normally added by the simulation
+ * thread, and read by plugins from the Swing thread.
+ *
+ * @see se.sics.cooja.SimEventCentral
+ */
+public class LogStore {
+  private static Logger logger = Logger.getLogger(LogStore.class);
+
+  private static final int DEFAULT_SEGMENT_SIZE = 8*1024*1024;
+  private static final int RECORD_HEADER_SIZE = 4 + 8 + 4; /* Mote ID, time, message length */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static boolean mappedFilesFailed = false;
+
+  private static class Segment {
+    final ByteBuffer buffer;
+    final File file;
+    final long firstIndex;
+    int[] offsets = new int[1024];
+    Object[] owners = new Object[1024];
+    int count = 0;
+
+    Segment(ByteBuffer buffer, File file, long firstIndex) {
+      this.buffer = buffer;
+      this.file = file;
+      this.firstIndex = firstIndex;
+    }
+    long getEndIndex() {
+      return firstIndex + count;
+    }
+    int getFreeBytes() {
+      return buffer.capacity() - buffer.position();
+    }
+    void release() {
+      if (file != null && file.exists()) {
+        file.delete();
+      }
+    }
+  }
+
+  private final int segmentSize;
+  private ArrayList<Segment> segments = new ArrayList<Segment>();
+  private int maxEntries;
+  private long firstIndex = 0;
+  private long endIndex = 0;
+
+  /**
+   * @param maxEntries Maximum number of stored entries
+   */
+  public LogStore(int maxEntries) {
+    this(maxEntries, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * @param maxEntries Maximum number of stored entries
+   * @param segmentSize Segment size (bytes)
+   */
+  public LogStore(int maxEntries, int segmentSize) {
+    if (segmentSize <= RECORD_HEADER_SIZE) {
+      throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+    }
+    this.maxEntries = maxEntries;
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * Adds a new log entry without owner.
+   * If the store is full, the oldest entry is removed.
+   *
+   * @param moteID Mote ID
+   * @param time Simulation time
+   * @param msg Log message
+   * @return Index of added entry
+   */
+  public long append(int moteID, long time, String msg) {
+    return append(null, moteID, time, msg);
+  }
+
+  /**
+   * Adds a new log entry.
+   * If the store is full, the oldest entry is removed.
+   *
+   * @param owner Entry owner, may be null
+   * @param moteID Mote ID
+   * @param time Simulation time
+   * @param msg Log message
+   * @return Index of added entry
+   */
+  public synchronized long append(Object owner, int moteID, long time, String msg) {
+    byte[] data = msg.getBytes(UTF8);
+    int length = Math.min(data.length, segmentSize - RECORD_HEADER_SIZE);
+
+    Segment segment = segments.isEmpty()?null:segments.get(segments.size()-1);
+    if (segment == null || segment.getFreeBytes() < RECORD_HEADER_SIZE + length) {
+      segment = createSegment(endIndex);
+      segments.add(segment);
+    }
+
+    if (segment.count == segment.offsets.length) {
+      int[] offsets = new int[2*segment.offsets.length];
+      System.arraycopy(segment.offsets, 0, offsets, 0, segment.count);
+      segment.offsets = offsets;
+      Object[] owners = new Object[offsets.length];
+      System.arraycopy(segment.owners, 0, owners, 0, segment.count);
+      segment.owners = owners;
+    }
+    ByteBuffer buffer = segment.buffer;
+    segment.owners[segment.count] = owner;
+    segment.offsets[segment.count++] = buffer.position();
+    buffer.putInt(moteID);
+    buffer.putLong(time);
+    buffer.putInt(length);
+    buffer.put(data, 0, length);
+
+    long index = endIndex++;
+    trim(maxEntries);
+    return index;
+  }
+
+  /**
+   * @return Index of oldest stored entry
+   */
+  public synchronized long getFirstIndex() {
+    return firstIndex;
+  }
+
+  /**
+   * @return Index of next added entry
+   */
+  public synchronized long getEndIndex() {
+    return endIndex;
+  }
+
+  /**
+   * @return Number of stored entries
+   */
+  public synchronized int size() {
+    return (int) (endIndex - firstIndex);
+  }
+
+  /**
+   * @param index Entry index
+   * @return True if entry is stored
+   */
+  public synchronized boolean contains(long index) {
+    return index >= firstIndex && index < endIndex;
+  }
+
+  /**
+   * @param index Entry index
+   * @return Mote ID, or -1 if entry is not stored
+   */
+  public synchronized int getMoteID(long index) {
+    Segment segment = getSegment(index);
+    if (segment == null) {
+      return -1;
+    }
+    return segment.buffer.getInt(segment.offsets[(int)(index - segment.firstIndex)]);
+  }
+
+  /**
+   * @param index Entry index
+   * @return Entry owner, or null if entry is not stored or has no owner
+   */
+  public synchronized Object getOwner(long index) {
+    Segment segment = getSegment(index);
+    if (segment == null) {
+      return null;
+    }
+    return segment.owners[(int)(index - segment.firstIndex)];
+  }
+
+  /**
+   * @param index Entry index
+   * @return Simulation time, or -1 if entry is not stored
+   */
+  public synchronized long getTime(long index) {
+    Segment segment = getSegment(index);
+    if (segment == null) {
+      return -1;
+    }
+    return segment.buffer.getLong(segment.offsets[(int)(index - segment.firstIndex)] + 4);
+  }
+
+  /**
+   * @param index Entry index
+   * @return Log message, or null if entry is not stored
+   */
+  public synchronized String getMessage(long index) {
+    Segment segment = getSegment(index);
+    if (segment == null) {
+      return null;
+    }
+    int offset = segment.offsets[(int)(index - segment.firstIndex)];
+    int length = segment.buffer.getInt(offset + 12);
+    byte[] data = new byte[length];
+    ByteBuffer buffer = segment.buffer.duplicate();
+    buffer.position(offset + RECORD_HEADER_SIZE);
+    buffer.get(data);
+    return new String(data, UTF8);
+  }
+
+  /**
+   * Removes the oldest entry.
+   */
+  public synchronized void removeFirst() {
+    if (firstIndex < endIndex) {
+      firstIndex++;
+      releaseSegments();
+    }
+  }
+
+  /**
+   * @return Maximum number of stored entries
+   */
+  public synchronized int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * Sets the maximum number of stored entries.
+   * Oldest entries are removed if the store contains too many entries.
+   *
+   * @param maxEntries Maximum number of stored entries
+   */
+  public synchronized void setMaxEntries(int maxEntries) {
+    this.maxEntries = maxEntries;
+    trim(maxEntries);
+  }
+
+  /**
+   * Removes all entries, and releases all segments.
+   */
+  public synchronized void clear() {
+    for (Segment segment: segments) {
+      segment.release();
+    }
+    segments.clear();
+    firstIndex = endIndex;
+  }
+
+  private void trim(int entries) {
+    if (endIndex - firstIndex > entries) {
+      firstIndex = endIndex - Math.max(entries, 0);
+      releaseSegments();
+    }
+  }
+
+  private void releaseSegments() {
+    /* Release all segments with only removed entries, except the current */
+    while (segments.size() > 1 && segments.get(0).getEndIndex() <= firstIndex) {
+      segments.remove(0).release();
+    }
+  }
+
+  private Segment getSegment(long index) {
+    if (index < firstIndex || index >= endIndex) {
+      return null;
+    }
+    /* Few segments: search backwards from the most recent */
+    for (int i=segments.size()-1; i >= 0; i--) {
+      Segment segment = segments.get(i);
+      if (index >= segment.firstIndex) {
+        return segment;
+      }
+    }
+    return null;
+  }
+
+  private Segment createSegment(long firstIndex) {
+    if (!mappedFilesFailed) {
+      File file = null;
+      RandomAccessFile raf = null;
+      try {
+        file = File.createTempFile("cooja-log", ".dat");
+        file.deleteOnExit();
+        raf = new RandomAccessFile(file, "rw");
+        ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+
+        /* The mapping remains valid after the file is closed and deleted */
+        if (file.delete()) {
+          file = null;
+        }
+        return new Segment(buffer, file, firstIndex);
+      } catch (IOException e) {
+        logger.warn("Could not create memory-mapped log store, using direct memory: " + e.getMessage());
+        mappedFilesFailed = true;
+        if (file != null) {
+          file.delete();
+        }
+      } finally {
+        if (raf != null) {
+          try {
+            raf.close();
+          } catch (IOException e) {
+          }
+        }
+      }
+    }
+    return new Segment(ByteBuffer.allocateDirect(segmentSize), null, firstIndex);
+  }
+}
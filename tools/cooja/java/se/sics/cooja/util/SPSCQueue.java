@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2013, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+
+package se.sics.cooja.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer
+ * thread.
+ *
+ * The producer only writes the tail counter and the consumer only writes the
+ * head counter, so neither side ever waits for the other: {@link #offer(Object)}
+ * fails instead of blocking when the queue is full, and {@link #poll()}
+ * returns null when the queue is empty.
+ *
+ * @param <E> Queue element type
+ */
+public class SPSCQueue<E> {
+
+  private final Object[] elements;
+  private final int mask;
+
+  private final AtomicLong head = new AtomicLong(); /* Next element to poll */
+  private final AtomicLong tail = new AtomicLong(); /* Next element to offer */
+
+  /* Local copies to avoid reading the other thread's counter on every call */
+  private long cachedHead = 0; /* Producer only */
+  private long cachedTail = 0; /* Consumer only */
+
+  /**
+   * @param capacity Minimum capacity, rounded up to a power of two
+   */
+  public SPSCQueue(int capacity) {
+    if (capacity <= 0 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("illegal capacity: " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    elements = new Object[size];
+    mask = size - 1;
+  }
+
+  public int capacity() {
+    return elements.length;
+  }
+
+  /**
+   * Adds element to queue. Must only be called from the producer thread.
+   *
+   * @param element Element, not null
+   * @return True if added, false if queue is full
+   */
+  public boolean offer(E element) {
+    if (element == null) {
+      throw new NullPointerException();
+    }
+    long t = tail.get();
+    if (t - cachedHead >= elements.length) {
+      cachedHead = head.get();
+      if (t - cachedHead >= elements.length) {
+        return false;
+      }
+    }
+    elements[(int) t & mask] = element;
+    tail.lazySet(t + 1);
+    return true;
+  }
+
+  /**
+   * Removes first element from queue. Must only be called from the consumer
+   * thread.
+   *
+   * @return Element, or null if queue is empty
+   */
+  @SuppressWarnings("unchecked")
+  public E poll() {
+    long h = head.get();
+    if (h >= cachedTail) {
+      cachedTail = tail.get();
+      if (h >= cachedTail) {
+        return null;
+      }
+    }
+    int pos = (int) h & mask;
+    E element = (E) elements[pos];
+    elements[pos] = null;
+    head.lazySet(h + 1);
+    return element;
+  }
+
+  /**
+   * @return Approximate number of queued elements (any thread)
+   */
+  public int size() {
+    long h = head.get();
+    long t = tail.get();
+    return (int) Math.max(0, t - h);
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2013, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+
+package se.sics.cooja.util;
+
+import java.util.Random;
+
+/**
+ * Random generator whose internal state can be read and restored.
+ *
+ * Generates the same sequences as {@link Random} for the same seed, so
+ * existing simulations behave as before. Used by simulation checkpoints to
+ * continue a restored simulation with exactly the same random numbers.
+ */
+public class SimulationRandom extends Random {
+  private static final long serialVersionUID = 1L;
+
+  private static final long MULTIPLIER = 0x5DEECE66DL;
+  private static final long ADDEND = 0xBL;
+  private static final long MASK = (1L << 48) - 1;
+
+  /* Note: no field initializers, as setSeed() is called by the super constructor */
+  private long state;
+  private boolean haveNextNextGaussian;
+  private double nextNextGaussian;
+
+  public SimulationRandom() {
+    super();
+  }
+
+  public SimulationRandom(long seed) {
+    super(seed);
+  }
+
+  public synchronized void setSeed(long seed) {
+    state = (seed ^ MULTIPLIER) & MASK;
+    haveNextNextGaussian = false;
+  }
+
+  protected synchronized int next(int bits) {
+    state = (state * MULTIPLIER + ADDEND) & MASK;
+    return (int) (state >>> (48 - bits));
+  }
+
+  public synchronized double nextGaussian() {
+    if (haveNextNextGaussian) {
+      haveNextNextGaussian = false;
+      return nextNextGaussian;
+    }
+    double v1, v2, s;
+    do {
+      v1 = 2 * nextDouble() - 1;
+      v2 = 2 * nextDouble() - 1;
+      s = v1 * v1 + v2 * v2;
+    } while (s >= 1 || s == 0);
+    double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s)/s);
+    nextNextGaussian = v2 * multiplier;
+    haveNextNextGaussian = true;
+    return v1 * multiplier;
+  }
+
+  /**
+   * @return Internal generator state
+   * @see #setState(long[])
+   */
+  public synchronized long[] getState() {
+    return new long[] {
+        state,
+        haveNextNextGaussian?1:0,
+        Double.doubleToRawLongBits(nextNextGaussian)
+    };
+  }
+
+  /**
+   * @param s Internal generator state
+   * @see #getState()
+   */
+  public synchronized void setState(long[] s) {
+    state = s[0] & MASK;
+    haveNextNextGaussian = s[1] != 0;
+    nextNextGaussian = Double.longBitsToDouble(s[2]);
+  }
+}